@@ -0,0 +1,105 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed 
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import freenet.crypt.DummyRandomSource;
+import freenet.crypt.RandomSource;
+import freenet.keys.FreenetURI;
+
+/**
+ * Base class for the JMH benchmarks of WoT: Opens a database and fills it with a random web of trust of the size given by the
+ * {@link Param} fields. Can be run with "ant jmh", see build.xml.
+ * 
+ * The random generator is seeded with a constant so the same graph is generated for each build, which allows comparing the
+ * JSON results of different builds.
+ * 
+ * Similar to {@link DatabaseBasedTest} but not a JUnit test: JMH creates the benchmark objects itself. Both use the
+ * {@link RandomWebOfTrustGenerator} to create the random web of trust.
+ * 
+ * @author xor (xor@freenetproject.org)
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractBenchmark {
+	
+	/** Amount of non-own identities in the database. */
+	@Param({"100", "1000"})
+	public int identityCount;
+	
+	/** Amount of own identities in the database, i.e. of trust trees which the score computation has to compute. */
+	@Param({"1", "5"})
+	public int ownIdentityCount;
+	
+	/** Average amount of trust values which each identity has given. */
+	@Param({"10"})
+	public int trustsPerIdentity;
+	
+	protected WebOfTrust mWoT;
+	
+	protected RandomSource mRandom;
+	
+	/** Uses {@link #mRandom}. */
+	protected RandomWebOfTrustGenerator mGenerator;
+	
+	protected ArrayList<Identity> mIdentities;
+	
+	protected ArrayList<OwnIdentity> mOwnIdentities;
+	
+	private File mDatabaseFile;
+	
+	@Setup(Level.Trial)
+	public void setUpDatabase() throws Exception {
+		mDatabaseFile = File.createTempFile(getClass().getSimpleName() + "-", ".db4o");
+		if(!mDatabaseFile.delete())
+			throw new IOException("Cannot delete " + mDatabaseFile);
+		
+		mWoT = new WebOfTrust(mDatabaseFile.getAbsolutePath());
+		mRandom = new DummyRandomSource(1234);
+		mGenerator = new RandomWebOfTrustGenerator(mWoT, mRandom);
+		
+		mIdentities = mGenerator.addRandomIdentities(identityCount);
+		mOwnIdentities = new ArrayList<OwnIdentity>(ownIdentityCount);
+		
+		for(int i=0; i < ownIdentityCount; ++i) {
+			final OwnIdentity ownIdentity = mWoT.createOwnIdentity(mGenerator.getRandomSSKPair()[0], "Benchmark" + i, true, "Benchmark");
+			mOwnIdentities.add(ownIdentity);
+			mIdentities.add(ownIdentity);
+		}
+		
+		mGenerator.addRandomTrustValues(mIdentities,
+			Math.min(identityCount * trustsPerIdentity, (mIdentities.size() * (mIdentities.size() - 1)) / 2));
+		
+		setUp();
+	}
+	
+	/**
+	 * Called after the random web of trust was created. Can be overridden to do additional setup of the database.
+	 */
+	protected void setUp() throws Exception {
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDownDatabase() {
+		mWoT.terminate();
+		mDatabaseFile.delete();
+	}
+	
+	protected FreenetURI getRandomRequestURI() {
+		return mGenerator.getRandomRequestURI();
+	}
+	
+	protected byte getRandomTrustValue() {
+		return mGenerator.getRandomTrustValue();
+	}
+}
@@ -0,0 +1,86 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed 
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import plugins.WebOfTrust.ui.fcp.FCPInterface;
+import freenet.pluginmanager.PluginReplySender;
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+
+/**
+ * Benchmarks the "GetIdentitiesByScore" FCP message, which is the most expensive query of {@link FCPInterface}:
+ * It serializes every identity of the trust tree into the reply.
+ * 
+ * @author xor (xor@freenetproject.org)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FCPInterfaceBenchmark extends AbstractBenchmark {
+	
+	/** Value of the "Selection" parameter of the FCP message: "+", "0" or "-". */
+	@Param({"+", "-"})
+	public String selection;
+	
+	@Param({"false", "true"})
+	public boolean wantTrustValues;
+	
+	/**
+	 * Consumes the replies of the FCP interface so they are not optimized away.
+	 */
+	private static final class BlackholeReplySender extends PluginReplySender {
+		Blackhole mBlackhole;
+		
+		BlackholeReplySender() {
+			super("FCPInterfaceBenchmark", "FCPInterfaceBenchmark");
+		}
+		
+		@Override
+		public void send(SimpleFieldSet params, Bucket bucket) {
+			sendSynchronous(params, bucket);
+		}
+		
+		@Override
+		public void sendSynchronous(SimpleFieldSet params, Bucket bucket) {
+			if(!"Identities".equals(params.get("Message")))
+				throw new IllegalStateException("Unexpected reply: " + params);
+			
+			mBlackhole.consume(params);
+		}
+	}
+	
+	private final BlackholeReplySender mReplySender = new BlackholeReplySender();
+	
+	private SimpleFieldSet mMessage;
+	
+	@Override
+	protected void setUp() {
+		mMessage = new SimpleFieldSet(true);
+		mMessage.putOverwrite("Message", "GetIdentitiesByScore");
+		mMessage.putOverwrite("Truster", mOwnIdentities.get(0).getID());
+		mMessage.putOverwrite("Selection", selection);
+		mMessage.putOverwrite("Context", "");
+		mMessage.put("WantTrustValues", wantTrustValues);
+	}
+	
+	@Benchmark
+	public void getIdentitiesByScore(Blackhole blackhole) {
+		mReplySender.mBlackhole = blackhole;
+		mWoT.getFCPInterface().handle(mReplySender, mMessage, null, 0);
+	}
+}
@@ -0,0 +1,94 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed 
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Persistent#serialize()} and {@link Persistent#deserialize(WebOfTrustInterface, byte[])}, which the
+ * {@link SubscriptionManager} uses for storing the objects of each notification.
+ * 
+ * The {@link PersistentCodec} which is used nowadays can be compared with the standard Java serialization which was used before
+ * with the "format" parameter.
+ * 
+ * The size of the random web of trust does not matter here, so you may want to restrict it with "-p identityCount=100".
+ * 
+ * @author xor (xor@freenetproject.org)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistentBenchmark extends AbstractBenchmark {
+	
+	/** The class of the serialized object. */
+	@Param({"Identity", "Trust", "Score"})
+	public String type;
+	
+	/** "PersistentCodec" for {@link Persistent#serialize()}, "JavaSerialization" for the format of old WoT versions. */
+	@Param({"PersistentCodec", "JavaSerialization"})
+	public String format;
+	
+	private Persistent mObject;
+	
+	private byte[] mSerialized;
+	
+	@Override
+	protected void setUp() {
+		if(type.equals("Identity"))
+			mObject = mIdentities.get(0).clone();
+		else if(type.equals("Trust"))
+			mObject = mWoT.getAllTrusts().next().clone();
+		else if(type.equals("Score"))
+			mObject = mWoT.getAllScores().next().clone();
+		else
+			throw new IllegalArgumentException("Unknown type: " + type);
+		
+		mSerialized = serialize();
+	}
+	
+	@Benchmark
+	public byte[] serialize() {
+		if(format.equals("PersistentCodec"))
+			return mObject.serialize();
+		else if(format.equals("JavaSerialization"))
+			return serializeWithJava(mObject);
+		else
+			throw new IllegalArgumentException("Unknown format: " + format);
+	}
+	
+	/**
+	 * The serialization which {@link Persistent#serialize()} used before the {@link PersistentCodec} was introduced.
+	 * {@link Persistent#deserialize(WebOfTrustInterface, byte[])} can still decode it.
+	 */
+	private static byte[] serializeWithJava(Persistent object) {
+		try {
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			final ObjectOutputStream ous = new ObjectOutputStream(bos);
+			ous.writeObject(object);
+			ous.flush();
+			return bos.toByteArray();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Benchmark
+	public Persistent deserialize() {
+		return Persistent.deserialize(mWoT, mSerialized);
+	}
+}
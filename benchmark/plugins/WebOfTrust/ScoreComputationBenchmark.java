@@ -0,0 +1,132 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed 
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plugins.WebOfTrust.exceptions.NotTrustedException;
+
+/**
+ * Benchmarks the full score computation {@link WebOfTrust#computeAllScoresWithoutCommit()} and the incremental one
+ * {@link WebOfTrust#updateScoresWithoutCommit(Trust, Trust)} which is triggered by creating, modifying and deleting a trust value.
+ * 
+ * Each invocation is committed so the database does not accumulate an uncommitted transaction. The incremental benchmarks modify
+ * the trust graph; the following invocation reverts the modification of the previous one so the graph stays the same on average.
+ * 
+ * @author xor (xor@freenetproject.org)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScoreComputationBenchmark extends AbstractBenchmark {
+	
+	/** The trust which is created / modified / deleted by the incremental benchmarks. Slot 0 is the truster, slot 1 the trustee. */
+	private Identity[] mPair;
+	
+	/** True if the trust of {@link #mPair} exists at the beginning of the invocation. */
+	private boolean mTrustExists;
+	
+	@Setup(Level.Iteration)
+	public void selectPair() {
+		// Use a trust from an own identity to a random identity so the change is visible in the trust tree.
+		final OwnIdentity truster = mOwnIdentities.get(mRandom.nextInt(mOwnIdentities.size()));
+		Identity trustee;
+		do {
+			trustee = mIdentities.get(mRandom.nextInt(mIdentities.size()));
+		} while(trustee == truster);
+		
+		mPair = new Identity[] { truster, trustee };
+		
+		try {
+			mWoT.getTrust(truster, trustee);
+			mTrustExists = true;
+		} catch(NotTrustedException e) {
+			mTrustExists = false;
+		}
+	}
+	
+	@TearDown(Level.Iteration)
+	public void verifyScores() {
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mWoT.getSubscriptionManager()) {
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			// The incremental computation must not have produced wrong results - otherwise the benchmark was meaningless.
+			if(!mWoT.computeAllScoresWithoutCommit())
+				throw new IllegalStateException("Incremental score computation produced wrong results");
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+		}
+		}
+		}
+		}
+	}
+	
+	@Benchmark
+	public boolean computeAllScores() {
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mWoT.getSubscriptionManager()) {
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			final boolean result = mWoT.computeAllScoresWithoutCommit();
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+			return result;
+		}
+		}
+		}
+		}
+	}
+	
+	/**
+	 * Alternates between creating and deleting the trust so each two invocations measure one creation and one deletion.
+	 */
+	@Benchmark
+	public void createAndDeleteTrust() throws Exception {
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mWoT.getSubscriptionManager()) {
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			if(mTrustExists)
+				mWoT.removeTrustWithoutCommit(mWoT.getTrust(mPair[0], mPair[1]));
+			else
+				mWoT.setTrustWithoutCommit(mPair[0], mPair[1], getRandomTrustValue(), "Benchmark");
+			
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+			mTrustExists = !mTrustExists;
+		}
+		}
+		}
+		}
+	}
+	
+	/**
+	 * Sets the trust to a random value. This measures modification of an existing trust except for the first invocation.
+	 */
+	@Benchmark
+	public void modifyTrust() throws Exception {
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mWoT.getSubscriptionManager()) {
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			mWoT.setTrustWithoutCommit(mPair[0], mPair[1], getRandomTrustValue(), "Benchmark");
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+			mTrustExists = true;
+		}
+		}
+		}
+		}
+	}
+}
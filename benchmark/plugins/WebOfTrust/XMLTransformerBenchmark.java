@@ -0,0 +1,108 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed 
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plugins.WebOfTrust.exceptions.NotTrustedException;
+import freenet.keys.FreenetURI;
+
+/**
+ * Benchmarks {@link XMLTransformer#importIdentity(FreenetURI, java.io.InputStream)} and
+ * {@link XMLTransformer#exportOwnIdentity(OwnIdentity, java.io.OutputStream)} with a trust list of
+ * {@link XMLTransformer#MAX_IDENTITY_XML_TRUSTEE_AMOUNT} trustees, which is the worst case.
+ * 
+ * The imported XML is the export of an own identity. It is imported as a new edition of a non-own identity which is trusted by
+ * the own identity, so the trust list is actually imported.
+ * 
+ * The parsing step of the import is also benchmarked separately for each of the parsers which
+ * {@link XMLTransformer#CONFIG_USE_STREAMING_IDENTITY_XML_PARSER} can select.
+ * 
+ * @author xor (xor@freenetproject.org)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMLTransformerBenchmark extends AbstractBenchmark {
+	
+	private OwnIdentity mExportedIdentity;
+	
+	private byte[] mXML;
+	
+	private Identity mImportedIdentity;
+	
+	private long mEdition = 0;
+	
+	@Override
+	protected void setUp() throws Exception {
+		// The trust list shall be full no matter how small the random graph is.
+		while(mIdentities.size() <= XMLTransformer.MAX_IDENTITY_XML_TRUSTEE_AMOUNT)
+			mIdentities.add(mWoT.addIdentity(getRandomRequestURI().toString()));
+		
+		mExportedIdentity = mOwnIdentities.get(0);
+		
+		int trusteeCount = 0;
+		for(Identity trustee : mIdentities) {
+			if(trusteeCount == XMLTransformer.MAX_IDENTITY_XML_TRUSTEE_AMOUNT)
+				break;
+			
+			if(trustee == mExportedIdentity)
+				continue;
+			
+			try {
+				mWoT.getTrust(mExportedIdentity, trustee);
+			} catch(NotTrustedException e) {
+				mWoT.setTrust(mExportedIdentity.getID(), trustee.getID(), getRandomTrustValue(), "Benchmark");
+			}
+			++trusteeCount;
+		}
+		
+		mImportedIdentity = mWoT.addIdentity(getRandomRequestURI().toString());
+		mWoT.setTrust(mExportedIdentity.getID(), mImportedIdentity.getID(), (byte)100, "Benchmark");
+		
+		mXML = exportOwnIdentity();
+	}
+	
+	@Benchmark
+	public byte[] exportOwnIdentity() throws Exception {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream(XMLTransformer.MAX_IDENTITY_XML_BYTE_SIZE);
+		mWoT.getXMLTransformer().exportOwnIdentity(mExportedIdentity, os);
+		return os.toByteArray();
+	}
+	
+	/**
+	 * Compare with {@link #parseIdentityXMLWithStAX()}. Run JMH with "-prof gc" to compare the allocation rate as well.
+	 */
+	@Benchmark
+	public Object parseIdentityXMLWithDOM() {
+		return mWoT.getXMLTransformer().parseIdentityXMLWithDOM(new ByteArrayInputStream(mXML));
+	}
+	
+	@Benchmark
+	public Object parseIdentityXMLWithStAX() {
+		return mWoT.getXMLTransformer().parseIdentityXMLWithStAX(new ByteArrayInputStream(mXML));
+	}
+	
+	/**
+	 * Each invocation imports a new edition because {@link XMLTransformer#importIdentity(FreenetURI, java.io.InputStream)} ignores
+	 * editions which were imported already.
+	 */
+	@Benchmark
+	public void importIdentity() {
+		final FreenetURI uri = mImportedIdentity.getRequestURI().setSuggestedEdition(++mEdition);
+		mWoT.getXMLTransformer().importIdentity(uri, new ByteArrayInputStream(mXML));
+	}
+}
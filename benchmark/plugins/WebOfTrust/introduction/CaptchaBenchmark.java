@@ -0,0 +1,90 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plugins.WebOfTrust.introduction.IntroductionPuzzleFactory.RenderedPuzzle;
+import plugins.WebOfTrust.introduction.captcha.CaptchaFactory1;
+import plugins.WebOfTrust.introduction.captcha.kaptcha.impl.DefaultKaptcha;
+import plugins.WebOfTrust.introduction.captcha.kaptcha.jhlabs.image.RowBands;
+import plugins.WebOfTrust.introduction.captcha.kaptcha.util.Config;
+import freenet.support.PooledExecutor;
+
+/**
+ * Measures how many captchas per second {@link CaptchaFactory1} can render, with and without the parallel mode of the filters,
+ * see {@link RowBands}. Does not need a database.
+ *
+ * To compare with a build before a change of the filters, run "ant jmh" with both builds and compare the JSON results.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CaptchaBenchmark {
+
+	/** The amount of threads which process the rows of an image, see {@link RowBands#setThreads(int)}. 1 means sequential. */
+	@Param({"1", "2", "4"})
+	public int rowBandThreads;
+
+	private CaptchaFactory1 mFactory;
+
+	private DefaultKaptcha mKaptcha;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final PooledExecutor executor = new PooledExecutor();
+		executor.start();
+		RowBands.setExecutor(executor);
+		RowBands.setThreads(rowBandThreads);
+
+		mFactory = new CaptchaFactory1();
+		mKaptcha = new DefaultKaptcha();
+		mKaptcha.setConfig(new Config(new Properties()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		RowBands.setThreads(1);
+		RowBands.setExecutor(null);
+	}
+
+	/**
+	 * Text rendering, the filters of the default {@link plugins.WebOfTrust.introduction.captcha.kaptcha.GimpyEngine} and the
+	 * noise, without JPEG encoding.
+	 */
+	@Benchmark
+	public BufferedImage createImage() {
+		return mKaptcha.createImage(mKaptcha.createText());
+	}
+
+	/**
+	 * Everything which the {@link IntroductionPuzzlePool} does for a puzzle, including JPEG encoding.
+	 */
+	@Benchmark
+	public RenderedPuzzle renderPuzzle() throws IOException {
+		return mFactory.renderPuzzle();
+	}
+}
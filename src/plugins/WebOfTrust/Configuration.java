@@ -26,6 +26,12 @@ public final class Configuration extends Persistent {
 	 */
 	private int mDatabaseFormatVersion;
 	
+	/**
+	 * The {@link Identity#getNumber()} which the next newly stored identity will receive. Stored in a primitive field for the
+	 * same reason as {@link #mDatabaseFormatVersion}.
+	 */
+	private int mNextIdentityNumber;
+	
 	/**
 	 * The {@link HashMap} that contains all {@link String} configuration parameters
 	 */
@@ -42,6 +48,7 @@ public final class Configuration extends Persistent {
 	 */
 	protected Configuration(WebOfTrust myWebOfTrust) {
 		mDatabaseFormatVersion = WebOfTrust.DATABASE_FORMAT_VERSION;
+		mNextIdentityNumber = 1;
 		mStringParams = new HashMap<String, String>();
 		mIntParams = new HashMap<String, Integer>();
 		initializeTransient(myWebOfTrust);
@@ -90,6 +97,22 @@ public final class Configuration extends Persistent {
 		mDatabaseFormatVersion = newVersion;
 	}
 
+	/**
+	 * Allocates a new {@link Identity#getNumber()} and stores this Configuration without committing the transaction.
+	 * Numbers of identities whose storage is rolled back are not re-used, they leave gaps.
+	 * 
+	 * You have to synchronize on the database when using this function, see {@link Identity#storeWithoutCommit()}.
+	 */
+	protected synchronized int allocateIdentityNumberWithoutCommit() {
+		checkedActivate(1); // int is a db4o primitive type so 1 is enough
+		if(mNextIdentityNumber < 1) // Databases of format version 3 did not have the field.
+			mNextIdentityNumber = 1;
+		
+		final int number = mNextIdentityNumber++;
+		checkedStore();
+		return number;
+	}
+
 	/**
 	 * Sets a String configuration parameter. You have to call storeAndCommit to write it to disk.
 	 * 
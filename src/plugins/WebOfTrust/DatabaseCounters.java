@@ -0,0 +1,339 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import plugins.WebOfTrust.introduction.IntroductionPuzzle;
+import plugins.WebOfTrust.introduction.IntroductionPuzzleStore;
+
+import com.db4o.ext.ExtObjectContainer;
+
+/**
+ * Counters of the amount of objects in the database, used by the functions which only need the size of a query result such as
+ * {@link WebOfTrust#getOwnIdentityCount()}, {@link WebOfTrust#getReceivedTrustCount(Identity, int)} and
+ * {@link IntroductionPuzzleStore#getOwnCatpchaAmount(boolean)}.
+ *
+ * Each of those used to execute a database query and take the size of its result, which is linear in the amount of matching
+ * objects. The statistics page and the FCP count functions did this on each request. The counters are instead updated by the
+ * functions which store and delete the counted objects, so reading them is O(1):
+ * - Global counters, see {@link Counter}.
+ * - For each {@link Identity}, the amount of given and received {@link Trust} values, split by the sign of the value. These are
+ *   kept in a bounded cache because there are many identities, see {@link #MAX_TRUST_COUNTS}.
+ *
+ * The counters are not stored in the database: A counter is computed with a query the first time it is used and maintained from
+ * then on. Thus no database format upgrade is necessary and a bug in the counting cannot corrupt the database.
+ * The counters which are not known yet are {@link #UNKNOWN}, the caller must then do the query and pass the result to
+ * {@link #initialize(Counter, long)} or {@link #putTrustCounts(Identity, int[])}.
+ *
+ * Consistency with the database:
+ * - Upon {@link Persistent#checkedCommit(ExtObjectContainer, Object)} the current values become the committed values.
+ * - Upon {@link Persistent#checkedRollback(ExtObjectContainer, Object, Throwable)} the committed values are restored and the per
+ *   identity counters which were modified in the transaction are discarded.
+ * - Counters which are computed within a transaction include its uncommitted changes. This is correct because a rollback
+ *   reverts them to {@link #UNKNOWN} respectively discards them.
+ * - {@link WebOfTrust#verifyDatabaseCounters()} compares the counters against the queries when WOT terminates.
+ *
+ * Synchronization: All functions are synchronized on the counters. The caller of the initialization functions must hold the lock
+ * which the writers of the counted objects hold so no one modifies them while the query runs: The {@link WebOfTrust} for
+ * identities, trusts and scores, the {@link IntroductionPuzzleStore} for puzzles.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class DatabaseCounters implements Persistent.TransactionListener {
+
+	/**
+	 * Value of counters which were not computed yet.
+	 */
+	public static final long UNKNOWN = -1;
+
+	/**
+	 * The maximal amount of identities whose trust counts are cached. One entry is roughly 100 bytes.
+	 */
+	static final int MAX_TRUST_COUNTS = 16 * 1024;
+
+	/* Indexes of the arrays of trust counts, see getTrustCounts() */
+	static final int GIVEN_NEGATIVE = 0;
+	static final int GIVEN_ZERO = 1;
+	static final int GIVEN_POSITIVE = 2;
+	static final int RECEIVED_NEGATIVE = 3;
+	static final int RECEIVED_ZERO = 4;
+	static final int RECEIVED_POSITIVE = 5;
+	static final int TRUST_COUNTS_LENGTH = 6;
+
+	/**
+	 * Value of the "select" parameter of {@link #getGivenTrustCount(int[], int)} and {@link #getReceivedTrustCount(int[], int)}
+	 * which counts all trust values.
+	 */
+	static final int ANY_SELECTION = Integer.MIN_VALUE;
+
+	/**
+	 * The global counters.
+	 */
+	public static enum Counter {
+		OwnIdentities,
+		NonOwnIdentities,
+		Trusts,
+		Scores,
+		UnsolvedOwnPuzzles,
+		SolvedOwnPuzzles,
+		UnsolvedNonOwnPuzzles,
+		SolvedNonOwnPuzzles;
+
+		public static Counter getPuzzleCounter(final boolean own, final boolean solved) {
+			if(own)
+				return solved ? SolvedOwnPuzzles : UnsolvedOwnPuzzles;
+			else
+				return solved ? SolvedNonOwnPuzzles : UnsolvedNonOwnPuzzles;
+		}
+	}
+
+	/** The current values of the {@link Counter}s, indexed by {@link Counter#ordinal()}. */
+	private final long[] mCounters = new long[Counter.values().length];
+
+	/** The values of the {@link Counter}s as of the last commit. */
+	private final long[] mCommittedCounters = new long[Counter.values().length];
+
+	/**
+	 * Key = {@link Identity#getID()}, value = The trust counts, see {@link #GIVEN_NEGATIVE} etc.
+	 * The LinkedHashMap is in access-order so the least recently used entry is evicted when the cache is full.
+	 */
+	private final LinkedHashMap<String, int[]> mTrustCounts = new LinkedHashMap<String, int[]>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+			return size() > MAX_TRUST_COUNTS;
+		}
+	};
+
+	/**
+	 * The keys of the entries of {@link #mTrustCounts} which were modified in the current transaction.
+	 */
+	private final HashSet<String> mDirtyTrustCounts = new HashSet<String>();
+
+
+	DatabaseCounters() {
+		clear();
+	}
+
+	/**
+	 * Forgets all counters so they are computed again when they are used the next time. Must be called if objects were modified
+	 * in the database without going through their storeWithoutCommit() / deleteWithoutCommit().
+	 */
+	synchronized void clear() {
+		for(int i = 0; i < mCounters.length; ++i) {
+			mCounters[i] = UNKNOWN;
+			mCommittedCounters[i] = UNKNOWN;
+		}
+
+		mTrustCounts.clear();
+		mDirtyTrustCounts.clear();
+	}
+
+	/**
+	 * @return The value of the given counter, {@link #UNKNOWN} if it was not computed yet. The caller must then query the
+	 * 	database and pass the result to {@link #initialize(Counter, long)}.
+	 */
+	public synchronized long get(final Counter counter) {
+		return mCounters[counter.ordinal()];
+	}
+
+	/**
+	 * Sets the value of a counter which was {@link #UNKNOWN} to the result of a database query.
+	 * 
+	 * The committed value is set to {@link #UNKNOWN}: The query includes the uncommitted changes of the current transaction, if
+	 * any, so it is not known whether the value is committed. A rollback thus makes the counter unknown again instead of restoring
+	 * a value which was committed before it was initialized. The next commit makes the value the committed one.
+	 */
+	public synchronized void initialize(final Counter counter, final long value) {
+		mCounters[counter.ordinal()] = value;
+		mCommittedCounters[counter.ordinal()] = UNKNOWN;
+	}
+
+	private void add(final Counter counter, final int delta) {
+		final int index = counter.ordinal();
+		if(mCounters[index] != UNKNOWN)
+			mCounters[index] += delta;
+	}
+
+	/**
+	 * @return A copy of the trust counts of the given identity, see {@link #GIVEN_NEGATIVE} etc. Null if they were not computed
+	 * 	yet. The caller must then query the database and pass the result to {@link #putTrustCounts(Identity, int[])}.
+	 */
+	synchronized int[] getTrustCounts(final Identity identity) {
+		final int[] counts = mTrustCounts.get(identity.getID());
+		return counts != null ? counts.clone() : null;
+	}
+
+	/**
+	 * Caches the trust counts of the given identity which were computed with database queries.
+	 */
+	synchronized void putTrustCounts(final Identity identity, final int[] counts) {
+		assert(counts.length == TRUST_COUNTS_LENGTH);
+		mTrustCounts.put(identity.getID(), counts.clone());
+		mDirtyTrustCounts.add(identity.getID());
+	}
+
+	/**
+	 * @return A copy of all cached trust counts. Used by {@link WebOfTrust#verifyDatabaseCounters()}.
+	 */
+	synchronized HashMap<String, int[]> getAllTrustCounts() {
+		final HashMap<String, int[]> result = new HashMap<String, int[]>(mTrustCounts.size() * 2);
+		for(Map.Entry<String, int[]> entry : mTrustCounts.entrySet())
+			result.put(entry.getKey(), entry.getValue().clone());
+		return result;
+	}
+
+	/**
+	 * @return The index of the given trust value in the trust counts, relative to {@link #GIVEN_NEGATIVE} or
+	 * 	{@link #RECEIVED_NEGATIVE}.
+	 */
+	private static int getSignIndex(final int value) {
+		return value < 0 ? 0 : (value == 0 ? 1 : 2);
+	}
+
+	private void addTrustCount(final Identity identity, final int index, final int delta) {
+		final int[] counts = mTrustCounts.get(identity.getID());
+		if(counts != null) {
+			counts[index] += delta;
+			mDirtyTrustCounts.add(identity.getID());
+		}
+	}
+
+	/**
+	 * @param select Same semantics as {@link WebOfTrust#getGivenTrusts(Identity, int)}, or {@link #ANY_SELECTION}.
+	 */
+	static int getGivenTrustCount(final int[] counts, final int select) {
+		return getTrustCount(counts, GIVEN_NEGATIVE, select);
+	}
+
+	/**
+	 * @param select Same semantics as {@link WebOfTrust#getReceivedTrusts(Identity, int)}, or {@link #ANY_SELECTION}.
+	 */
+	static int getReceivedTrustCount(final int[] counts, final int select) {
+		return getTrustCount(counts, RECEIVED_NEGATIVE, select);
+	}
+
+	private static int getTrustCount(final int[] counts, final int offset, final int select) {
+		final int negative = counts[offset];
+		final int zero = counts[offset + 1];
+		final int positive = counts[offset + 2];
+
+		if(select == ANY_SELECTION)
+			return negative + zero + positive;
+		else if(select > 0) // 0 is included in the positive range, see WebOfTrust.getGivenTrusts(Identity, int)
+			return zero + positive;
+		else if(select < 0)
+			return negative;
+		else
+			return zero;
+	}
+
+	/**
+	 * Must be called by {@link Identity#storeWithoutCommit()} if the identity was not stored before.
+	 */
+	synchronized void onIdentityCreated(final Identity identity) {
+		add(identity instanceof OwnIdentity ? Counter.OwnIdentities : Counter.NonOwnIdentities, 1);
+	}
+
+	/**
+	 * Must be called by {@link Identity#deleteWithoutCommit()} if the identity was stored.
+	 */
+	synchronized void onIdentityDeleted(final Identity identity) {
+		add(identity instanceof OwnIdentity ? Counter.OwnIdentities : Counter.NonOwnIdentities, -1);
+		mTrustCounts.remove(identity.getID());
+		mDirtyTrustCounts.add(identity.getID());
+	}
+
+	/**
+	 * Must be called by {@link Trust#storeWithoutCommit()} if the trust was not stored before.
+	 */
+	synchronized void onTrustCreated(final Trust trust) {
+		add(Counter.Trusts, 1);
+		final int sign = getSignIndex(trust.getValue());
+		addTrustCount(trust.getTruster(), GIVEN_NEGATIVE + sign, 1);
+		addTrustCount(trust.getTrustee(), RECEIVED_NEGATIVE + sign, 1);
+	}
+
+	/**
+	 * Must be called by {@link Trust#storeWithoutCommit()} if {@link Trust#setValue(byte)} changed the value of the stored trust.
+	 */
+	synchronized void onTrustValueChanged(final Trust trust, final int oldValue, final int newValue) {
+		final int oldSign = getSignIndex(oldValue);
+		final int newSign = getSignIndex(newValue);
+
+		if(oldSign == newSign)
+			return;
+
+		addTrustCount(trust.getTruster(), GIVEN_NEGATIVE + oldSign, -1);
+		addTrustCount(trust.getTruster(), GIVEN_NEGATIVE + newSign, 1);
+		addTrustCount(trust.getTrustee(), RECEIVED_NEGATIVE + oldSign, -1);
+		addTrustCount(trust.getTrustee(), RECEIVED_NEGATIVE + newSign, 1);
+	}
+
+	/**
+	 * Must be called by {@link Trust#deleteWithoutCommit()} if the trust was stored.
+	 * @param storedValue The value which was stored, not the one which {@link Trust#setValue(byte)} might have changed since.
+	 */
+	synchronized void onTrustDeleted(final Trust trust, final int storedValue) {
+		add(Counter.Trusts, -1);
+		final int sign = getSignIndex(storedValue);
+		addTrustCount(trust.getTruster(), GIVEN_NEGATIVE + sign, -1);
+		addTrustCount(trust.getTrustee(), RECEIVED_NEGATIVE + sign, -1);
+	}
+
+	/**
+	 * Must be called by {@link Score#storeWithoutCommit()} if the score was not stored before.
+	 */
+	synchronized void onScoreCreated() {
+		add(Counter.Scores, 1);
+	}
+
+	/**
+	 * Must be called by {@link Score#deleteWithoutCommit()} if the score was stored.
+	 */
+	synchronized void onScoreDeleted() {
+		add(Counter.Scores, -1);
+	}
+
+	/**
+	 * Must be called by {@link IntroductionPuzzle} when a puzzle is stored for the first time.
+	 */
+	public synchronized void onPuzzleCreated(final boolean own, final boolean solved) {
+		add(Counter.getPuzzleCounter(own, solved), 1);
+	}
+
+	/**
+	 * Must be called by {@link IntroductionPuzzle} when a stored puzzle is marked as solved.
+	 */
+	public synchronized void onPuzzleSolved(final boolean own) {
+		add(Counter.getPuzzleCounter(own, false), -1);
+		add(Counter.getPuzzleCounter(own, true), 1);
+	}
+
+	/**
+	 * Must be called by {@link IntroductionPuzzle} when a puzzle is deleted.
+	 */
+	public synchronized void onPuzzleDeleted(final boolean own, final boolean solved) {
+		add(Counter.getPuzzleCounter(own, solved), -1);
+	}
+
+	public synchronized void onCommit() {
+		System.arraycopy(mCounters, 0, mCommittedCounters, 0, mCounters.length);
+		mDirtyTrustCounts.clear();
+	}
+
+	public synchronized void onRollback() {
+		System.arraycopy(mCommittedCounters, 0, mCounters, 0, mCounters.length);
+
+		for(String key : mDirtyTrustCounts)
+			mTrustCounts.remove(key);
+
+		mDirtyTrustCounts.clear();
+	}
+}
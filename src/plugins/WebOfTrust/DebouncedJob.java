@@ -0,0 +1,175 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import freenet.node.PrioRunnable;
+import freenet.support.CurrentTimeUTC;
+import freenet.support.TrivialTicker;
+
+/**
+ * Executes a background job on a {@link TrivialTicker} shortly after work for it has arrived, see {@link #trigger()}.
+ *
+ * The job used to be queued with a fixed delay of a minute to give further work time to arrive so it can be processed at once.
+ * This class instead debounces: The job runs once no {@link #trigger()} has happened for the "delay" of the constructor, so a
+ * burst of work is still processed at once. To prevent a steady stream of work from postponing the job forever, it runs at most
+ * "maxDelay" milliseconds after the first trigger of the burst.
+ *
+ * Postponing is done lazily: {@link #trigger()} only queues the ticker job if it is not queued yet. When it executes and work has
+ * arrived meanwhile, it re-queues itself for the remaining time instead of running the job. Thus triggering is cheap enough for
+ * being called for each single piece of work.
+ *
+ * The job must call {@link #onJobStarted()} before it looks for work so work which arrives while it is running causes another run.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+final class DebouncedJob implements PrioRunnable {
+
+	private final Runnable mJob;
+
+	private final String mName;
+
+	private final int mPriority;
+
+	private final long mDelay;
+
+	private final long mMaxDelay;
+
+	/** Null if not started or stopped. */
+	private TrivialTicker mTicker = null;
+
+	/** The time of the first {@link #trigger()} since the job was started the last time. 0 if there was none. */
+	private long mFirstTriggerTime = 0;
+
+	/** The time of the last {@link #trigger()} since the job was started the last time. 0 if there was none. */
+	private long mLastTriggerTime = 0;
+
+	/** The time requested by {@link #triggerAfter(long)}, {@link Long#MAX_VALUE} if none. Not subject to debouncing. */
+	private long mFixedTime = Long.MAX_VALUE;
+
+	/** The time at which the ticker executes {@link #run()}. {@link Long#MAX_VALUE} if it is not queued. */
+	private long mScheduledTime = Long.MAX_VALUE;
+
+
+	/**
+	 * @param job Executed on the ticker. Must call {@link #onJobStarted()} before it looks for work.
+	 * @param priority See {@link PrioRunnable#getPriority()}.
+	 * @param delay The job is executed when no {@link #trigger()} has happened for this amount of milliseconds...
+	 * @param maxDelay ... but at most this amount of milliseconds after the first trigger.
+	 */
+	DebouncedJob(final Runnable job, final String name, final int priority, final long delay, final long maxDelay) {
+		mJob = job;
+		mName = name;
+		mPriority = priority;
+		mDelay = delay;
+		mMaxDelay = Math.max(delay, maxDelay);
+	}
+
+	/**
+	 * Allows the triggering functions to queue the job on the given ticker. Triggers which happened before are processed.
+	 */
+	synchronized void start(final TrivialTicker ticker) {
+		mTicker = ticker;
+		schedule();
+	}
+
+	/**
+	 * Triggers do not have any effect anymore after this was called. Does not abort the job if it is queued or running already:
+	 * The caller should shut down the ticker for that.
+	 */
+	synchronized void stop() {
+		mTicker = null;
+		mScheduledTime = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Schedules the job because new work has arrived. It is executed after the debouncing delay, see the class description.
+	 */
+	synchronized void trigger() {
+		final long now = CurrentTimeUTC.getInMillis();
+		if(mFirstTriggerTime == 0)
+			mFirstTriggerTime = now;
+		mLastTriggerTime = now;
+
+		schedule();
+	}
+
+	/**
+	 * Schedules the job to be executed after the given delay at the latest. Used for retries of failed work and for work which
+	 * shall not be debounced. Does not postpone the job if it is due earlier.
+	 */
+	synchronized void triggerAfter(final long delay) {
+		mFixedTime = Math.min(mFixedTime, CurrentTimeUTC.getInMillis() + Math.max(0, delay));
+		schedule();
+	}
+
+	/**
+	 * Schedules the job to be executed as soon as possible.
+	 */
+	void triggerNow() {
+		triggerAfter(0);
+	}
+
+	/**
+	 * Must be called by the job before it looks for work. Triggers which happen afterwards cause another run.
+	 */
+	synchronized void onJobStarted() {
+		mFirstTriggerTime = 0;
+		mLastTriggerTime = 0;
+		mFixedTime = Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return The time at which the job should be executed according to the triggers. {@link Long#MAX_VALUE} if it is not needed.
+	 */
+	private long getDueTime() {
+		long due = mFixedTime;
+
+		if(mFirstTriggerTime != 0)
+			due = Math.min(due, Math.min(mLastTriggerTime + mDelay, mFirstTriggerTime + mMaxDelay));
+
+		return due;
+	}
+
+	/**
+	 * Queues {@link #run()} on the ticker if it is not queued or queued for a later time than {@link #getDueTime()}.
+	 * If it is queued for an earlier time, {@link #run()} will re-queue itself.
+	 */
+	private void schedule() {
+		final long due = getDueTime();
+
+		if(mTicker == null || due >= mScheduledTime)
+			return;
+
+		mScheduledTime = due;
+		mTicker.rescheduleTimedJob(this, mName, Math.max(0, due - CurrentTimeUTC.getInMillis()));
+	}
+
+	/**
+	 * Executed by the ticker. Executes the job if it is due, re-queues itself otherwise.
+	 */
+	public void run() {
+		synchronized(this) {
+			mScheduledTime = Long.MAX_VALUE;
+
+			if(mTicker == null)
+				return;
+
+			final long due = getDueTime();
+			if(due == Long.MAX_VALUE) // The job was executed by someone else meanwhile, see onJobStarted().
+				return;
+
+			if(due > CurrentTimeUTC.getInMillis()) { // Work has arrived since we were queued.
+				schedule();
+				return;
+			}
+		}
+
+		mJob.run();
+	}
+
+	/** {@inheritDoc} */
+	public int getPriority() {
+		return mPriority;
+	}
+}
@@ -11,10 +11,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
+import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
+
+import com.db4o.ObjectSet;
+import com.db4o.query.Query;
+
 import freenet.keys.FreenetURI;
 import freenet.keys.USK;
 import freenet.support.Base64;
@@ -48,6 +54,29 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 	@IndexedField
 	protected final String mID;
 	
+	/**
+	 * A small number which is unique among all identities in the database, see {@link #getNumber()}. 0 until the identity is stored.
+	 */
+	protected int mNumber;
+	
+	/**
+	 * Value of {@link #mBestScore} if the identity has no {@link Score}, i.e. is not in the trust tree of any {@link OwnIdentity}.
+	 * No real score can have this value because score values are bounded by the trust values.
+	 */
+	public static transient final int NO_SCORE = Integer.MIN_VALUE;
+	
+	/**
+	 * The maximum of the values of all {@link Score}s of this identity, {@link #NO_SCORE} if it has none.
+	 * Maintained by {@link Score#storeWithoutCommit()} and {@link Score#deleteWithoutCommit()} so getting the best score does not
+	 * need to query the scores. Indexed for querying identities by best score, see
+	 * {@link WebOfTrust#getAllNonOwnIdentitiesWithBestScoreAtLeast(int)}.
+	 */
+	@IndexedField
+	protected int mBestScore = NO_SCORE;
+	
+	/** The maximum of the capacities of all {@link Score}s of this identity, 0 if it has none. Maintained like {@link #mBestScore}. */
+	protected int mBestCapacity = 0;
+	
 	/** The USK requestURI used to fetch this identity from Freenet. It's edition number is the one of the data which we have currently stored
 	 * in the database (the values of this identity, trust values, etc.) if mCurrentEditionFetchState is Fetched or ParsingFailed, otherwise it
 	 * is the next edition number which should be downloaded. */
@@ -266,6 +295,47 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 		this(myWoT, new FreenetURI(newRequestURI), newNickname, doesPublishTrustList);
 	}
 
+	/**
+	 * Decodes an Identity which was written by {@link #encode(PersistentCodec.Encoder)}.
+	 * Only for being used by {@link PersistentCodec}, the values are not validated like in the other constructors.
+	 */
+	Identity(WebOfTrustInterface myWoT, PersistentCodec.Decoder in) throws IOException {
+		initializeTransient(myWoT);
+
+		mRequestURI = in.readURI();
+		// mRequestURI is a request URI so this yields the same as IdentityID.constructAndValidateFromURI() without the
+		// exception which it throws internally when trying to derive the request URI.
+		mID = Base64.encode(mRequestURI.getRoutingKey());
+		mNumber = in.readVarInt();
+		if(in.getFormatVersion() >= 2) {
+			mBestScore = in.readSignedVarInt();
+			mBestCapacity = in.readVarInt();
+		} else
+			mBestScore = NO_SCORE; // Version 1 did not encode the best score, the identity behaves as if it had no scores.
+
+		final int fetchState = in.readVarInt();
+		if(fetchState >= FetchState.values().length)
+			throw new IOException("Invalid FetchState: " + fetchState);
+		mCurrentEditionFetchState = FetchState.values()[fetchState];
+
+		mLatestEditionHint = in.readVarLong();
+		mCreationDate = in.readDate();
+		mLastFetchedDate = in.readDate();
+		mLastChangedDate = in.readDate();
+		mNickname = in.readString();
+		mDoesPublishTrustList = in.readBoolean();
+
+		final int contextCount = in.readVarInt();
+		mContexts = new ArrayList<String>(Math.min(contextCount, MAX_CONTEXT_AMOUNT));
+		for(int i=0; i < contextCount; ++i)
+			mContexts.add(in.readString());
+
+		final int propertyCount = in.readVarInt();
+		mProperties = new HashMap<String, String>(Math.min(propertyCount, MAX_PROPERTY_AMOUNT) * 2);
+		for(int i=0; i < propertyCount; ++i)
+			mProperties.put(in.readString(), in.readString());
+	}
+
 	/**
 	 * Gets this Identity's ID, which is the routing key of the author encoded with the Freenet-variant of Base64.
 	 * We use this to identify identities and perform requests on the database.
@@ -916,6 +986,124 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 		activateProperties();
 	}
 	
+	@Override
+	protected void refreshAfterRollback() {
+		mDB.refresh(this, 4); // Same as activateFully()
+		
+		synchronized(this) {
+			// mProperties might have been replaced by the one of the database, which needs the workaround of activateProperties() again.
+			mPropertiesActivated = false;
+		}
+	}
+	
+	/**
+	 * Gets the number of this identity. Identity numbers are assigned when an identity is stored for the first time, counting up from 1,
+	 * see {@link Configuration#allocateIdentityNumberWithoutCommit()}. Thus they are dense and can be used as array index or as
+	 * primitive key instead of the much longer {@link #getID()}, for example by {@link TrustGraph} and {@link ScoreCache}.
+	 * 
+	 * ATTENTION: The number is a property of the database object, not of the identity ID: If an identity is deleted and created again,
+	 * for example when converting it between {@link Identity} and {@link OwnIdentity}, it receives a new number.
+	 * 
+	 * @return The number of this identity, 0 if it has not been stored yet.
+	 */
+	public final int getNumber() {
+		checkedActivate(1); // int is a db4o primitive type so 1 is enough
+		return mNumber;
+	}
+	
+	/**
+	 * @return The best value of all {@link Score}s of this identity, see {@link WebOfTrust#getBestScore(Identity)}.
+	 * @throws NotInTrustTreeException If the identity has no score.
+	 */
+	public final int getBestScore() throws NotInTrustTreeException {
+		checkedActivate(1); // int is a db4o primitive type so 1 is enough
+		if(mBestScore == NO_SCORE)
+			throw new NotInTrustTreeException(this);
+		return mBestScore;
+	}
+	
+	/**
+	 * @return The best capacity of all {@link Score}s of this identity, see {@link WebOfTrust#getBestCapacity(Identity)}.
+	 * @throws NotInTrustTreeException If the identity has no score.
+	 */
+	public final int getBestCapacity() throws NotInTrustTreeException {
+		checkedActivate(1); // int is a db4o primitive type so 1 is enough
+		if(mBestScore == NO_SCORE)
+			throw new NotInTrustTreeException(this);
+		return mBestCapacity;
+	}
+	
+	/**
+	 * Updates {@link #mBestScore} / {@link #mBestCapacity} after the given score of this identity was stored.
+	 * If the score is at least as good as the current best values it becomes the best one, otherwise it might have been the best
+	 * one before and decreased so the best values are computed from all scores again.
+	 */
+	final void onScoreStoredWithoutCommit(final Score score) {
+		checkedActivate(1);
+		
+		if(score.getScore() >= mBestScore && score.getCapacity() >= mBestCapacity)
+			setBestScoreWithoutCommit(score.getScore(), score.getCapacity());
+		else
+			updateBestScoreWithoutCommit();
+	}
+	
+	/**
+	 * Updates {@link #mBestScore} / {@link #mBestCapacity} after the given score of this identity was deleted.
+	 * Nothing needs to be computed if the score was worse than the best values in both regards.
+	 */
+	final void onScoreDeletedWithoutCommit(final Score score) {
+		checkedActivate(1);
+		
+		// The scores of an identity are deleted before or after it is deleted itself. Storing it again would resurrect it.
+		if(!mDB.isStored(this))
+			return;
+		
+		if(score.getScore() < mBestScore && score.getCapacity() < mBestCapacity)
+			return;
+		
+		updateBestScoreWithoutCommit();
+	}
+	
+	/**
+	 * Computes {@link #mBestScore} / {@link #mBestCapacity} from all {@link Score}s of this identity and stores them.
+	 * Used when the best values might have decreased and by {@link WebOfTrust#upgradeDB()}.
+	 */
+	final void updateBestScoreWithoutCommit() {
+		final int[] best = queryBestScoreAndCapacity();
+		setBestScoreWithoutCommit(best[0], best[1]);
+	}
+	
+	/**
+	 * @return The best score value at index 0 and the best capacity at index 1, computed from all {@link Score}s of this identity.
+	 */
+	private int[] queryBestScoreAndCapacity() {
+		final Query q = mDB.query();
+		q.constrain(Score.class);
+		q.descend("mTrustee").constrain(this).identity();
+		
+		final ObjectSet<Score> scores = new Persistent.InitializingObjectSet<Score>(mWebOfTrust, q);
+		
+		int bestScore = NO_SCORE;
+		int bestCapacity = 0;
+		for(final Score score : scores) {
+			bestScore = Math.max(score.getScore(), bestScore);
+			bestCapacity = Math.max(score.getCapacity(), bestCapacity);
+		}
+		return new int[] { bestScore, bestCapacity };
+	}
+	
+	private void setBestScoreWithoutCommit(final int bestScore, final int bestCapacity) {
+		checkedActivate(1);
+		
+		if(mBestScore == bestScore && mBestCapacity == bestCapacity)
+			return;
+		
+		mBestScore = bestScore;
+		mBestCapacity = bestCapacity;
+		// Only the primitive members changed so there is no need for the full storeWithoutCommit().
+		checkedStore();
+	}
+	
 	/**
 	 * Clones this identity. Does <b>not</b> clone the {@link Date} attributes, they are initialized to the current time!
 	 */
@@ -932,6 +1120,9 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 			clone.mLatestEditionHint = getLatestEditionHint(); // Don't use the setter since it won't lower the current edition hint.
 			clone.setContexts(getContexts());
 			clone.setProperties(getProperties());
+			clone.mNumber = getNumber();
+			clone.mBestScore = mBestScore;
+			clone.mBestCapacity = mBestCapacity;
 			
 			return clone;
 			
@@ -953,6 +1144,12 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 	protected void storeWithoutCommit() {
 		try {
 			activateFully();
+			
+			final boolean isNew = !mDB.isStored(this);
+			
+			// If it is not stored, the number might be left over from a rolled back transaction and re-used by now.
+			if((mNumber == 0 || isNew) && mWebOfTrust instanceof WebOfTrust)
+				mNumber = ((WebOfTrust)mWebOfTrust).getConfig().allocateIdentityNumberWithoutCommit();
 
 			// checkedStore(mID); /* Not stored because db4o considers it as a primitive and automatically stores it. */
 			checkedStore(mRequestURI);
@@ -964,12 +1161,48 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 			checkedStore(mProperties);
 			checkedStore(mContexts);
 			checkedStore();
+			storeContextsWithoutCommit(isNew);
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(isNew && counters != null)
+				counters.onIdentityCreated(this);
 		}
 		catch(final RuntimeException e) {
 			checkedRollbackAndThrow(e);
 		}
 	}
 	
+	/**
+	 * @return The {@link IdentityContext} objects of this identity which are stored in the database.
+	 */
+	private ObjectSet<IdentityContext> getStoredContexts() {
+		final Query q = mDB.query();
+		q.constrain(IdentityContext.class);
+		q.descend("mIdentity").constrain(this).identity();
+		return new Persistent.InitializingObjectSet<IdentityContext>(mWebOfTrust, q);
+	}
+	
+	/**
+	 * Makes the stored {@link IdentityContext} objects match {@link #mContexts}: The context setters only modify the list in
+	 * memory so the index is updated when the list is stored.
+	 * 
+	 * @param isNew True if this identity was not stored before. Then there are no IdentityContext objects yet and the query for
+	 *     them is skipped.
+	 */
+	private void storeContextsWithoutCommit(final boolean isNew) {
+		final HashSet<String> missingContexts = new HashSet<String>(mContexts);
+		
+		if(!isNew) {
+			for(IdentityContext stored : getStoredContexts()) {
+				if(!missingContexts.remove(stored.getContext()))
+					stored.deleteWithoutCommit();
+			}
+		}
+		
+		for(String context : missingContexts)
+			new IdentityContext(mWebOfTrust, this, context).storeWithoutCommit();
+	}
+	
 	/**
 	 * Locks the WoT and the database and stores the identity.
 	 */
@@ -993,6 +1226,8 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 	 */
 	protected void deleteWithoutCommit() {
 		try {
+			final boolean wasStored = mDB.isStored(this);
+			
 			activateFully();
 			
 			// checkedDelete(mID); /* Not stored because db4o considers it as a primitive and automatically stores it. */
@@ -1004,7 +1239,13 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 			// checkedDelete(mDoesPublishTrustList); /* Not stored because db4o considers it as a primitive and automatically stores it. */
 			checkedDelete(mProperties);
 			checkedDelete(mContexts);
+			for(IdentityContext context : getStoredContexts())
+				context.deleteWithoutCommit();
 			checkedDelete();
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(counters != null && wasStored)
+				counters.onIdentityDeleted(this);
 		}
 		catch(RuntimeException e) {
 			checkedRollbackAndThrow(e);
@@ -1062,6 +1303,17 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 		if(mContexts.size() > MAX_CONTEXT_AMOUNT)
 			throw new IllegalStateException("Too many contexts: " + mContexts.size());
 		
+		// Clones and decoded copies, for example the ones of Notifications, are not stored and thus have no stored objects.
+		if(mDB.isStored(this)) {
+			if(getStoredContexts().size() != mContexts.size())
+				throw new IllegalStateException("IdentityContext objects do not match the contexts: " + mContexts);
+			
+			final int[] best = queryBestScoreAndCapacity();
+			if(mBestScore != best[0] || mBestCapacity != best[1])
+				throw new IllegalStateException("Wrong best score / capacity: " + mBestScore + " / " + mBestCapacity
+						+ "; should be: " + best[0] + " / " + best[1]);
+		}
+		
 		if(mProperties.size() > MAX_PROPERTY_AMOUNT)
 			throw new IllegalStateException("Too many properties: " + mProperties.size());
 			
@@ -1073,4 +1325,35 @@ public class Identity extends Persistent implements Cloneable, Serializable {
 		activateFully();
 		stream.defaultWriteObject();
 	}
+
+	/**
+	 * Writes the members of this Identity for {@link PersistentCodec}. The ID is not written since it can be derived from the request URI.
+	 *
+	 * @see #Identity(WebOfTrustInterface, PersistentCodec.Decoder) The inverse function.
+	 */
+	void encode(PersistentCodec.Encoder out) {
+		activateFully();
+
+		out.writeURI(mRequestURI);
+		out.writeVarLong(mNumber);
+		out.writeSignedVarLong(mBestScore);
+		out.writeVarLong(mBestCapacity);
+		out.writeVarLong(mCurrentEditionFetchState.ordinal());
+		out.writeVarLong(mLatestEditionHint);
+		out.writeDate(mCreationDate);
+		out.writeDate(mLastFetchedDate);
+		out.writeDate(mLastChangedDate);
+		out.writeString(mNickname);
+		out.writeBoolean(mDoesPublishTrustList);
+
+		out.writeVarLong(mContexts.size());
+		for(String context : mContexts)
+			out.writeString(context);
+
+		out.writeVarLong(mProperties.size());
+		for(Entry<String, String> property : mProperties.entrySet()) {
+			out.writeString(property.getKey());
+			out.writeString(property.getValue());
+		}
+	}
 }
@@ -0,0 +1,101 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.io.Serializable;
+
+import com.db4o.query.Query;
+
+
+/**
+ * Index entry which says that an {@link Identity} has a certain context, see {@link Identity#addContext(String)}.
+ *
+ * The contexts of an identity are stored in an ArrayList of the identity. db4o cannot query the contents of that list, so
+ * queries for identities with a given context would have to activate the context list of every identity. Therefore, for
+ * each context of each identity, one object of this class is stored, which has indexes on both the identity and the context.
+ *
+ * The objects are created and deleted by {@link Identity#storeWithoutCommit()} and {@link Identity#deleteWithoutCommit()}:
+ * {@link Identity#addContext(String)} / {@link Identity#removeContext(String)} / {@link Identity#setContexts(java.util.List)}
+ * only modify the in-memory list, which is not persisted before the identity is stored either.
+ *
+ * Example query for all identities which have a certain context:
+ * <code>
+ * final Query query = mDB.query();
+ * query.constrain(IdentityContext.class);
+ * query.descend("mContext").constrain(context);
+ * final ObjectSet<Identity> result = new Persistent.InitializingObjectSet<Identity>(this, query.descend("mIdentity"));
+ * </code>
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class IdentityContext extends Persistent implements Serializable {
+
+	/** @see Serializable */
+	private static transient final long serialVersionUID = 1L;
+
+	/** The identity which has the context */
+	@IndexedField
+	private final Identity mIdentity;
+
+	/** The name of the context. Trimmed and validated by {@link Identity#addContext(String)}. */
+	@IndexedField
+	private final String mContext;
+
+
+	protected IdentityContext(WebOfTrustInterface myWoT, Identity identity, String context) {
+		initializeTransient(myWoT);
+
+		if(identity == null)
+			throw new NullPointerException();
+
+		if(context == null)
+			throw new NullPointerException();
+
+		mIdentity = identity;
+		mContext = context;
+	}
+
+	/** @return The identity which has the context. */
+	public Identity getIdentity() {
+		checkedActivate(1);
+		mIdentity.initializeTransient(mWebOfTrust);
+		return mIdentity;
+	}
+
+	/** @return The name of the context. */
+	public String getContext() {
+		checkedActivate(1); // String is a db4o primitive type so 1 is enough
+		return mContext;
+	}
+
+	/**
+	 * @return The ID of the identity, an "@" and the context. Not stored in the database, there is no need to query by it.
+	 */
+	@Override
+	public String getID() {
+		return getIdentity().getID() + "@" + getContext();
+	}
+
+	@Override
+	public void startupDatabaseIntegrityTest() throws Exception {
+		checkedActivate(1);
+
+		if(mIdentity == null)
+			throw new NullPointerException("mIdentity==null");
+
+		if(mContext == null)
+			throw new NullPointerException("mContext==null");
+
+		if(!getIdentity().hasContext(mContext))
+			throw new IllegalStateException("Identity does not have the context: " + mIdentity);
+
+		final Query q = mDB.query();
+		q.constrain(IdentityContext.class);
+		q.descend("mIdentity").constrain(mIdentity).identity();
+		q.descend("mContext").constrain(mContext);
+		if(q.execute().size() != 1)
+			throw new IllegalStateException("Duplicate IdentityContext objects for " + mIdentity + ": " + mContext);
+	}
+
+}
@@ -8,10 +8,13 @@ package plugins.WebOfTrust;
 
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 
 import plugins.WebOfTrust.Identity.FetchState;
 import plugins.WebOfTrust.Identity.IdentityID;
+import plugins.WebOfTrust.XMLTransformer.ParsedIdentityXML;
 import plugins.WebOfTrust.exceptions.UnknownIdentityException;
 
 import com.db4o.ObjectSet;
@@ -32,6 +35,7 @@ import freenet.node.RequestClient;
 import freenet.node.RequestStarter;
 import freenet.pluginmanager.PluginRespirator;
 import freenet.support.CurrentTimeUTC;
+import freenet.support.Executor;
 import freenet.support.Logger;
 import freenet.support.TrivialTicker;
 import freenet.support.api.Bucket;
@@ -57,7 +61,37 @@ import freenet.support.io.NativeThread;
  */
 public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable {
 	
-	private static final long PROCESS_COMMANDS_DELAY = 60 * 1000;
+	/**
+	 * The commands are processed once no further command has been stored for this amount of milliseconds: Trust list imports
+	 * typically store many of them at once. See {@link DebouncedJob}.
+	 */
+	private static final long PROCESS_COMMANDS_DELAY = 1 * 1000;
+	
+	/**
+	 * If commands keep being stored, they are processed at most this amount of milliseconds after the first of them.
+	 */
+	private static final long PROCESS_COMMANDS_MAX_DELAY = 10 * 1000;
+	
+	/**
+	 * The maximal amount of fetched identity XML files which wait for being imported in {@link #mImportQueue}. If the queue is full,
+	 * the thread which delivers the fetch result imports it itself. This limits the amount of buckets we keep open.
+	 */
+	private static final int MAX_QUEUED_IMPORTS = 64;
+	
+	/**
+	 * Name of the integer {@link Configuration} parameter which specifies how many parsed identity XML files are imported within a
+	 * single transaction, see {@link #importPendingImports()}. Values smaller than 2 disable batching. Defaults to
+	 * {@link #DEFAULT_IMPORT_BATCH_SIZE}. Read once when the IdentityFetcher is created.
+	 */
+	public static final String CONFIG_IMPORT_BATCH_SIZE = "IdentityFetcher.ImportBatchSize";
+	
+	private static final int DEFAULT_IMPORT_BATCH_SIZE = 32;
+	
+	/**
+	 * The maximal time in milliseconds which a parsed identity XML file waits in {@link #mPendingImports} if the batch does not
+	 * become full.
+	 */
+	private static final long IMPORT_BATCH_DELAY = 10 * 1000;
 	
 	private final WebOfTrust mWoT;
 	
@@ -78,6 +112,50 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 	
 	private volatile TrivialTicker mTicker;
 	
+	/** Executes {@link #run()} on {@link #mTicker} after commands were stored, see {@link #scheduleCommandProcessing()}. */
+	private final DebouncedJob mProcessCommandsJob = new DebouncedJob(this, "WoT IdentityFetcher", NativeThread.LOW_PRIORITY,
+			PROCESS_COMMANDS_DELAY, PROCESS_COMMANDS_MAX_DELAY);
+	
+	/**
+	 * Executes the {@link ImportJob}s which parse and import fetched identity XML files, see {@link #onFound(USK, long, FetchResult)}.
+	 * The executor of the node, set by {@link #start()} and cleared by {@link #stop()}.
+	 */
+	private volatile Executor mImportExecutor;
+	
+	/**
+	 * Fetched identity XML files which wait for an {@link ImportJob}. Bounded by {@link #MAX_QUEUED_IMPORTS}.
+	 * Synchronize on the list itself when accessing it or {@link #mRunningImportJobs}. Do not take any other locks while holding its lock.
+	 */
+	private final LinkedList<ImportTask> mImportQueue = new LinkedList<ImportTask>();
+	
+	/**
+	 * The amount of {@link ImportJob}s which are running on {@link #mImportExecutor}. Bounded by {@link #mMaxImportJobs}.
+	 */
+	private int mRunningImportJobs = 0;
+	
+	/**
+	 * The maximal amount of {@link ImportJob}s: One less than the amount of processors, so the node keeps one for itself.
+	 */
+	private final int mMaxImportJobs = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	
+	/** @see #CONFIG_IMPORT_BATCH_SIZE */
+	private final int mImportBatchSize;
+	
+	/**
+	 * Parsed identity XML files which wait for being imported as a batch by {@link #importPendingImports()}.
+	 * Synchronize on the list itself when accessing it. Do not take any other locks while holding its lock.
+	 */
+	private final ArrayList<PendingImport> mPendingImports = new ArrayList<PendingImport>();
+	
+	/**
+	 * Queued on {@link #mTicker} to import {@link #mPendingImports} if the batch does not become full within {@link #IMPORT_BATCH_DELAY}.
+	 */
+	private final Runnable mImportPendingImportsJob = new Runnable() {
+		public void run() {
+			importPendingImports();
+		}
+	};
+	
 	/* Statistics */
 	
 	/**
@@ -130,6 +208,10 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 		
 		mRequestClient = mWoT.getRequestClient();
 		
+		final Configuration config = mWoT.getConfig();
+		mImportBatchSize = (config != null && config.containsInt(CONFIG_IMPORT_BATCH_SIZE)) 
+			? config.getInt(CONFIG_IMPORT_BATCH_SIZE) : DEFAULT_IMPORT_BATCH_SIZE;
+		
 		mStartupTimeMilliseconds = CurrentTimeUTC.getInMillis();
 	}
 	
@@ -328,7 +410,7 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 	
 	private void scheduleCommandProcessing() {
 		if(mTicker != null)
-			mTicker.queueTimedJob(this, "WoT IdentityFetcher", PROCESS_COMMANDS_DELAY, false, true);
+			mProcessCommandsJob.trigger();
 		else
 			Logger.warning(this, "Cannot schedule command processing: Ticker is null.");
 	}
@@ -342,6 +424,7 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 		synchronized(this) {
 		synchronized(Persistent.transactionLock(mDB)) {
 			try  {
+				mProcessCommandsJob.onJobStarted();
 				if(logDEBUG) Logger.debug(this, "Processing identity fetcher commands ...");
 				
 				for(IdentityFetcherCommand command : getCommands(AbortFetchCommand.class)) {
@@ -507,6 +590,9 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 		deleteAllCommands();
 		
 		mTicker = new TrivialTicker(mWoT.getPluginRespirator().getNode().executor); 
+		mProcessCommandsJob.start(mTicker);
+		
+		mImportExecutor = mWoT.getPluginRespirator().getNode().executor;
 	}
 	
 	/**
@@ -515,11 +601,27 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 	protected synchronized void stop() {
 		if(logDEBUG) Logger.debug(this, "Trying to stop all requests");
 		
+		mProcessCommandsJob.stop();
+		
 		if(mTicker != null) {
 			mTicker.shutdown();
 			mTicker = null;
 		}
 		
+		// Don't wait for running imports: They need our lock. They will notice that mRequests is empty.
+		// The ImportJobs terminate once the queue is empty.
+		mImportExecutor = null;
+		synchronized(mImportQueue) {
+			for(ImportTask queued : mImportQueue)
+				queued.discard();
+			mImportQueue.clear();
+		}
+		
+		synchronized(mPendingImports) {
+			// They would be dropped by importPendingImports() anyway because mRequests will be empty.
+			mPendingImports.clear();
+		}
+		
 		USKRetriever[] retrievers = mRequests.values().toArray(new USKRetriever[mRequests.size()]);		
 		int counter = 0;		 
 		for(USKRetriever r : retrievers) {
@@ -534,6 +636,12 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 
 	/**
 	 * Called when an identity is successfully fetched.
+	 * 
+	 * Hands the fetched XML to an {@link ImportJob} on {@link #mImportExecutor}. The import happens in two stages, see {@link ImportTask}:
+	 * The XML is parsed without holding any locks, only the import of the parsed data into the database takes the locks of the
+	 * {@link WebOfTrust}. This keeps the UI and FCP responsive while many identities are fetched, for example after startup.
+	 * If batching is enabled, see {@link #CONFIG_IMPORT_BATCH_SIZE}, the parsed XML is imported together with other fetched
+	 * identities by {@link #importPendingImports()}.
 	 */
 	public void onFound(USK origUSK, long edition, FetchResult result) {
 		final FreenetURI realURI = origUSK.getURI().setSuggestedEdition(edition);
@@ -541,38 +649,239 @@ public final class IdentityFetcher implements USKRetrieverCallback, PrioRunnable
 		
 		if(logDEBUG) Logger.debug(this, "Fetched identity: " + realURI);
 		
-		Bucket bucket = null;
-		InputStream inputStream = null;
+		final ImportTask task = new ImportTask(realURI, identityID, result.asBucket());
+		final Executor executor = mImportExecutor;
 		
-		try {
-			bucket = result.asBucket();
-			inputStream = bucket.getInputStream();
-			
-			synchronized(mWoT) { // Preserve the locking order: importIdentity() will synchronize on the WOT and then on this IdentityFetcher
-			synchronized(this) {
-				if(!mRequests.containsKey(identityID)) {
-					if(mTicker != null) { // If mTicker == null then this fetcher has been shut down by stop()
-						Logger.error(this, "Received Identity XML even though there is no request for it - maybe we are terminated already?"
-							+ "identity ID: " + identityID);
+		if(executor == null) {
+			task.run(); // Notices whether stop() was called
+			return;
+		}
+		
+		final boolean queueIsFull;
+		boolean startJob = false;
+		synchronized(mImportQueue) {
+			queueIsFull = mImportQueue.size() >= MAX_QUEUED_IMPORTS;
+			if(!queueIsFull) {
+				mImportQueue.add(task);
+				if(mRunningImportJobs < mMaxImportJobs) {
+					++mRunningImportJobs;
+					startJob = true;
+				}
+			}
+		}
+		
+		if(queueIsFull)
+			task.run(); // Slow down the caller.
+		else if(startJob)
+			executor.execute(new ImportJob(), "WoT identity XML import");
+	}
+	
+	/**
+	 * Executes the {@link ImportTask}s of {@link #mImportQueue} until it is empty.
+	 */
+	private final class ImportJob implements PrioRunnable {
+		
+		public void run() {
+			while(true) {
+				final ImportTask task;
+				synchronized(mImportQueue) {
+					task = mImportQueue.poll();
+					if(task == null) {
+						--mRunningImportJobs;
+						return;
 					}
-					return;
 				}
-
+				
+				task.run();
+			}
+		}
+		
+		public int getPriority() {
+			return NativeThread.LOW_PRIORITY;
+		}
+	}
+	
+	/**
+	 * Parses a fetched identity XML file and imports it into the database.
+	 */
+	private final class ImportTask implements Runnable {
+		
+		private final FreenetURI mURI;
+		
+		private final String mIdentityID;
+		
+		private final Bucket mBucket;
+		
+		ImportTask(FreenetURI uri, String identityID, Bucket bucket) {
+			mURI = uri;
+			mIdentityID = identityID;
+			mBucket = bucket;
+		}
+		
+		public void run() {
+			InputStream inputStream = null;
+			
+			try {
+				synchronized(IdentityFetcher.this) {
+					if(!isBeingFetched(mIdentityID))
+						return;
+				}
+				
 				final long startTime = System.nanoTime();
-				mWoT.getXMLTransformer().importIdentity(realURI, inputStream);
-				final long endTime = System.nanoTime();
-
-				++mFetchedCount;
-				mIdentityImportNanoseconds +=  endTime - startTime;
+				
+				// Stage 1: Parse without locks.
+				inputStream = mBucket.getInputStream();
+				final ParsedIdentityXML xmlData = mWoT.getXMLTransformer().parseIdentityXML(inputStream);
+				Closer.close(inputStream);
+				inputStream = null;
+				
+				final long parsingTime = System.nanoTime() - startTime;
+				
+				// Stage 2: Import into the database.
+				final TrivialTicker ticker = mTicker;
+				if(mImportBatchSize > 1 && ticker != null) {
+					queueImport(new PendingImport(mURI, mIdentityID, xmlData, parsingTime), ticker);
+					return;
+				}
+				
+				synchronized(mWoT) { // Preserve the locking order: importIdentity() will synchronize on the WOT and then on this IdentityFetcher
+				synchronized(IdentityFetcher.this) {
+					// The request might have been aborted while we were parsing.
+					if(!isBeingFetched(mIdentityID))
+						return;
+					
+					final long importStartTime = System.nanoTime();
+					mWoT.getXMLTransformer().importIdentity(mURI, xmlData);
+					final long importEndTime = System.nanoTime();
+					
+					++mFetchedCount;
+					mIdentityImportNanoseconds += parsingTime + (importEndTime - importStartTime);
+				}
+				}
+			}
+			catch(Exception e) {
+				Logger.error(IdentityFetcher.this, "Parsing identity XML failed severely - edition probably could NOT be marked for not being fetched again: " + mURI, e);
 			}
+			finally {
+				Closer.close(inputStream);
+				Closer.close(mBucket);
 			}
 		}
-		catch(Exception e) {
-			Logger.error(this, "Parsing identity XML failed severely - edition probably could NOT be marked for not being fetched again: " + realURI, e);
+		
+		/**
+		 * Must be called instead of {@link #run()} if the task is not executed.
+		 */
+		void discard() {
+			Closer.close(mBucket);
+		}
+	}
+	
+	/**
+	 * You have to synchronize on this IdentityFetcher before calling this function.
+	 * 
+	 * @return True if the given identity is being fetched, i.e. if a fetched XML file of it may be imported.
+	 */
+	private boolean isBeingFetched(String identityID) {
+		if(mRequests.containsKey(identityID))
+			return true;
+		
+		if(mTicker != null) { // If mTicker == null then this fetcher has been shut down by stop()
+			Logger.error(this, "Received Identity XML even though there is no request for it - maybe we are terminated already?"
+				+ "identity ID: " + identityID);
+		}
+		return false;
+	}
+	
+	/**
+	 * A parsed identity XML file which waits in {@link IdentityFetcher#mPendingImports}.
+	 */
+	private static final class PendingImport {
+		
+		final FreenetURI mURI;
+		
+		final String mIdentityID;
+		
+		final ParsedIdentityXML mXMLData;
+		
+		/** For {@link IdentityFetcher#getAverageXMLImportTime()} */
+		final long mParsingTime;
+		
+		PendingImport(FreenetURI uri, String identityID, ParsedIdentityXML xmlData, long parsingTime) {
+			mURI = uri;
+			mIdentityID = identityID;
+			mXMLData = xmlData;
+			mParsingTime = parsingTime;
+		}
+	}
+	
+	/**
+	 * Adds the parsed XML to {@link #mPendingImports}. Imports the batch immediately if it is full, otherwise schedules its import
+	 * on the given ticker.
+	 * 
+	 * Must not be called while holding any locks.
+	 */
+	private void queueImport(PendingImport pendingImport, TrivialTicker ticker) {
+		final boolean batchIsFull;
+		
+		synchronized(mPendingImports) {
+			mPendingImports.add(pendingImport);
+			batchIsFull = mPendingImports.size() >= mImportBatchSize;
+		}
+		
+		if(batchIsFull)
+			importPendingImports();
+		else
+			ticker.queueTimedJob(mImportPendingImportsJob, "WoT IdentityFetcher import batch", IMPORT_BATCH_DELAY, false, true);
+	}
+	
+	/**
+	 * Imports all {@link #mPendingImports} using {@link XMLTransformer#importIdentities(java.util.List, java.util.List)}:
+	 * The whole batch is imported within a single trust list import and a single transaction, so the scores are computed at most
+	 * once and the database is committed only once. Fetching many identities after startup is much faster than with individual
+	 * imports because each of them could cause a full score computation.
+	 */
+	private void importPendingImports() {
+		final ArrayList<PendingImport> batch;
+		
+		synchronized(mPendingImports) {
+			if(mPendingImports.isEmpty())
+				return;
+			
+			batch = new ArrayList<PendingImport>(mPendingImports);
+			mPendingImports.clear();
+		}
+		
+		try {
+			synchronized(mWoT) { // Preserve the locking order: importIdentities() will synchronize on the WOT and then on this IdentityFetcher
+			synchronized(this) {
+				final ArrayList<FreenetURI> uris = new ArrayList<FreenetURI>(batch.size());
+				final ArrayList<ParsedIdentityXML> xmlData = new ArrayList<ParsedIdentityXML>(batch.size());
+				long parsingTime = 0;
+				
+				for(PendingImport pendingImport : batch) {
+					// The request might have been aborted while the XML was waiting.
+					if(!isBeingFetched(pendingImport.mIdentityID))
+						continue;
+					
+					uris.add(pendingImport.mURI);
+					xmlData.add(pendingImport.mXMLData);
+					parsingTime += pendingImport.mParsingTime;
+				}
+				
+				if(uris.isEmpty())
+					return;
+				
+				final long importStartTime = System.nanoTime();
+				mWoT.getXMLTransformer().importIdentities(uris, xmlData);
+				final long importEndTime = System.nanoTime();
+				
+				mFetchedCount += uris.size();
+				mIdentityImportNanoseconds += parsingTime + (importEndTime - importStartTime);
+			}
+			}
 		}
-		finally {
-			Closer.close(inputStream);
-			Closer.close(bucket);
+		catch(RuntimeException e) {
+			Logger.error(this, "Importing batch of identity XML failed severely - editions probably could NOT be marked for not being fetched again", e);
 		}
 	}
 	
@@ -83,6 +83,16 @@ public final class OwnIdentity extends Identity implements Cloneable, Serializab
 	public OwnIdentity(WebOfTrustInterface myWoT, String insertURI, String nickName, boolean publishTrustList) throws InvalidParameterException, MalformedURLException {
 		this(myWoT, new FreenetURI(insertURI), nickName, publishTrustList);
 	}
+
+	/**
+	 * Decodes an OwnIdentity which was written by {@link #encode(PersistentCodec.Encoder)}.
+	 * Only for being used by {@link PersistentCodec}.
+	 */
+	OwnIdentity(WebOfTrustInterface myWoT, PersistentCodec.Decoder in) throws IOException {
+		super(myWoT, in);
+		mInsertURI = in.readURI();
+		mLastInsertDate = in.readDate();
+	}
 	
 	/**
 	 * NOTICE: When changing this function, please also take care of {@link WebOfTrust.restoreOwnIdentity()}
@@ -267,6 +277,9 @@ public final class OwnIdentity extends Identity implements Cloneable, Serializab
 			clone.mLatestEditionHint = getLatestEditionHint(); // Don't use the setter since it won't lower the current edition hint.
 			clone.setContexts(getContexts());
 			clone.setProperties(getProperties());
+			clone.mNumber = getNumber();
+			clone.mBestScore = mBestScore;
+			clone.mBestCapacity = mBestCapacity;
 			
 			return clone;
 		} catch(InvalidParameterException e) {
@@ -337,4 +350,12 @@ public final class OwnIdentity extends Identity implements Cloneable, Serializab
 		stream.defaultWriteObject();
 	}
 
+	/** @see Identity#encode(PersistentCodec.Encoder) */
+	@Override
+	void encode(PersistentCodec.Encoder out) {
+		super.encode(out);
+		out.writeURI(mInsertURI);
+		out.writeDate(mLastInsertDate);
+	}
+
 }
@@ -14,10 +14,15 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import plugins.WebOfTrust.introduction.EligiblePuzzleInserters;
 
 import com.db4o.ObjectSet;
 import com.db4o.ext.ExtObjectContainer;
@@ -140,7 +145,31 @@ public abstract class Persistent implements Serializable {
 		mWebOfTrust = myWebOfTrust;
 		mDB = mWebOfTrust.getDatabase();
 	}
+
+	/**
+	 * @return The {@link DatabaseCounters} of the {@link WebOfTrust} which this object belongs to. Null if it does not use them,
+	 * 	for example if the object was created by a different implementation of {@link WebOfTrustInterface}.
+	 */
+	protected final DatabaseCounters getDatabaseCounters() {
+		return (mWebOfTrust instanceof WebOfTrust) ? ((WebOfTrust)mWebOfTrust).getDatabaseCounters() : null;
+	}
 	
+	/**
+	 * @return The {@link ScoreCache} of the {@link WebOfTrust} which this object belongs to. Null if it does not use one, for example
+	 * 	if the object was created by a different implementation of {@link WebOfTrustInterface}.
+	 */
+	protected final ScoreCache getScoreCache() {
+		return (mWebOfTrust instanceof WebOfTrust) ? ((WebOfTrust)mWebOfTrust).getScoreCache() : null;
+	}
+	
+	/**
+	 * @return The {@link EligiblePuzzleInserters} of the {@link WebOfTrust} which this object belongs to. Null if it does not use
+	 * 	them, for example if the object was created by a different implementation of {@link WebOfTrustInterface}.
+	 */
+	protected final EligiblePuzzleInserters getEligiblePuzzleInserters() {
+		return (mWebOfTrust instanceof WebOfTrust) ? ((WebOfTrust)mWebOfTrust).getEligiblePuzzleInserters() : null;
+	}
+
 	/**
 	 * @deprecated Only for being used when dealing with objects which are from a different object container than the passed Freetalk uses.
 	 */
@@ -150,6 +179,41 @@ public abstract class Persistent implements Serializable {
 		mDB = db;
 	}
 	
+	/**
+	 * Is notified about the end of transactions of a database so that in-memory caches of database objects can be kept consistent.
+	 * The callbacks are executed while holding the {@link #transactionLock(ExtObjectContainer)}.
+	 */
+	public interface TransactionListener {
+		/** Called after the transaction was committed. */
+		void onCommit();
+		
+		/**
+		 * Called before the transaction is rolled back. The listener must drop all references to database objects: db4o only
+		 * reverts the in-memory objects which are garbage collected before and after the rollback, see
+		 * {@link Persistent#checkedRollback(ExtObjectContainer, Object, Throwable, LogLevel)}.
+		 */
+		void onRollback();
+	}
+	
+	/**
+	 * The {@link TransactionListener} of each database. Weak keys so closed databases are not leaked.
+	 */
+	private static transient final Map<ExtObjectContainer, TransactionListener> mTransactionListeners = 
+		Collections.synchronizedMap(new WeakHashMap<ExtObjectContainer, TransactionListener>());
+	
+	/**
+	 * Sets the {@link TransactionListener} which is notified by {@link #checkedCommit(ExtObjectContainer, Object)} and
+	 * {@link #checkedRollback(ExtObjectContainer, Object, Throwable, LogLevel)} on the given database.
+	 * 
+	 * @param listener The new listener. Replaces the previous one. Null to remove the listener.
+	 */
+	public static final void setTransactionListener(final ExtObjectContainer db, final TransactionListener listener) {
+		if(listener != null)
+			mTransactionListeners.put(db, listener);
+		else
+			mTransactionListeners.remove(db);
+	}
+	
 	/**
 	 * Returns the lock for creating a transaction.
 	 * A proper transaction typically looks like this:
@@ -194,6 +258,17 @@ public abstract class Persistent implements Serializable {
 		checkedActivate(1);
 	}
 	
+	/**
+	 * Re-reads the members of this object from the database. Must be called after a rollback on objects which the rolled back
+	 * transaction might have modified and which are still referenced: db4o only reverts the objects which are garbage collected,
+	 * see {@link #checkedRollback(ExtObjectContainer, Object, Throwable, LogLevel)}.
+	 * 
+	 * Override this if the depth of {@link #activateFully()} is larger than 1.
+	 */
+	protected void refreshAfterRollback() {
+		mDB.refresh(this, 1);
+	}
+	
 	/**
 	 * Only to be used by the extending classes, not to be called from the outside.
 	 * 
@@ -289,6 +364,10 @@ public abstract class Persistent implements Serializable {
 	public static final void checkedRollback(final ExtObjectContainer db, final Object loggingObject, final Throwable error, LogLevel logLevel) {
 		// As of db4o 7.4 it seems necessary to call gc(); to cause rollback() to work.
 		testDatabaseIntegrity(null, db);
+		// Before the gc() so the caches of the listener do not keep the modified objects alive.
+		final TransactionListener listener = mTransactionListeners.get(db);
+		if(listener != null)
+			listener.onRollback();
 		System.gc();
 		db.rollback();
 		System.gc(); 
@@ -411,6 +490,9 @@ public abstract class Persistent implements Serializable {
 	public static final void checkedCommit(final ExtObjectContainer db, final Object loggingObject) {
 		testDatabaseIntegrity(null, db);
 		db.commit();
+		final TransactionListener listener = mTransactionListeners.get(db);
+		if(listener != null)
+			listener.onCommit();
 		if(logDEBUG) Logger.debug(loggingObject, "COMMITED.");
 		testDatabaseIntegrity(null, db);
 	}
@@ -685,7 +767,9 @@ public abstract class Persistent implements Serializable {
 	/* Non-db4o related code */
 
 	/**
-	 * Uses standard Java serialization to convert this Object to a byte array. NOT used by db4o.
+	 * Converts this Object to a byte array. NOT used by db4o.
+	 * {@link Identity}, {@link OwnIdentity}, {@link Trust} and {@link Score} are encoded with the compact {@link PersistentCodec},
+	 * other classes use standard Java serialization.
 	 * 
 	 * The purpose for this is to allow in-db4o storage of cloned {@link Identity}/{@link Trust}/{@link Score}/etc. objects:
 	 * Normally there should only be one object with a given ID in the database, if we clone a Persistent object it will have the same ID.
@@ -693,7 +777,8 @@ public abstract class Persistent implements Serializable {
 	 * 
 	 * Typically used by {@link SubscriptionManager} for being able to store clones.
 	 * 
-	 * ATTENTION: Your Persistent class must provide an implementation of the following function:
+	 * ATTENTION: If your Persistent class is not supported by {@link PersistentCodec}, it must provide an implementation of the
+	 * following function:
 	 * <code>private void writeObject(ObjectOutputStream stream) throws IOException;</code>
 	 * This function is not specified by an interface, it can be read up about in the <a href="http://docs.oracle.com/javase/7/docs/platform/serialization/spec/output.html#861">serialization documentation</a>.
 	 * It must properly activate the object, all of its members and all of their members:
@@ -703,6 +788,9 @@ public abstract class Persistent implements Serializable {
 	 * @see Persistent#deserialize(WebOfTrustInterface, byte[]) The inverse function.
 	 */
 	final byte[] serialize() {
+		if(PersistentCodec.isSupported(this))
+			return PersistentCodec.encode(this);
+		
 		ByteArrayOutputStream bos = null;
 		ObjectOutputStream ous = null;
 		
@@ -720,8 +808,23 @@ public abstract class Persistent implements Serializable {
 		}
 	}
 	
-	/** Inverse function of {@link #serialize()}. */
+	/**
+	 * Inverse function of {@link #serialize()}.
+	 * Also decodes the Java serialization data of objects which are encoded by {@link PersistentCodec} nowadays: It was used for
+	 * all classes by old versions of WoT.
+	 */
 	static final Persistent deserialize(final WebOfTrustInterface wot, final byte[] data) {
+		if(!PersistentCodec.isJavaSerialization(data)) {
+			try {
+				final Persistent decoded = PersistentCodec.decode(wot, data);
+				decoded.initializeTransient(wot);
+				assert(decoded.startupDatabaseIntegrityTestBoolean());
+				return decoded;
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
 		ByteArrayInputStream bis = null;
 		ObjectInputStream ois = null;
 		
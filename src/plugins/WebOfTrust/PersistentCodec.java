@@ -0,0 +1,328 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.util.Date;
+
+import freenet.keys.FreenetURI;
+
+/**
+ * A compact binary encoding of {@link Identity}, {@link OwnIdentity}, {@link Trust} and {@link Score} objects, used by
+ * {@link Persistent#serialize()} and {@link Persistent#deserialize(WebOfTrustInterface, byte[])} for the payload of the
+ * notifications of the {@link SubscriptionManager}.
+ *
+ * Java serialization used to be used for this. It stores the full class descriptors of each object and its members, which is
+ * several times the size of the actual data, and it is slow because it works with reflection.
+ *
+ * The format is:
+ * - One byte {@link #FORMAT_VERSION}.
+ * - The encoded object: One byte type tag ({@link #TYPE_IDENTITY} etc.) followed by the fields as written by the encode()
+ *   function of the class, for example {@link Identity#encode(Encoder)}. Objects which reference other objects, for example the
+ *   truster and trustee of a {@link Trust}, encode them inline with their own type tag.
+ *
+ * Numbers are stored as variable-length integers. Strings are stored as UTF-8 prefixed with their length.
+ * IDs are not stored: They are derived from the {@link FreenetURI} of the identities when decoding.
+ *
+ * Data which starts with the magic bytes of a Java serialization stream was produced by an old version of WoT and is decoded
+ * with Java serialization by {@link Persistent#deserialize(WebOfTrustInterface, byte[])}, see {@link #isJavaSerialization(byte[])}.
+ *
+ * When changing the encoding of any class, increment {@link #FORMAT_VERSION}. The decoders must still accept data of the older
+ * versions because it is stored in the queued {@link SubscriptionManager.Notification}s, see {@link Decoder#getFormatVersion()}.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+final class PersistentCodec {
+
+	/**
+	 * The version of the format. Must not be 0xAC so it cannot be confused with the first byte of Java serialization data,
+	 * see {@link ObjectStreamConstants#STREAM_MAGIC}.
+	 * 
+	 * Changes:
+	 * - 2: {@link Identity} encodes its best score and best capacity.
+	 */
+	static final byte FORMAT_VERSION = 2;
+
+	static final byte TYPE_IDENTITY = 1;
+	static final byte TYPE_OWN_IDENTITY = 2;
+	static final byte TYPE_TRUST = 3;
+	static final byte TYPE_SCORE = 4;
+
+	private static final String CHARSET = "UTF-8";
+
+
+	private PersistentCodec() {
+	}
+
+	/**
+	 * @return True if {@link #encode(Persistent)} can encode the given object.
+	 */
+	static boolean isSupported(final Persistent object) {
+		return object instanceof Identity || object instanceof Trust || object instanceof Score;
+	}
+
+	/**
+	 * @return True if the given data was produced by Java serialization instead of {@link #encode(Persistent)}.
+	 */
+	static boolean isJavaSerialization(final byte[] data) {
+		return data.length >= 2
+			&& data[0] == (byte)(ObjectStreamConstants.STREAM_MAGIC >>> 8)
+			&& data[1] == (byte)ObjectStreamConstants.STREAM_MAGIC;
+	}
+
+	/**
+	 * @param object Must be {@link #isSupported(Persistent)}.
+	 * @see #decode(WebOfTrustInterface, byte[]) The inverse function.
+	 */
+	static byte[] encode(final Persistent object) {
+		final Encoder out = new Encoder();
+		out.writeByte(FORMAT_VERSION);
+		out.writeObject(object);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Inverse function of {@link #encode(Persistent)}.
+	 *
+	 * Does NOT call {@link Persistent#initializeTransient(WebOfTrustInterface)} upon the returned object, the caller must do so.
+	 *
+	 * @throws IOException If the data is not in the current format or is truncated.
+	 */
+	static Persistent decode(final WebOfTrustInterface wot, final byte[] data) throws IOException {
+		final Decoder in = new Decoder(data);
+
+		final byte version = in.readByte();
+		if(version < 1 || version > FORMAT_VERSION)
+			throw new IOException("Unknown format version: " + version);
+		in.mFormatVersion = version;
+
+		final Persistent result = in.readObject(wot);
+
+		if(in.available() != 0)
+			throw new IOException("Trailing data: " + in.available() + " bytes");
+
+		return result;
+	}
+
+
+	/**
+	 * Appends values to a growing byte array.
+	 */
+	static final class Encoder {
+
+		private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(256);
+
+		void writeByte(final int value) {
+			mBuffer.write(value);
+		}
+
+		void writeBoolean(final boolean value) {
+			mBuffer.write(value ? 1 : 0);
+		}
+
+		/**
+		 * Writes the value with 7 bits per byte, the highest bit of a byte is set if more bytes follow.
+		 * Small non-negative values are short, negative ones take 10 bytes: Use {@link #writeSignedVarLong(long)} for them.
+		 */
+		void writeVarLong(long value) {
+			while((value & ~0x7FL) != 0) {
+				mBuffer.write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			mBuffer.write((int)value);
+		}
+
+		/**
+		 * Same as {@link #writeVarLong(long)} but uses the ZigZag encoding so small negative values are short as well.
+		 */
+		void writeSignedVarLong(final long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeDate(final Date date) {
+			writeVarLong(date.getTime());
+		}
+
+		/**
+		 * Writes the length + 1 followed by the UTF-8 encoding of the string. Null is written as length 0.
+		 */
+		void writeString(final String string) {
+			if(string == null) {
+				writeVarLong(0);
+				return;
+			}
+
+			final byte[] utf8;
+			try {
+				utf8 = string.getBytes(CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e); // UTF-8 is always supported.
+			}
+			writeVarLong(utf8.length + 1);
+			mBuffer.write(utf8, 0, utf8.length);
+		}
+
+		void writeURI(final FreenetURI uri) {
+			writeString(uri.toString());
+		}
+
+		/**
+		 * Writes the type tag of the object followed by the object.
+		 */
+		void writeObject(final Persistent object) {
+			if(object instanceof OwnIdentity) {
+				writeByte(TYPE_OWN_IDENTITY);
+				((OwnIdentity)object).encode(this);
+			} else if(object instanceof Identity) {
+				writeByte(TYPE_IDENTITY);
+				((Identity)object).encode(this);
+			} else if(object instanceof Trust) {
+				writeByte(TYPE_TRUST);
+				((Trust)object).encode(this);
+			} else if(object instanceof Score) {
+				writeByte(TYPE_SCORE);
+				((Score)object).encode(this);
+			} else
+				throw new IllegalArgumentException("Unsupported class: " + object.getClass());
+		}
+
+		byte[] toByteArray() {
+			return mBuffer.toByteArray();
+		}
+	}
+
+	/**
+	 * Reads the values which were written by an {@link Encoder}.
+	 * All functions throw {@link IOException} if the data is truncated or invalid.
+	 */
+	static final class Decoder {
+
+		private final byte[] mData;
+
+		private int mPosition = 0;
+
+		/** The {@link PersistentCodec#FORMAT_VERSION} of the data, set by {@link PersistentCodec#decode(WebOfTrustInterface, byte[])}. */
+		private int mFormatVersion = FORMAT_VERSION;
+
+		Decoder(final byte[] data) {
+			mData = data;
+		}
+
+		/**
+		 * @return The {@link PersistentCodec#FORMAT_VERSION} with which the data was encoded. The decoding functions of the classes
+		 * 	use it to decode data of older versions.
+		 */
+		int getFormatVersion() {
+			return mFormatVersion;
+		}
+
+		int available() {
+			return mData.length - mPosition;
+		}
+
+		byte readByte() throws IOException {
+			if(mPosition >= mData.length)
+				throw new EOFException();
+
+			return mData[mPosition++];
+		}
+
+		boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		long readVarLong() throws IOException {
+			long result = 0;
+			for(int shift = 0; shift < 64; shift += 7) {
+				final byte b = readByte();
+				result |= (long)(b & 0x7F) << shift;
+				if((b & 0x80) == 0)
+					return result;
+			}
+			throw new IOException("Variable-length integer is too long");
+		}
+
+		long readSignedVarLong() throws IOException {
+			final long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		int readVarInt() throws IOException {
+			final long value = readVarLong();
+			if(value < 0 || value > Integer.MAX_VALUE)
+				throw new IOException("Value out of range: " + value);
+			return (int)value;
+		}
+
+		int readSignedVarInt() throws IOException {
+			final long value = readSignedVarLong();
+			if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+				throw new IOException("Value out of range: " + value);
+			return (int)value;
+		}
+
+		Date readDate() throws IOException {
+			return new Date(readVarLong());
+		}
+
+		String readString() throws IOException {
+			final int lengthPlusOne = readVarInt();
+			if(lengthPlusOne == 0)
+				return null;
+
+			final int length = lengthPlusOne - 1;
+			if(length > available())
+				throw new EOFException();
+
+			final String result = new String(mData, mPosition, length, CHARSET);
+			mPosition += length;
+			return result;
+		}
+
+		FreenetURI readURI() throws IOException {
+			final String uri = readString();
+			if(uri == null)
+				throw new IOException("URI is null");
+
+			try {
+				return new FreenetURI(uri);
+			} catch(MalformedURLException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Reads an object which was written by {@link Encoder#writeObject(Persistent)}.
+		 */
+		Persistent readObject(final WebOfTrustInterface wot) throws IOException {
+			final byte type = readByte();
+			switch(type) {
+				case TYPE_IDENTITY: return new Identity(wot, this);
+				case TYPE_OWN_IDENTITY: return new OwnIdentity(wot, this);
+				case TYPE_TRUST: return new Trust(wot, this);
+				case TYPE_SCORE: return new Score(wot, this);
+				default: throw new IOException("Unknown type: " + type);
+			}
+		}
+
+		Identity readIdentity(final WebOfTrustInterface wot) throws IOException {
+			final Persistent object = readObject(wot);
+			if(!(object instanceof Identity))
+				throw new IOException("Expected Identity, got " + object.getClass());
+			return (Identity)object;
+		}
+
+		OwnIdentity readOwnIdentity(final WebOfTrustInterface wot) throws IOException {
+			final Persistent object = readObject(wot);
+			if(!(object instanceof OwnIdentity))
+				throw new IOException("Expected OwnIdentity, got " + object.getClass());
+			return (OwnIdentity)object;
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.util.Date;
 import java.util.StringTokenizer;
 
 import plugins.WebOfTrust.Identity.IdentityID;
+import plugins.WebOfTrust.introduction.EligiblePuzzleInserters;
 import freenet.support.CurrentTimeUTC;
 
 
@@ -170,6 +171,23 @@ public final class Score extends Persistent implements Cloneable, Serializable {
 		
 		// mLastChangedDate = CurrentTimeUTC.get(); <= setValue() etc do this already.
 	}
+
+	/**
+	 * Decodes a Score which was written by {@link #encode(PersistentCodec.Encoder)}.
+	 * Only for being used by {@link PersistentCodec}, the values are not validated like in the other constructor.
+	 */
+	Score(WebOfTrustInterface myWoT, PersistentCodec.Decoder in) throws IOException {
+		initializeTransient(myWoT);
+		
+		mTruster = in.readOwnIdentity(myWoT);
+		mTrustee = in.readIdentity(myWoT);
+		mID = new ScoreID(mTruster, mTrustee).toString();
+		mValue = in.readSignedVarInt();
+		mRank = in.readSignedVarInt();
+		mCapacity = in.readSignedVarInt();
+		mCreationDate = in.readDate();
+		mLastChangedDate = in.readDate();
+	}
 	
 	@Override
 	public int hashCode() {
@@ -330,7 +348,47 @@ public final class Score extends Persistent implements Cloneable, Serializable {
 			activateFully();
 			throwIfNotStored(mTruster);
 			throwIfNotStored(mTrustee);
+			
+			final boolean isNew = !mDB.isStored(this);
 			checkedStore();
+			getTrustee().onScoreStoredWithoutCommit(this);
+			
+			final ScoreCache cache = getScoreCache();
+			if(cache != null)
+				cache.onStored(this);
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(isNew && counters != null)
+				counters.onScoreCreated();
+			
+			final EligiblePuzzleInserters inserters = getEligiblePuzzleInserters();
+			if(inserters != null)
+				inserters.onScoreChanged(this);
+		}
+		catch(final RuntimeException e) {
+			checkedRollbackAndThrow(e);
+		}
+	}
+	
+	@Override
+	protected void deleteWithoutCommit() {
+		try {
+			activateFully();
+			final boolean wasStored = mDB.isStored(this);
+			checkedDelete();
+			getTrustee().onScoreDeletedWithoutCommit(this);
+			
+			final ScoreCache cache = getScoreCache();
+			if(cache != null && wasStored)
+				cache.onDeleted(this);
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(counters != null && wasStored)
+				counters.onScoreDeleted();
+			
+			final EligiblePuzzleInserters inserters = getEligiblePuzzleInserters();
+			if(inserters != null)
+				inserters.onScoreChanged(this);
 		}
 		catch(final RuntimeException e) {
 			checkedRollbackAndThrow(e);
@@ -418,4 +476,21 @@ public final class Score extends Persistent implements Cloneable, Serializable {
 		mTrustee.activateFully();
 		stream.defaultWriteObject();
 	}
+
+	/**
+	 * Writes the members of this Score for {@link PersistentCodec}. The truster and trustee are written as a whole, the ID is not
+	 * written since it can be derived from them.
+	 * 
+	 * @see #Score(WebOfTrustInterface, PersistentCodec.Decoder) The inverse function.
+	 */
+	void encode(PersistentCodec.Encoder out) {
+		activateFully();
+		out.writeObject(mTruster);
+		out.writeObject(mTrustee);
+		out.writeSignedVarLong(mValue);
+		out.writeSignedVarLong(mRank);
+		out.writeSignedVarLong(mCapacity);
+		out.writeDate(mCreationDate);
+		out.writeDate(mLastChangedDate);
+	}
 }
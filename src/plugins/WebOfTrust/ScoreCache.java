@@ -0,0 +1,190 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.db4o.ext.ExtObjectContainer;
+
+/**
+ * A bounded cache of {@link Score} objects in front of the database, used by {@link WebOfTrust#getScore(OwnIdentity, Identity)}.
+ *
+ * The incremental score computation calls getScore() once for each received trust of each identity it processes. Each call
+ * used to be a database query on the {@link Score} ID. This cache keeps the most recently used Score objects - and the knowledge
+ * that a Score does NOT exist - in memory so repeated lookups of the same (truster, trustee) pair do not hit the database.
+ * The entries are keyed by the {@link Identity#getNumber()} of the truster and trustee, see {@link #getKey(Identity, Identity)},
+ * so a cache hit does not need to construct the {@link ScoreID} string.
+ *
+ * Consistency with the database:
+ * - {@link Score#storeWithoutCommit()} and {@link Score#deleteWithoutCommit()} update the cache.
+ * - Upon {@link Persistent#checkedRollback(ExtObjectContainer, Object, Throwable)} all entries are discarded, before the rollback:
+ *   db4o only reverts the in-memory objects which are garbage collected, and the cached Score objects would keep themselves and
+ *   their truster and trustee {@link Identity} objects alive in the state of the transaction which was rolled back.
+ * - Cached Score objects are only returned if they are still known to the database, see {@link ExtObjectContainer#isStored(Object)}.
+ *   This deals with objects which were purged from the database's object cache.
+ *
+ * This is a write-through cache: The Score objects are stored in the database immediately, just like before. Deferring the store
+ * until the commit would break the database queries on Score objects which the score computation does within the same transaction.
+ *
+ * Synchronization: All functions are synchronized on the cache. The transaction callbacks are executed while holding the
+ * transaction lock, possibly without the {@link WebOfTrust} lock.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+final class ScoreCache implements Persistent.TransactionListener {
+
+	/**
+	 * The maximal amount of cached entries. One entry is roughly the size of one {@link Score} object plus its ID, so the
+	 * cache should not use more than a few megabytes.
+	 */
+	static final int MAX_SIZE = 16 * 1024;
+
+	/**
+	 * Value of the entries of {@link #mEntries} for which we know that no {@link Score} exists in the database.
+	 * We cannot use null because {@link LinkedHashMap#get(Object)} returns null for keys which are not cached.
+	 */
+	private static final Object NO_SCORE = new Object();
+	
+	/**
+	 * Returned by {@link #getKey(Identity, Identity)} if one of the identities has no number. Such pairs are not cached.
+	 */
+	static final long NO_KEY = -1;
+
+	private final ExtObjectContainer mDB;
+
+	/**
+	 * Key = {@link #getKey(Identity, Identity)}, value = The {@link Score} object or {@link #NO_SCORE}.
+	 * The LinkedHashMap is in access-order so the least recently used entry is evicted when the cache is full.
+	 */
+	private final LinkedHashMap<Long, Object> mEntries = new LinkedHashMap<Long, Object>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	/* Statistics */
+	private long mHits = 0;
+	private long mMisses = 0;
+
+
+	ScoreCache(ExtObjectContainer db) {
+		mDB = db;
+	}
+
+	/**
+	 * @return The key of the {@link Score} of the given truster and trustee, {@link #NO_KEY} if one of them has not been stored yet.
+	 */
+	static long getKey(final Identity truster, final Identity trustee) {
+		final int trusterNumber = truster.getNumber();
+		final int trusteeNumber = trustee.getNumber();
+		
+		if(trusterNumber <= 0 || trusteeNumber <= 0)
+			return NO_KEY;
+		
+		return ((long)trusterNumber << 32) | trusteeNumber;
+	}
+
+	/**
+	 * Thrown by {@link ScoreCache#get(long)} if the cache does not know whether the Score exists.
+	 */
+	static final class NotCachedException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * @param key See {@link #getKey(Identity, Identity)}.
+	 * @return The cached {@link Score} with the given key. Null if the cache knows that there is no such Score in the database.
+	 * @throws NotCachedException If the cache does not know about the given key. The caller must query the database then and
+	 * 	put the result into the cache using {@link #putQueryResult(long, Score)}.
+	 */
+	synchronized Score get(final long key) throws NotCachedException {
+		final Object entry = mEntries.get(key);
+
+		if(entry == null) {
+			++mMisses;
+			throw new NotCachedException();
+		}
+
+		if(entry == NO_SCORE) {
+			++mHits;
+			return null;
+		}
+
+		final Score score = (Score)entry;
+		if(!mDB.isStored(score)) { // The object was purged from the database's cache, we must not hand it out anymore.
+			mEntries.remove(key);
+			++mMisses;
+			throw new NotCachedException();
+		}
+
+		++mHits;
+		return score;
+	}
+
+	/**
+	 * Caches the result of a database query.
+	 * @param score The Score which was found by the query, null if it did not find one.
+	 */
+	synchronized void putQueryResult(final long key, final Score score) {
+		if(key != NO_KEY)
+			mEntries.put(key, score != null ? score : NO_SCORE);
+	}
+
+	/**
+	 * Must be called by {@link Score#storeWithoutCommit()} after the Score was stored.
+	 */
+	synchronized void onStored(final Score score) {
+		final long key = getKey(score.getTruster(), score.getTrustee());
+		if(key == NO_KEY || !mDB.isStored(score))
+			return;
+		
+		mEntries.put(key, score);
+	}
+
+	/**
+	 * Must be called by {@link Score#deleteWithoutCommit()} if the Score was stored before.
+	 */
+	synchronized void onDeleted(final Score score) {
+		final long key = getKey(score.getTruster(), score.getTrustee());
+		if(key == NO_KEY)
+			return;
+		
+		mEntries.put(key, NO_SCORE);
+	}
+
+	/**
+	 * Removes all entries. Must be called if Score objects were modified in the database without going through
+	 * {@link Score#storeWithoutCommit()} and {@link Score#deleteWithoutCommit()}.
+	 */
+	synchronized void clear() {
+		mEntries.clear();
+	}
+
+	public void onCommit() {
+		// The entries are already the state of the database.
+	}
+
+	/**
+	 * Removes all entries, not only the ones of the transaction: Any of the cached objects could have been modified in memory by it.
+	 */
+	public synchronized void onRollback() {
+		mEntries.clear();
+	}
+
+	synchronized int size() {
+		return mEntries.size();
+	}
+
+	synchronized long getHitCount() {
+		return mHits;
+	}
+
+	synchronized long getMissCount() {
+		return mMisses;
+	}
+}
@@ -0,0 +1,180 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import plugins.WebOfTrust.SubscriptionManager.IdentitiesSubscription;
+import plugins.WebOfTrust.SubscriptionManager.Notification;
+import plugins.WebOfTrust.SubscriptionManager.ScoresSubscription;
+import plugins.WebOfTrust.SubscriptionManager.Subscription;
+
+/**
+ * Restricts the objects of which the client of a {@link Subscription} is notified. Objects which do not match the filter are
+ * neither contained in the initial synchronization nor in the {@link Notification}s. Non-matching changes are dropped before
+ * any Notification object is created, so filtering saves the serialization, storage and deployment of them.
+ *
+ * If an object changes from matching to non-matching, the client receives a Notification which deletes it. If it changes from
+ * non-matching to matching, the client receives a Notification which creates it. Thus the client's view of the objects is always
+ * the filtered set of the database.
+ *
+ * Supported filters:
+ * - For {@link IdentitiesSubscription}: {@link #getContext()}.
+ * - For {@link ScoresSubscription}: {@link #getTrusterID()}, {@link #getMinimumScore()}, {@link #getMaximumRank()} and
+ *   {@link #getSelection()}.
+ * Other combinations are rejected by {@link #isSupportedBy(Class)}: A filter on the scores of identities would require sending
+ * identity notifications upon score changes, and a filter on the contexts of the trustees of scores would require sending score
+ * notifications upon identity changes.
+ * A client cannot combine an {@link IdentitiesSubscription} with a context filter with a subscription to trusts or scores, see
+ * {@link SubscriptionManager}: Their notifications would reference identities which the client did not receive.
+ *
+ * Immutable. Stored as primitive fields of the {@link Subscription}, see {@link Subscription#getFilter()}.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class SubscriptionFilter {
+
+	/** Value of {@link #getMinimumScore()} if the score is not filtered. */
+	public static final int ANY_SCORE = Integer.MIN_VALUE;
+
+	/** Value of {@link #getMaximumRank()} if the rank is not filtered. */
+	public static final int ANY_RANK = Integer.MAX_VALUE;
+
+	/** Value of {@link #getSelection()} if the sign of the value is not filtered. */
+	public static final int ANY_SELECTION = Integer.MIN_VALUE;
+
+	/** The filter which matches everything. */
+	public static final SubscriptionFilter NONE = new SubscriptionFilter(null, null, ANY_SCORE, ANY_RANK, ANY_SELECTION);
+
+	private final String mContext;
+
+	private final String mTrusterID;
+
+	private final int mMinimumScore;
+
+	private final int mMaximumRank;
+
+	private final int mSelection;
+
+
+	/**
+	 * @param context See {@link #getContext()}.
+	 * @param trusterID See {@link #getTrusterID()}.
+	 * @param minimumScore See {@link #getMinimumScore()}.
+	 * @param maximumRank See {@link #getMaximumRank()}.
+	 * @param selection See {@link #getSelection()}.
+	 */
+	public SubscriptionFilter(final String context, final String trusterID, final int minimumScore, final int maximumRank,
+			final int selection) {
+		mContext = (context != null && context.length() > 0) ? context : null;
+		mTrusterID = (trusterID != null && trusterID.length() > 0) ? trusterID : null;
+		mMinimumScore = minimumScore;
+		mMaximumRank = maximumRank;
+		mSelection = selection == ANY_SELECTION ? ANY_SELECTION : Integer.signum(selection);
+	}
+
+	/**
+	 * @return The context which an {@link Identity} must have, see {@link Identity#hasContext(String)}. Null if not filtered.
+	 */
+	public String getContext() {
+		return mContext;
+	}
+
+	/**
+	 * @return The ID of the {@link OwnIdentity} which must be the truster of a {@link Score}. Null if not filtered.
+	 */
+	public String getTrusterID() {
+		return mTrusterID;
+	}
+
+	/**
+	 * @return The minimal value of a {@link Score}. {@link #ANY_SCORE} if not filtered.
+	 */
+	public int getMinimumScore() {
+		return mMinimumScore;
+	}
+
+	/**
+	 * @return The maximal rank of a {@link Score}. Scores with infinite rank (-1 or {@link Integer#MAX_VALUE}) are excluded if the
+	 * 	rank is filtered. {@link #ANY_RANK} if not filtered.
+	 */
+	public int getMaximumRank() {
+		return mMaximumRank;
+	}
+
+	/**
+	 * @return The sign of the value of a {@link Score}, with the same semantics as the "select" parameter of
+	 * 	{@link WebOfTrust#getIdentitiesByScore(OwnIdentity, int)}: 1 means >= 0, 0 means == 0, -1 means < 0.
+	 * 	{@link #ANY_SELECTION} if not filtered.
+	 */
+	public int getSelection() {
+		return mSelection;
+	}
+
+	/**
+	 * @return True if this filter does not filter anything.
+	 */
+	public boolean isEmpty() {
+		return mContext == null && mTrusterID == null && mMinimumScore == ANY_SCORE && mMaximumRank == ANY_RANK
+			&& mSelection == ANY_SELECTION;
+	}
+
+	/**
+	 * @return True if the given type of {@link Subscription} can evaluate this filter. See the class description.
+	 */
+	public boolean isSupportedBy(final Class<? extends Subscription<? extends Notification>> clazz) {
+		if(isEmpty())
+			return true;
+
+		if(clazz == IdentitiesSubscription.class)
+			return mTrusterID == null && mMinimumScore == ANY_SCORE && mMaximumRank == ANY_RANK && mSelection == ANY_SELECTION;
+
+		if(clazz == ScoresSubscription.class)
+			return mContext == null;
+
+		return false;
+	}
+
+	/**
+	 * @return True if the given {@link Identity} matches this filter.
+	 */
+	public boolean matches(final Identity identity) {
+		return mContext == null || identity.hasContext(mContext);
+	}
+
+	/**
+	 * @return True if the given {@link Score} matches this filter.
+	 */
+	public boolean matches(final Score score) {
+		if(mTrusterID != null && !mTrusterID.equals(score.getTruster().getID()))
+			return false;
+
+		final int value = score.getScore();
+
+		if(value < mMinimumScore)
+			return false;
+
+		if(mMaximumRank != ANY_RANK) {
+			final int rank = score.getRank();
+			if(rank < 0 || rank > mMaximumRank)
+				return false;
+		}
+
+		if(mSelection != ANY_SELECTION) {
+			// Same as WebOfTrust.getIdentitiesByScore(): 0 is included in the positive range.
+			if(mSelection > 0 && value < 0)
+				return false;
+			if(mSelection == 0 && value != 0)
+				return false;
+			if(mSelection < 0 && value >= 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "[SubscriptionFilter: Context=" + mContext + "; TrusterID=" + mTrusterID + "; MinimumScore=" + mMinimumScore
+			+ "; MaximumRank=" + mMaximumRank + "; Selection=" + mSelection + "]";
+	}
+}
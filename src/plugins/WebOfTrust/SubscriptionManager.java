@@ -3,6 +3,10 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package plugins.WebOfTrust;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.UUID;
 
@@ -16,6 +20,8 @@ import freenet.node.PrioRunnable;
 import freenet.node.fcp.FCPCallFailedException;
 import freenet.pluginmanager.PluginNotFoundException;
 import freenet.pluginmanager.PluginRespirator;
+import freenet.support.CurrentTimeUTC;
+import freenet.support.Executor;
 import freenet.support.Logger;
 import freenet.support.Logger.LogLevel;
 import freenet.support.TrivialTicker;
@@ -35,15 +41,24 @@ import freenet.support.io.NativeThread;
  * - When an event happens, a {@link Notification} object is created for each {@link Subscription} which matches the type of event. The Notification is stored in the database.
  * - After a delay, the SubscriptionManager deploys the notifications to the clients.
  * 
- * The {@link Notification}s are deployed strictly sequential per {@link Client}.
+ * The {@link Notification}s are deployed strictly sequential per {@link Client}. Different Clients are served concurrently, so a slow
+ * Client does not delay the others, see {@link #run()}.
  * If a single Notification cannot be deployed, the processing of the Notifications for that Client is halted until the failed Notification can
- * be deployed successfully. There will be {@link #DISCONNECT_CLIENT_AFTER_FAILURE_COUNT} retries, then the Client is disconnected.
+ * be deployed successfully. The retries of each Client are delayed with an exponential backoff which does not affect other Clients.
+ * There will be {@link #DISCONNECT_CLIENT_AFTER_FAILURE_COUNT} retries, then the Client is disconnected.
  * 
  * Further, at each deployment run, the order of deployment is guaranteed to "make sense":
  * A {@link TrustChangedNotification} which creates a {@link Trust} will not deployed before the {@link IdentityChangedNotification} which creates
  * the identities which are referenced by the trust.
  * This allows you to assume that any identity IDs (see {@link Identity#getID()}} you receive in trust / score notifications are valid when you receive them.
  * 
+ * Notifications are coalesced: If an object is modified while a {@link Notification} about it is still queued, the modification is
+ * merged into the queued Notification instead of storing a new one. The merged Notification contains the oldest version of the object
+ * before the changes and the newest version after them. Only modifications are coalesced, creations and deletions are not: Other
+ * queued notifications might depend upon the existence of the object, so the point in the queue at which it is created or deleted
+ * must not move. See {@link Subscription#coalesceNotificationWithoutCommit(Persistent, Persistent)}.
+ * This is important for {@link ScoreChangedNotification}s: A single trust list import can change the same {@link Score} many times.
+ * 
  * This is a very important principle which makes client design easy: You do not need transaction-safety when caching things such as score values
  * incrementally. For example your client might need to do mandatory actions due to a score-value change, such as deleting messages from identities
  * which have a bad score now. If the score-value import succeeds but the message deletion fails, you can just return "ERROR!" to the WOT-callback-caller
@@ -63,8 +78,10 @@ import freenet.support.io.NativeThread;
  * Any functions which require synchronization upon some of the locks will mention it.
  * 
  * TODO: Allow out-of-order notifications if the client desires them
- * TODO: Optimization: Allow coalescing of notifications: If a single object changes twice, only send one notification
- * TODO: Optimization: Allow the client to specify filters to reduce traffic: - Context of identities, etc. 
+ * Clients can restrict the objects about which they are notified using a {@link SubscriptionFilter}, for example to the identities
+ * with a certain context. The filter is evaluated before a Notification is created, so filtered changes cost nothing else.
+ * 
+ * TODO: Optimization: Allow filters for {@link TrustsSubscription}s. 
  * 
  * 
  * TODO: This should be used for powering the IntroductionClient/IntroductionServer.
@@ -117,9 +134,34 @@ public final class SubscriptionManager implements PrioRunnable {
 		 */
 		private byte mSendNotificationsFailureCount = 0;
 		
-		public Client(final String myFCP_ID) {
+		/**
+		 * The maximal number of {@link Notification}s which are sent to the client in a single "ChangeNotificationBatch" FCP message.
+		 * 1 means that each Notification is sent as a separate message, which is what clients get unless they request batching.
+		 * 
+		 * @see #getNotificationBatchSize()
+		 */
+		private final int mNotificationBatchSize;
+		
+		/**
+		 * The maximal number of objects which are sent to the client in a single message of the synchronization at the beginning of
+		 * a {@link Subscription}. 0 means that the synchronization is sent as a single message, which is what clients get unless
+		 * they request chunking.
+		 * 
+		 * @see #getSynchronizationChunkSize()
+		 */
+		private final int mSynchronizationChunkSize;
+		
+		/**
+		 * @param myNotificationBatchSize See {@link #getNotificationBatchSize()}. Values below 1 are treated as 1, values above
+		 * 	{@link SubscriptionManager#MAX_NOTIFICATION_BATCH_SIZE} as the maximum.
+		 * @param mySynchronizationChunkSize See {@link #getSynchronizationChunkSize()}. Values below 1 disable chunking, values
+		 * 	above {@link SubscriptionManager#MAX_SYNCHRONIZATION_CHUNK_SIZE} are treated as the maximum.
+		 */
+		public Client(final String myFCP_ID, final int myNotificationBatchSize, final int mySynchronizationChunkSize) {
 			mType = Type.FCP;
 			mFCP_ID = myFCP_ID;
+			mNotificationBatchSize = Math.max(1, Math.min(myNotificationBatchSize, MAX_NOTIFICATION_BATCH_SIZE));
+			mSynchronizationChunkSize = Math.max(0, Math.min(mySynchronizationChunkSize, MAX_SYNCHRONIZATION_CHUNK_SIZE));
 			
 			assert(mFCP_ID != null && mFCP_ID.length() > 0);
 		}
@@ -139,6 +181,13 @@ public final class SubscriptionManager implements PrioRunnable {
 			
 			if(mSendNotificationsFailureCount < 0 || mSendNotificationsFailureCount > SubscriptionManager.DISCONNECT_CLIENT_AFTER_FAILURE_COUNT)
 				throw new IllegalStateException("mSendNotificationsFailureCount==" + mSendNotificationsFailureCount);
+			
+			// Clients of older databases have 0. They are deleted by SubscriptionManager.start().
+			if(mNotificationBatchSize < 0 || mNotificationBatchSize > MAX_NOTIFICATION_BATCH_SIZE)
+				throw new IllegalStateException("mNotificationBatchSize==" + mNotificationBatchSize);
+			
+			if(mSynchronizationChunkSize < 0 || mSynchronizationChunkSize > MAX_SYNCHRONIZATION_CHUNK_SIZE)
+				throw new IllegalStateException("mSynchronizationChunkSize==" + mSynchronizationChunkSize);
 		}
 		
 		/**
@@ -181,16 +230,38 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * Returns the next free index for a {@link Notification} in the queue of this Client.
 		 * 
 		 * Stores this Client object without committing the transaction.
-		 * Schedules processing of the Notifications of the SubscriptionManger via {@link SubscriptionManager#scheduleNotificationProcessing()}.
+		 * Schedules processing of the Notifications of the SubscriptionManger via
+		 * {@link SubscriptionManager#onNotificationQueued(Client, long)}.
 		 */
 		protected final long takeFreeNotificationIndexWithoutCommit() {
 			checkedActivate(1);
 			final long index = mNextNotificationIndex++;
 			storeWithoutCommit();
-			getSubscriptionManager().scheduleNotificationProcessing();
+			getSubscriptionManager().onNotificationQueued(this, index);
 			return index;
 		}
 		
+		/**
+		 * @return The maximal number of {@link Notification}s which are sent to this Client in a single message. If it is 1, each
+		 * 	Notification is sent as a separate message. The value is chosen by the client when it subscribes for the first time.
+		 * @see #sendNotifications(SubscriptionManager, DeploymentState)
+		 */
+		public final int getNotificationBatchSize() {
+			checkedActivate(1); // int is a db4o primitive type so 1 is enough
+			return Math.max(1, mNotificationBatchSize);
+		}
+		
+		/**
+		 * @return The maximal number of objects which are sent to this Client in a single message of the synchronization at the
+		 * 	beginning of a {@link Subscription}. If it is 0, the synchronization is sent as a single message. The value is chosen by
+		 * 	the client when it subscribes for the first time.
+		 * @see Subscription#synchronizeSubscriberByFCP()
+		 */
+		public final int getSynchronizationChunkSize() {
+			checkedActivate(1); // int is a db4o primitive type so 1 is enough
+			return mSynchronizationChunkSize;
+		}
+		
 		/**
 		 * @see #mSendNotificationsFailureCount
 		 */
@@ -201,7 +272,7 @@ public final class SubscriptionManager implements PrioRunnable {
 		
 		/**
 		 * Increments {@link #mSendNotificationsFailureCount} and returns the new value.
-		 * Use this for disconnecting a client if {@link #sendNotifications(SubscriptionManager)} has failed too many times.
+		 * Use this for disconnecting a client if {@link #sendNotifications(SubscriptionManager, DeploymentState)} has failed too many times.
 		 * 
 		 * @return The value of {@link #mSendNotificationsFailureCount} after incrementing it.
 		 */
@@ -215,69 +286,135 @@ public final class SubscriptionManager implements PrioRunnable {
 		/**
 		 * Sends out the notification queue for this Client, in sequence.
 		 * 
-		 * If a notification is sent successfully, it is deleted and the transaction is committed.
+		 * If {@link #getNotificationBatchSize()} is 1, each {@link Notification} is sent as a separate FCP message using
+		 * {@link Subscription#notifySubscriberByFCP(Notification)}. Otherwise up to that many Notifications are sent in a single
+		 * message using {@link plugins.WebOfTrust.ui.fcp.FCPInterface#sendChangeNotificationBatch(String, java.util.List)}.
+		 * 
+		 * Each message is sent WITHOUT holding the lock of the SubscriptionManager so the queues of different clients can be
+		 * deployed concurrently, see {@link SubscriptionManager#run()}. The locks are only taken for querying the next notifications and
+		 * for deleting them after they were sent successfully, then the transaction is committed. While notifications are being sent,
+		 * they are marked by {@link DeploymentState#mLastIndexBeingSent} so coalescing won't modify them.
 		 * 
-		 * If sending a single notification fails, the failure counter {@link #mSendNotificationsFailureCount} is incremented
-		 * and {@link SubscriptionManager#scheduleNotificationProcessing()} is executed to retry sending the notification after some time.
-		 * If the failure counter exceeds the limit {@link SubscriptionManager#DISCONNECT_CLIENT_AFTER_FAILURE_COUNT}, false is returned
-		 * to indicate that the SubscriptionManager should delete this Client.
+		 * If sending a message fails, the failure counter {@link #mSendNotificationsFailureCount} is incremented and the notifications
+		 * are retried after the backoff delay of {@link DeploymentState#onFailure()}. If the client has processed part of a batch, it
+		 * can acknowledge it with {@link SubscriptionManager#acknowledgeNotifications(String, long)} so only the rest is retried.
+		 * If the failure counter exceeds the limit {@link SubscriptionManager#DISCONNECT_CLIENT_AFTER_FAILURE_COUNT}, or if the queue
+		 * is larger than {@link SubscriptionManager#MAX_NOTIFICATION_QUEUE_SIZE} when sending fails, false is returned to indicate
+		 * that the SubscriptionManager should delete this Client.
 		 * 
-		 * You have to synchronize on the SubscriptionManager and the database lock before calling this function!
-		 * You don't have to commit the transaction after calling this function.
+		 * You must NOT synchronize on the SubscriptionManager or the database lock when calling this function.
+		 * Before it returns, it calls {@link SubscriptionManager#onDeploymentFinished(DeploymentState)} while holding the lock of the
+		 * SubscriptionManager, so notifications which are queued after that are deployed by the next run of the SubscriptionManager.
 		 * 
 		 * @param manager The {@link SubscriptionManager} from which to query the {@link Notification}s of this Client.
+		 * @param state The deployment state of this Client.
 		 * @return False if this Client should be deleted.
 		 */
-		protected boolean sendNotifications(SubscriptionManager manager) {
+		protected boolean sendNotifications(final SubscriptionManager manager, final DeploymentState state) {
 			if(SubscriptionManager.logMINOR) Logger.minor(manager, "sendNotifications() for " + this);
 			
-			switch(getType()) {
-				case FCP:
-					for(final Notification notification : manager.getNotifications(this)) {
-						if(SubscriptionManager.logDEBUG) Logger.debug(manager, "Sending notification via FCP: " + notification);
-						try {
+			if(getType() != Type.FCP)
+				throw new UnsupportedOperationException("Unknown Type: " + getType());
+			
+			final int batchSize = getNotificationBatchSize();
+			
+			while(true) {
+				final ArrayList<Notification> batch = new ArrayList<Notification>(Math.min(batchSize, 16));
+				
+				synchronized(manager) {
+					final ObjectSet<? extends Notification> queue = mDB.isStored(this) ? manager.getNotifications(this) : null;
+					
+					while(queue != null && queue.hasNext() && batch.size() < batchSize)
+						batch.add(queue.next());
+					
+					if(batch.isEmpty()) { // The queue is empty or the Client was deleted by unsubscribe()
+						state.mLastDeliveredIndex = state.mLastQueuedIndex; // Coalescing might have made the estimate too high.
+						manager.onDeploymentFinished(state);
+						return true;
+					}
+					
+					for(Notification notification : batch)
+						notification.getSubscription(); // Activate it while we hold the lock
+					
+					state.mLastIndexBeingSent = batch.get(batch.size() - 1).getIndex();
+				}
+				
+				if(SubscriptionManager.logDEBUG) Logger.debug(manager, "Sending " + batch.size() + " notifications via FCP: " + batch);
+				
+				try {
+					if(batchSize == 1) {
+						final Notification notification = batch.get(0);
+						notification.getSubscription().notifySubscriberByFCP(notification);
+					} else
+						mWebOfTrust.getFCPInterface().sendChangeNotificationBatch(getFCP_ID(), batch);
+				} catch(Exception e) {
+					synchronized(manager) {
+						state.mLastIndexBeingSent = -1;
+						manager.onDeploymentFinished(state);
+						
+						if(!mDB.isStored(this))
+							return true;
+						
+						byte failureCount = 0;
+						synchronized(Persistent.transactionLock(mDB)) {
 							try {
-								notification.getSubscription().notifySubscriberByFCP(notification);
-								notification.deleteWithoutCommit();
-							} catch(Exception e) {
-								Persistent.checkedRollback(mDB, this, e, LogLevel.WARNING);
-								
-								final byte failureCount = incrementSendNotificationsFailureCountWithoutCommit();
+								failureCount = incrementSendNotificationsFailureCountWithoutCommit();
 								Persistent.checkedCommit(mDB, this);
-								
-								boolean doNotDeleteClient = true;
-								
-								if(e instanceof PluginNotFoundException) {
-									Logger.warning(manager, "sendNotifications() failed, client has disconnected, failure count: " + failureCount, e);
-									doNotDeleteClient = false;
-								} else  {
-									Logger.error(manager, "sendNotifications() failed, failure count: " + failureCount, e);
-									if(failureCount >= DISCONNECT_CLIENT_AFTER_FAILURE_COUNT) 
-										doNotDeleteClient = false;
-								}
-								
-								if(doNotDeleteClient)
-									manager.scheduleNotificationProcessing();
-								
-								return doNotDeleteClient;
-								
+							} catch(RuntimeException e2) {
+								Persistent.checkedRollbackAndThrow(mDB, this, e2);
+							}
+						}
+						
+						boolean doNotDeleteClient = true;
+						
+						if(e instanceof PluginNotFoundException) {
+							Logger.warning(manager, "sendNotifications() failed, client has disconnected, failure count: " + failureCount, e);
+							doNotDeleteClient = false;
+						} else  {
+							Logger.error(manager, "sendNotifications() failed, failure count: " + failureCount, e);
+							if(failureCount >= DISCONNECT_CLIENT_AFTER_FAILURE_COUNT) 
+								doNotDeleteClient = false;
+							else if(state.getQueueDepth() > MAX_NOTIFICATION_QUEUE_SIZE) {
+								Logger.warning(manager, "Client cannot keep up with its notifications, disconnecting it. Queue size: "
+										+ state.getQueueDepth() + "; " + this);
+								doNotDeleteClient = false;
+							}
+						}
+						
+						if(doNotDeleteClient) {
+							state.onFailure();
+							manager.scheduleNotificationRetry(state);
+						}
+						
+						return doNotDeleteClient;
+					}
+				}
+				
+				// If processing of a single message fails, we do not want the previous notifications
+				// to be sent again when the failed message is retried. Therefore, we commit after
+				// each sent message.
+				synchronized(manager) {
+					state.mLastIndexBeingSent = -1;
+					state.onSuccess();
+					manager.onNotificationsDelivered(state, batch);
+					
+					synchronized(Persistent.transactionLock(mDB)) {
+						try {
+							for(Notification notification : batch) {
+								// unsubscribe() or acknowledgeNotifications() might have deleted it meanwhile
+								if(mDB.isStored(notification))
+									notification.deleteWithoutCommit();
 							}
-							// If processing of a single notification fails, we do not want the previous notifications
-							// to be sent again when the failed notification is retried. Therefore, we commit after
-							// each processed notification but do not catch RuntimeExceptions here
-							
 							Persistent.checkedCommit(mDB, this);
 						} catch(RuntimeException e) {
 							Persistent.checkedRollbackAndThrow(mDB, this, e);
 						}
-						if(SubscriptionManager.logDEBUG) Logger.debug(manager, "Sending notification via FCP finished: " + notification);
 					}
-					break;
-				default:
-					throw new UnsupportedOperationException("Unknown Type: " + getType());
+					
+				}
+				
+				if(SubscriptionManager.logDEBUG) Logger.debug(manager, "Sending notifications via FCP finished.");
 			}
-			
-			return true;
 		}
 		
 		/**
@@ -320,6 +457,7 @@ public final class SubscriptionManager implements PrioRunnable {
 				subscription.deleteWithoutCommit(subscriptionManager);
 				notifyClientAboutDeletion(subscription);
 			}
+			subscriptionManager.mDeploymentStates.remove(getFCP_ID());
 			super.deleteWithoutCommit();
 		}
 
@@ -365,13 +503,37 @@ public final class SubscriptionManager implements PrioRunnable {
 		@IndexedField
 		private final String mID;
 		
+		/* The fields of the SubscriptionFilter. They are stored as primitive fields so db4o does not need to activate another object. */
+		
+		/** @see SubscriptionFilter#getContext() */
+		private final String mFilterContext;
+		
+		/** @see SubscriptionFilter#getTrusterID() */
+		private final String mFilterTrusterID;
+		
+		/** @see SubscriptionFilter#getMinimumScore() */
+		private final int mFilterMinimumScore;
+		
+		/** @see SubscriptionFilter#getMaximumRank() */
+		private final int mFilterMaximumRank;
+		
+		/** @see SubscriptionFilter#getSelection() */
+		private final int mFilterSelection;
+		
 		/**
 		 * Constructor for being used by child classes.
 		 * @param myClient The {@link Client} to which this Subscription belongs.
+		 * @param myFilter The {@link SubscriptionFilter} of this Subscription. Must be supported by the class of it, see
+		 * 	{@link SubscriptionFilter#isSupportedBy(Class)}.
 		 */
-		protected Subscription(final Client myClient) {
+		protected Subscription(final Client myClient, final SubscriptionFilter myFilter) {
 			mClient = myClient;
 			mID = UUID.randomUUID().toString();
+			mFilterContext = myFilter.getContext();
+			mFilterTrusterID = myFilter.getTrusterID();
+			mFilterMinimumScore = myFilter.getMinimumScore();
+			mFilterMaximumRank = myFilter.getMaximumRank();
+			mFilterSelection = myFilter.getSelection();
 			
 			assert(mClient != null);
 		}
@@ -412,6 +574,14 @@ public final class SubscriptionManager implements PrioRunnable {
 			checkedActivate(1);
 			return mID;
 		}
+		
+		/**
+		 * @return The {@link SubscriptionFilter} which the client specified when subscribing.
+		 */
+		public final SubscriptionFilter getFilter() {
+			checkedActivate(1); // String and int are db4o primitive types so 1 is enough
+			return new SubscriptionFilter(mFilterContext, mFilterTrusterID, mFilterMinimumScore, mFilterMaximumRank, mFilterSelection);
+		}
 
 		/**
 		 * ATTENTION: This does NOT delete the {@link Notification} objects associated with this Subscription!
@@ -453,6 +623,60 @@ public final class SubscriptionManager implements PrioRunnable {
 		}
 		
 		
+		/**
+		 * Stores a newly created {@link Notification} of this Subscription without committing the transaction.
+		 */
+		protected final void storeNewNotificationWithoutCommit(final Notification notification) {
+			notification.initializeTransient(mWebOfTrust);
+			notification.storeWithoutCommit();
+			++getSubscriptionManager().mStoredNotificationCount;
+		}
+		
+		/**
+		 * Tries to merge a change of an object into the latest queued {@link Notification} of this Subscription about the same object.
+		 * 
+		 * Only modifications (oldObject and newObject are non-null and of the same class) are merged, and only into a Notification which does not delete
+		 * the object: Notifications about other objects which were queued in between might depend upon the object existing, for example
+		 * a {@link TrustChangedNotification} depends on the identities of the trust. A modification does not change whether the object
+		 * exists, so it can be moved to the position of the queued Notification without breaking the ordering guarantees.
+		 * 
+		 * If the merged Notification would not change anything anymore - the object was changed back to the version which the client
+		 * knows - it is deleted.
+		 * 
+		 * You must synchronize on the {@link SubscriptionManager} and the database lock when calling this function.
+		 * 
+		 * @return True if the change was merged and no new Notification must be stored for it.
+		 */
+		protected final boolean coalesceNotificationWithoutCommit(final Persistent oldObject, final Persistent newObject) {
+			if(oldObject == null || newObject == null)
+				return false;
+			
+			// The conversion between OwnIdentity and Identity changes which Scores may exist, so it must stay at its position.
+			if(oldObject.getClass() != newObject.getClass())
+				return false;
+			
+			final SubscriptionManager manager = getSubscriptionManager();
+			final Notification latest = manager.getLatestNotification(this, newObject.getID());
+			
+			if(latest == null || latest.isDeletion())
+				return false;
+			
+			// It is being sent with its current new object and will be deleted afterwards, so modifying it would lose the change.
+			if(manager.isBeingSent(getClient(), latest))
+				return false;
+			
+			final Persistent oldestObject = latest.getOldObject();
+			if(oldestObject != null && oldestObject.equals(newObject)) {
+				latest.deleteWithoutCommit();
+				++manager.mCancelledNotificationCount;
+			} else {
+				latest.setNewObjectWithoutCommit(newObject);
+				++manager.mCoalescedNotificationCount;
+			}
+			
+			return true;
+		}
+		
 		/**
 		 * Called by the {@link SubscriptionManager} before storing a new Subscription.
 		 * 
@@ -466,11 +690,16 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * Also, synchronous communication is necessary for guaranteeing the notifications to arrive after the synchronization at the client.
 		 * 
 		 * For example, if a client subscribes to the list of identities, it must always receive a full list of all existing identities at first.
-		 * As new identities appear afterwards, the client can be kept up to date by sending each single new identity as it appears. 
-		 * 
+		 * As new identities appear afterwards, the client can be kept up to date by sending each single new identity as it appears.
+		 *
+		 * If the client requested a {@link Client#getSynchronizationChunkSize()}, the dataset is streamed in several messages of that
+		 * size so neither WOT nor the client have to hold all of it in a single message. The synchronization fails if any of them fails.
+		 *
 		 * Thread synchronization:
-		 * This must be called with synchronization upon the {@link WebOfTrust} and the SubscriptionManager.
-		 * Therefore it may perform database queries on the WebOfTrust to obtain the dataset.
+		 * This must be called with synchronization upon the SubscriptionManager but NOT upon the {@link WebOfTrust}: The lock of
+		 * the SubscriptionManager prevents the dataset from changing during the synchronization, because all changes of it store
+		 * {@link Notification}s. Thus the FCP interface reads the dataset without locking the WebOfTrust, which is not blocked
+		 * while the client processes the chunks.
 		 * 
 		 * @throws PluginNotFoundException If the FCP client has disconnected. Subscribing must fail if this happens.
 		 * @throws FCPCallFailedException If processing failed at the client. Subscribing must fail if this happens.
@@ -545,6 +774,13 @@ public final class SubscriptionManager implements PrioRunnable {
 		@IndexedField
 		private final long mIndex;
 		
+		/**
+		 * The {@link Persistent#getID()} of the changed object. Used for finding the Notification when coalescing a further change
+		 * of the object into it, see {@link Subscription#coalesceNotificationWithoutCommit(Persistent, Persistent)}.
+		 */
+		@IndexedField
+		private final String mObjectID;
+		
 		
 		/**
 		 * A serialized copy of the changed {@link Persistent} object before the change.
@@ -560,11 +796,12 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * A serialized copy of the changed {@link Persistent} object after the change.
 		 * Null if the change was the deletion of the object.
 		 * If non-null its {@link Persistent#getID()} must be equal to the one of {@link #mOldObject} if that member is non-null as well.
+		 * Not final because later changes of the object are coalesced into it, see {@link #setNewObjectWithoutCommit(Persistent)}.
 		 * 
 		 * @see Persistent#serialize()
 		 * @see #getNewObject() The public getter for this.
 		 */
-		private final byte[] mNewObject;
+		private byte[] mNewObject;
 		
 		/**
 		 * Constructs a Notification in the queue of the given Client.
@@ -588,6 +825,7 @@ public final class SubscriptionManager implements PrioRunnable {
 						(oldObject != null && newObject != null && oldObject.getID().equals(newObject.getID()))
 					);
 			
+			mObjectID = (newObject != null ? newObject : oldObject).getID();
 			mOldObject = (oldObject != null ? oldObject.serialize() : null);
 			mNewObject = (newObject != null ? newObject.serialize() : null);
 		}
@@ -620,6 +858,10 @@ public final class SubscriptionManager implements PrioRunnable {
 
 			if(mOldObject != null && mNewObject != null && !getOldObject().getID().equals(getNewObject().getID()))
 				throw new IllegalStateException("The ID of mOldObject and mNewObject must match!");
+			
+			// Notifications of older databases do not have it. They are deleted by SubscriptionManager.start().
+			if(mObjectID != null && !mObjectID.equals((mNewObject != null ? getNewObject() : getOldObject()).getID()))
+				throw new IllegalStateException("mObjectID does not match the ID of the changed object!");
 		}
 		
 		/**
@@ -639,6 +881,15 @@ public final class SubscriptionManager implements PrioRunnable {
 			return mSubscription;
 		}
 
+		/**
+		 * @return The index of this Notification in the queue of its {@link Client}.
+		 * @see #mIndex
+		 */
+		public final long getIndex() {
+			checkedActivate(1); // long is a db4o primitive type so 1 is enough
+			return mIndex;
+		}
+
 		/**
 		 * @return The changed {@link Persistent} object before the change. Null if the change was the creation of the object.
 		 * @see #mOldObject The backend member variable of this getter.
@@ -657,6 +908,27 @@ public final class SubscriptionManager implements PrioRunnable {
 			return mNewObject != null ? Persistent.deserialize(mWebOfTrust, mNewObject) : null;
 		}
 
+		/**
+		 * @return True if the change was the deletion of the object, i.e. {@link #getNewObject()} would return null.
+		 */
+		protected final boolean isDeletion() {
+			checkedActivate(1); // byte[] is a db4o primitive type so 1 is enough
+			return mNewObject == null;
+		}
+		
+		/**
+		 * Replaces the version of the object after the change with a newer one and stores this Notification without committing
+		 * the transaction. Used for coalescing, see {@link Subscription#coalesceNotificationWithoutCommit(Persistent, Persistent)}.
+		 */
+		protected final void setNewObjectWithoutCommit(final Persistent newObject) {
+			checkedActivate(1);
+			assert(mNewObject != null && newObject != null);
+			assert(mObjectID.equals(newObject.getID()));
+			
+			mNewObject = newObject.serialize();
+			storeWithoutCommit();
+		}
+
 		/** {@inheritDoc} */
 		@Override protected void activateFully() {
 			checkedActivate(1);
@@ -772,14 +1044,35 @@ public final class SubscriptionManager implements PrioRunnable {
 		/**
 		 * @param myClient The {@link Client} which created this Subscription. 
 		 */
-		protected IdentitiesSubscription(final Client myClient) {
-			super(myClient);
+		/**
+		 * The fields of the identities which the client wants to receive. Opaque to the SubscriptionManager.
+		 * @see #getIdentityFields()
+		 */
+		private final String mIdentityFields;
+		
+		/**
+		 * @param myIdentityFields See {@link #getIdentityFields()}.
+		 */
+		protected IdentitiesSubscription(final Client myClient, final SubscriptionFilter myFilter, final String myIdentityFields) {
+			super(myClient, myFilter);
+			mIdentityFields = myIdentityFields;
+		}
+		
+		/**
+		 * @return The "Fields" which the client specified when subscribing, null if it did not. It is parsed by the
+		 * 	{@link plugins.WebOfTrust.ui.fcp.FCPInterface.IdentityField} of the FCP interface and limits the fields of the
+		 * 	identities in the synchronization and the notifications.
+		 */
+		public final String getIdentityFields() {
+			checkedActivate(1); // String is a db4o primitive type so 1 is enough
+			return mIdentityFields;
 		}
 
 		/** {@inheritDoc} */
 		@Override
 		protected void synchronizeSubscriberByFCP() throws FCPCallFailedException, PluginNotFoundException {
-			mWebOfTrust.getFCPInterface().sendAllIdentities(getClient().getFCP_ID());
+			final Client client = getClient();
+			mWebOfTrust.getFCPInterface().sendAllIdentities(client.getFCP_ID(), this, client.getSynchronizationChunkSize());
 		}
 		
 		/** {@inheritDoc} */
@@ -796,9 +1089,21 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * @param newIdentity The version of the {@link Identity} after the change. Null if it was deleted.
 		 */
 		private void storeNotificationWithoutCommit(Identity oldIdentity, Identity newIdentity) {
-			final IdentityChangedNotification notification = new IdentityChangedNotification(this, oldIdentity, newIdentity);
-			notification.initializeTransient(mWebOfTrust);
-			notification.storeWithoutCommit();
+			final SubscriptionFilter filter = getFilter();
+			if(!filter.isEmpty()) {
+				// If the identity starts or stops matching the filter, the client sees it being created or deleted.
+				if(oldIdentity != null && !filter.matches(oldIdentity))
+					oldIdentity = null;
+				if(newIdentity != null && !filter.matches(newIdentity))
+					newIdentity = null;
+				if(oldIdentity == null && newIdentity == null)
+					return;
+			}
+			
+			if(coalesceNotificationWithoutCommit(oldIdentity, newIdentity))
+				return;
+			
+			storeNewNotificationWithoutCommit(new IdentityChangedNotification(this, oldIdentity, newIdentity));
 		}
 
 	}
@@ -816,13 +1121,14 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * @param myClient The {@link Client} which created this Subscription. 
 		 */
 		protected TrustsSubscription(final Client myClient) {
-			super(myClient);
+			super(myClient, SubscriptionFilter.NONE);
 		}
 		
 		/** {@inheritDoc} */
 		@Override
 		protected void synchronizeSubscriberByFCP() throws FCPCallFailedException, PluginNotFoundException {
-			mWebOfTrust.getFCPInterface().sendAllTrustValues(getClient().getFCP_ID());
+			final Client client = getClient();
+			mWebOfTrust.getFCPInterface().sendAllTrustValues(client.getFCP_ID(), client.getSynchronizationChunkSize());
 		}
 		
 		/** {@inheritDoc} */
@@ -839,9 +1145,10 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * @param newTrust The version of the {@link Trust} after the change. Null if it was deleted.
 		 */
 		public void storeNotificationWithoutCommit(final Trust oldTrust, final Trust newTrust) {
-			final TrustChangedNotification notification = new TrustChangedNotification(this, oldTrust, newTrust);
-			notification.initializeTransient(mWebOfTrust);
-			notification.storeWithoutCommit();
+			if(coalesceNotificationWithoutCommit(oldTrust, newTrust))
+				return;
+			
+			storeNewNotificationWithoutCommit(new TrustChangedNotification(this, oldTrust, newTrust));
 		}
 
 	}
@@ -858,14 +1165,15 @@ public final class SubscriptionManager implements PrioRunnable {
 		/**
 		 * @param myClient The {@link Client} which created this Subscription.
 		 */
-		protected ScoresSubscription(final Client myClient) {
-			super(myClient);
+		protected ScoresSubscription(final Client myClient, final SubscriptionFilter myFilter) {
+			super(myClient, myFilter);
 		}
 		
 		/** {@inheritDoc} */
 		@Override
 		protected void synchronizeSubscriberByFCP() throws FCPCallFailedException, PluginNotFoundException {
-			mWebOfTrust.getFCPInterface().sendAllScoreValues(getClient().getFCP_ID());
+			final Client client = getClient();
+			mWebOfTrust.getFCPInterface().sendAllScoreValues(client.getFCP_ID(), getFilter(), client.getSynchronizationChunkSize());
 		}
 
 		/** {@inheritDoc} */
@@ -881,30 +1189,106 @@ public final class SubscriptionManager implements PrioRunnable {
 		 * @param oldScore The version of the {@link Score} before the change. Null if it was newly created.
 		 * @param newScore The version of the {@link Score} after the change. Null if it was deleted.
 		 */
-		public void storeNotificationWithoutCommit(final Score oldScore, final Score newScore) {
-			final ScoreChangedNotification notification = new ScoreChangedNotification(this, oldScore, newScore);
-			notification.initializeTransient(mWebOfTrust);
-			notification.storeWithoutCommit();
+		public void storeNotificationWithoutCommit(Score oldScore, Score newScore) {
+			final SubscriptionFilter filter = getFilter();
+			if(!filter.isEmpty()) {
+				// If the score starts or stops matching the filter, the client sees it being created or deleted.
+				if(oldScore != null && !filter.matches(oldScore))
+					oldScore = null;
+				if(newScore != null && !filter.matches(newScore))
+					newScore = null;
+				if(oldScore == null && newScore == null)
+					return;
+			}
+			
+			if(coalesceNotificationWithoutCommit(oldScore, newScore))
+				return;
+			
+			storeNewNotificationWithoutCommit(new ScoreChangedNotification(this, oldScore, newScore));
 		}
 
 	}
 
 	
 	/**
-	 * After a {@link Notification} command is stored, we wait this amount of time before processing it.
-	 * This is to allow some coalescing when multiple notifications happen in a short interval.
-	 * This is usually the case as the import of trust lists often causes multiple changes.
+	 * If deploying a {@link Notification} fails and its resend-counter is not exhausted, it will be resent after this delay,
+	 * multiplied by the backoff factor of the {@link Client}, see {@link DeploymentState#onFailure()}.
 	 * 
-	 * Further, if deploying a {@link Notification} fails and its resend-counter is not exhausted, it will be resent after this delay.
+	 * New notifications are deployed after a much shorter delay, see {@link #CONFIG_NOTIFICATION_DELAY}.
 	 */
 	public static final long PROCESS_NOTIFICATIONS_DELAY = 60 * 1000;
 	
 	/**
-	 * If {@link Client#sendNotifications(SubscriptionManager)} fails, the failure counter of the subscription is incremented.
+	 * Name of the integer {@link Configuration} parameter which specifies how many milliseconds the deployment of new
+	 * {@link Notification}s waits for further ones: The import of trust lists often causes multiple changes in a short interval.
+	 * Waiting for all of them allows coalescing and sending them at once. Defaults to {@link #DEFAULT_NOTIFICATION_DELAY}.
+	 * Read once when the SubscriptionManager is created.
+	 * 
+	 * @see DebouncedJob
+	 * @see #CONFIG_MAX_NOTIFICATION_DELAY
+	 */
+	public static final String CONFIG_NOTIFICATION_DELAY = "SubscriptionManager.NotificationDelay";
+	
+	private static final int DEFAULT_NOTIFICATION_DELAY = 1 * 1000;
+	
+	/**
+	 * Name of the integer {@link Configuration} parameter which specifies the maximal amount of milliseconds which a
+	 * {@link Notification} waits before its deployment is started if further notifications keep arriving, see
+	 * {@link #CONFIG_NOTIFICATION_DELAY}. Defaults to {@link #DEFAULT_MAX_NOTIFICATION_DELAY}.
+	 */
+	public static final String CONFIG_MAX_NOTIFICATION_DELAY = "SubscriptionManager.MaxNotificationDelay";
+	
+	private static final int DEFAULT_MAX_NOTIFICATION_DELAY = 10 * 1000;
+	
+	/**
+	 * If the {@link Notification} queue of a {@link Client} grows beyond this size, its deployment is started immediately instead
+	 * of waiting for the delay of {@link #CONFIG_NOTIFICATION_DELAY}.
+	 */
+	public static final int NOTIFICATION_QUEUE_HIGH_WATERMARK = 1024;
+	
+	/**
+	 * If sending the {@link Notification} queue of a {@link Client} fails while the queue is larger than this, the client is not
+	 * able to keep up with the changes and it is disconnected without waiting for {@link #DISCONNECT_CLIENT_AFTER_FAILURE_COUNT}:
+	 * Its subscriptions are terminated. When it subscribes again, it receives the current dataset, which is smaller than the queue.
+	 * Clients which accept their notifications are not disconnected, no matter how large their queue is.
+	 * The size is the estimate of {@link DeploymentState#getQueueDepth()}, the queue is not counted in the database.
+	 */
+	public static final int MAX_NOTIFICATION_QUEUE_SIZE = 64 * 1024;
+	
+	/**
+	 * If {@link Client#sendNotifications(SubscriptionManager, DeploymentState)} fails, the failure counter of the subscription is incremented.
 	 * If the counter reaches this value, the client is disconnected.
 	 */
 	public static final byte DISCONNECT_CLIENT_AFTER_FAILURE_COUNT = 5;
 	
+	/**
+	 * The maximal number of {@link Client}s whose {@link Notification} queue is deployed concurrently, see {@link #run()}.
+	 */
+	private static final int MAX_DEPLOYMENT_THREADS = 4;
+	
+	/**
+	 * The maximal amount of {@link Notification}s which a {@link Client} can request to receive in a single FCP message, see
+	 * {@link Client#getNotificationBatchSize()}.
+	 */
+	public static final int MAX_NOTIFICATION_BATCH_SIZE = 256;
+	
+	/**
+	 * The maximal amount of objects which a {@link Client} can request to receive in a single message of the synchronization of a
+	 * {@link Subscription}, see {@link Client#getSynchronizationChunkSize()}.
+	 */
+	public static final int MAX_SYNCHRONIZATION_CHUNK_SIZE = 4096;
+	
+	/**
+	 * If sending a {@link Notification} to a {@link Client} fails, the next attempt for that client is delayed by
+	 * {@link #PROCESS_NOTIFICATIONS_DELAY} multiplied by 2^(failures - 1), but at most by 2^MAX_BACKOFF_EXPONENT.
+	 */
+	private static final int MAX_BACKOFF_EXPONENT = 4;
+	
+	/**
+	 * The maximal time in milliseconds which {@link #stop()} waits for running deployments of {@link Notification} queues.
+	 */
+	private static final long STOP_TIMEOUT = 30 * 1000;
+	
 	
 	/**
 	 * The {@link WebOfTrust} to which this SubscriptionManager belongs.
@@ -918,13 +1302,65 @@ public final class SubscriptionManager implements PrioRunnable {
 	private final ExtObjectContainer mDB;
 
 	/**
-	 * The SubscriptionManager schedules execution of its notification deployment thread on this {@link TrivialTicker}.
-	 * The execution typically is scheduled after a delay of {@link #PROCESS_NOTIFICATIONS_DELAY}.
+	 * The SubscriptionManager schedules execution of its notification deployment thread on this {@link TrivialTicker}, using
+	 * {@link #mProcessingJob}.
 	 * 
 	 * Is null until {@link #start()} was called.
 	 */
 	private TrivialTicker mTicker = null;
 	
+	/**
+	 * Executes {@link #run()} on {@link #mTicker} shortly after {@link Notification}s were queued, see
+	 * {@link #onNotificationQueued(Client, long)}, and when failed deployments shall be retried, see
+	 * {@link #scheduleNotificationRetry(DeploymentState)}.
+	 */
+	private final DebouncedJob mProcessingJob;
+	
+	/**
+	 * {@link #run()} deploys the {@link Notification} queue of each {@link Client} as a separate {@link ClientDeployment} on this
+	 * executor so a slow client does not delay the others. It is the executor of the node.
+	 * 
+	 * Is null until {@link #start()} was called and in unit tests: The deployment then happens on the thread which calls run().
+	 */
+	private Executor mDeploymentExecutor = null;
+	
+	/**
+	 * The number of {@link ClientDeployment}s which were handed to {@link #mDeploymentExecutor} and did not finish yet. At most
+	 * {@link #MAX_DEPLOYMENT_THREADS}: The executor of the node does not limit the number of threads.
+	 * Protected by the lock of the SubscriptionManager.
+	 */
+	private int mRunningDeployments = 0;
+	
+	/**
+	 * True if {@link #run()} skipped a {@link Client} because {@link #MAX_DEPLOYMENT_THREADS} deployments were running. The next
+	 * finishing deployment then triggers run() again. Protected by the lock of the SubscriptionManager.
+	 */
+	private boolean mDeploymentsDeferred = false;
+	
+	/**
+	 * The {@link DeploymentState} of each {@link Client}, key = {@link Client#getFCP_ID()}.
+	 * Protected by the lock of the SubscriptionManager.
+	 */
+	private final HashMap<String, DeploymentState> mDeploymentStates = new HashMap<String, DeploymentState>();
+	
+	/* Statistics. Written while holding the lock of the SubscriptionManager. They include notifications of transactions which
+	 * were rolled back, so they are approximate. */
+	
+	/** The number of {@link Notification} objects which were stored, see {@link #getStoredNotificationCount()} */
+	private volatile long mStoredNotificationCount = 0;
+	
+	/** The number of changes which were merged into a queued {@link Notification}, see {@link #getCoalescedNotificationCount()} */
+	private volatile long mCoalescedNotificationCount = 0;
+	
+	/** The number of queued {@link Notification}s which were deleted because coalescing made them a no-op */
+	private volatile long mCancelledNotificationCount = 0;
+	
+	/** The number of {@link Notification}s which were deployed to clients successfully, see {@link #getSentNotificationCount()} */
+	private volatile long mSentNotificationCount = 0;
+	
+	/** The sum of the delivery times of the {@link #mSentNotificationCount}, see {@link #getAverageNotificationDeliveryTime()} */
+	private volatile long mTotalNotificationDeliveryTime = 0;
+	
 	/** Automatically set to true by {@link Logger} if the log level is set to {@link LogLevel#DEBUG} for this class.
 	 * Used as performance optimization to prevent construction of the log strings if it is not necessary. */
 	private static transient volatile boolean logDEBUG = false;
@@ -946,6 +1382,14 @@ public final class SubscriptionManager implements PrioRunnable {
 	public SubscriptionManager(WebOfTrust myWoT) {
 		mWoT = myWoT;
 		mDB = mWoT.getDatabase();
+		
+		final Configuration config = mWoT.getConfig();
+		final int delay = (config != null && config.containsInt(CONFIG_NOTIFICATION_DELAY))
+			? config.getInt(CONFIG_NOTIFICATION_DELAY) : DEFAULT_NOTIFICATION_DELAY;
+		final int maxDelay = (config != null && config.containsInt(CONFIG_MAX_NOTIFICATION_DELAY))
+			? config.getInt(CONFIG_MAX_NOTIFICATION_DELAY) : DEFAULT_MAX_NOTIFICATION_DELAY;
+		
+		mProcessingJob = new DebouncedJob(this, "WoT SubscriptionManager", getPriority(), delay, maxDelay);
 	}
 
 	
@@ -1012,35 +1456,125 @@ public final class SubscriptionManager implements PrioRunnable {
 		}
 	}
 	
+	/**
+	 * Throws if the given {@link Subscription} cannot be combined with the other subscriptions of its {@link Client}: The client of a
+	 * {@link TrustsSubscription} or {@link ScoresSubscription} relies on having received all identities which the trust values and
+	 * scores reference, see {@link #storeNewSubscriptionAndCommit(Subscription)}. An {@link IdentitiesSubscription} with a
+	 * {@link SubscriptionFilter#getContext()} filter does not send all identities.
+	 * 
+	 * @throws IllegalArgumentException If the client has such a combination of subscriptions after adding the given one.
+	 */
+	private synchronized void throwIfIncompatibleSubscriptionExists(final Subscription<? extends Notification> subscription) {
+		final Client client = subscription.getClient();
+		if(!mDB.isStored(client))
+			return; // The client was newly created just for this subscription so there cannot be any other subscriptions on it.
+		
+		final boolean isContextFiltered = subscription instanceof IdentitiesSubscription
+			&& subscription.getFilter().getContext() != null;
+		final boolean referencesIdentities = subscription instanceof TrustsSubscription || subscription instanceof ScoresSubscription;
+		
+		if(!isContextFiltered && !referencesIdentities)
+			return;
+		
+		final ObjectSet<Subscription<? extends Notification>> others = getSubscriptions(client);
+		for(final Subscription<? extends Notification> other : others) {
+			final boolean incompatible = isContextFiltered
+				? (other instanceof TrustsSubscription || other instanceof ScoresSubscription)
+				: (other instanceof IdentitiesSubscription && other.getFilter().getContext() != null);
+			
+			if(incompatible) {
+				throw new IllegalArgumentException("Subscriptions to trusts or scores cannot be combined with a subscription to "
+					+ "identities which is filtered by context: " + subscription + "; " + other);
+			}
+		}
+	}
+	
+	/**
+	 * Sends the pending {@link Notification}s of the {@link Client} with the given FCP ID, if it exists, on the calling thread.
+	 * Used before filing a new {@link Subscription} for an existing client: The client must have received all notifications before
+	 * {@link Subscription#synchronizeSubscriberByFCP()} is called, because the pending notifications might create Identity objects
+	 * upon whose existence the synchronization of Trust/Score values depends.
+	 * 
+	 * You must NOT synchronize on this SubscriptionManager when calling this function, see
+	 * {@link Client#sendNotifications(SubscriptionManager, DeploymentState)}. Thus further notifications can be queued while it
+	 * executes, the caller must check {@link #hasPendingNotifications(String)} while holding the lock afterwards.
+	 * 
+	 * @throws RuntimeException If sending failed. The client is deleted if sending told us to do so, like with {@link #run()}.
+	 */
+	private void deployPendingNotifications(final String fcpID) {
+		final Client client;
+		final DeploymentState state;
+		final int oldFailureCount;
+		
+		synchronized(this) {
+			try {
+				client = getClient(fcpID);
+			} catch(UnknownClientException e) {
+				return;
+			}
+			
+			state = getDeploymentState(client);
+			// A ClientDeployment might be sending the notifications right now. It needs our lock, which wait() releases, so
+			// we can wait for it to finish.
+			while(state.mDeploying) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+			state.mDeploying = true; // Prevent run() from starting a ClientDeployment for the client.
+			oldFailureCount = client.getSendNotificationsFailureCount();
+		}
+		
+		// Deletes the client if sendNotifications() tells us to do so.
+		new ClientDeployment(client, state, false).run();
+		
+		synchronized(this) {
+			if(!mDB.isStored(client))
+				throw new RuntimeException("Failed to send pending notifications, the client was deleted: " + fcpID);
+			if(client.getSendNotificationsFailureCount() != oldFailureCount)
+				throw new RuntimeException("Failed to send pending notifications to the client. Cannot file a new Subscription!");
+		}
+	}
+	
+	/**
+	 * @return True if the {@link Client} with the given FCP ID exists and has {@link Notification}s in its queue.
+	 * @see #deployPendingNotifications(String)
+	 */
+	private synchronized boolean hasPendingNotifications(final String fcpID) {
+		try {
+			return getNotifications(getClient(fcpID)).size() > 0;
+		} catch(UnknownClientException e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Calls {@link Subscription#synchronizeSubscriberByFCP()} on the Subscription, stores it and commits the transaction.
 	 * 
 	 * Takes care of all required synchronization.
 	 * Shall be used as back-end for all front-end functions for creating subscriptions.
 	 * 
-	 * You have to synchronize on mWoT and this SubscriptionManager before calling this function!
+	 * You have to synchronize on this SubscriptionManager before calling this function! You must NOT synchronize on mWoT, see
+	 * {@link Subscription#synchronizeSubscriberByFCP()}.
+	 * If the client exists already, it must have received all its notifications: Call {@link #deployPendingNotifications(String)}
+	 * before taking the lock and check {@link #hasPendingNotifications(String)} while holding it.
 	 * You don't have to commit the transaction after calling this function.
 	 * 
 	 * @throws SubscriptionExistsAlreadyException Thrown if a subscription of the same type for the same client exists already. See {@link #throwIfSimilarSubscriptionExists(Subscription)}
+	 * @throws IllegalArgumentException If the subscription cannot be combined with the other subscriptions of the client, see
+	 * 	{@link #throwIfIncompatibleSubscriptionExists(Subscription)}.
 	 */
 	private void storeNewSubscriptionAndCommit(final Subscription<? extends Notification> subscription) throws SubscriptionExistsAlreadyException {
 		subscription.initializeTransient(mWoT);
 
 		throwIfSimilarSubscriptionExists(subscription);
-
-		final Client client = subscription.getClient();
-		if(mDB.isStored(client)) {
-			// If there is already a client, we must make sure that it has received all notifications before we call
-			// subscription.synchronizeSubscriberByFCP(): The pending notifications might create Identity objects upon whose existence
-			// the synchronization of Trust/Score values depends.
-			final int oldFailureCount = client.getSendNotificationsFailureCount();
-			client.sendNotifications(this);
-			if(client.getSendNotificationsFailureCount() != oldFailureCount)
-				throw new RuntimeException("Failed to send pending notifications to the client. Cannot file a new Subscription!");
-		}
+		throwIfIncompatibleSubscriptionExists(subscription);
 		
 		try {
-			subscription.synchronizeSubscriberByFCP(); // Needs the lock on mWoT which the JavaDoc requests
+			subscription.synchronizeSubscriberByFCP(); // Needs our lock which the JavaDoc requests
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -1057,23 +1591,39 @@ public final class SubscriptionManager implements PrioRunnable {
 	 * - Change of properties, see {@link Identity#mProperties}
 	 * 
 	 * Changes which do NOT result in a notification:
-	 * - New trust value from an identity. Use {@link #subscribeToTrusts(String)} instead.
+	 * - New trust value from an identity. Use {@link #subscribeToTrusts(String, int, int)} instead.
 	 * - New edition hint for an identity. Edition hints are only useful to WOT, this shouldn't matter to clients. Also, edition hints are
 	 *   created by other identities, not by the identity which is their subject. The identity itself did not change. 
 	 * 
 	 * @param fcpID The identifier of the FCP connection of the {@link Client}. Must be unique among all FCP connections!
+	 * @param notificationBatchSize See {@link Client#getNotificationBatchSize()}. Only used if the Client does not exist yet.
+	 * @param synchronizationChunkSize See {@link Client#getSynchronizationChunkSize()}. Only used if the Client does not exist yet.
+	 * @param filter Restricts the identities about which the client is notified. Must be supported by {@link IdentitiesSubscription},
+	 * 	see {@link SubscriptionFilter#isSupportedBy(Class)}.
+	 * @param identityFields See {@link IdentitiesSubscription#getIdentityFields()}. Null for all fields.
 	 * @return The {@link IdentitiesSubscription} which is created by this function.
 	 * @see IdentityChangedNotification The type of {@link Notification} which is sent when an event happens.
 	 */
-	public IdentitiesSubscription subscribeToIdentities(String fcpID) throws SubscriptionExistsAlreadyException {
-		synchronized(mWoT) {
-		synchronized(this) {
-			// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
-			// Storage will happen in storeNewSubscriptionAndCommit()
-			final IdentitiesSubscription subscription = new IdentitiesSubscription(getOrCreateClient(fcpID));
-			storeNewSubscriptionAndCommit(subscription);
-			return subscription;
-		}
+	public IdentitiesSubscription subscribeToIdentities(String fcpID, int notificationBatchSize, int synchronizationChunkSize,
+			SubscriptionFilter filter, String identityFields)
+			throws SubscriptionExistsAlreadyException {
+		
+		if(!filter.isSupportedBy(IdentitiesSubscription.class))
+			throw new IllegalArgumentException("Filter is not supported for identities: " + filter);
+		
+		while(true) {
+			deployPendingNotifications(fcpID);
+			synchronized(this) {
+				if(hasPendingNotifications(fcpID))
+					continue; // Queued while we were deploying
+			
+				// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
+				// Storage will happen in storeNewSubscriptionAndCommit()
+				final IdentitiesSubscription subscription = new IdentitiesSubscription(getOrCreateClient(fcpID, notificationBatchSize, synchronizationChunkSize),
+						filter, identityFields);
+				storeNewSubscriptionAndCommit(subscription);
+				return subscription;
+			}
 		}
 	}
 	
@@ -1081,18 +1631,26 @@ public final class SubscriptionManager implements PrioRunnable {
 	 * The {@link Client} is notified when a {@link Trust} changes, is created or removed.
 	 * 
 	 * @param fcpID The identifier of the FCP connection of the {@link Client}. Must be unique among all FCP connections!
+	 * @param notificationBatchSize See {@link Client#getNotificationBatchSize()}. Only used if the Client does not exist yet.
+	 * @param synchronizationChunkSize See {@link Client#getSynchronizationChunkSize()}. Only used if the Client does not exist yet.
 	 * @return The {@link TrustsSubscription} which is created by this function.
 	 * @see TrustChangedNotification The type of {@link Notification} which is sent when an event happens.
 	 */
-	public TrustsSubscription subscribeToTrusts(String fcpID) throws SubscriptionExistsAlreadyException {
-		synchronized(mWoT) {
-		synchronized(this) {
-			// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
-			// Storage will happen in storeNewSubscriptionAndCommit()
-			final TrustsSubscription subscription = new TrustsSubscription(getOrCreateClient(fcpID));
-			storeNewSubscriptionAndCommit(subscription);
-			return subscription;
-		}
+	public TrustsSubscription subscribeToTrusts(String fcpID, int notificationBatchSize, int synchronizationChunkSize)
+			throws SubscriptionExistsAlreadyException {
+		
+		while(true) {
+			deployPendingNotifications(fcpID);
+			synchronized(this) {
+				if(hasPendingNotifications(fcpID))
+					continue; // Queued while we were deploying
+			
+				// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
+				// Storage will happen in storeNewSubscriptionAndCommit()
+				final TrustsSubscription subscription = new TrustsSubscription(getOrCreateClient(fcpID, notificationBatchSize, synchronizationChunkSize));
+				storeNewSubscriptionAndCommit(subscription);
+				return subscription;
+			}
 		}
 	}
 	
@@ -1100,18 +1658,32 @@ public final class SubscriptionManager implements PrioRunnable {
 	 * The {@link Client} is notified when a {@link Score} changes, is created or removed.
 	 * 
 	 * @param fcpID The identifier of the FCP connection of the {@link Client}. Must be unique among all FCP connections!
+	 * @param notificationBatchSize See {@link Client#getNotificationBatchSize()}. Only used if the Client does not exist yet.
+	 * @param synchronizationChunkSize See {@link Client#getSynchronizationChunkSize()}. Only used if the Client does not exist yet.
+	 * @param filter Restricts the scores about which the client is notified. Must be supported by {@link ScoresSubscription},
+	 * 	see {@link SubscriptionFilter#isSupportedBy(Class)}.
 	 * @return The {@link ScoresSubscription} which is created by this function.
 	 * @see ScoreChangedNotification The type of {@link Notification} which is sent when an event happens.
 	 */
-	public ScoresSubscription subscribeToScores(String fcpID) throws SubscriptionExistsAlreadyException {
-		synchronized(mWoT) {
-		synchronized(this) {
-			// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
-			// Storage will happen in storeNewSubscriptionAndCommit()
-			final ScoresSubscription subscription = new ScoresSubscription(getOrCreateClient(fcpID));
-			storeNewSubscriptionAndCommit(subscription);
-			return subscription;
-		}
+	public ScoresSubscription subscribeToScores(String fcpID, int notificationBatchSize, int synchronizationChunkSize,
+			SubscriptionFilter filter)
+			throws SubscriptionExistsAlreadyException {
+		
+		if(!filter.isSupportedBy(ScoresSubscription.class))
+			throw new IllegalArgumentException("Filter is not supported for scores: " + filter);
+		
+		while(true) {
+			deployPendingNotifications(fcpID);
+			synchronized(this) {
+				if(hasPendingNotifications(fcpID))
+					continue; // Queued while we were deploying
+			
+				// We don't have to take the database lock because getOrCreateClient won't store it to the database yet
+				// Storage will happen in storeNewSubscriptionAndCommit()
+				final ScoresSubscription subscription = new ScoresSubscription(getOrCreateClient(fcpID, notificationBatchSize, synchronizationChunkSize), filter);
+				storeNewSubscriptionAndCommit(subscription);
+				return subscription;
+			}
 		}
 	}
 	
@@ -1133,6 +1705,7 @@ public final class SubscriptionManager implements PrioRunnable {
 				final Client client = subscription.getClient();
 				if(getSubscriptions(client).size() == 0) {
 					Logger.normal(this, "Last subscription of client removed, deleting it: " + client);
+					mDeploymentStates.remove(client.getFCP_ID());
 					client.deleteWithoutCommit();
 				}
 				
@@ -1146,6 +1719,48 @@ public final class SubscriptionManager implements PrioRunnable {
 		}
 	}
 	
+	/**
+	 * Deletes all {@link Notification}s of the given {@link Client} whose {@link Notification#getIndex()} is less than or equal to
+	 * the given index. They are deleted in a single transaction.
+	 * 
+	 * Used by clients which receive notifications in batches, see {@link Client#getNotificationBatchSize()}: If processing a batch
+	 * fails in the middle, the client acknowledges the part which it did process. Only the remaining notifications are sent again
+	 * then. Batches which were processed successfully as a whole do not need to be acknowledged, they are deleted when the
+	 * client replies to them.
+	 * 
+	 * @param fcpID See {@link Client#getFCP_ID()}.
+	 * @param index The index of the last notification which the client has processed.
+	 * @return The number of deleted notifications.
+	 * @throws UnknownClientException If no {@link Client} with the given FCP ID exists.
+	 */
+	public synchronized int acknowledgeNotifications(final String fcpID, final long index) throws UnknownClientException {
+		final Client client = getClient(fcpID);
+		int deleted = 0;
+		
+		synchronized(Persistent.transactionLock(mDB)) {
+			try {
+				for(final Notification notification : getNotifications(client)) {
+					if(notification.getIndex() > index)
+						break; // The queue is sorted by index.
+					
+					notification.deleteWithoutCommit();
+					++deleted;
+				}
+				
+				Persistent.checkedCommit(mDB, this);
+			} catch(RuntimeException e) {
+				Persistent.checkedRollbackAndThrow(mDB, this, e);
+			}
+		}
+		
+		final DeploymentState state = mDeploymentStates.get(fcpID);
+		if(state != null)
+			state.mLastDeliveredIndex = Math.max(state.mLastDeliveredIndex, index);
+		
+		if(logMINOR) Logger.minor(this, "Acknowledged " + deleted + " notifications up to index " + index + " for " + client);
+		return deleted;
+	}
+	
 	/**
 	 * Typically used by {@link #run()}.
 	 * 
@@ -1176,12 +1791,15 @@ public final class SubscriptionManager implements PrioRunnable {
 	/**
 	 * Gets the {@link Client} with the given FCP ID, see {@link Client#getFCP_ID()}. If none exists, it is created.
 	 * It will NOT be stored to the database if it was created.
+	 * 
+	 * @param notificationBatchSize See {@link Client#getNotificationBatchSize()}. Ignored if the Client exists already.
+	 * @param synchronizationChunkSize See {@link Client#getSynchronizationChunkSize()}. Ignored if the Client exists already.
 	 */
-	private Client getOrCreateClient(final String fcpID) {
+	private Client getOrCreateClient(final String fcpID, final int notificationBatchSize, final int synchronizationChunkSize) {
 		try {
 			return getClient(fcpID);
 		} catch(UnknownClientException e) {
-			return new Client(fcpID);
+			return new Client(fcpID, notificationBatchSize, synchronizationChunkSize);
 		}
 	}
 	
@@ -1331,7 +1949,7 @@ public final class SubscriptionManager implements PrioRunnable {
 	 * 
 	 * Precisely, they are ordered by their {@link Notification#mIndex}.
  	 * 
- 	 * Typically used for deploying the notification queue of a Subscription in {@link Client#sendNotifications(SubscriptionManager)}
+ 	 * Typically used for deploying the notification queue of a Subscription in {@link Client#sendNotifications(SubscriptionManager, DeploymentState)}
  	 * 
  	 * @param subscription The {@link Client} of whose queue to return notifications from.
 	 * @return All {@link Notification}s on the queue of the {@link Client}, ordered ascending by time of happening of their inducing event.
@@ -1344,11 +1962,27 @@ public final class SubscriptionManager implements PrioRunnable {
 		return new Persistent.InitializingObjectSet<Notification>(mWoT, q);
 	}
 	
+	/**
+	 * Used for coalescing by {@link Subscription#coalesceNotificationWithoutCommit(Persistent, Persistent)}.
+	 * 
+	 * @return The queued {@link Notification} of the given {@link Subscription} about the object with the given {@link Persistent#getID()}
+	 * 	which has the highest {@link Notification#mIndex}. Null if there is none.
+	 */
+	private Notification getLatestNotification(final Subscription<? extends Notification> subscription, final String objectID) {
+		final Query q = mDB.query();
+		q.constrain(Notification.class);
+		q.descend("mSubscription").constrain(subscription).identity();
+		q.descend("mObjectID").constrain(objectID);
+		q.descend("mIndex").orderDescending();
+		final ObjectSet<Notification> result = new Persistent.InitializingObjectSet<Notification>(mWoT, q);
+		return result.hasNext() ? result.next() : null;
+	}
+	
 	/**
 	 * Interface for the core of WOT to queue an {@link IdentityChangedNotification} to be deployed to all {@link Client}s subscribed to that type of notification. 
 	 * 
 	 * Typically called when a {@link Identity} or {@link OwnIdentity} is added, deleted or its attributes are modified.
-	 * See {@link #subscribeToIdentities(String)} for a list of the changes which do or do not trigger a notification.
+	 * See {@link #subscribeToIdentities(String, int, int, SubscriptionFilter, String)} for a list of the changes which do or do not trigger a notification.
 	 * 
 	 * This function does not store a reference to the given identity object in the database, it only stores the ID.
 	 * You are safe to pass non-stored objects or objects which must not be stored.
@@ -1423,57 +2057,383 @@ public final class SubscriptionManager implements PrioRunnable {
 		if(logDEBUG) Logger.debug(this, "storeScoreChangedNotificationWithoutCommit() finished.");
 	}
 
+	/**
+	 * The in-memory state of the deployment of the {@link Notification} queue of a {@link Client}, see {@link #run()}.
+	 * 
+	 * It is not stored in the database: All clients are deleted at startup anyway, see {@link #start()}.
+	 * Must only be accessed while holding the lock of the SubscriptionManager.
+	 */
+	private static final class DeploymentState {
+		
+		/**
+		 * True while a {@link ClientDeployment} of the client is queued or running. There must be at most one at any time so
+		 * the notifications are sent in order.
+		 */
+		boolean mDeploying = false;
+		
+		/**
+		 * The {@link Notification#getIndex()} of the last Notification which is being sent to the client without holding the lock of
+		 * the SubscriptionManager. -1 if none is being sent. The sent Notifications are the ones with the lowest indexes in the queue,
+		 * so this identifies all of them. {@link Subscription#coalesceNotificationWithoutCommit(Persistent, Persistent)} must not
+		 * modify them.
+		 */
+		long mLastIndexBeingSent = -1;
+		
+		/**
+		 * The number of failures to send a notification since the last successful one. In opposite to
+		 * {@link Client#getSendNotificationsFailureCount()} it is reset by a success. Used for the backoff.
+		 */
+		int mConsecutiveFailures = 0;
+		
+		/**
+		 * {@link #run()} does not deploy the queue of the client before this time, see {@link CurrentTimeUTC#getInMillis()}.
+		 */
+		long mNextAttemptTime = 0;
+		
+		/** The highest {@link Notification#getIndex()} which was queued for the client. */
+		long mLastQueuedIndex = -1;
+		
+		/** The highest {@link Notification#getIndex()} which was delivered to the client or acknowledged by it. */
+		long mLastDeliveredIndex = -1;
+		
+		/* Statistics, see ClientStatistics */
+		
+		long mDeliveredCount = 0;
+		
+		long mTotalDeliveryTime = 0;
+		
+		long mMaxDeliveryTime = 0;
+		
+		/**
+		 * @return The number of {@link Notification}s in the queue of the client. This is an upper bound: Notifications which were
+		 * 	removed from the queue by coalescing are not subtracted until the queue is empty.
+		 */
+		long getQueueDepth() {
+			return Math.max(0, mLastQueuedIndex - mLastDeliveredIndex);
+		}
+		
+		void onSuccess() {
+			mConsecutiveFailures = 0;
+			mNextAttemptTime = 0;
+		}
+		
+		void onFailure() {
+			++mConsecutiveFailures;
+			final int exponent = Math.min(mConsecutiveFailures - 1, MAX_BACKOFF_EXPONENT);
+			mNextAttemptTime = CurrentTimeUTC.getInMillis() + (PROCESS_NOTIFICATIONS_DELAY << exponent);
+		}
+	}
+	
+	/**
+	 * Deploys the {@link Notification} queue of a single {@link Client} using {@link Client#sendNotifications(SubscriptionManager, DeploymentState)}
+	 * and deletes the client if that function tells us to do so.
+	 * Executed on {@link #mDeploymentExecutor}, see {@link #run()}.
+	 */
+	private final class ClientDeployment implements PrioRunnable {
+		
+		private final Client mClient;
+		
+		private final DeploymentState mState;
+		
+		/** True if this deployment is counted in {@link SubscriptionManager#mRunningDeployments}. */
+		private final boolean mOnExecutor;
+		
+		ClientDeployment(final Client client, final DeploymentState state, final boolean onExecutor) {
+			mClient = client;
+			mState = state;
+			mOnExecutor = onExecutor;
+		}
+		
+		public void run() {
+			try {
+				deploy();
+			} finally {
+				if(mOnExecutor)
+					onExecutorDeploymentFinished();
+			}
+		}
+		
+		private void deploy() {
+			try {
+				if(mClient.sendNotifications(SubscriptionManager.this, mState))
+					return;
+				
+				synchronized(SubscriptionManager.this) {
+				synchronized(Persistent.transactionLock(mDB)) {
+					try {
+						if(mDB.isStored(mClient)) {
+							Logger.warning(SubscriptionManager.this, "sendNotifications tells us to delete the Client, deleting it: " + mClient);
+							mClient.deleteWithoutCommit(SubscriptionManager.this);
+							Persistent.checkedCommit(mDB, this);
+						}
+					} catch(RuntimeException e) {
+						Persistent.checkedRollbackAndThrow(mDB, this, e);
+					}
+				}
+				}
+			} catch(RuntimeException e) {
+				Logger.error(SubscriptionManager.this, "Deploying notifications failed for " + mClient, e);
+				
+				synchronized(SubscriptionManager.this) {
+					mState.mLastIndexBeingSent = -1;
+					mState.onFailure();
+					onDeploymentFinished(mState);
+					scheduleNotificationRetry(mState);
+				}
+			}
+		}
+		
+		/** {@inheritDoc} */
+		public int getPriority() {
+			return NativeThread.LOW_PRIORITY;
+		}
+	}
+	
+	/**
+	 * Called when a {@link ClientDeployment} which was executed on {@link #mDeploymentExecutor} has finished. Wakes up {@link #stop()}
+	 * and triggers {@link #run()} for the clients which it has skipped because {@link #MAX_DEPLOYMENT_THREADS} deployments were running.
+	 */
+	private synchronized void onExecutorDeploymentFinished() {
+		--mRunningDeployments;
+		notifyAll();
+		
+		if(mDeploymentsDeferred) {
+			mDeploymentsDeferred = false;
+			mProcessingJob.triggerNow();
+		}
+	}
+	
+	/**
+	 * @return The {@link DeploymentState} of the given client. Creates it if it does not exist yet.
+	 */
+	private synchronized DeploymentState getDeploymentState(final Client client) {
+		final String fcpID = client.getFCP_ID();
+		DeploymentState state = mDeploymentStates.get(fcpID);
+		if(state == null) {
+			state = new DeploymentState();
+			mDeploymentStates.put(fcpID, state);
+		}
+		return state;
+	}
+	
+	/**
+	 * Resets {@link DeploymentState#mDeploying} and wakes up {@link #storeNewSubscriptionAndCommit(Subscription)} which might wait
+	 * for the deployment to finish. Must be called while holding the lock of the SubscriptionManager.
+	 */
+	private void onDeploymentFinished(final DeploymentState state) {
+		state.mDeploying = false;
+		notifyAll();
+	}
+	
+	/**
+	 * Called by {@link Client#takeFreeNotificationIndexWithoutCommit()} when a {@link Notification} is queued for the given client.
+	 * Schedules the deployment: After a short delay if the queue of the client is small, immediately if it has grown beyond
+	 * {@link #NOTIFICATION_QUEUE_HIGH_WATERMARK}.
+	 */
+	private synchronized void onNotificationQueued(final Client client, final long index) {
+		final DeploymentState state = getDeploymentState(client);
+		state.mLastQueuedIndex = Math.max(state.mLastQueuedIndex, index);
+		
+		if(state.getQueueDepth() > NOTIFICATION_QUEUE_HIGH_WATERMARK && !state.mDeploying && state.mNextAttemptTime == 0)
+			mProcessingJob.triggerNow();
+		else
+			mProcessingJob.trigger();
+	}
+	
+	/**
+	 * Updates the statistics after the given {@link Notification}s were delivered successfully. Must be called while holding the
+	 * lock of the SubscriptionManager.
+	 * 
+	 * @param notifications Must be in the order of the queue.
+	 */
+	private void onNotificationsDelivered(final DeploymentState state, final List<Notification> notifications) {
+		final long now = CurrentTimeUTC.getInMillis();
+		long totalDeliveryTime = 0;
+		
+		for(Notification notification : notifications) {
+			// The creation date of a coalesced notification is the one of the first change which was merged into it.
+			final long deliveryTime = Math.max(0, now - notification.getCreationDate().getTime());
+			totalDeliveryTime += deliveryTime;
+			state.mMaxDeliveryTime = Math.max(state.mMaxDeliveryTime, deliveryTime);
+		}
+		
+		state.mLastDeliveredIndex = Math.max(state.mLastDeliveredIndex, notifications.get(notifications.size() - 1).getIndex());
+		state.mDeliveredCount += notifications.size();
+		state.mTotalDeliveryTime += totalDeliveryTime;
+		
+		mSentNotificationCount += notifications.size();
+		mTotalNotificationDeliveryTime += totalDeliveryTime;
+	}
+	
+	/**
+	 * Schedules {@link #run()} for when the backoff of the given client expires, see {@link DeploymentState#onFailure()}.
+	 * Must be called while holding the lock of the SubscriptionManager.
+	 */
+	private void scheduleNotificationRetry(final DeploymentState state) {
+		mProcessingJob.triggerAfter(state.mNextAttemptTime - CurrentTimeUTC.getInMillis());
+	}
+	
+	/**
+	 * @return True if the given {@link Notification} of the given {@link Client} is being sent right now.
+	 * @see DeploymentState#mLastIndexBeingSent
+	 */
+	private synchronized boolean isBeingSent(final Client client, final Notification notification) {
+		final DeploymentState state = mDeploymentStates.get(client.getFCP_ID());
+		return state != null && notification.getIndex() <= state.mLastIndexBeingSent;
+	}
+
 	/**
 	 * Sends out the {@link Notification} queue of each {@link Client}.
 	 * 
-	 * Typically called by the Ticker {@link #mTicker} on a separate thread. This is triggered by {@link #scheduleNotificationProcessing()}
-	 * - the scheduling function should be called whenever a {@link Notification} is stored to the database.
+	 * Typically called by the Ticker {@link #mTicker} on a separate thread. This is triggered by {@link #onNotificationQueued(Client, long)}
+	 * whenever a {@link Notification} is stored to the database: It is executed once no further notification was stored for a short
+	 * delay, see {@link #CONFIG_NOTIFICATION_DELAY}.
+	 * 
+	 * The queue of each {@link Client} is deployed by a separate {@link ClientDeployment} on {@link #mDeploymentExecutor}. The
+	 * notifications of a single client are sent in order, but different clients are served concurrently: A slow client which takes
+	 * long to process each notification does not delay the others. At most {@link #MAX_DEPLOYMENT_THREADS} deployments run at once;
+	 * the remaining clients are served when one of them has finished. If there is no executor, for example in unit tests or after
+	 * {@link #stop()}, the queues are deployed one after another on the calling thread before this function returns.
 	 *  
-	 * If deploying the notifications for a {@link Client} fails, this function is scheduled to be run again after some time.
+	 * If deploying the notifications for a {@link Client} fails, it is retried after a delay which grows with the number of
+	 * consecutive failures of that client, see {@link DeploymentState#onFailure()}. Other clients are not affected by the delay.
 	 * If deploying for a certain {@link Client} fails more than {@link #DISCONNECT_CLIENT_AFTER_FAILURE_COUNT} times, the {@link Client} is deleted.
 	 * 
-	 * @see Client#sendNotifications(SubscriptionManager) This function is called on each {@link Client} to deploy the {@link Notification} queue.
+	 * @see Client#sendNotifications(SubscriptionManager, DeploymentState) This function is called on each {@link Client} to deploy the {@link Notification} queue.
 	 */
 	public void run() {
 		if(logMINOR) Logger.minor(this, "run()...");
 		
+		mProcessingJob.onJobStarted();
+		
 		/* We do NOT allow database queries on the WebOfTrust object in sendNotifications: 
 		 * Notification objects contain serialized clones of all required objects for deploying them, they are self-contained.
 		 * Therefore, we don't have to take the WebOfTrust lock and can execute in parallel to threads which need to lock the WebOfTrust.*/
-		// synchronized(mWoT) {
+		
+		final ArrayList<ClientDeployment> deployments = new ArrayList<ClientDeployment>();
+		final Executor executor;
+		
 		synchronized(this) {
+			executor = mDeploymentExecutor;
+			final long now = CurrentTimeUTC.getInMillis();
+			
 			for(Client client : getAllClients()) {
-				try {
-					if(client.sendNotifications(this)) {
-						// Persistent.checkedCommit(mDB, this);	/* sendNotifications() does this already */
-					} else {
-						Logger.warning(this, "sendNotifications tells us to delete the Client, deleting it: " + client);
-						client.deleteWithoutCommit(this);
-						Persistent.checkedCommit(mDB, this);
+				final DeploymentState state = getDeploymentState(client);
+				
+				if(state.mDeploying) // It will also send the notifications which were queued since it was started.
+					continue;
+				
+				if(state.mNextAttemptTime > now) {
+					scheduleNotificationRetry(state);
+					continue;
+				}
+				
+				if(executor != null) {
+					if(mRunningDeployments >= MAX_DEPLOYMENT_THREADS) {
+						mDeploymentsDeferred = true;
+						continue;
 					}
-				} catch(Exception e) {
-					Persistent.checkedRollback(mDB, this, e);
+					++mRunningDeployments;
 				}
+				
+				state.mDeploying = true;
+				deployments.add(new ClientDeployment(client, state, executor != null));
 			}
 		}
-		//}
+		
+		for(ClientDeployment deployment : deployments) {
+			if(executor != null)
+				executor.execute(deployment, "WoT SubscriptionManager client deployment");
+			else
+				deployment.run();
+		}
 		
 		if(logMINOR) Logger.minor(this, "run() finished.");
 	}
 	
-	/** {@inheritDoc} */
-	public int getPriority() {
-		return NativeThread.LOW_PRIORITY;
+	/**
+	 * @return The number of {@link Notification} objects which were stored in the database since startup.
+	 */
+	public long getStoredNotificationCount() {
+		return mStoredNotificationCount;
 	}
 	
 	/**
-	 * Schedules the {@link #run()} method to be executed after a delay of {@link #PROCESS_NOTIFICATIONS_DELAY}
+	 * @return The number of changes which were merged into a queued {@link Notification} since startup instead of storing and sending
+	 * 	a new one. Includes {@link #getCancelledNotificationCount()}.
 	 */
-	private void scheduleNotificationProcessing() {
-		if(mTicker != null)
-			mTicker.queueTimedJob(this, "WoT SubscriptionManager", PROCESS_NOTIFICATIONS_DELAY, false, true);
-		else
-			Logger.warning(this, "Cannot schedule notification processing: Ticker is null.");
+	public long getCoalescedNotificationCount() {
+		return mCoalescedNotificationCount + mCancelledNotificationCount;
+	}
+	
+	/**
+	 * @return The number of queued {@link Notification}s which were deleted since startup because coalescing a further change into
+	 * 	them resulted in the version which the client knows already.
+	 */
+	public long getCancelledNotificationCount() {
+		return mCancelledNotificationCount;
+	}
+	
+	/**
+	 * @return The number of {@link Notification}s which were sent to clients successfully since startup. For FCP this is the number
+	 * 	of notification messages.
+	 */
+	public long getSentNotificationCount() {
+		return mSentNotificationCount;
+	}
+	
+	/**
+	 * @return The average time in milliseconds from queuing a {@link Notification} until it was delivered, for all notifications
+	 * 	which were sent since startup.
+	 */
+	public long getAverageNotificationDeliveryTime() {
+		final long count = mSentNotificationCount;
+		return count != 0 ? mTotalNotificationDeliveryTime / count : 0;
+	}
+	
+	/**
+	 * Statistics about the {@link Notification} deployment of a single {@link Client}, see {@link #getClientStatistics()}.
+	 */
+	public static final class ClientStatistics {
+		/** @see Client#getFCP_ID() */
+		public final String fcpID;
+		
+		/** @see DeploymentState#getQueueDepth() */
+		public final long queueDepth;
+		
+		/** The number of notifications which were delivered to the client. */
+		public final long deliveredCount;
+		
+		/** The average time in milliseconds from queuing a notification until it was delivered. */
+		public final long averageDeliveryTime;
+		
+		/** The maximal time in milliseconds from queuing a notification until it was delivered. */
+		public final long maxDeliveryTime;
+		
+		ClientStatistics(final String myFCP_ID, final DeploymentState state) {
+			fcpID = myFCP_ID;
+			queueDepth = state.getQueueDepth();
+			deliveredCount = state.mDeliveredCount;
+			averageDeliveryTime = state.mDeliveredCount != 0 ? state.mTotalDeliveryTime / state.mDeliveredCount : 0;
+			maxDeliveryTime = state.mMaxDeliveryTime;
+		}
+	}
+	
+	/**
+	 * Does not query the database, the lock of the SubscriptionManager is only taken for copying the values.
+	 * 
+	 * @return The {@link ClientStatistics} of all connected {@link Client}s.
+	 */
+	public synchronized ArrayList<ClientStatistics> getClientStatistics() {
+		final ArrayList<ClientStatistics> result = new ArrayList<ClientStatistics>(mDeploymentStates.size());
+		for(Map.Entry<String, DeploymentState> entry : mDeploymentStates.entrySet())
+			result.add(new ClientStatistics(entry.getKey(), entry.getValue()));
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	public int getPriority() {
+		return NativeThread.LOW_PRIORITY;
 	}
 	
 
@@ -1492,23 +2452,49 @@ public final class SubscriptionManager implements PrioRunnable {
 		
 		if(respirator != null) { // We are connected to a node
 			mTicker = new TrivialTicker(respirator.getNode().executor);
+			mDeploymentExecutor = respirator.getNode().executor;
+			mProcessingJob.start(mTicker);
 		} else { // We are inside of a unit test
 			mTicker = null;
+			mDeploymentExecutor = null;
 		}
 		Logger.normal(this, "start() finished.");
 	}
 	
 	/**
 	 * Shuts down this SubscriptionManager by aborting all queued notification processing and waiting for running processing to finish.
+	 * 
+	 * Deployments of {@link Notification} queues which were already handed to {@link #mDeploymentExecutor} are finished, but we wait
+	 * at most {@link #STOP_TIMEOUT} for them. Further calls to {@link #run()} deploy the queues on the calling thread.
 	 */
 	protected synchronized void stop() {
 		Logger.normal(this, "stop()...");
 		
+		mProcessingJob.stop();
+		
 		if(mTicker != null) {
 			mTicker.shutdown();
 			mTicker = null;
 		}
 		
+		mDeploymentExecutor = null;
+		mDeploymentsDeferred = false;
+		
+		// The deployments need our lock: wait() releases it. They call onExecutorDeploymentFinished() which wakes us up.
+		final long deadline = CurrentTimeUTC.getInMillis() + STOP_TIMEOUT;
+		try {
+			while(mRunningDeployments > 0) {
+				final long remaining = deadline - CurrentTimeUTC.getInMillis();
+				if(remaining <= 0) {
+					Logger.error(this, "Timeout while waiting for the deployment of notifications to finish.");
+					break;
+				}
+				wait(remaining);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
 		Logger.normal(this, "stop() finished.");
 	}
 }
@@ -11,6 +11,7 @@ import java.util.StringTokenizer;
 
 import plugins.WebOfTrust.Identity.IdentityID;
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
+import plugins.WebOfTrust.introduction.EligiblePuzzleInserters;
 import freenet.support.CurrentTimeUTC;
 import freenet.support.StringValidityChecker;
 
@@ -82,6 +83,12 @@ public final class Trust extends Persistent implements Cloneable, Serializable {
 	 */
 	private Date mLastChangedDate;
 	
+	/**
+	 * The value which the {@link DatabaseCounters} have counted for this trust if {@link #setValue(byte)} changed the value after
+	 * it was stored, null otherwise. {@link #storeWithoutCommit()} passes the change to the counters.
+	 */
+	private transient Byte mCountedValue;
+	
 	/**
 	 * The edition number of the trust list in which this trust was published the last time.
 	 * This is used to speed up the import of new trust lists: When importing them, we need to delete removed trust values. We cannot just
@@ -202,6 +209,23 @@ public final class Trust extends Persistent implements Cloneable, Serializable {
 		mLastChangedDate = mCreationDate;
 		mTrusterTrustListEdition = truster.getEdition(); 
 	}
+
+	/**
+	 * Decodes a Trust which was written by {@link #encode(PersistentCodec.Encoder)}.
+	 * Only for being used by {@link PersistentCodec}, the values are not validated like in the other constructor.
+	 */
+	Trust(WebOfTrustInterface myWoT, PersistentCodec.Decoder in) throws IOException {
+		initializeTransient(myWoT);
+		
+		mTruster = in.readIdentity(myWoT);
+		mTrustee = in.readIdentity(myWoT);
+		mID = new TrustID(mTruster, mTrustee).toString();
+		mValue = in.readByte();
+		mComment = in.readString();
+		mCreationDate = in.readDate();
+		mLastChangedDate = in.readDate();
+		mTrusterTrustListEdition = in.readVarLong();
+	}
 	
 	@Override
 	public int hashCode() {
@@ -265,6 +289,10 @@ public final class Trust extends Persistent implements Cloneable, Serializable {
 		checkedActivate(1); // byte is a db4o primitive type so 1 is enough
 		
 		if(mValue != newValue) {
+			// The counters are updated when the caller stores the changed trust, they need the old value for that.
+			if(mCountedValue == null && getDatabaseCounters() != null && mDB.isStored(this))
+				mCountedValue = mValue;
+			
 			mValue = newValue;
 			mLastChangedDate = CurrentTimeUTC.get();
 		}
@@ -351,7 +379,44 @@ public final class Trust extends Persistent implements Cloneable, Serializable {
 			activateFully();
 			throwIfNotStored(mTruster);
 			throwIfNotStored(mTrustee);
+			
+			final boolean isNew = !mDB.isStored(this);
 			checkedStore();
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(counters != null) {
+				if(isNew)
+					counters.onTrustCreated(this);
+				else if(mCountedValue != null)
+					counters.onTrustValueChanged(this, mCountedValue, mValue);
+			}
+			mCountedValue = null;
+			
+			final EligiblePuzzleInserters inserters = getEligiblePuzzleInserters();
+			if(isNew && inserters != null)
+				inserters.onTrustChanged(this);
+		}
+		catch(final RuntimeException e) {
+			checkedRollbackAndThrow(e);
+		}
+	}
+	
+	@Override
+	protected void deleteWithoutCommit() {
+		try {
+			activateFully();
+			final boolean wasStored = mDB.isStored(this);
+			checkedDelete();
+			
+			// The counters count the stored value, not the one which setValue() might have changed since.
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(counters != null && wasStored)
+				counters.onTrustDeleted(this, mCountedValue != null ? mCountedValue : mValue);
+			mCountedValue = null;
+			
+			final EligiblePuzzleInserters inserters = getEligiblePuzzleInserters();
+			if(inserters != null)
+				inserters.onTrustChanged(this);
 		}
 		catch(final RuntimeException e) {
 			checkedRollbackAndThrow(e);
@@ -452,4 +517,21 @@ public final class Trust extends Persistent implements Cloneable, Serializable {
 		mTrustee.activateFully();
 		stream.defaultWriteObject();
 	}
+
+	/**
+	 * Writes the members of this Trust for {@link PersistentCodec}. The truster and trustee are written as a whole, the ID is not
+	 * written since it can be derived from them.
+	 * 
+	 * @see #Trust(WebOfTrustInterface, PersistentCodec.Decoder) The inverse function.
+	 */
+	void encode(PersistentCodec.Encoder out) {
+		activateFully();
+		out.writeObject(mTruster);
+		out.writeObject(mTrustee);
+		out.writeByte(mValue);
+		out.writeString(mComment);
+		out.writeDate(mCreationDate);
+		out.writeDate(mLastChangedDate);
+		out.writeVarLong(mTrusterTrustListEdition);
+	}
 }
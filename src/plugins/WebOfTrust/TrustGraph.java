@@ -0,0 +1,408 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.db4o.ObjectSet;
+
+import freenet.node.PrioRunnable;
+import freenet.support.Executor;
+import freenet.support.io.NativeThread;
+
+/**
+ * An in-memory snapshot of all {@link Trust} values of the database, used by {@link WebOfTrust#computeAllScoresWithoutCommit()}.
+ *
+ * The full score computation needs the given and received trusts of every identity. Querying them from db4o costs one query per identity
+ * and tree owner, which takes minutes with the current network size. This class loads every Trust exactly once and stores the graph in
+ * compressed sparse row (CSR) layout:
+ * - Each {@link Identity} is interned to an int index. The index is the position of the identity in {@link #getIdentity(int)}.
+ * - The trustees of identity i are mGivenTrustees[mGivenOffsets[i]] ... mGivenTrustees[mGivenOffsets[i+1] - 1], the values are
+ *   stored at the same positions of mGivenValues.
+ * - The received trusts are stored the same way in mReceivedOffsets / mReceivedTrusters / mReceivedValues.
+ *
+ * Rank and score computation ({@link #computeScores(int, int)}) then runs entirely on those arrays without touching the database.
+ *
+ * The snapshot is immutable after construction. It does not reflect changes to the database which happen after it was created.
+ * Because the trust tree of each tree owner only depends on the graph, not on the trust trees of the other tree owners, the computation
+ * of multiple tree owners can run in parallel, see {@link #computeScores(int[], int[], Executor, int)}.
+ *
+ * Synchronization:
+ * Creating it requires the same locks as {@link WebOfTrust#getAllTrusts()}. Using it after creation requires no locks, it can be used
+ * by multiple threads concurrently.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+final class TrustGraph {
+
+	/** Value of {@link ComputedScores#mRanks} for identities which have no rank at all and therefore should have no {@link Score}. */
+	static final int NO_RANK = Integer.MIN_VALUE;
+
+	/** Value of the tree owner trust table in {@link #computeScores(int, int)} for identities to which the tree owner has not assigned trust. */
+	private static final int NO_TRUST = Integer.MIN_VALUE;
+
+	private final Identity[] mIdentities;
+
+	/**
+	 * Maps {@link Identity#getNumber()} to the index of the identity in {@link #mIdentities}, -1 if there is no identity with
+	 * the number. Identity numbers are dense so this is much smaller and faster than a HashMap of the identity IDs.
+	 */
+	private final int[] mIndexByNumber;
+
+	private final int[] mGivenOffsets;
+	private final int[] mGivenTrustees;
+	private final byte[] mGivenValues;
+
+	private final int[] mReceivedOffsets;
+	private final int[] mReceivedTrusters;
+	private final byte[] mReceivedValues;
+
+	/**
+	 * Loads all identities and trusts from the database of the given {@link WebOfTrust}.
+	 *
+	 * Synchronization: You must synchronize on the WebOfTrust while calling this.
+	 */
+	TrustGraph(final WebOfTrust wot) {
+		final ObjectSet<Identity> allIdentities = wot.getAllIdentities();
+
+		mIdentities = new Identity[allIdentities.size()];
+
+		int maxNumber = 0;
+		int index = 0;
+		for(final Identity identity : allIdentities) {
+			mIdentities[index] = identity;
+			maxNumber = Math.max(maxNumber, identity.getNumber());
+			++index;
+		}
+
+		mIndexByNumber = new int[maxNumber + 1];
+		Arrays.fill(mIndexByNumber, -1);
+		for(index = 0; index < mIdentities.length; ++index) {
+			final int number = mIdentities[index].getNumber();
+			if(number == 0 || mIndexByNumber[number] != -1)
+				throw new IllegalStateException("Invalid identity number " + number + ": " + mIdentities[index]);
+			mIndexByNumber[number] = index;
+		}
+
+		final ObjectSet<Trust> allTrusts = wot.getAllTrusts();
+		final int trustCount = allTrusts.size();
+
+		// Edge list, converted to CSR below.
+		final int[] trusters = new int[trustCount];
+		final int[] trustees = new int[trustCount];
+		final byte[] values = new byte[trustCount];
+
+		mGivenOffsets = new int[mIdentities.length + 1];
+		mReceivedOffsets = new int[mIdentities.length + 1];
+
+		int edge = 0;
+		for(final Trust trust : allTrusts) {
+			trusters[edge] = getIndex(trust.getTruster());
+			trustees[edge] = getIndex(trust.getTrustee());
+			values[edge] = trust.getValue();
+
+			// Count the degrees, shifted by one so the prefix sum below yields the start offsets.
+			++mGivenOffsets[trusters[edge] + 1];
+			++mReceivedOffsets[trustees[edge] + 1];
+			++edge;
+		}
+
+		for(int i = 0; i < mIdentities.length; ++i) {
+			mGivenOffsets[i + 1] += mGivenOffsets[i];
+			mReceivedOffsets[i + 1] += mReceivedOffsets[i];
+		}
+
+		mGivenTrustees = new int[trustCount];
+		mGivenValues = new byte[trustCount];
+		mReceivedTrusters = new int[trustCount];
+		mReceivedValues = new byte[trustCount];
+
+		final int[] givenFill = Arrays.copyOf(mGivenOffsets, mIdentities.length);
+		final int[] receivedFill = Arrays.copyOf(mReceivedOffsets, mIdentities.length);
+
+		for(int i = 0; i < trustCount; ++i) {
+			final int given = givenFill[trusters[i]]++;
+			mGivenTrustees[given] = trustees[i];
+			mGivenValues[given] = values[i];
+
+			final int received = receivedFill[trustees[i]]++;
+			mReceivedTrusters[received] = trusters[i];
+			mReceivedValues[received] = values[i];
+		}
+	}
+
+	/**
+	 * @return The amount of identities in this graph. Valid identity indexes are 0 to size()-1.
+	 */
+	int size() {
+		return mIdentities.length;
+	}
+
+	int getTrustCount() {
+		return mGivenTrustees.length;
+	}
+
+	Identity getIdentity(final int index) {
+		return mIdentities[index];
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the identity was not in the database when this snapshot was created.
+	 */
+	int getIndex(final Identity identity) {
+		final int number = identity.getNumber();
+		final int index = (number > 0 && number < mIndexByNumber.length) ? mIndexByNumber[number] : -1;
+
+		if(index == -1)
+			throw new IllegalArgumentException("Identity is not contained in the trust graph: " + identity);
+
+		return index;
+	}
+
+	/**
+	 * @return The amount of trust values which the given identity has assigned.
+	 */
+	int getGivenTrustCount(final int truster) {
+		return mGivenOffsets[truster + 1] - mGivenOffsets[truster];
+	}
+
+	/**
+	 * @return The amount of trust values which the given identity has received.
+	 */
+	int getReceivedTrustCount(final int trustee) {
+		return mReceivedOffsets[trustee + 1] - mReceivedOffsets[trustee];
+	}
+
+	/**
+	 * The result of {@link TrustGraph#computeScores(int, int)}: The rank, score value and capacity of each identity in the trust tree of a
+	 * single tree owner. Arrays are indexed by the identity index of the {@link TrustGraph}.
+	 * Identities with rank {@link TrustGraph#NO_RANK} should have no {@link Score} object.
+	 */
+	static final class ComputedScores {
+		final int mTreeOwner;
+		final int[] mRanks;
+		final int[] mValues;
+		final int[] mCapacities;
+
+		private ComputedScores(final int treeOwner, final int size) {
+			mTreeOwner = treeOwner;
+			mRanks = new int[size];
+			mValues = new int[size];
+			mCapacities = new int[size];
+		}
+
+		boolean hasScore(final int identity) {
+			return mRanks[identity] != NO_RANK;
+		}
+	}
+
+	/**
+	 * Computes the rank, score value and capacity of all identities in the trust tree of the given tree owner.
+	 * This is an array-based implementation of the algorithm which is explained in {@link WebOfTrust#computeAllScoresWithoutCommit()},
+	 * please read the comments there for understanding it.
+	 *
+	 * @param treeOwner The index of the {@link OwnIdentity} whose trust tree shall be computed.
+	 * @param treeOwnerRank The rank of the {@link Score} which the tree owner has assigned to itself. Negative if it has no such Score or
+	 * 	if its rank is negative: Then the tree owner cannot inherit a rank to anyone and nobody will have a score in its trust tree.
+	 */
+	ComputedScores computeScores(final int treeOwner, final int treeOwnerRank) {
+		final int size = mIdentities.length;
+		final ComputedScores result = new ComputedScores(treeOwner, size);
+		final int[] ranks = result.mRanks;
+
+		// The trust values which the tree owner has assigned. They always overpower the view of the remote identities.
+		final int[] treeOwnerTrust = new int[size];
+		Arrays.fill(treeOwnerTrust, NO_TRUST);
+		for(int edge = mGivenOffsets[treeOwner]; edge < mGivenOffsets[treeOwner + 1]; ++edge)
+			treeOwnerTrust[mGivenTrustees[edge]] = mGivenValues[edge];
+
+		// Compute the rank values by breadth first search. Each identity is enqueued at most once: Only when it receives a rank which
+		// is less than infinite, and that never changes afterwards.
+		Arrays.fill(ranks, NO_RANK);
+		final int[] unprocessedTrusters = new int[size];
+		int queueHead = 0;
+		int queueTail = 0;
+
+		if(treeOwnerRank >= 0) {
+			ranks[treeOwner] = treeOwnerRank;
+			unprocessedTrusters[queueTail++] = treeOwner;
+		}
+
+		while(queueHead < queueTail) {
+			final int truster = unprocessedTrusters[queueHead++];
+			final int trusterRank = ranks[truster];
+
+			if(trusterRank == NO_RANK || trusterRank == Integer.MAX_VALUE)
+				continue;
+
+			final int trusteeRank = trusterRank + 1;
+
+			for(int edge = mGivenOffsets[truster]; edge < mGivenOffsets[truster + 1]; ++edge) {
+				final int trustee = mGivenTrustees[edge];
+				final int oldTrusteeRank = ranks[trustee];
+				final boolean positive = mGivenValues[edge] > 0;
+
+				if(oldTrusteeRank == NO_RANK) {
+					if(positive) {
+						ranks[trustee] = trusteeRank;
+						unprocessedTrusters[queueTail++] = trustee;
+					} else
+						ranks[trustee] = Integer.MAX_VALUE;
+				} else {
+					assert(oldTrusteeRank == Integer.MAX_VALUE || trusteeRank >= oldTrusteeRank);
+
+					// An infinite rank can be overwritten by a finite one, but only if it was not assigned by the tree owner.
+					if(oldTrusteeRank == Integer.MAX_VALUE && positive) {
+						if(treeOwnerTrust[trustee] == NO_TRUST) {
+							ranks[trustee] = trusteeRank;
+							unprocessedTrusters[queueTail++] = trustee;
+						} else
+							assert(treeOwnerTrust[trustee] <= 0);
+					}
+				}
+			}
+		}
+
+		// Compute the capacities first because the score values are weighted with the capacities of the trusters.
+		for(int identity = 0; identity < size; ++identity) {
+			if(ranks[identity] != NO_RANK)
+				result.mCapacities[identity] = computeCapacity(treeOwner, treeOwnerTrust, identity, ranks[identity]);
+		}
+
+		for(int target = 0; target < size; ++target) {
+			final int targetRank = ranks[target];
+
+			if(targetRank == NO_RANK)
+				continue;
+
+			final int targetScore;
+
+			if(targetRank == 0) // The tree owner trusts himself.
+				targetScore = Integer.MAX_VALUE;
+			else if(treeOwnerTrust[target] != NO_TRUST)
+				targetScore = treeOwnerTrust[target];
+			else {
+				int sum = 0;
+				for(int edge = mReceivedOffsets[target]; edge < mReceivedOffsets[target + 1]; ++edge) {
+					// Identities without rank have capacity 0, WebOfTrust.computeCapacity() returns 0 for them.
+					final int capacity = result.mCapacities[mReceivedTrusters[edge]];
+					sum += (mReceivedValues[edge] * capacity) / 100;
+				}
+				targetScore = sum;
+			}
+
+			result.mValues[target] = targetScore;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Computes the trust trees of multiple tree owners in parallel by calling {@link #computeScores(int, int)} for each of them on the
+	 * given executor. Does not access the database so the caller can keep the database locks while waiting for the result and then
+	 * store the results in a single serial phase.
+	 * 
+	 * The calling thread computes tree owners as well, the jobs on the executor take the remaining ones. Thus the computation
+	 * completes even if the executor is slow to start them.
+	 *
+	 * @param treeOwners The indexes of the tree owners.
+	 * @param treeOwnerRanks For each slot of treeOwners, the rank of the Score which the tree owner has assigned to itself.
+	 * 	See {@link #computeScores(int, int)}.
+	 * @param executor Used for running the computations, typically the one of the node. If null, or if there is only one tree
+	 * 	owner, the computation is done by the calling thread.
+	 * @param threads The maximal amount of threads which compute tree owners, including the calling thread.
+	 * @return The results, in the same order as the treeOwners.
+	 */
+	ComputedScores[] computeScores(final int[] treeOwners, final int[] treeOwnerRanks, final Executor executor, final int threads) {
+		final ComputedScores[] results = new ComputedScores[treeOwners.length];
+		final int helpers = Math.min(threads, treeOwners.length) - 1;
+		
+		if(executor == null || helpers < 1) {
+			for(int i = 0; i < treeOwners.length; ++i)
+				results[i] = computeScores(treeOwners[i], treeOwnerRanks[i]);
+			return results;
+		}
+		
+		final AtomicInteger nextTreeOwner = new AtomicInteger(0);
+		final CountDownLatch finished = new CountDownLatch(helpers);
+		final RuntimeException[] failure = new RuntimeException[1];
+		
+		final Runnable worker = new Runnable() {
+			public void run() {
+				try {
+					for(int i = nextTreeOwner.getAndIncrement(); i < treeOwners.length; i = nextTreeOwner.getAndIncrement())
+						results[i] = computeScores(treeOwners[i], treeOwnerRanks[i]);
+				} catch(RuntimeException e) {
+					nextTreeOwner.set(treeOwners.length); // If we failed, don't waste CPU on the remaining tree owners
+					synchronized(failure) {
+						if(failure[0] == null)
+							failure[0] = e;
+					}
+				}
+			}
+		};
+		
+		for(int i = 0; i < helpers; ++i) {
+			executor.execute(new PrioRunnable() {
+				public void run() {
+					try {
+						worker.run();
+					} finally {
+						finished.countDown();
+					}
+				}
+				
+				public int getPriority() {
+					return NativeThread.LOW_PRIORITY;
+				}
+			}, "WoT score computation");
+		}
+		
+		worker.run();
+		
+		// We must wait for all jobs even if interrupted: They write to the results array.
+		boolean interrupted = false;
+		while(true) {
+			try {
+				finished.await();
+				break;
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		
+		synchronized(failure) {
+			if(failure[0] != null)
+				throw failure[0];
+		}
+		
+		return results;
+	}
+
+	/**
+	 * Array-based equivalent of {@link WebOfTrust#computeCapacity(OwnIdentity, Identity, int)}.
+	 *
+	 * @param rank Must not be {@link #NO_RANK}: Identities without rank have a capacity of 0.
+	 */
+	private static int computeCapacity(final int treeOwner, final int[] treeOwnerTrust, final int identity, final int rank) {
+		if(identity == treeOwner)
+			return 100;
+
+		if(treeOwnerTrust[identity] != NO_TRUST && treeOwnerTrust[identity] <= 0) {
+			assert(rank == Integer.MAX_VALUE);
+			return 0;
+		}
+
+		if(rank == -1 || rank == Integer.MAX_VALUE)
+			return 0;
+
+		return (rank < WebOfTrust.capacities.length) ? WebOfTrust.capacities[rank] : 1;
+	}
+}
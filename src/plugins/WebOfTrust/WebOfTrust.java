@@ -7,9 +7,15 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 import plugins.WebOfTrust.Identity.FetchState;
@@ -23,6 +29,7 @@ import plugins.WebOfTrust.exceptions.InvalidParameterException;
 import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
 import plugins.WebOfTrust.exceptions.NotTrustedException;
 import plugins.WebOfTrust.exceptions.UnknownIdentityException;
+import plugins.WebOfTrust.introduction.EligiblePuzzleInserters;
 import plugins.WebOfTrust.introduction.IntroductionClient;
 import plugins.WebOfTrust.introduction.IntroductionPuzzle;
 import plugins.WebOfTrust.introduction.IntroductionPuzzleStore;
@@ -57,6 +64,7 @@ import freenet.pluginmanager.FredPluginVersioned;
 import freenet.pluginmanager.PluginReplySender;
 import freenet.pluginmanager.PluginRespirator;
 import freenet.support.CurrentTimeUTC;
+import freenet.support.Executor;
 import freenet.support.Logger;
 import freenet.support.Logger.LogLevel;
 import freenet.support.SimpleFieldSet;
@@ -80,7 +88,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	/** Package-private method to allow unit tests to bypass some assert()s */
 	
 	public static final String DATABASE_FILENAME =  WebOfTrustInterface.WOT_NAME + ".db4o"; 
-	public static final int DATABASE_FORMAT_VERSION = 3; 
+	public static final int DATABASE_FORMAT_VERSION = 6; 
 	
 	
 
@@ -95,6 +103,24 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	
 	/* Database & configuration of the plugin */
 	private ExtObjectContainer mDB;
+	
+	/**
+	 * Caches the results of {@link #getScore(OwnIdentity, Identity)}. Created when the database is opened.
+	 */
+	private ScoreCache mScoreCache;
+	
+	/**
+	 * The amounts of objects in the database, used by the count functions such as {@link #getTrustCount()}. Created when the
+	 * database is opened.
+	 */
+	private DatabaseCounters mDatabaseCounters;
+	
+	/**
+	 * The identities whose puzzles each {@link OwnIdentity} may solve, used by {@link IntroductionClient#getPuzzles(OwnIdentity,
+	 * plugins.WebOfTrust.introduction.IntroductionPuzzle.PuzzleType, int)}. Created when the database is opened.
+	 */
+	private EligiblePuzzleInserters mEligiblePuzzleInserters;
+	
 	private Configuration mConfig;
 	private IntroductionPuzzleStore mPuzzleStore;
 	
@@ -143,6 +169,39 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	
 	private boolean mTrustListImportInProgress = false;
 	
+	/**
+	 * The trust changes of the current trust list import. {@link #updateScoresWithoutCommit(Trust, Trust)} only records them while an
+	 * import is in progress, {@link #finishTrustListImport()} then updates the scores once for all of them.
+	 */
+	private final ArrayList<TrustChange> mTrustListImportChanges = new ArrayList<TrustChange>();
+	
+	/**
+	 * A trust change whose effect on the scores has not been computed yet. Keeps the truster and trustee instead of the {@link Trust}
+	 * because a deleted trust must not be used anymore.
+	 */
+	private static final class TrustChange {
+		final Identity mTruster;
+		final Identity mTrustee;
+		/** The value of the trust after the change, or 0 if it was deleted. */
+		final byte mValue;
+		/** True if the trust was deleted or changed from positive to zero/negative. */
+		final boolean mWasDowngraded;
+		
+		TrustChange(Identity truster, Identity trustee, byte value, boolean wasDowngraded) {
+			mTruster = truster;
+			mTrustee = trustee;
+			mValue = value;
+			mWasDowngraded = wasDowngraded;
+		}
+	}
+	
+	/**
+	 * Runs the per-tree-owner part of {@link #computeAllScoresWithoutCommit()} in parallel. The executor of the node, set by
+	 * {@link #runPlugin(PluginRespirator)} and cleared by {@link #terminate()}. Null in unit tests: Then the calling thread
+	 * computes all trust trees.
+	 */
+	private Executor mScoreComputationExecutor = null;
+	
 	
 	/* User interfaces */
 	
@@ -177,12 +236,14 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			System.setProperty("java.awt.headless", "true"); 
 	
 			mPR = myPR;
+			mScoreComputationExecutor = mPR.getNode().executor;
 			
 			/* TODO: This can be used for clean copies of the database to get rid of corrupted internal db4o structures. 
 			/* We should provide an option on the web interface to run this once during next startup and switch to the cloned database */
 			// cloneDatabase(new File(getUserDataDirectory(), DATABASE_FILENAME), new File(getUserDataDirectory(), DATABASE_FILENAME + ".clone"));
 			
 			mDB = openDatabase(new File(getUserDataDirectory(), DATABASE_FILENAME));
+			createCaches();
 			
 			mConfig = getOrCreateConfig();
 			if(mConfig.getDatabaseFormatVersion() > WebOfTrust.DATABASE_FORMAT_VERSION)
@@ -243,16 +304,11 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			synchronized(this) {
 			synchronized(mFetcher) {
 				mFetcher.start();
-				for(Identity identity : getAllIdentities()) {
-					if(shouldFetchIdentity(identity)) {
-						try {
-							mFetcher.fetch(identity);
-						}
-						catch(Exception e) {
-							Logger.error(this, "Fetching identity failed!", e);
-						}
-					}
-				}
+				for(OwnIdentity identity : getAllOwnIdentities())
+					startFetchIfWanted(identity);
+				// Non-own identities without a score are not fetched.
+				for(Identity identity : getAllNonOwnIdentitiesWithBestScoreAtLeast(Identity.NO_SCORE + 1))
+					startFetchIfWanted(identity);
 			}
 			}
 			
@@ -298,6 +354,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	 */
 	public WebOfTrust(String databaseFilename) {
 		mDB = openDatabase(new File(databaseFilename));
+		createCaches();
 		mConfig = getOrCreateConfig();
 		
 		if(mConfig.getDatabaseFormatVersion() != WebOfTrust.DATABASE_FORMAT_VERSION)
@@ -313,6 +370,56 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		mFCPInterface = new FCPInterface(this);
 	}
 	
+	/**
+	 * Creates the {@link ScoreCache} and the {@link DatabaseCounters} and registers them as the {@link Persistent.TransactionListener}
+	 * of the database. There can only be one listener so both are notified by a single one.
+	 */
+	private void createCaches() {
+		final ScoreCache scoreCache = new ScoreCache(mDB);
+		final DatabaseCounters counters = new DatabaseCounters();
+		
+		mScoreCache = scoreCache;
+		mDatabaseCounters = counters;
+		// Does not need to be notified about transactions, see its documentation.
+		mEligiblePuzzleInserters = new EligiblePuzzleInserters(this);
+		
+		Persistent.setTransactionListener(mDB, new Persistent.TransactionListener() {
+			public void onCommit() {
+				scoreCache.onCommit();
+				counters.onCommit();
+			}
+
+			public void onRollback() {
+				scoreCache.onRollback();
+				counters.onRollback();
+			}
+		});
+	}
+	
+	/**
+	 * Used by {@link Score#storeWithoutCommit()} and {@link Score#deleteWithoutCommit()} to keep the cache up to date.
+	 * Null if the database was not opened yet.
+	 */
+	ScoreCache getScoreCache() {
+		return mScoreCache;
+	}
+	
+	/**
+	 * Used by the storeWithoutCommit() and deleteWithoutCommit() functions of the counted objects to keep the counters up to
+	 * date, see {@link Persistent#getDatabaseCounters()}. Null if the database was not opened yet.
+	 */
+	public DatabaseCounters getDatabaseCounters() {
+		return mDatabaseCounters;
+	}
+	
+	/**
+	 * Used by the storeWithoutCommit() and deleteWithoutCommit() functions of {@link Score} and {@link Trust} to keep it up to
+	 * date, and by the {@link IntroductionClient}. Null if the database was not opened yet.
+	 */
+	public EligiblePuzzleInserters getEligiblePuzzleInserters() {
+		return mEligiblePuzzleInserters;
+	}
+	
 	private File getUserDataDirectory() {
         final File wotDirectory = new File(mPR.getNode().getUserDir(), WebOfTrustInterface.WOT_NAME);
         
@@ -348,6 +455,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
         	Configuration.class,
         	Identity.class,
         	OwnIdentity.class,
+        	IdentityContext.class,
         	Trust.class,
         	Score.class,
         	IdentityFetcher.IdentityFetcherCommand.class,
@@ -679,6 +787,68 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			}
 		}
 
+		// Version 4 introduced Identity.getNumber(), which is assigned by Identity.storeWithoutCommit().
+		if(databaseVersion == 3) {
+			Logger.normal(this, "Upgrading database version " + databaseVersion);
+			
+			//synchronized(this) { // Already done at function level
+				synchronized(Persistent.transactionLock(mDB)) {
+					try {
+						Logger.normal(this, "Assigning identity numbers...");
+						for(Identity identity : getAllIdentities())
+							identity.storeWithoutCommit();
+						
+						mConfig.setDatabaseFormatVersion(++databaseVersion);
+						mConfig.storeAndCommit();
+						Logger.normal(this, "Upgraded database to version " + databaseVersion);
+					} catch(RuntimeException e) {
+						Persistent.checkedRollbackAndThrow(mDB, this, e);
+					}
+				}
+			//}
+		}
+		
+		if(databaseVersion == 4) {
+			Logger.normal(this, "Upgrading database version " + databaseVersion);
+			
+			//synchronized(this) { // Already done at function level
+				synchronized(Persistent.transactionLock(mDB)) {
+					try {
+						Logger.normal(this, "Creating IdentityContext objects...");
+						// Identity.storeWithoutCommit() creates the IdentityContext objects which are missing.
+						for(Identity identity : getAllIdentities())
+							identity.storeWithoutCommit();
+						
+						mConfig.setDatabaseFormatVersion(++databaseVersion);
+						mConfig.storeAndCommit();
+						Logger.normal(this, "Upgraded database to version " + databaseVersion);
+					} catch(RuntimeException e) {
+						Persistent.checkedRollbackAndThrow(mDB, this, e);
+					}
+				}
+			//}
+		}
+		
+		if(databaseVersion == 5) {
+			Logger.normal(this, "Upgrading database version " + databaseVersion);
+			
+			//synchronized(this) { // Already done at function level
+				synchronized(Persistent.transactionLock(mDB)) {
+					try {
+						Logger.normal(this, "Computing best score and capacity of identities...");
+						for(Identity identity : getAllIdentities())
+							identity.updateBestScoreWithoutCommit();
+						
+						mConfig.setDatabaseFormatVersion(++databaseVersion);
+						mConfig.storeAndCommit();
+						Logger.normal(this, "Upgraded database to version " + databaseVersion);
+					} catch(RuntimeException e) {
+						Persistent.checkedRollbackAndThrow(mDB, this, e);
+					}
+				}
+			//}
+		}
+
 		if(databaseVersion != WebOfTrust.DATABASE_FORMAT_VERSION)
 			throw new RuntimeException("Your database is too outdated to be upgraded automatically, please create a new one by deleting " 
 					+ DATABASE_FILENAME + ". Contact the developers if you really need your old data.");
@@ -802,6 +972,53 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		}
 	}
 	
+	/**
+	 * Compares the {@link DatabaseCounters} which have been computed already against the database. If they do not match, they
+	 * are cleared so they are computed again.
+	 * The counters are not stored in the database, so none of them are known at startup: This is called by {@link #terminate()}
+	 * when debug logging is enabled, after they have been maintained during the whole session.
+	 * 
+	 * You must synchronize on this WebOfTrust and the {@link IntroductionPuzzleStore} when using this function.
+	 * 
+	 * @return True if all counters matched.
+	 */
+	boolean verifyDatabaseCounters() {
+		final DatabaseCounters counters = mDatabaseCounters;
+		boolean result = true;
+		
+		for(DatabaseCounters.Counter counter : DatabaseCounters.Counter.values()) {
+			final long cached = counters.get(counter);
+			if(cached == DatabaseCounters.UNKNOWN)
+				continue;
+			
+			final long actual = queryCounter(counter);
+			
+			if(cached != actual) {
+				Logger.error(this, "Counter " + counter + " is " + cached + ", database contains " + actual);
+				result = false;
+			}
+		}
+		
+		for(Map.Entry<String, int[]> entry : counters.getAllTrustCounts().entrySet()) {
+			try {
+				final int[] actual = queryTrustCounts(getIdentityByID(entry.getKey()));
+				if(!Arrays.equals(entry.getValue(), actual)) {
+					Logger.error(this, "Trust counts of " + entry.getKey() + " are " + Arrays.toString(entry.getValue())
+							+ ", database contains " + Arrays.toString(actual));
+					result = false;
+				}
+			} catch(UnknownIdentityException e) {
+				Logger.error(this, "Trust counts exist for deleted identity " + entry.getKey());
+				result = false;
+			}
+		}
+		
+		if(!result)
+			counters.clear();
+		
+		return result;
+	}
+	
 	/**
 	 * Does not do proper synchronization! Only use it in single-thread-mode during startup.
 	 * 
@@ -909,6 +1126,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			}
 			
 			// We don't clone:
+			// - IdentityContext objects because Identity.storeWithoutCommit() creates them
 			// - Introduction puzzles because we can just download new ones
 			// - IdentityFetcher commands because they aren't persistent across startups anyway
 			// - Subscription and Notification objects because subscriptions are also not persistent across startups.
@@ -1275,10 +1493,14 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	}
 	
 	/**
-	 * Reference-implementation of score computation. This means:<br />
-	 * - It is not used by the real WoT code because its slow<br />
-	 * - It is used by unit tests (and WoT) to check whether the real implementation works<br />
-	 * - It is the function which you should read if you want to understand how WoT works.<br />
+	 * Full score computation. This means:<br />
+	 * - It computes the trust trees of all {@link OwnIdentity}s from scratch on an in-memory {@link TrustGraph}, independently of
+	 *   the stored scores.<br />
+	 * - It is used by WoT when the incremental computation of {@link #updateScoresWithoutCommit(Trust, Trust)} cannot deal with a
+	 *   change, and at startup by {@link #verifyAndCorrectStoredScores()}.<br />
+	 * - It is used by asserts and unit tests to check whether the incremental computation works: The results of the two
+	 *   implementations are compared. Thus it is not run twice to check itself, the unit tests of the TrustGraph check it against the
+	 *   incremental one.<br />
 	 * 
 	 * Computes all rank and score values and checks whether the database is correct. If wrong values are found, they are correct.<br />
 	 * 
@@ -1309,230 +1531,91 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		final long beginTime = CurrentTimeUTC.getInMillis();
 		
 		boolean returnValue = true;
-		final ObjectSet<Identity> allIdentities = getAllIdentities();
+		
+		// Querying the given and received trusts of each identity from the database takes one query per identity and tree owner.
+		// Therefore, we load all trusts once into an in-memory graph and do the computation on that.
+		final TrustGraph trustGraph = new TrustGraph(this);
 		
 		// Scores are a rating of an identity from the view of an OwnIdentity so we compute them per OwnIdentity.
-		for(OwnIdentity treeOwner : getAllOwnIdentities()) {
-			// At the end of the loop body, this table will be filled with the ranks of all identities which are visible for treeOwner.
-			// An identity is visible if there is a trust chain from the owner to it.
-			// The rank is the distance in trust steps from the treeOwner.			
-			// So the treeOwner is rank 0, the trustees of the treeOwner are rank 1 and so on.
-			final HashMap<Identity, Integer> rankValues = new HashMap<Identity, Integer>(allIdentities.size() * 2);
-			
-			// Compute the rank values
-			{
-				// For each identity which is added to rankValues, all its trustees are added to unprocessedTrusters.
-				// The inner loop then pulls out one unprocessed identity and computes the rank of its trustees:
-				// All trustees which have received positive (> 0) trust will get his rank + 1
-				// Trustees with negative trust or 0 trust will get a rank of Integer.MAX_VALUE.
-				// Trusters with rank Integer.MAX_VALUE cannot inherit their rank to their trustees so the trustees will get no rank at all.
-				// Identities with no rank are considered to be not in the trust tree of the own identity and their score will be null / none.
-				//
-				// Further, if the treeOwner has assigned a trust value to an identity, the rank decision is done by only considering this trust value:
-				// The decision of the own identity shall not be overpowered by the view of the remote identities.
-				//
-				// The purpose of differentiation between Integer.MAX_VALUE and -1 is:
-				// Score objects of identities with rank Integer.MAX_VALUE are kept in the database because WoT will usually "hear" about those identities by seeing
-				// them in the trust lists of trusted identities (with 0 or negative trust values). So it must store the trust values to those identities and
-				// have a way of telling the user "this identity is not trusted" by keeping a score object of them.
-				// Score objects of identities with rank -1 are deleted because they are the trustees of distrusted identities and we will not get to the point where
-				// we hear about those identities because the only way of hearing about them is importing a trust list of a identity with Integer.MAX_VALUE rank
-				// - and we never import their trust lists. 
-				// We include trust values of 0 in the set of rank Integer.MAX_VALUE (instead of only NEGATIVE trust) so that identities which only have solved
-				// introduction puzzles cannot inherit their rank to their trustees.
-				final LinkedList<Identity> unprocessedTrusters = new LinkedList<Identity>();
-				
-				// The own identity is the root of the trust tree, it should assign itself a rank of 0 , a capacity of 100 and a symbolic score of Integer.MAX_VALUE
+		final ObjectSet<OwnIdentity> treeOwners = getAllOwnIdentities();
+		final OwnIdentity[] treeOwnerArray = new OwnIdentity[treeOwners.size()];
+		final int[] treeOwnerIndexes = new int[treeOwnerArray.length];
+		final int[] treeOwnerRanks = new int[treeOwnerArray.length];
+		
+		// The Scores which are currently stored in the database, indexed by the tree owner and the identity index of the trustGraph.
+		// We need them for checking whether the computed Scores differ. We obtain them with a single query per tree owner instead of
+		// one getScore() per identity.
+		final Score[][] storedScores = new Score[treeOwnerArray.length][];
+		
+		{
+			int i = 0;
+			for(OwnIdentity treeOwner : treeOwners) {
+				treeOwnerArray[i] = treeOwner;
+				treeOwnerIndexes[i] = trustGraph.getIndex(treeOwner);
 				
-				try {
-					Score selfScore = getScore(treeOwner, treeOwner);
-					
-					if(selfScore.getRank() >= 0) { // It can only give it's rank if it has a valid one
-						rankValues.put(treeOwner, selfScore.getRank());
-						unprocessedTrusters.addLast(treeOwner);
-					} else {
-						rankValues.put(treeOwner, null);
-					}
-				} catch(NotInTrustTreeException e) {
-					// This only happens in unit tests.
-				}
-				 
-				while(!unprocessedTrusters.isEmpty()) {
-					final Identity truster = unprocessedTrusters.removeFirst();
-	
-					final Integer trusterRank = rankValues.get(truster);
-					
-					// The truster cannot give his rank to his trustees because he has none (or infinite), they receive no rank at all.
-					if(trusterRank == null || trusterRank == Integer.MAX_VALUE) {
-						// (Normally this does not happen because we do not enqueue the identities if they have no rank but we check for security)
-						continue;
-					}
-					
-					final int trusteeRank = trusterRank + 1;
-					
-					for(Trust trust : getGivenTrusts(truster)) {
-						final Identity trustee = trust.getTrustee();
-						final Integer oldTrusteeRank = rankValues.get(trustee);
-						
-						
-						if(oldTrusteeRank == null) { // The trustee was not processed yet
-							if(trust.getValue() > 0) {
-								rankValues.put(trustee, trusteeRank);
-								unprocessedTrusters.addLast(trustee);
-							}
-							else
-								rankValues.put(trustee, Integer.MAX_VALUE);
-						} else {
-							// Breadth first search will process all rank one identities are processed before any rank two identities, etc.
-							assert(oldTrusteeRank == Integer.MAX_VALUE || trusteeRank >= oldTrusteeRank);
-							
-							if(oldTrusteeRank == Integer.MAX_VALUE) {
-								// If we found a rank less than infinite we can overwrite the old rank with this one, but only if the infinite rank was not
-								// given by the tree owner.
-								try {
-									final Trust treeOwnerTrust = getTrust(treeOwner, trustee);
-									assert(treeOwnerTrust.getValue() <= 0); // TODO: Is this correct?
-								} catch(NotTrustedException e) {
-									if(trust.getValue() > 0) {
-										rankValues.put(trustee, trusteeRank);
-										unprocessedTrusters.addLast(trustee);
-									}
-								}
-							}
-						}
-					}
-				}
+				storedScores[i] = new Score[trustGraph.size()];
+				for(Score score : getGivenScores(treeOwner))
+					storedScores[i][trustGraph.getIndex(score.getTrustee())] = score;
+				
+				// The own identity is the root of the trust tree, it should assign itself a rank of 0 , a capacity of 100 and a symbolic
+				// score of Integer.MAX_VALUE. It can only give its rank if it has a valid one.
+				// A missing self-score only happens in unit tests.
+				final Score selfScore = storedScores[i][treeOwnerIndexes[i]];
+				treeOwnerRanks[i] = selfScore != null ? selfScore.getRank() : -1;
+				++i;
 			}
-			
-			// Rank values of all visible identities are computed now.
-			// Next step is to compute the scores of all identities
-			
-			for(Identity target : allIdentities) {
-				// The score of an identity is the sum of all weighted trust values it has received.
-				// Each trust value is weighted with the capacity of the truster - the capacity decays with increasing rank.
-				Integer targetScore;
-				final Integer targetRank = rankValues.get(target);
+		}
+		
+		// Compute the rank values:
+		// The rank is the distance in trust steps from the treeOwner. So the treeOwner is rank 0, the trustees of the treeOwner are
+		// rank 1 and so on.
+		// All trustees which have received positive (> 0) trust will get the rank of the truster + 1.
+		// Trustees with negative trust or 0 trust will get a rank of Integer.MAX_VALUE.
+		// Trusters with rank Integer.MAX_VALUE cannot inherit their rank to their trustees so the trustees will get no rank at all.
+		// Identities with no rank are considered to be not in the trust tree of the own identity and their score will be null / none.
+		//
+		// Further, if the treeOwner has assigned a trust value to an identity, the rank decision is done by only considering this trust value:
+		// The decision of the own identity shall not be overpowered by the view of the remote identities.
+		//
+		// The purpose of differentiation between Integer.MAX_VALUE and -1 is:
+		// Score objects of identities with rank Integer.MAX_VALUE are kept in the database because WoT will usually "hear" about those identities by seeing
+		// them in the trust lists of trusted identities (with 0 or negative trust values). So it must store the trust values to those identities and
+		// have a way of telling the user "this identity is not trusted" by keeping a score object of them.
+		// Score objects of identities with rank -1 are deleted because they are the trustees of distrusted identities and we will not get to the point where
+		// we hear about those identities because the only way of hearing about them is importing a trust list of a identity with Integer.MAX_VALUE rank
+		// - and we never import their trust lists. 
+		// We include trust values of 0 in the set of rank Integer.MAX_VALUE (instead of only NEGATIVE trust) so that identities which only have solved
+		// introduction puzzles cannot inherit their rank to their trustees.
+		//
+		// Then compute the scores:
+		// The score of an identity is the sum of all weighted trust values it has received.
+		// Each trust value is weighted with the capacity of the truster - the capacity decays with increasing rank.
+		// If the treeOwner has assigned a trust value to the target, it always overrides the "remote" score.
+		// See TrustGraph.computeScores() for the implementation.
+		//
+		// The trust tree of a tree owner only depends on the trust graph, not on the other tree owners, so they are computed in parallel.
+		// The database is not accessed during this, the results are stored by the serial loop below. Therefore, the locking order
+		// WebOfTrust -> IdentityFetcher -> SubscriptionManager -> transaction lock stays the same as it was without the parallelization.
+		final TrustGraph.ComputedScores[] computedScores
+			= trustGraph.computeScores(treeOwnerIndexes, treeOwnerRanks, mScoreComputationExecutor,
+				Runtime.getRuntime().availableProcessors());
+		
+		for(int i = 0; i < treeOwnerArray.length; ++i) {
+			// Now we have the rank and the score of all targets computed and can check whether the database-stored score objects are correct.
+			for(int targetIndex = 0; targetIndex < trustGraph.size(); ++targetIndex) {
+				if(!computedScores[i].hasScore(targetIndex) && storedScores[i][targetIndex] == null)
+					continue;
 				
-				if(targetRank == null) {
-					targetScore = null;
-				} else {
-					// The treeOwner trusts himself.
-					if(targetRank == 0) {
-						targetScore = Integer.MAX_VALUE;
-					}
-					else {
-						// If the treeOwner has assigned a trust value to the target, it always overrides the "remote" score.
-						try {
-							targetScore = (int)getTrust(treeOwner, target).getValue();
-						} catch(NotTrustedException e) {
-							targetScore = 0;
-							for(Trust receivedTrust : getReceivedTrusts(target)) {
-								final Identity truster = receivedTrust.getTruster();
-								final Integer trusterRank = rankValues.get(truster);
-								
-								// The capacity is a weight function for trust values which are given from an identity:
-								// The higher the rank, the less the capacity.
-								// If the rank is Integer.MAX_VALUE (infinite) or -1 (no rank at all) the capacity will be 0.
-								final int capacity = computeCapacity(treeOwner, truster, trusterRank != null ? trusterRank : -1);
-								
-								targetScore += (receivedTrust.getValue() * capacity) / 100;
-							}
-						}
-					}
-				}
+				final Identity target = trustGraph.getIdentity(targetIndex);
 				
 				Score newScore = null;
-				if(targetScore != null) {
-					newScore = new Score(this, treeOwner, target, targetScore, targetRank, computeCapacity(treeOwner, target, targetRank));
-				}
-				
-				boolean needToCheckFetchStatus = false;
-				boolean oldShouldFetch = false;
-				int oldCapacity = 0;
-				
-				// Now we have the rank and the score of the target computed and can check whether the database-stored score object is correct.
-				try {
-					Score currentStoredScore = getScore(treeOwner, target);
-					oldCapacity = currentStoredScore.getCapacity();
-					
-					if(newScore == null) {
-						returnValue = false;
-						if(!mFullScoreComputationNeeded)
-							Logger.error(this, "Correcting wrong score: The identity has no rank and should have no score but score was " + currentStoredScore, new RuntimeException());
-						
-						needToCheckFetchStatus = true;
-						oldShouldFetch = shouldFetchIdentity(target);
-						
-						currentStoredScore.deleteWithoutCommit();
-						mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(currentStoredScore, null);
-						
-					} else {
-						if(!newScore.equals(currentStoredScore)) {
-							returnValue = false;
-							if(!mFullScoreComputationNeeded)
-								Logger.error(this, "Correcting wrong score: Should have been " + newScore + " but was " + currentStoredScore, new RuntimeException());
-							
-							needToCheckFetchStatus = true;
-							oldShouldFetch = shouldFetchIdentity(target);
-							
-							final Score oldScore = currentStoredScore.clone();
-							
-							currentStoredScore.setRank(newScore.getRank());
-							currentStoredScore.setCapacity(newScore.getCapacity());
-							currentStoredScore.setValue(newScore.getScore());
-
-							currentStoredScore.storeWithoutCommit();
-							mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(oldScore, currentStoredScore);
-						}
-					}
-				} catch(NotInTrustTreeException e) {
-					oldCapacity = 0;
-					
-					if(newScore != null) {
-						returnValue = false;
-						if(!mFullScoreComputationNeeded)
-							Logger.error(this, "Correcting wrong score: No score was stored for the identity but it should be " + newScore, new RuntimeException());
-						
-						needToCheckFetchStatus = true;
-						oldShouldFetch = shouldFetchIdentity(target);
-						
-						newScore.storeWithoutCommit();
-						mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(null, newScore);
-					}
+				if(computedScores[i].hasScore(targetIndex)) {
+					newScore = new Score(this, treeOwnerArray[i], target, computedScores[i].mValues[targetIndex],
+							computedScores[i].mRanks[targetIndex], computedScores[i].mCapacities[targetIndex]);
 				}
 				
-				if(needToCheckFetchStatus) {
-					// If fetch status changed from false to true, we need to start fetching it
-					// If the capacity changed from 0 to positive, we need to refetch the current edition: Identities with capacity 0 cannot
-					// cause new identities to be imported from their trust list, capacity > 0 allows this.
-					// If the fetch status changed from true to false, we need to stop fetching it
-					if((!oldShouldFetch || (oldCapacity == 0 && newScore != null && newScore.getCapacity() > 0)) && shouldFetchIdentity(target) ) {
-						if(logMINOR) {
-							if(!oldShouldFetch)
-								Logger.minor(this, "Fetch status changed from false to true, refetching " + target);
-							else
-								Logger.minor(this, "Capacity changed from 0 to " + newScore.getCapacity() + ", refetching" + target);
-						}
-
-						final Identity oldTarget = target.clone();
-						
-						target.markForRefetch();
-						target.storeWithoutCommit();
-						
-						// Clients shall determine shouldFetch from the scores of an identity on their own so there is no need to notify the client about that
-						// - but we do tell the client the state of Identity.getCurrentEditionFetchState() which is changed by markForRefetch().
-						// Therefore we me must store a notification nevertheless.
-						if(!oldTarget.equals(target)) // markForRefetch() will not change anything if the current edition had not been fetched yet
-							mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldTarget, target);
-
-						mFetcher.storeStartFetchCommandWithoutCommit(target);
-					}
-					else if(oldShouldFetch && !shouldFetchIdentity(target)) {
-						if(logMINOR) Logger.minor(this, "Fetch status changed from true to false, aborting fetch of " + target);
-
-						mFetcher.storeAbortFetchCommandWithoutCommit(target);
-					}
-				}
+				if(!updateStoredScoreWithoutCommit(target, storedScores[i][targetIndex], newScore, mFullScoreComputationNeeded))
+					returnValue = false;
 			}
 		}
 		
@@ -1548,6 +1631,113 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		return returnValue;
 	}
 	
+	/**
+	 * Compares a stored {@link Score} with newly computed values and corrects it if they differ. Only Score objects whose values differ
+	 * are written to the database.
+	 * Also deals with the resulting changes of the fetch status of the target.
+	 * 
+	 * Synchronization: Same as {@link #computeAllScoresWithoutCommit()}.
+	 * 
+	 * @param currentStoredScore The Score which the database currently contains for the target. Null if there is none.
+	 * @param newScore A not-stored Score object with the computed values. Null if the target should have no Score.
+	 * @param changesExpected If false, an error is logged when the stored Score is corrected: The caller did not expect the database
+	 * 	to contain wrong values.
+	 * @return True if the stored Score was correct, false if it had to be corrected.
+	 */
+	private boolean updateStoredScoreWithoutCommit(final Identity target, final Score currentStoredScore, final Score newScore,
+			final boolean changesExpected) {
+		
+		boolean returnValue = true;
+		
+		boolean needToCheckFetchStatus = false;
+		boolean oldShouldFetch = false;
+		int oldCapacity = 0;
+		
+		if(currentStoredScore != null) {
+			oldCapacity = currentStoredScore.getCapacity();
+			
+			if(newScore == null) {
+				returnValue = false;
+				if(!changesExpected)
+					Logger.error(this, "Correcting wrong score: The identity has no rank and should have no score but score was " + currentStoredScore, new RuntimeException());
+				
+				needToCheckFetchStatus = true;
+				oldShouldFetch = shouldFetchIdentity(target);
+				
+				currentStoredScore.deleteWithoutCommit();
+				mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(currentStoredScore, null);
+				
+			} else {
+				if(!newScore.equals(currentStoredScore)) {
+					returnValue = false;
+					if(!changesExpected)
+						Logger.error(this, "Correcting wrong score: Should have been " + newScore + " but was " + currentStoredScore, new RuntimeException());
+					
+					needToCheckFetchStatus = true;
+					oldShouldFetch = shouldFetchIdentity(target);
+					
+					final Score oldScore = currentStoredScore.clone();
+					
+					currentStoredScore.setRank(newScore.getRank());
+					currentStoredScore.setCapacity(newScore.getCapacity());
+					currentStoredScore.setValue(newScore.getScore());
+
+					currentStoredScore.storeWithoutCommit();
+					mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(oldScore, currentStoredScore);
+				}
+			}
+		} else {
+			oldCapacity = 0;
+			
+			if(newScore != null) {
+				returnValue = false;
+				if(!changesExpected)
+					Logger.error(this, "Correcting wrong score: No score was stored for the identity but it should be " + newScore, new RuntimeException());
+				
+				needToCheckFetchStatus = true;
+				oldShouldFetch = shouldFetchIdentity(target);
+				
+				newScore.storeWithoutCommit();
+				mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(null, newScore);
+			}
+		}
+		
+		if(needToCheckFetchStatus) {
+			// If fetch status changed from false to true, we need to start fetching it
+			// If the capacity changed from 0 to positive, we need to refetch the current edition: Identities with capacity 0 cannot
+			// cause new identities to be imported from their trust list, capacity > 0 allows this.
+			// If the fetch status changed from true to false, we need to stop fetching it
+			if((!oldShouldFetch || (oldCapacity == 0 && newScore != null && newScore.getCapacity() > 0)) && shouldFetchIdentity(target) ) {
+				if(logMINOR) {
+					if(!oldShouldFetch)
+						Logger.minor(this, "Fetch status changed from false to true, refetching " + target);
+					else
+						Logger.minor(this, "Capacity changed from 0 to " + newScore.getCapacity() + ", refetching" + target);
+				}
+
+				final Identity oldTarget = target.clone();
+				
+				target.markForRefetch();
+				target.storeWithoutCommit();
+				
+				// Clients shall determine shouldFetch from the scores of an identity on their own so there is no need to notify the client about that
+				// - but we do tell the client the state of Identity.getCurrentEditionFetchState() which is changed by markForRefetch().
+				// Therefore we me must store a notification nevertheless.
+				if(!oldTarget.equals(target)) // markForRefetch() will not change anything if the current edition had not been fetched yet
+					mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldTarget, target);
+
+				mFetcher.storeStartFetchCommandWithoutCommit(target);
+			}
+			else if(oldShouldFetch && !shouldFetchIdentity(target)) {
+				if(logMINOR) Logger.minor(this, "Fetch status changed from true to false, aborting fetch of " + target);
+
+				mFetcher.storeAbortFetchCommandWithoutCommit(target);
+			}
+		}
+		
+		return returnValue;
+	}
+	
 	private synchronized void createSeedIdentities() {
 		synchronized(mSubscriptionManager) {
 		for(String seedURI : WebOfTrustInterface.SEED_IDENTITIES) {
@@ -1622,8 +1812,10 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		}
 		
 		try {
-			if(mIntroductionServer != null)
+			if(mIntroductionServer != null) {
+				mIntroductionServer.terminatePuzzlePool();
 				mIntroductionServer.terminate();
+			}
 		}
 		catch(Exception e) {
 			Logger.error(this, "Error during termination.", e);
@@ -1652,6 +1844,16 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			Logger.error(this, "Error during termination.", e);
 		}
 		
+		try {
+			// The node executor is shared so we cannot shut it down. Score computation holds our lock while it waits for its jobs,
+			// so taking the lock waits for a running computation to finish, and no new jobs are submitted afterwards.
+			synchronized(this) {
+				mScoreComputationExecutor = null;
+			}
+		} catch(Exception e) {
+			Logger.error(this, "Error during termination.", e);
+		}
+		
 		// Must be terminated after anything is down which can modify the database
 		try {
 			if(mDebugFCPClient != null) {
@@ -1662,6 +1864,19 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			Logger.error(this, "Error during termination.", e);
 		}
 		
+		// Must be done after anything is down which can modify the database, see verifyDatabaseCounters()
+		try {
+			if(logDEBUG && mDB != null && mPuzzleStore != null) {
+				synchronized(this) {
+				synchronized(mPuzzleStore) {
+					verifyDatabaseCounters();
+				}
+				}
+			}
+		} catch(Exception e) {
+			Logger.error(this, "Error during termination.", e);
+		}
+		
 		
 		try {
 			if(mDB != null) {
@@ -1672,6 +1887,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 					System.gc();
 					mDB.rollback();
 					System.gc(); 
+					Persistent.setTransactionListener(mDB, null);
 					mDB.close();
 				}
 			}
@@ -1883,30 +2099,82 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	}
 	
 	/**
-	 * Returns all own identities that are in the database
-	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 * Returns all identities which have the given context, see {@link Identity#addContext(String)}. Uses the index of
+	 * {@link IdentityContext} so the contexts of identities which do not have the context are not read from the database.
 	 * 
-	 * @return An {@link ObjectSet} containing all identities present in the database.
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
 	 */
-	public ObjectSet<OwnIdentity> getAllOwnIdentities() {
+	public ObjectSet<Identity> getAllIdentitiesWithContext(String context) {
 		final Query q = mDB.query();
-		q.constrain(OwnIdentity.class);
-		return new Persistent.InitializingObjectSet<OwnIdentity>(this, q);
+		q.constrain(IdentityContext.class);
+		q.descend("mContext").constrain(context.trim());
+		return new Persistent.InitializingObjectSet<Identity>(this, q.descend("mIdentity"));
 	}
-
 	
-	/** 
-	 * DO NOT USE THIS FUNCTION FOR DELETING OWN IDENTITIES UPON USER REQUEST!
-	 * IN FACT BE VERY CAREFUL WHEN USING IT FOR ANYTHING FOR THE FOLLOWING REASONS:
-	 * - This function deletes ALL given and received trust values of the given identity. This modifies the trust list of the trusters against their will.
-	 * - Especially it might be an information leak if the trust values of other OwnIdentities are deleted!
-	 * - If WOT one day is designed to be used by many different users at once, the deletion of other OwnIdentity's trust values would even be corruption.
+	/**
+	 * Returns all non-own identities which have the given context and a {@link #getBestScore(Identity)} of at least the given
+	 * value, sorted descending by their date of modification like {@link #getAllNonOwnIdentitiesSortedByModification()}.
 	 * 
-	 * The intended purpose of this function is:
-	 * - To specify which objects have to be dealt with when messing with storage of an identity.
-	 * - To be able to do database object leakage tests: Many classes have a deleteWithoutCommit function and there are valid usecases for them.
-	 *   However, the implementations of those functions might cause leaks by forgetting to delete certain object members.
-	 *   If you call this function for ALL identities in a database, EVERYTHING should be deleted and the database SHOULD be empty.
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 * 
+	 * Used by the IntroductionClient for fetching puzzles from recently modified identities which publish puzzles.
+	 * 
+	 * @param minimumBestScore {@link Identity#NO_SCORE} to also return identities which are not in any trust tree.
+	 */
+	public ObjectSet<Identity> getAllNonOwnIdentitiesWithContextSortedByModification(String context, int minimumBestScore) {
+		final Query q = mDB.query();
+		q.constrain(IdentityContext.class);
+		q.descend("mContext").constrain(context.trim());
+		final Query identities = q.descend("mIdentity");
+		identities.constrain(OwnIdentity.class).not();
+		if(minimumBestScore > Identity.NO_SCORE)
+			identities.descend("mBestScore").constrain(minimumBestScore).greater().equal();
+		identities.descend("mLastFetchedDate").orderDescending();
+		return new Persistent.InitializingObjectSet<Identity>(this, identities);
+	}
+	
+	/**
+	 * Returns all non-own identities whose {@link #getBestScore(Identity)} is at least the given value. Uses the index on the
+	 * best score which is stored in the identities.
+	 * 
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 * 
+	 * @param minimumBestScore Use {@link Identity#NO_SCORE} + 1 for all identities which are in the trust tree of any
+	 *     {@link OwnIdentity}.
+	 */
+	public ObjectSet<Identity> getAllNonOwnIdentitiesWithBestScoreAtLeast(int minimumBestScore) {
+		final Query q = mDB.query();
+		q.constrain(Identity.class);
+		q.constrain(OwnIdentity.class).not();
+		q.descend("mBestScore").constrain(minimumBestScore).greater().equal();
+		return new Persistent.InitializingObjectSet<Identity>(this, q);
+	}
+	
+	/**
+	 * Returns all own identities that are in the database
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 * 
+	 * @return An {@link ObjectSet} containing all identities present in the database.
+	 */
+	public ObjectSet<OwnIdentity> getAllOwnIdentities() {
+		final Query q = mDB.query();
+		q.constrain(OwnIdentity.class);
+		return new Persistent.InitializingObjectSet<OwnIdentity>(this, q);
+	}
+
+	
+	/** 
+	 * DO NOT USE THIS FUNCTION FOR DELETING OWN IDENTITIES UPON USER REQUEST!
+	 * IN FACT BE VERY CAREFUL WHEN USING IT FOR ANYTHING FOR THE FOLLOWING REASONS:
+	 * - This function deletes ALL given and received trust values of the given identity. This modifies the trust list of the trusters against their will.
+	 * - Especially it might be an information leak if the trust values of other OwnIdentities are deleted!
+	 * - If WOT one day is designed to be used by many different users at once, the deletion of other OwnIdentity's trust values would even be corruption.
+	 * 
+	 * The intended purpose of this function is:
+	 * - To specify which objects have to be dealt with when messing with storage of an identity.
+	 * - To be able to do database object leakage tests: Many classes have a deleteWithoutCommit function and there are valid usecases for them.
+	 *   However, the implementations of those functions might cause leaks by forgetting to delete certain object members.
+	 *   If you call this function for ALL identities in a database, EVERYTHING should be deleted and the database SHOULD be empty.
 	 *   You then can check whether the database actually IS empty to test for leakage.
 	 * 
 	 * You have to lock the WebOfTrust, the IntroductionPuzzleStore, the IdentityFetcher and the SubscriptionManager before calling this function.
@@ -1992,9 +2260,25 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	 * @throws NotInTrustTreeException if this identity is not in the required trust tree 
 	 */
 	public synchronized Score getScore(final OwnIdentity truster, final Identity trustee) throws NotInTrustTreeException {
+		final long cacheKey = ScoreCache.getKey(truster, trustee);
+		
+		try {
+			if(cacheKey == ScoreCache.NO_KEY)
+				throw new ScoreCache.NotCachedException();
+		
+			final Score cached = mScoreCache.get(cacheKey);
+			if(cached == null)
+				throw new NotInTrustTreeException(truster, trustee);
+		
+			assert(cached.getTruster() == truster);
+			assert(cached.getTrustee() == trustee);
+			return cached;
+		} catch(ScoreCache.NotCachedException e) { }
+		
+		final String scoreID = new ScoreID(truster, trustee).toString();
 		final Query query = mDB.query();
 		query.constrain(Score.class);
-		query.descend("mID").constrain(new ScoreID(truster, trustee).toString());
+		query.descend("mID").constrain(scoreID);
 		final ObjectSet<Score> result = new Persistent.InitializingObjectSet<Score>(this, query);
 		
 		switch(result.size()) {
@@ -2002,8 +2286,11 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 				final Score score = result.next();
 				assert(score.getTruster() == truster);
 				assert(score.getTrustee() == trustee);
+				mScoreCache.putQueryResult(cacheKey, score);
 				return score;
-			case 0: throw new NotInTrustTreeException(truster, trustee);
+			case 0:
+				mScoreCache.putQueryResult(cacheKey, null);
+				throw new NotInTrustTreeException(truster, trustee);
 			default: throw new DuplicateScoreException(truster, trustee, result.size());
 		}
 	}
@@ -2035,41 +2322,93 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	}
 	
 	/**
-	 * Gets the best score this Identity has in existing trust trees.
+	 * Same as {@link #getGivenScores(OwnIdentity)} but queries the truster by its ID, so the {@link OwnIdentity} does not have to be
+	 * loaded with {@link #getOwnIdentityByID(String)}. Returns no scores if the truster does not exist.
+	 * 
+	 * You have to synchronize on this WoT or the {@link SubscriptionManager} around the call to this function and the processing of
+	 * the returned list, see {@link SubscriptionManager} for when the latter suffices.
+	 */
+	public ObjectSet<Score> getGivenScores(final String trusterID) {
+		final Query query = mDB.query();
+		query.constrain(Score.class);
+		query.descend("mTruster").descend("mID").constrain(trusterID);
+		return new Persistent.InitializingObjectSet<Score>(this, query);
+	}
+	
+	/**
+	 * Gets the best score this Identity has in existing trust trees. Does not query the scores, the value is stored in the identity.
 	 * 
 	 * @return the best score this Identity has
 	 * @throws NotInTrustTreeException If the identity has no score in any trusttree.
 	 */
 	public synchronized int getBestScore(final Identity identity) throws NotInTrustTreeException {
-		int bestScore = Integer.MIN_VALUE;
-		final ObjectSet<Score> scores = getScores(identity);
-		
-		if(scores.size() == 0)
-			throw new NotInTrustTreeException(identity);
-		
-		// TODO: Cache the best score of an identity as a member variable.
-		for(final Score score : scores) 
-			bestScore = Math.max(score.getScore(), bestScore);
-		
-		return bestScore;
+		return identity.getBestScore();
 	}
 	
 	/**
-	 * Gets the best capacity this identity has in any trust tree.
+	 * Gets the best capacity this identity has in any trust tree. Does not query the scores, the value is stored in the identity.
 	 * @throws NotInTrustTreeException If the identity is not in any trust tree. Can be interpreted as capacity 0.
 	 */
 	public synchronized int getBestCapacity(final Identity identity) throws NotInTrustTreeException {
-		int bestCapacity = 0;
-		final ObjectSet<Score> scores = getScores(identity);
-		
-		if(scores.size() == 0)
-			throw new NotInTrustTreeException(identity);
-		
-		// TODO: Cache the best score of an identity as a member variable.
-		for(final Score score : scores) 
-			bestCapacity  = Math.max(score.getCapacity(), bestCapacity);
-		
-		return bestCapacity;
+		return identity.getBestCapacity();
+	}
+	
+	/**
+	 * Computes the value of the given counter with a database query.
+	 * You must synchronize on this WebOfTrust, and on the {@link IntroductionPuzzleStore} for the puzzle counters.
+	 */
+	private long queryCounter(final DatabaseCounters.Counter counter) {
+		switch(counter) {
+			case OwnIdentities: return getAllOwnIdentities().size();
+			case NonOwnIdentities: return getAllNonOwnIdentities().size();
+			case Trusts: return getAllTrusts().size();
+			case Scores: return getAllScores().size();
+			case UnsolvedOwnPuzzles: return mPuzzleStore.queryOwnCaptchaAmount(false);
+			case SolvedOwnPuzzles: return mPuzzleStore.queryOwnCaptchaAmount(true);
+			case UnsolvedNonOwnPuzzles: return mPuzzleStore.queryNonOwnCaptchaAmount(false);
+			case SolvedNonOwnPuzzles: return mPuzzleStore.queryNonOwnCaptchaAmount(true);
+			default: throw new UnsupportedOperationException("Unknown counter: " + counter);
+		}
+	}
+	
+	/**
+	 * @return The value of the given counter, computed with a database query if the {@link DatabaseCounters} do not know it yet.
+	 */
+	private long getCounter(final DatabaseCounters.Counter counter) {
+		long count = mDatabaseCounters.get(counter);
+		if(count == DatabaseCounters.UNKNOWN) {
+			count = queryCounter(counter);
+			mDatabaseCounters.initialize(counter, count);
+		}
+		return count;
+	}
+	
+	/**
+	 * @return The amount of {@link OwnIdentity}s. Equal to getAllOwnIdentities().size() but O(1) if it has been computed before.
+	 */
+	public synchronized long getOwnIdentityCount() {
+		return getCounter(DatabaseCounters.Counter.OwnIdentities);
+	}
+	
+	/**
+	 * @return The amount of non-own identities. Equal to getAllNonOwnIdentities().size() but O(1) if it has been computed before.
+	 */
+	public synchronized long getNonOwnIdentityCount() {
+		return getCounter(DatabaseCounters.Counter.NonOwnIdentities);
+	}
+	
+	/**
+	 * @return The amount of {@link Trust}s. Equal to getAllTrusts().size() but O(1) if it has been computed before.
+	 */
+	public synchronized long getTrustCount() {
+		return getCounter(DatabaseCounters.Counter.Trusts);
+	}
+	
+	/**
+	 * @return The amount of {@link Score}s. Equal to getAllScores().size() but O(1) if it has been computed before.
+	 */
+	public synchronized long getScoreCount() {
+		return getCounter(DatabaseCounters.Counter.Scores);
 	}
 	
 	/**
@@ -2093,23 +2432,29 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		if(identity instanceof OwnIdentity)
 			return true;
 		
-		int bestScore = Integer.MIN_VALUE;
-		int bestCapacity = 0;
-		final ObjectSet<Score> scores = getScores(identity);
-			
-		if(scores.size() == 0)
+		try {
+			return identity.getBestCapacity() > 0 || identity.getBestScore() >= 0;
+		} catch(NotInTrustTreeException e) {
 			return false;
-			
-		// TODO: Cache the best score of an identity as a member variable.
-		for(Score score : scores) { 
-			bestCapacity  = Math.max(score.getCapacity(), bestCapacity);
-			bestScore  = Math.max(score.getScore(), bestScore);
-			
-			if(bestCapacity > 0 || bestScore >= 0)
-				return true;
 		}
-			
-		return false;
+	}
+	
+	/**
+	 * Starts the fetch of the given identity if {@link #shouldFetchIdentity(Identity)}. Used at startup of the plugin.
+	 * Errors are logged, not thrown, so one broken identity does not prevent the fetches of the others.
+	 * 
+	 * Synchronization: You must synchronize on this WebOfTrust and the IdentityFetcher when using this function.
+	 */
+	private void startFetchIfWanted(final Identity identity) {
+		if(!shouldFetchIdentity(identity))
+			return;
+		
+		try {
+			mFetcher.fetch(identity);
+		}
+		catch(Exception e) {
+			Logger.error(this, "Fetching identity failed!", e);
+		}
 	}
 	
 	/**
@@ -2123,6 +2468,19 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	 * @return an {@link ObjectSet} containing Scores of the identities that match the criteria
 	 */
 	public ObjectSet<Score> getIdentitiesByScore(final OwnIdentity truster, final int select) {
+		return getIdentitiesByScore(truster, select, null);
+	}
+	
+	/**
+	 * Same as {@link #getIdentitiesByScore(OwnIdentity, int)} but sorts the result in the database query. Sorting is required for
+	 * fetching the result in pages: The order of an unsorted query is not guaranteed to be the same for each query.
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 * 
+	 * @param sortOrder Null for no sorting. {@link SortOrder#ByLocalTrustAscending} and {@link SortOrder#ByLocalTrustDescending} are
+	 * 	not supported because the local trust is not part of the {@link Score} objects.
+	 * @throws IllegalArgumentException If the sortOrder is not supported.
+	 */
+	public ObjectSet<Score> getIdentitiesByScore(final OwnIdentity truster, final int select, final SortOrder sortOrder) {
 		final Query query = mDB.query();
 		query.constrain(Score.class);
 		if(truster != null)
@@ -2137,6 +2495,25 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			query.descend("mValue").constrain(0).smaller();
 		else 
 			query.descend("mValue").constrain(0);
+		
+		if(sortOrder != null) {
+			switch(sortOrder) {
+				case ByNicknameAscending:
+					query.descend("mTrustee").descend("mNickname").orderAscending();
+					break;
+				case ByNicknameDescending:
+					query.descend("mTrustee").descend("mNickname").orderDescending();
+					break;
+				case ByScoreAscending:
+					query.descend("mValue").orderAscending();
+					break;
+				case ByScoreDescending:
+					query.descend("mValue").orderDescending();
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+			}
+		}
 
 		return  new Persistent.InitializingObjectSet<Score>(this, query);
 	}
@@ -2187,6 +2564,20 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		return new Persistent.InitializingObjectSet<Trust>(this, query);
 	}
 	
+	/**
+	 * Same as {@link #getGivenTrusts(Identity)} but sorted by the {@link Identity#getID()} of the trustee. The ID is unique, so the
+	 * order is the same for each call, which is necessary for returning the result in pages.
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 */
+	public ObjectSet<Trust> getGivenTrustsSortedByTrusteeID(final Identity truster) {
+		final Query query = mDB.query();
+		query.constrain(Trust.class);
+		query.descend("mTruster").constrain(truster).identity();
+		// The ID of a trust is the ID of the truster followed by the one of the trustee, see Trust.TrustID
+		query.descend("mID").orderAscending();
+		return new Persistent.InitializingObjectSet<Trust>(this, query);
+	}
+	
 	/**
 	 * Gets all trusts given by the given truster.
 	 * The result is sorted descending by the time we last fetched the trusted identity. 
@@ -2253,6 +2644,20 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		return new Persistent.InitializingObjectSet<Trust>(this, query);
 	}
 	
+	/**
+	 * Same as {@link #getReceivedTrusts(Identity)} but sorted by the {@link Identity#getID()} of the truster. The ID is unique, so
+	 * the order is the same for each call, which is necessary for returning the result in pages.
+	 * You have to synchronize on this WoT when calling the function and processing the returned list!
+	 */
+	public ObjectSet<Trust> getReceivedTrustsSortedByTrusterID(final Identity trustee) {
+		final Query query = mDB.query();
+		query.constrain(Trust.class);
+		query.descend("mTrustee").constrain(trustee).identity();
+		// The ID of a trust is the ID of the truster followed by the one of the trustee, see Trust.TrustID
+		query.descend("mID").orderAscending();
+		return new Persistent.InitializingObjectSet<Trust>(this, query);
+	}
+	
 	/**
 	 * Gets received trust values of an identity matching a specified trust value criteria.
 	 * You have to synchronize on this WoT when calling the function and processing the returned list!
@@ -2279,6 +2684,70 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		return new Persistent.InitializingObjectSet<Trust>(this, query);
 	}
 	
+	/**
+	 * Queries the trust counts of the given identity from the database, see {@link DatabaseCounters#GIVEN_NEGATIVE} etc.
+	 * You have to synchronize on this WoT when calling the function.
+	 */
+	private int[] queryTrustCounts(final Identity identity) {
+		final int[] counts = new int[DatabaseCounters.TRUST_COUNTS_LENGTH];
+		counts[DatabaseCounters.GIVEN_NEGATIVE] = getGivenTrusts(identity, -1).size();
+		counts[DatabaseCounters.GIVEN_ZERO] = getGivenTrusts(identity, 0).size();
+		counts[DatabaseCounters.GIVEN_POSITIVE] = getGivenTrusts(identity, 1).size() - counts[DatabaseCounters.GIVEN_ZERO];
+		counts[DatabaseCounters.RECEIVED_NEGATIVE] = getReceivedTrusts(identity, -1).size();
+		counts[DatabaseCounters.RECEIVED_ZERO] = getReceivedTrusts(identity, 0).size();
+		counts[DatabaseCounters.RECEIVED_POSITIVE] = getReceivedTrusts(identity, 1).size() - counts[DatabaseCounters.RECEIVED_ZERO];
+		return counts;
+	}
+	
+	/**
+	 * @return The trust counts of the given identity from the {@link DatabaseCounters}, queried from the database if they are
+	 * 	not cached yet.
+	 */
+	private int[] getTrustCounts(final Identity identity) {
+		int[] counts = mDatabaseCounters.getTrustCounts(identity);
+		if(counts == null) {
+			counts = queryTrustCounts(identity);
+			mDatabaseCounters.putTrustCounts(identity, counts);
+		}
+		return counts;
+	}
+	
+	/**
+	 * Gets the amount of trusts given by the given truster. Equal to getGivenTrusts(truster).size() but O(1) if it has been
+	 * computed before, see {@link DatabaseCounters}.
+	 */
+	public synchronized int getGivenTrustCount(final Identity truster) {
+		return DatabaseCounters.getGivenTrustCount(getTrustCounts(truster), DatabaseCounters.ANY_SELECTION);
+	}
+	
+	/**
+	 * Gets the amount of trusts given by the given truster which match the given criteria.
+	 * Equal to getGivenTrusts(truster, select).size(), see {@link #getGivenTrustCount(Identity)}.
+	 * 
+	 * @param select Same as for {@link #getGivenTrusts(Identity, int)}.
+	 */
+	public synchronized int getGivenTrustCount(final Identity truster, final int select) {
+		return DatabaseCounters.getGivenTrustCount(getTrustCounts(truster), select);
+	}
+	
+	/**
+	 * Gets the amount of trusts received by the given trustee. Equal to getReceivedTrusts(trustee).size() but O(1) if it has
+	 * been computed before, see {@link DatabaseCounters}.
+	 */
+	public synchronized int getReceivedTrustCount(final Identity trustee) {
+		return DatabaseCounters.getReceivedTrustCount(getTrustCounts(trustee), DatabaseCounters.ANY_SELECTION);
+	}
+	
+	/**
+	 * Gets the amount of trusts received by the given trustee which match the given criteria.
+	 * Equal to getReceivedTrusts(trustee, select).size(), see {@link #getReceivedTrustCount(Identity)}.
+	 * 
+	 * @param select Same as for {@link #getReceivedTrusts(Identity, int)}.
+	 */
+	public synchronized int getReceivedTrustCount(final Identity trustee, final int select) {
+		return DatabaseCounters.getReceivedTrustCount(getTrustCounts(trustee), select);
+	}
+	
 	/**
 	 * Gets all trusts.
 	 * You have to synchronize on this WoT when calling the function and processing the returned list!
@@ -2544,6 +3013,331 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			return rank+1;
 	}
 	
+	/**
+	 * Updates the trust tree of the given tree owner after a trust value to the given trustee was removed, changed from positive to
+	 * zero/negative, or set to zero/negative by the tree owner. Only touches identities whose rank, capacity or score can actually change.
+	 * 
+	 * The algorithm works in two steps:
+	 * 1. The region of identities whose rank can have changed is determined. It starts with the trustee. An identity belongs to the
+	 *    region if it has lost its rank support: An identity of rank r has support if it has received positive trust from an identity 
+	 *    outside of the region which has rank r-1 and non-zero capacity. Identities of infinite rank have support if they have received
+	 *    any trust from an identity outside of the region with non-zero capacity. The trustees of region members with non-zero capacity
+	 *    are checked in breadth-first order of their rank: When an identity of rank r is checked, the region membership of all identities
+	 *    of rank r-1 is already known.
+	 * 2. The ranks of the region members are computed from the frontier of the region: The identities outside of the region have kept
+	 *    their rank and capacity, so the region members receive their rank from them, and then from each other in order of increasing rank.
+	 *    Region members which received no rank that way get an infinite rank if an identity with capacity trusts them, otherwise no rank.
+	 * Afterwards, the score values of the region members and of their trustees are recomputed, since the capacities of their trusters
+	 * might have changed.
+	 * 
+	 * This cannot run into the infinite loop which is explained in {@link #updateScoresWithoutCommit(Trust, Trust)}: The rank of an
+	 * identity of the region is only computed from identities whose rank is already final.
+	 * 
+	 * The function does not write anything to the database if it returns false.
+	 * 
+	 * Synchronization: Same as {@link #updateScoresWithoutCommit(Trust, Trust)}.
+	 * 
+	 * @param treeOwner The owner of the trust tree which shall be updated. The truster of the changed trust must have had a capacity
+	 * 	greater than 0 in its trust tree, otherwise the trust did not affect the tree.
+	 * @param changedTrustee The trustee of the removed / changed trust.
+	 * @return False if the change caused an identity to gain capacity or to get a better rank. This can happen if the tree owner removed
+	 * 	a negative trust value, which allows the remote identities to assign a better rank. The caller must do a full computation then.
+	 */
+	private boolean updateScoresAfterDowngradeWithoutCommit(final OwnIdentity treeOwner, final Identity changedTrustee) {
+		if(changedTrustee == treeOwner)
+			return true; // The tree owner always has rank 0 in its own tree.
+		
+		// The Scores as they were before the change. We must not modify them before the computation is finished.
+		final HashMap<Identity, Score> oldScores = new HashMap<Identity, Score>();
+		
+		// Identities whose rank might have changed
+		final LinkedHashSet<Identity> region = new LinkedHashSet<Identity>();
+		// The region and the identities whose score value might have changed because they are trusted by a member of the region.
+		final LinkedHashSet<Identity> affected = new LinkedHashSet<Identity>();
+		
+		// Step 1: Determine the region.
+		{
+			final LinkedList<Identity> unprocessedSuspects = new LinkedList<Identity>();
+			final HashSet<Identity> suspects = new HashSet<Identity>();
+			final LinkedList<Identity> distrustedSuspects = new LinkedList<Identity>();
+			
+			unprocessedSuspects.add(changedTrustee);
+			suspects.add(changedTrustee);
+			affected.add(changedTrustee);
+			
+			while(!unprocessedSuspects.isEmpty()) {
+				final Identity suspect = unprocessedSuspects.removeFirst();
+				
+				// The changed trustee is always part of the region: It is the only identity whose received trusts have changed.
+				if(suspect != changedTrustee && hasRankSupport(treeOwner, suspect, region, oldScores))
+					continue;
+				
+				region.add(suspect);
+				
+				// If it could not inherit anything, its trustees cannot have depended on it.
+				final Score suspectScore = getScoreOrNull(treeOwner, suspect, oldScores);
+				if(suspectScore == null || suspectScore.getCapacity() == 0)
+					continue;
+				
+				for(Trust trust : getGivenTrusts(suspect)) {
+					final Identity trustee = trust.getTrustee();
+					
+					if(trustee == treeOwner || region.contains(trustee))
+						continue;
+					
+					final Score trusteeScore = getScoreOrNull(treeOwner, trustee, oldScores);
+					if(trusteeScore == null)
+						continue; // Only possible if the database was corrupted already. The assert() of our caller will fix it.
+					
+					affected.add(trustee);
+					
+					// If the tree owner has assigned a trust value, it decides about the rank alone.
+					if(suspects.contains(trustee) || getTreeOwnerTrustOrNull(treeOwner, trustee) != null)
+						continue;
+					
+					if(trusteeScore.getRank() == Integer.MAX_VALUE) {
+						suspects.add(trustee);
+						distrustedSuspects.add(trustee);
+					} else if(trust.getValue() > 0 && trusteeScore.getRank() == suspectScore.getRank() + 1) {
+						suspects.add(trustee);
+						unprocessedSuspects.addLast(trustee);
+					}
+				}
+			}
+			
+			// Identities with infinite rank cannot inherit anything, so they are checked last and do not cause further suspects.
+			for(Identity suspect : distrustedSuspects) {
+				if(!hasCapacityTruster(treeOwner, suspect, region, oldScores))
+					region.add(suspect);
+			}
+		}
+		
+		// Step 2: Compute the ranks and capacities of the region members from the frontier of the region.
+		final HashMap<Identity, Integer> newRanks = new HashMap<Identity, Integer>(region.size() * 2);
+		final HashMap<Identity, Integer> newCapacities = new HashMap<Identity, Integer>(region.size() * 2);
+		{
+			final PriorityQueue<RankCandidate> candidates = new PriorityQueue<RankCandidate>();
+			// Region members which have received trust from an identity with capacity, i.e. they have at least infinite rank.
+			final HashSet<Identity> reached = new HashSet<Identity>(region.size() * 2);
+			
+			for(Identity identity : region) {
+				final Trust treeOwnerTrust = getTreeOwnerTrustOrNull(treeOwner, identity);
+				
+				if(treeOwnerTrust != null) {
+					if(treeOwnerTrust.getValue() > 0)
+						candidates.add(new RankCandidate(identity, 1));
+					else
+						newRanks.put(identity, Integer.MAX_VALUE);
+					continue;
+				}
+				
+				for(Trust trust : getReceivedTrusts(identity)) {
+					final Identity truster = trust.getTruster();
+					
+					if(region.contains(truster))
+						continue;
+					
+					final Score trusterScore = getScoreOrNull(treeOwner, truster, oldScores);
+					if(trusterScore == null || trusterScore.getCapacity() == 0)
+						continue;
+					
+					reached.add(identity);
+					if(trust.getValue() > 0)
+						candidates.add(new RankCandidate(identity, trusterScore.getRank() + 1));
+				}
+			}
+			
+			while(!candidates.isEmpty()) {
+				final RankCandidate candidate = candidates.poll();
+				
+				if(newRanks.containsKey(candidate.mIdentity))
+					continue; // We already got a better rank for it
+				
+				newRanks.put(candidate.mIdentity, candidate.mRank);
+				
+				final int capacity = computeCapacity(treeOwner, candidate.mIdentity, candidate.mRank);
+				newCapacities.put(candidate.mIdentity, capacity);
+				
+				if(capacity == 0)
+					continue;
+				
+				for(Trust trust : getGivenTrusts(candidate.mIdentity)) {
+					final Identity trustee = trust.getTrustee();
+					
+					if(!region.contains(trustee) || newRanks.containsKey(trustee) || getTreeOwnerTrustOrNull(treeOwner, trustee) != null)
+						continue;
+					
+					reached.add(trustee);
+					if(trust.getValue() > 0)
+						candidates.add(new RankCandidate(trustee, candidate.mRank + 1));
+				}
+			}
+			
+			for(Identity identity : region) {
+				if(!newRanks.containsKey(identity))
+					newRanks.put(identity, reached.contains(identity) ? Integer.MAX_VALUE : -1);
+				
+				if(!newCapacities.containsKey(identity))
+					newCapacities.put(identity, computeCapacity(treeOwner, identity, newRanks.get(identity)));
+				
+				final Score oldScore = getScoreOrNull(treeOwner, identity, oldScores);
+				final int oldRank = oldScore != null ? oldScore.getRank() : -1;
+				final int oldCapacity = oldScore != null ? oldScore.getCapacity() : 0;
+				final int newRank = newRanks.get(identity);
+				final int newCapacity = newCapacities.get(identity);
+				
+				// Gaining capacity or a better rank would affect identities outside of the region, we only deal with losses.
+				if(newCapacity > oldCapacity)
+					return false;
+				
+				if(newCapacity > 0 && oldRank >= 0 && oldRank != Integer.MAX_VALUE && newRank < oldRank)
+					return false;
+			}
+		}
+		
+		// Step 3: Compute the score values and store the new Scores.
+		// The score values must be computed before storing anything because they depend on the old capacities of the identities outside of
+		// the region and the new capacities of the region.
+		final HashMap<Identity, Score> newScores = new HashMap<Identity, Score>(affected.size() * 2);
+		
+		for(Identity identity : affected) {
+			final Score oldScore = getScoreOrNull(treeOwner, identity, oldScores);
+			final int rank = region.contains(identity) ? newRanks.get(identity) : oldScore.getRank();
+			
+			if(rank == -1) {
+				newScores.put(identity, null); // Identities without rank have no Score
+				continue;
+			}
+			
+			final int capacity = region.contains(identity) ? newCapacities.get(identity) : oldScore.getCapacity();
+			
+			int value = 0;
+			final Trust treeOwnerTrust = getTreeOwnerTrustOrNull(treeOwner, identity);
+			if(treeOwnerTrust != null)
+				value = treeOwnerTrust.getValue();
+			else {
+				for(Trust trust : getReceivedTrusts(identity)) {
+					final Identity truster = trust.getTruster();
+					final int trusterCapacity;
+					
+					if(region.contains(truster))
+						trusterCapacity = newCapacities.get(truster);
+					else {
+						final Score trusterScore = getScoreOrNull(treeOwner, truster, oldScores);
+						trusterCapacity = trusterScore != null ? trusterScore.getCapacity() : 0;
+					}
+					
+					value += (trust.getValue() * trusterCapacity) / 100;
+				}
+			}
+			
+			newScores.put(identity, new Score(this, treeOwner, identity, value, rank, capacity));
+		}
+		
+		for(Identity identity : affected)
+			updateStoredScoreWithoutCommit(identity, getScoreOrNull(treeOwner, identity, oldScores), newScores.get(identity), true);
+		
+		if(logMINOR) {
+			Logger.minor(this, "Partial score computation for " + treeOwner + " finished. Region size: " + region.size()
+					+ "; Affected identities: " + affected.size());
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * A candidate for the rank of an identity, used by {@link WebOfTrust#updateScoresAfterDowngradeWithoutCommit(OwnIdentity, Identity)}
+	 * for processing identities in order of increasing rank.
+	 */
+	private static final class RankCandidate implements Comparable<RankCandidate> {
+		final Identity mIdentity;
+		final int mRank;
+		
+		RankCandidate(Identity identity, int rank) {
+			mIdentity = identity;
+			mRank = rank;
+		}
+
+		public int compareTo(RankCandidate other) {
+			return mRank < other.mRank ? -1 : (mRank == other.mRank ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * Returns true if the given identity has received positive trust from an identity outside of the given region which has non-zero
+	 * capacity and a rank which is less by one than the one of the identity. Then the identity keeps its rank even if all identities of
+	 * the region lose their rank.
+	 */
+	private boolean hasRankSupport(final OwnIdentity treeOwner, final Identity identity, final HashSet<Identity> region,
+			final HashMap<Identity, Score> scoreCache) {
+		
+		final Score score = getScoreOrNull(treeOwner, identity, scoreCache);
+		if(score == null)
+			return false;
+		
+		for(Trust trust : getReceivedTrusts(identity)) {
+			if(trust.getValue() <= 0 || region.contains(trust.getTruster()))
+				continue;
+			
+			final Score trusterScore = getScoreOrNull(treeOwner, trust.getTruster(), scoreCache);
+			
+			if(trusterScore != null && trusterScore.getCapacity() > 0 && trusterScore.getRank() != Integer.MAX_VALUE
+					&& trusterScore.getRank() + 1 == score.getRank())
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns true if the given identity has received trust from an identity outside of the given region which has non-zero capacity.
+	 * Then the identity keeps its infinite rank even if all identities of the region lose their capacity.
+	 */
+	private boolean hasCapacityTruster(final OwnIdentity treeOwner, final Identity identity, final HashSet<Identity> region,
+			final HashMap<Identity, Score> scoreCache) {
+		
+		for(Trust trust : getReceivedTrusts(identity)) {
+			if(region.contains(trust.getTruster()))
+				continue;
+			
+			final Score trusterScore = getScoreOrNull(treeOwner, trust.getTruster(), scoreCache);
+			
+			if(trusterScore != null && trusterScore.getCapacity() > 0)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Same as {@link #getScore(OwnIdentity, Identity)} but returns null instead of throwing and caches the result in the given map.
+	 */
+	private Score getScoreOrNull(final OwnIdentity truster, final Identity trustee, final HashMap<Identity, Score> cache) {
+		if(cache.containsKey(trustee))
+			return cache.get(trustee);
+		
+		Score score;
+		try {
+			score = getScore(truster, trustee);
+		} catch(NotInTrustTreeException e) {
+			score = null;
+		}
+		
+		cache.put(trustee, score);
+		return score;
+	}
+	
+	/**
+	 * Same as {@link #getTrust(Identity, Identity)} but returns null instead of throwing.
+	 */
+	private Trust getTreeOwnerTrustOrNull(final OwnIdentity treeOwner, final Identity trustee) {
+		try {
+			return getTrust(treeOwner, trustee);
+		} catch(NotTrustedException e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Begins the import of a trust list. This sets a flag on this WoT which signals that the import of a trust list is in progress.
 	 * This speeds up setTrust/removeTrust as the score calculation is only performed when {@link #finishTrustListImport()} is called.
@@ -2575,6 +3369,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		
 		mTrustListImportInProgress = true;
 		assert(!mFullScoreComputationNeeded);
+		assert(mTrustListImportChanges.isEmpty());
 		assert(computeAllScoresWithoutCommit()); // The database is intact before the import
 	}
 	
@@ -2606,6 +3401,7 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		assert(mTrustListImportInProgress);
 		mTrustListImportInProgress = false;
 		mFullScoreComputationNeeded = false;
+		mTrustListImportChanges.clear();
 		Persistent.checkedRollback(mDB, this, e, logLevel);
 		assert(computeAllScoresWithoutCommit()); // Test rollback.
 	}
@@ -2662,10 +3458,13 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 			return;
 		}
 		
+		// One incremental update for all trusts which the import changed instead of one per trust.
+		updateScoresWithoutCommit(mTrustListImportChanges);
+		mTrustListImportChanges.clear();
+		
 		if(mFullScoreComputationNeeded) {
 			computeAllScoresWithoutCommit();
 			assert(!mFullScoreComputationNeeded); // It properly clears the flag
-			assert(computeAllScoresWithoutCommit()); // computeAllScoresWithoutCommit() is stable
 		}
 		else
 			assert(computeAllScoresWithoutCommit()); // Verify whether updateScoresWithoutCommit worked.
@@ -2677,6 +3476,9 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	 * Updates all trust trees which are affected by the given modified score.
 	 * For understanding how score calculation works you should first read {@link #computeAllScoresWithoutCommit()}
 	 * 
+	 * If a trust list import is in progress, the change is only recorded: {@link #finishTrustListImport()} updates the scores for all
+	 * changes of the import at once.
+	 * 
 	 * This function does neither lock the database nor commit the transaction. You have to surround it with
 	 * synchronized(this) {
 	 * synchronized(mFetcher) {
@@ -2687,13 +3489,6 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 	 * }}}}
 	 */
 	private void updateScoresWithoutCommit(final Trust oldTrust, final Trust newTrust) {
-		if(logMINOR) Logger.minor(this, "Doing an incremental computation of all Scores...");
-		
-		final long beginTime = CurrentTimeUTC.getInMillis();
-		// We only include the time measurement if we actually do something.
-		// If we figure out that a full score recomputation is needed just by looking at the initial parameters, the measurement won't be included.
-		boolean includeMeasurement = false;
-		
 		final boolean trustWasCreated = (oldTrust == null);
 		final boolean trustWasDeleted = (newTrust == null);
 		final boolean trustWasModified = !trustWasCreated && !trustWasDeleted;
@@ -2710,174 +3505,209 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		if(trustWasModified && !oldTrust.getTrustee().getID().equals(newTrust.getTrustee().getID()))
 			throw new IllegalArgumentException("oldTrust has different trustee, oldTrust:" + oldTrust + "; newTrust: " + newTrust);
 		
+		final Trust changedTrust = trustWasDeleted ? oldTrust : newTrust; // oldTrust is a clone if the trust was modified, so we must use newTrust.
+		final boolean trustWasDowngraded = trustWasDeleted || (trustWasModified && oldTrust.getValue() > 0 && newTrust.getValue() <= 0);
+		final TrustChange change = new TrustChange(changedTrust.getTruster(), changedTrust.getTrustee(),
+				trustWasDeleted ? 0 : newTrust.getValue(), trustWasDowngraded);
+		
+		if(mTrustListImportInProgress) {
+			// Trust lists are large: Updating the scores for each of their trusts would propagate through the same trees again and again.
+			if(!mFullScoreComputationNeeded)
+				mTrustListImportChanges.add(change);
+			return;
+		}
+		
+		final ArrayList<TrustChange> changes = new ArrayList<TrustChange>(1);
+		changes.add(change);
+		updateScoresWithoutCommit(changes);
+		
+		if(mFullScoreComputationNeeded) {
+			// Only happens if updateScoresAfterDowngradeWithoutCommit() could not deal with the change or if the incremental
+			// computation found that an identity lost its inheritable rank while propagating a change.
+			computeAllScoresWithoutCommit();
+		} else {
+			assert(computeAllScoresWithoutCommit()); // This function worked correctly.
+		}
+	}
+	
+	/**
+	 * Updates all trust trees which are affected by the given trust changes, which must all be stored in the database already.
+	 * Sets {@link #mFullScoreComputationNeeded} instead if they cannot be dealt with incrementally. Does not do the full computation.
+	 * 
+	 * Each trust tree is processed once for all changes: First the region of each downgraded trustee is recomputed, then the upgrades
+	 * are propagated from all of their trustees in a single pass.
+	 * 
+	 * Synchronization: Same as {@link #updateScoresWithoutCommit(Trust, Trust)}.
+	 */
+	private void updateScoresWithoutCommit(final List<TrustChange> changes) {
+		if(mFullScoreComputationNeeded || changes.isEmpty())
+			return; // The measurement only includes computations which actually do something.
+		
+		if(logMINOR) Logger.minor(this, "Doing an incremental computation of all Scores for " + changes.size() + " changed trusts...");
+		
+		final long beginTime = CurrentTimeUTC.getInMillis();
+		
 		// We cannot iteratively REMOVE an inherited rank from the trustees because we don't know whether there is a circle in the trust values
 		// which would make the current identity get its old rank back via the circle: computeRank searches the trusters of an identity for the best
 		// rank, if we remove the rank from an identity, all its trustees will have a better rank and if one of them trusts the original identity
 		// then this function would run into an infinite loop. Decreasing or incrementing an existing rank is possible with this function because
 		// the rank received from the trustees will always be higher (that is exactly 1 more) than this identities rank.
-		if(trustWasDeleted) { 
-			mFullScoreComputationNeeded = true;
-		}
-
-		if(!mFullScoreComputationNeeded && (trustWasCreated || trustWasModified)) {
-			includeMeasurement = true; 
+		// Therefore, removal of trust is dealt with by updateScoresAfterDowngradeWithoutCommit(): It first determines the whole region of
+		// identities whose rank depended on the removed trust and then computes their ranks from the unaffected frontier of the region.
+		// This applies to:
+		// - Deleted trusts.
+		// - Trusts which were changed from positive to zero/negative: Rank is only inherited via positive trust.
+		// - Zero/negative trusts of the tree owner: They override the rank which the trustee would receive from remote identities.
+		for(OwnIdentity treeOwner : getAllOwnIdentities()) {
+			final LinkedHashSet<Identity> downgradedTrustees = new LinkedHashSet<Identity>();
+			final LinkedHashSet<Identity> upgradedTrustees = new LinkedHashSet<Identity>();
 			
-			for(OwnIdentity treeOwner : getAllOwnIdentities()) {
+			// Sort all changes before updating any score of the tree: Whether a truster has capacity must be judged by the scores
+			// which were valid when the trusts were changed.
+			for(TrustChange change : changes) {
 				try {
-					// Throws to abort the update of the trustee's score: If the truster has no rank or capacity in the tree owner's view then we don't need to update the trustee's score.
-					if(getScore(treeOwner, newTrust.getTruster()).getCapacity() == 0)
+					// If the truster has no rank or capacity in the tree owner's view then we don't need to update the trustee's score.
+					if(getScore(treeOwner, change.mTruster).getCapacity() == 0)
 						continue;
 				} catch(NotInTrustTreeException e) {
 					continue;
 				}
 				
 				// See explanation above "We cannot iteratively REMOVE an inherited rank..."
-				if(trustWasModified && oldTrust.getValue() > 0 && newTrust.getValue() <= 0) {
+				if(change.mWasDowngraded || (change.mTruster == treeOwner && change.mValue <= 0))
+					downgradedTrustees.add(change.mTrustee);
+				else
+					upgradedTrustees.add(change.mTrustee);
+			}
+			
+			for(Identity trustee : downgradedTrustees) {
+				if(!updateScoresAfterDowngradeWithoutCommit(treeOwner, trustee)) {
 					mFullScoreComputationNeeded = true;
 					break;
 				}
-				
-				final LinkedList<Trust> unprocessedEdges = new LinkedList<Trust>();
-				unprocessedEdges.add(newTrust);
+			}
+			
+			if(mFullScoreComputationNeeded)
+				break;
+			
+			final LinkedList<Identity> unprocessedTrustees = new LinkedList<Identity>(upgradedTrustees);
 
-				while(!unprocessedEdges.isEmpty()) {
-					final Trust trust = unprocessedEdges.removeFirst();
-					final Identity trustee = trust.getTrustee();
-					
-					if(trustee == treeOwner)
-						continue;
+			while(!unprocessedTrustees.isEmpty()) {
+				final Identity trustee = unprocessedTrustees.removeFirst();
+				
+				if(trustee == treeOwner)
+					continue;
 
-					Score currentStoredTrusteeScore;
+				Score currentStoredTrusteeScore;
 
-					boolean scoreExistedBefore;
-					
-					try {
-						currentStoredTrusteeScore = getScore(treeOwner, trustee);
-						scoreExistedBefore = true;
-					} catch(NotInTrustTreeException e) {
-						scoreExistedBefore = false;
-						currentStoredTrusteeScore = new Score(this, treeOwner, trustee, 0, -1, 0);
-					}
-					
-					final Score oldScore = currentStoredTrusteeScore.clone();
-					boolean oldShouldFetch = shouldFetchIdentity(trustee);
-					
-					final int newScoreValue = computeScoreValue(treeOwner, trustee); 
-					final int newRank = computeRank(treeOwner, trustee);
-					final int newCapacity = computeCapacity(treeOwner, trustee, newRank);
-					final Score newScore = new Score(this, treeOwner, trustee, newScoreValue, newRank, newCapacity);
+				boolean scoreExistedBefore;
+				
+				try {
+					currentStoredTrusteeScore = getScore(treeOwner, trustee);
+					scoreExistedBefore = true;
+				} catch(NotInTrustTreeException e) {
+					scoreExistedBefore = false;
+					currentStoredTrusteeScore = new Score(this, treeOwner, trustee, 0, -1, 0);
+				}
+				
+				final Score oldScore = currentStoredTrusteeScore.clone();
+				boolean oldShouldFetch = shouldFetchIdentity(trustee);
+				
+				final int newScoreValue = computeScoreValue(treeOwner, trustee); 
+				final int newRank = computeRank(treeOwner, trustee);
+				final int newCapacity = computeCapacity(treeOwner, trustee, newRank);
+				final Score newScore = new Score(this, treeOwner, trustee, newScoreValue, newRank, newCapacity);
 
-					// Normally we couldn't detect the following two cases due to circular trust values. However, if an own identity assigns a trust value,
-					// the rank and capacity are always computed based on the trust value of the own identity so we must also check this here:
+				// Normally we couldn't detect the following two cases due to circular trust values. However, if an own identity assigns a trust value,
+				// the rank and capacity are always computed based on the trust value of the own identity so we must also check this here:
 
-					if((oldScore.getRank() >= 0 && oldScore.getRank() < Integer.MAX_VALUE) // It had an inheritable rank
-							&& (newScore.getRank() == -1 || newScore.getRank() == Integer.MAX_VALUE)) { // It has no inheritable rank anymore
-						mFullScoreComputationNeeded = true;
-						break;
-					}
-					
-					if(oldScore.getCapacity() > 0 && newScore.getCapacity() == 0) {
-						mFullScoreComputationNeeded = true;
-						break;
+				if((oldScore.getRank() >= 0 && oldScore.getRank() < Integer.MAX_VALUE) // It had an inheritable rank
+						&& (newScore.getRank() == -1 || newScore.getRank() == Integer.MAX_VALUE)) { // It has no inheritable rank anymore
+					mFullScoreComputationNeeded = true;
+					break;
+				}
+				
+				if(oldScore.getCapacity() > 0 && newScore.getCapacity() == 0) {
+					mFullScoreComputationNeeded = true;
+					break;
+				}
+				
+				// We are OK to update it now. We must not update the values of the stored score object before determining whether we need
+				// a full score computation - the full computation needs the old values of the object.
+				
+				currentStoredTrusteeScore.setValue(newScore.getScore());
+				currentStoredTrusteeScore.setRank(newScore.getRank());
+				currentStoredTrusteeScore.setCapacity(newScore.getCapacity());
+				
+				// Identities should not get into the queue if they have no rank, see the large if() about 20 lines below
+				assert(currentStoredTrusteeScore.getRank() >= 0); 
+				
+				if(currentStoredTrusteeScore.getRank() >= 0) {
+					currentStoredTrusteeScore.storeWithoutCommit();
+					if(!scoreExistedBefore || !oldScore.equals(currentStoredTrusteeScore))
+						mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(scoreExistedBefore ? oldScore : null, currentStoredTrusteeScore);
+				}
+				
+				// If fetch status changed from false to true, we need to start fetching it
+				// If the capacity changed from 0 to positive, we need to refetch the current edition: Identities with capacity 0 cannot
+				// cause new identities to be imported from their trust list, capacity > 0 allows this.
+				// If the fetch status changed from true to false, we need to stop fetching it
+				if((!oldShouldFetch || (oldScore.getCapacity()== 0 && newScore.getCapacity() > 0)) && shouldFetchIdentity(trustee)) {
+					if(logMINOR) {
+						if(!oldShouldFetch)
+							Logger.minor(this, "Fetch status changed from false to true, refetching " + trustee);
+						else
+							Logger.minor(this, "Capacity changed from 0 to " + newScore.getCapacity() + ", refetching" + trustee);
 					}
+
+					final Identity oldTrustee = trustee.clone();
 					
-					// We are OK to update it now. We must not update the values of the stored score object before determining whether we need
-					// a full score computation - the full computation needs the old values of the object.
-					
-					currentStoredTrusteeScore.setValue(newScore.getScore());
-					currentStoredTrusteeScore.setRank(newScore.getRank());
-					currentStoredTrusteeScore.setCapacity(newScore.getCapacity());
-					
-					// Identities should not get into the queue if they have no rank, see the large if() about 20 lines below
-					assert(currentStoredTrusteeScore.getRank() >= 0); 
-					
-					if(currentStoredTrusteeScore.getRank() >= 0) {
-						currentStoredTrusteeScore.storeWithoutCommit();
-						if(!scoreExistedBefore || !oldScore.equals(currentStoredTrusteeScore))
-							mSubscriptionManager.storeScoreChangedNotificationWithoutCommit(scoreExistedBefore ? oldScore : null, currentStoredTrusteeScore);
-					}
+					trustee.markForRefetch();
+					trustee.storeWithoutCommit();
 					
-					// If fetch status changed from false to true, we need to start fetching it
-					// If the capacity changed from 0 to positive, we need to refetch the current edition: Identities with capacity 0 cannot
-					// cause new identities to be imported from their trust list, capacity > 0 allows this.
-					// If the fetch status changed from true to false, we need to stop fetching it
-					if((!oldShouldFetch || (oldScore.getCapacity()== 0 && newScore.getCapacity() > 0)) && shouldFetchIdentity(trustee)) {
-						if(logMINOR) {
-							if(!oldShouldFetch)
-								Logger.minor(this, "Fetch status changed from false to true, refetching " + trustee);
-							else
-								Logger.minor(this, "Capacity changed from 0 to " + newScore.getCapacity() + ", refetching" + trustee);
-						}
-
-						final Identity oldTrustee = trustee.clone();
-						
-						trustee.markForRefetch();
-						trustee.storeWithoutCommit();
-						
-						// Clients shall determine shouldFetch from the scores of an identity on their own so there is no need to notify the client about that
-						// - but we do tell the client the state of Identity.getCurrentEditionFetchState() which is changed by markForRefetch().
-						// Therefore we me must store a notification nevertheless.
-						if(!oldTrustee.equals(trustee)) // markForRefetch() will not change anything if the current edition had not been fetched yet
-							mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldTrustee, trustee);
+					// Clients shall determine shouldFetch from the scores of an identity on their own so there is no need to notify the client about that
+					// - but we do tell the client the state of Identity.getCurrentEditionFetchState() which is changed by markForRefetch().
+					// Therefore we me must store a notification nevertheless.
+					if(!oldTrustee.equals(trustee)) // markForRefetch() will not change anything if the current edition had not been fetched yet
+						mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldTrustee, trustee);
 
-						mFetcher.storeStartFetchCommandWithoutCommit(trustee);
-					}
-					else if(oldShouldFetch && !shouldFetchIdentity(trustee)) {
-						if(logMINOR) Logger.minor(this, "Fetch status changed from true to false, aborting fetch of " + trustee);
+					mFetcher.storeStartFetchCommandWithoutCommit(trustee);
+				}
+				else if(oldShouldFetch && !shouldFetchIdentity(trustee)) {
+					if(logMINOR) Logger.minor(this, "Fetch status changed from true to false, aborting fetch of " + trustee);
 
-						mFetcher.storeAbortFetchCommandWithoutCommit(trustee);
-					}
-					
-					// If the rank or capacity changed then the trustees might be affected because the could have inherited theirs
-					if(oldScore.getRank() != newScore.getRank() || oldScore.getCapacity() != newScore.getCapacity()) {
-						// If this identity has no capacity or no rank then it cannot affect its trustees:
-						// (- If it had none and it has none now then there is none which can be inherited, this is obvious)
-						// - If it had one before and it was removed, this algorithm will have aborted already because a full computation is needed
-						if(newScore.getCapacity() > 0 || (newScore.getRank() >= 0 && newScore.getRank() < Integer.MAX_VALUE)) {
-							// We need to update the trustees of trustee
-							for(Trust givenTrust : getGivenTrusts(trustee)) {
-								unprocessedEdges.add(givenTrust);
-							}
+					mFetcher.storeAbortFetchCommandWithoutCommit(trustee);
+				}
+				
+				// If the rank or capacity changed then the trustees might be affected because the could have inherited theirs
+				if(oldScore.getRank() != newScore.getRank() || oldScore.getCapacity() != newScore.getCapacity()) {
+					// If this identity has no capacity or no rank then it cannot affect its trustees:
+					// (- If it had none and it has none now then there is none which can be inherited, this is obvious)
+					// - If it had one before and it was removed, this algorithm will have aborted already because a full computation is needed
+					if(newScore.getCapacity() > 0 || (newScore.getRank() >= 0 && newScore.getRank() < Integer.MAX_VALUE)) {
+						// We need to update the trustees of trustee
+						for(Trust givenTrust : getGivenTrusts(trustee)) {
+							unprocessedTrustees.add(givenTrust.getTrustee());
 						}
 					}
 				}
-				
-				if(mFullScoreComputationNeeded)
-					break;
 			}
-		}	
-		
-		if(includeMeasurement) {
-			++mIncrementalScoreRecomputationCount;
-			mIncrementalScoreRecomputationMilliseconds += CurrentTimeUTC.getInMillis() - beginTime;
+			
+			if(mFullScoreComputationNeeded)
+				break;
 		}
 		
+		++mIncrementalScoreRecomputationCount;
+		mIncrementalScoreRecomputationMilliseconds += CurrentTimeUTC.getInMillis() - beginTime;
+		
 		if(logMINOR) {
-			final String time = includeMeasurement ?
-							("Stats: Amount: " + mIncrementalScoreRecomputationCount + "; Avg Time:" + getAverageIncrementalScoreRecomputationTime() + "s")
-							: ("Time not measured: Computation was aborted before doing anything.");
+			final String time = "Stats: Amount: " + mIncrementalScoreRecomputationCount + "; Avg Time:" + getAverageIncrementalScoreRecomputationTime() + "s";
 			
 			if(!mFullScoreComputationNeeded)
 				Logger.minor(this, "Incremental computation of all Scores finished. " + time);
 			else
 				Logger.minor(this, "Incremental computation of all Scores not possible, full computation is needed. " + time);
 		}
-		
-		if(!mTrustListImportInProgress) {
-			if(mFullScoreComputationNeeded) {
-				// TODO: Optimization: This uses very much CPU and memory. Write a partial computation function...
-				// TODO: Optimization: While we do not have a partial computation function, we could at least optimize computeAllScores to NOT
-				// keep all objects in memory etc.
-				computeAllScoresWithoutCommit();
-				assert(computeAllScoresWithoutCommit()); // computeAllScoresWithoutCommit is stable
-			} else {
-				assert(computeAllScoresWithoutCommit()); // This function worked correctly.
-			}
-		} else { // a trust list import is in progress
-			// We not do the following here because it would cause too much CPU usage during debugging: Trust lists are large and therefore 
-			// updateScoresWithoutCommit is called often during import of a single trust list
-			// assert(computeAllScoresWithoutCommit());
-		}
 	}
 
 	
@@ -3193,8 +4023,8 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 					Logger.normal(this, "Restoring an already known identity from Freenet: " + oldIdentity);
 					
 					// Normally, one would expect beginTrustListImport() to happen close to the actual trust list changes later on in this function.
-					// But beginTrustListImport() contains an assert(computeAllScoresWithoutCommit()) and that call to the score computation reference
-					// implementation will fail if two identities with the same ID exist.
+					// But beginTrustListImport() contains an assert(computeAllScoresWithoutCommit()) and that call to the full score
+					// computation will fail if two identities with the same ID exist.
 					// This would be the case later on - we cannot delete the non-own version of the OwnIdentity before we modified the trust graph
 					// but we must also store the own version to be able to modify the trust graph.
 					beginTrustListImport();
@@ -3573,6 +4403,10 @@ public final class WebOfTrust extends WebOfTrustInterface implements FredPlugin,
 		return mIntroductionClient;
 	}
 	
+	public IntroductionServer getIntroductionServer() {
+		return mIntroductionServer;
+	}
+	
 	protected FCPInterface getFCPInterface() {
 		return mFCPInterface;
 	}
@@ -16,6 +16,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.TimeZone;
@@ -24,6 +26,10 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -44,6 +50,7 @@ import plugins.WebOfTrust.exceptions.NotTrustedException;
 import plugins.WebOfTrust.exceptions.UnknownIdentityException;
 import plugins.WebOfTrust.introduction.IntroductionPuzzle;
 
+import com.db4o.ObjectSet;
 import com.db4o.ext.ExtObjectContainer;
 
 import freenet.keys.FreenetURI;
@@ -90,6 +97,13 @@ public final class XMLTransformer {
 	 */
 	public static final int MAX_IDENTITY_XML_TRUSTEE_AMOUNT = 512;
 	
+	/**
+	 * Name of the boolean {@link Configuration} parameter which selects the parser of identity XML:
+	 * If true, the streaming parser {@link #parseIdentityXMLWithStAX(InputStream)} is used, otherwise the DOM parser
+	 * {@link #parseIdentityXMLWithDOM(InputStream)}. Defaults to false. Read once when the XMLTransformer is created.
+	 */
+	public static final String CONFIG_USE_STREAMING_IDENTITY_XML_PARSER = "XMLTransformer.UseStreamingIdentityXMLParser";
+	
 	private final WebOfTrust mWoT;
 	
 	/**
@@ -107,6 +121,12 @@ public final class XMLTransformer {
 	/** Created by mDocumentBuilder, used for building the identity XML DOM when encoding identities */
 	private final DOMImplementation mDOM;
 	
+	/** Used for parsing the identity XML when decoding identities if {@link #mUseStreamingIdentityXMLParser} is true */
+	private final XMLInputFactory mXMLInputFactory;
+	
+	/** @see #CONFIG_USE_STREAMING_IDENTITY_XML_PARSER */
+	private final boolean mUseStreamingIdentityXMLParser;
+	
 	/** Used for ensuring that the order of the output XML does not reveal private data of the user */
 	private final Random mFastWeakRandom;
 	
@@ -146,6 +166,17 @@ public final class XMLTransformer {
 			xmlFactory.setAttribute("http://apache.org/xml/features/disallow-doctype-decl", true);
 			mDocumentBuilder = xmlFactory.newDocumentBuilder(); 
 			mDOM = mDocumentBuilder.getDOMImplementation();
+			
+			mXMLInputFactory = XMLInputFactory.newInstance();
+			// Same security settings as the DOM parser: No DTDs, therefore no entity declarations. The parser throws on DTDs itself,
+			// see parseIdentityXMLWithStAX(). The limits of secure processing are enforced by default for StAX.
+			mXMLInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			mXMLInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			// The DOM parser is not namespace aware either, it compares the full tag names.
+			mXMLInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			
+			final Configuration config = mWoT.getConfig();
+			mUseStreamingIdentityXMLParser = config != null && config.getBoolean(CONFIG_USE_STREAMING_IDENTITY_XML_PARSER);
 
 			mSerializer = TransformerFactory.newInstance().newTransformer();
 			mSerializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
@@ -273,7 +304,7 @@ public final class XMLTransformer {
 
 	}
 	
-	private static final class ParsedIdentityXML {
+	static final class ParsedIdentityXML {
 		static final class TrustListEntry {
 			final FreenetURI mTrusteeURI;
 			final byte mTrustValue;
@@ -300,17 +331,42 @@ public final class XMLTransformer {
 	}
 	
 	/**
+	 * Parses the identity XML with {@link #parseIdentityXMLWithStAX(InputStream)} or {@link #parseIdentityXMLWithDOM(InputStream)},
+	 * depending on the configuration parameter {@link #CONFIG_USE_STREAMING_IDENTITY_XML_PARSER}.
+	 * 
+	 * Does not use any locks of the {@link WebOfTrust}, so it can be called before taking them for {@link #importIdentity(FreenetURI, ParsedIdentityXML)}.
+	 * Errors are not thrown but stored in {@link ParsedIdentityXML#parseError}.
+	 * 
 	 * @param xmlInputStream An InputStream which must not return more than {@link MAX_IDENTITY_XML_BYTE_SIZE} bytes.
 	 */
-	private ParsedIdentityXML parseIdentityXML(InputStream xmlInputStream) throws IOException {
+	ParsedIdentityXML parseIdentityXML(InputStream xmlInputStream) {
 		Logger.normal(this, "Parsing identity XML...");
 		
 		xmlInputStream = new OneBytePerReadInputStream(xmlInputStream); // Workaround for Java bug, see the stream class for explanation
 
-		// May not be accurate by definition of available(). So the JavaDoc requires the callers to obey the size limit, this is a double-check.
-		if(xmlInputStream.available() > MAX_IDENTITY_XML_BYTE_SIZE)
-			throw new IllegalArgumentException("XML contains too many bytes: " + xmlInputStream.available());
+		try {
+			// May not be accurate by definition of available(). So the JavaDoc requires the callers to obey the size limit, this is a double-check.
+			if(xmlInputStream.available() > MAX_IDENTITY_XML_BYTE_SIZE)
+				throw new IllegalArgumentException("XML contains too many bytes: " + xmlInputStream.available());
+		} catch(Exception e) {
+			final ParsedIdentityXML error = new ParsedIdentityXML();
+			error.parseError = e;
+			return error;
+		}
 		
+		final ParsedIdentityXML result = mUseStreamingIdentityXMLParser ? parseIdentityXMLWithStAX(xmlInputStream) : parseIdentityXMLWithDOM(xmlInputStream);
+		
+		Logger.normal(this, "Finished parsing identity XML.");
+		
+		return result;
+	}
+	
+	/**
+	 * Parses the identity XML by building a DOM of it. The DOM parser is synchronized, so only one XML can be parsed at once.
+	 * 
+	 * Errors are not thrown but stored in {@link ParsedIdentityXML#parseError}.
+	 */
+	ParsedIdentityXML parseIdentityXMLWithDOM(InputStream xmlInputStream) {
 		final ParsedIdentityXML result = new ParsedIdentityXML();
 		
 		try {			
@@ -359,208 +415,493 @@ public final class XMLTransformer {
 			result.parseError = e;
 		}
 		
-		Logger.normal(this, "Finished parsing identity XML.");
+		return result;
+	}
+	
+	/**
+	 * Parses the identity XML with a streaming pull parser. Yields the same results as {@link #parseIdentityXMLWithDOM(InputStream)}
+	 * but does not keep the whole document in memory and does not need to synchronize the parsing: Multiple XML files can be
+	 * parsed concurrently.
+	 * 
+	 * The semantics of the DOM version are replicated exactly:
+	 * - The first "Identity" element of the document is parsed.
+	 * - All "Context" and "Property" elements in it are used, no matter how deeply they are nested.
+	 * - All "Trust" elements in the first "TrustList" element of it are used if the identity publishes its trust list.
+	 * - Missing attributes are treated as empty strings.
+	 * - The whole document is read so malformed XML after the Identity element is an error as well.
+	 * 
+	 * Errors are not thrown but stored in {@link ParsedIdentityXML#parseError}.
+	 */
+	ParsedIdentityXML parseIdentityXMLWithStAX(InputStream xmlInputStream) {
+		final ParsedIdentityXML result = new ParsedIdentityXML();
+		
+		try {
+			final XMLStreamReader reader;
+			synchronized(mXMLInputFactory) { // XMLInputFactory is not guaranteed to be thread-safe. The created readers are independent.
+				reader = mXMLInputFactory.createXMLStreamReader(xmlInputStream);
+			}
+			
+			try {
+				int depth = 0;
+				int identityDepth = -1; // Depth of the Identity element while we are inside of it, -1 otherwise
+				int trustListDepth = -1; // Same for the TrustList element
+				boolean identityFound = false;
+				boolean trustListFound = false;
+				
+				while(reader.hasNext()) {
+					switch(reader.next()) {
+						case XMLStreamConstants.DTD:
+							throw new XMLStreamException("DOCTYPE is not allowed", reader.getLocation());
+							
+						case XMLStreamConstants.START_ELEMENT:
+							++depth;
+							final String name = reader.getLocalName();
+							
+							if(identityDepth == -1) {
+								if(!identityFound && name.equals("Identity")) {
+									identityFound = true;
+									identityDepth = depth;
+									
+									final String version = getAttribute(reader, "Version");
+									if(Integer.parseInt(version) > XML_FORMAT_VERSION)
+										throw new Exception("Version " + version + " > " + XML_FORMAT_VERSION);
+									
+									result.identityName = getAttribute(reader, "Name");
+									result.identityPublishesTrustList = Boolean.parseBoolean(getAttribute(reader, "PublishesTrustList"));
+									result.identityContexts = new ArrayList<String>();
+									result.identityProperties = new HashMap<String, String>();
+								}
+							} else if(name.equals("Context")) {
+								result.identityContexts.add(getAttribute(reader, "Name"));
+							} else if(name.equals("Property")) {
+								result.identityProperties.put(getAttribute(reader, "Name"), getAttribute(reader, "Value"));
+							} else if(name.equals("TrustList")) {
+								if(!trustListFound) {
+									trustListFound = true;
+									trustListDepth = depth;
+									if(result.identityPublishesTrustList)
+										result.identityTrustList = new ArrayList<ParsedIdentityXML.TrustListEntry>();
+								}
+							} else if(name.equals("Trust")) {
+								if(trustListDepth != -1 && result.identityPublishesTrustList) {
+									result.identityTrustList.add(new ParsedIdentityXML.TrustListEntry(
+											new FreenetURI(getAttribute(reader, "Identity")),
+											Byte.parseByte(getAttribute(reader, "Value")),
+											getAttribute(reader, "Comment")
+										));
+								}
+							}
+							break;
+							
+						case XMLStreamConstants.END_ELEMENT:
+							if(depth == trustListDepth)
+								trustListDepth = -1;
+							if(depth == identityDepth)
+								identityDepth = -1;
+							--depth;
+							break;
+					}
+				}
+				
+				if(!identityFound)
+					throw new Exception("No Identity element found");
+				
+				if(result.identityPublishesTrustList && !trustListFound)
+					throw new Exception("Identity publishes trust list but no TrustList element found");
+			} finally {
+				reader.close();
+			}
+		} catch(Exception e) {
+			result.parseError = e;
+		}
 		
 		return result;
 	}
 	
+	/**
+	 * @return The value of the given attribute of the current element of the reader. An empty String if it does not exist,
+	 * 	same as {@link Element#getAttribute(String)}.
+	 */
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		final String value = reader.getAttributeValue(null, name);
+		return value != null ? value : "";
+	}
+	
 	/**
 	 * Imports a identity XML file into the given web of trust. This includes:
 	 * - The identity itself and its attributes
 	 * - The trust list of the identity, if it has published one in the XML.
 	 * 
+	 * Same as calling {@link #parseIdentityXML(InputStream)} and then {@link #importIdentity(FreenetURI, ParsedIdentityXML)}.
+	 * 
 	 * @param xmlInputStream The input stream containing the XML.
 	 */
 	public void importIdentity(FreenetURI identityURI, InputStream xmlInputStream) {
+		// We first parse the XML without synchronization, then do the synchronized import into the WebOfTrust
+		importIdentity(identityURI, parseIdentityXML(xmlInputStream));
+	}
+	
+	/**
+	 * Imports the result of {@link #parseIdentityXML(InputStream)} into the given web of trust. If parsing failed, the edition is
+	 * marked as {@link FetchState#ParsingFailed}.
+	 * 
+	 * Takes the locks of the {@link WebOfTrust}, the {@link IdentityFetcher} and the {@link SubscriptionManager}. The parsing should
+	 * be done before taking them, it can take a long time.
+	 */
+	void importIdentity(FreenetURI identityURI, ParsedIdentityXML xmlData) {
 		try { // Catch import problems so we can mark the edition as parsing failed
-		// We first parse the XML without synchronization, then do the synchronized import into the WebOfTrust		
-		final ParsedIdentityXML xmlData = parseIdentityXML(xmlInputStream);
-		
 		synchronized(mWoT) {
 		synchronized(mWoT.getIdentityFetcher()) {
 		synchronized(mSubscriptionManager) {
-			final Identity identity = mWoT.getIdentityByURI(identityURI);
-			final Identity oldIdentity = identity.clone(); // For the SubscriptionManager
-			
-			Logger.normal(this, "Importing parsed XML for " + identity);
-			
-			long newEdition = identityURI.getEdition();
-			if(identity.getEdition() > newEdition) {
-				if(logDEBUG) Logger.debug(this, "Fetched an older edition: current == " + identity.getEdition() + "; fetched == " + identityURI.getEdition());
+			if(!isNewEdition(identityURI))
 				return;
-			} else if(identity.getEdition() == newEdition) {
-				if(identity.getCurrentEditionFetchState() == FetchState.Fetched) {
-					if(logDEBUG) Logger.debug(this, "Fetched current edition which is marked as fetched already, not importing: " + identityURI);
-					return;
-				} else if(identity.getCurrentEditionFetchState() == FetchState.ParsingFailed) {
-					Logger.normal(this, "Re-fetched current-edition which was marked as parsing failed: " + identityURI);
-				}
-			}
-				
+			
 			// We throw parse errors AFTER checking the edition number: If this XML was outdated anyway, we don't have to throw.
 			if(xmlData.parseError != null)
 				throw xmlData.parseError;
-				
 			
 			synchronized(Persistent.transactionLock(mDB)) {
 				try { // Transaction rollback block
-					identity.setEdition(newEdition); // The identity constructor only takes the edition number as a hint, so we must store it explicitly.
-					boolean didPublishTrustListPreviously = identity.doesPublishTrustList();
-					identity.setPublishTrustList(xmlData.identityPublishesTrustList);
-					
-					try {
-						identity.setNickname(xmlData.identityName);
-					}
-					catch(Exception e) {
-						/* Nickname changes are not allowed, ignore them... */
-						Logger.warning(this, "setNickname() failed.", e);
-					}
-	
-					try { /* Failure of context importing should not make an identity disappear, therefore we catch exceptions. */
-						identity.setContexts(xmlData.identityContexts);
-					}
-					catch(Exception e) {
-						Logger.warning(this, "setContexts() failed.", e);
-					}
+					mWoT.beginTrustListImport();
+					importIdentityWithoutCommit(identityURI, xmlData);
+					mWoT.finishTrustListImport();
+					Persistent.checkedCommit(mDB, this);
+				}
+				catch(Exception e) { 
+					mWoT.abortTrustListImport(e, Logger.LogLevel.WARNING); // Does the rollback
+					refreshAfterRollback(identityURI, xmlData);
+					throw e;
+				} // try
+			} // synchronized(Persistent.transactionLock(db))
+		} // synchronized(mSubscriptionManager)
+		} // synchronized(mWoT.getIdentityFetcher())
+		} // synchronized(mWoT)
+		} // try
+		catch(Exception e) {
+			markParsingFailed(identityURI, e);
+		}
+	}
 	
-					try { /* Failure of property importing should not make an identity disappear, therefore we catch exceptions. */
-						identity.setProperties(xmlData.identityProperties);
+	/**
+	 * Imports the results of {@link #parseIdentityXML(InputStream)} of multiple identities within a single trust list import and a single
+	 * transaction. This is much faster than calling {@link #importIdentity(FreenetURI, ParsedIdentityXML)} for each of them:
+	 * The score computation is done at most once and the database is committed only once.
+	 * 
+	 * If importing one of the identities fails, only its edition is marked as {@link FetchState#ParsingFailed}: The transaction is
+	 * rolled back and the remaining identities are imported again without it. If finishing the trust list import fails, the identities
+	 * are imported one by one.
+	 * 
+	 * Takes the locks of the {@link WebOfTrust}, the {@link IdentityFetcher} and the {@link SubscriptionManager}.
+	 * 
+	 * @param identityURIs The URIs of the fetched editions.
+	 * @param xmlData The parsed XML of each of the editions, in the same order.
+	 */
+	void importIdentities(List<FreenetURI> identityURIs, List<ParsedIdentityXML> xmlData) {
+		if(identityURIs.size() != xmlData.size())
+			throw new IllegalArgumentException("Sizes differ: " + identityURIs.size() + " != " + xmlData.size());
+		
+		final LinkedList<Integer> remaining = new LinkedList<Integer>();
+		final ArrayList<Integer> failed = new ArrayList<Integer>();
+		final HashMap<Integer, Exception> failures = new HashMap<Integer, Exception>();
+		
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mSubscriptionManager) {
+			for(int i=0; i < identityURIs.size(); ++i) {
+				// Handle the identities whose parsing failed individually: Each would cause a rollback of the batch.
+				if(xmlData.get(i).parseError != null)
+					importIdentity(identityURIs.get(i), xmlData.get(i));
+				else
+					remaining.add(i);
+			}
+			
+			if(remaining.isEmpty())
+				return;
+			
+			synchronized(Persistent.transactionLock(mDB)) {
+				while(true) {
+					Integer current = null;
+					
+					try { // Transaction rollback block
+						mWoT.beginTrustListImport();
+						for(Integer i : remaining) {
+							current = i;
+							importIdentityWithoutCommit(identityURIs.get(i), xmlData.get(i));
+						}
+						current = null;
+						mWoT.finishTrustListImport();
+						Persistent.checkedCommit(mDB, this);
+						break;
 					}
 					catch(Exception e) {
-						Logger.warning(this, "setProperties() failed", e);
-					}
-				
-					
-					mWoT.beginTrustListImport(); // We delete the old list if !identityPublishesTrustList and it did publish one earlier => we always call this. 
-					
-					if(xmlData.identityPublishesTrustList) {
-						// We import the trust list of an identity if it's score is equal to 0, but we only create new identities or import edition hints
-						// if the score is greater than 0. Solving a captcha therefore only allows you to create one single identity.
-						boolean positiveScore = false;
-						boolean hasCapacity = false;
+						mWoT.abortTrustListImport(e, Logger.LogLevel.WARNING); // Does the rollback
+						for(Integer i : remaining)
+							refreshAfterRollback(identityURIs.get(i), xmlData.get(i));
 						
-						// TODO: getBestScore/getBestCapacity should always yield a positive result because we store a positive score object for an OwnIdentity
-						// upon creation. The only case where it could not exist might be restoreOwnIdentity() ... check that. If it is created there as well,
-						// remove the additional check here.
-						if(identity instanceof OwnIdentity) {
-							// Importing of OwnIdentities is always allowed
-							positiveScore = true;
-							hasCapacity = true;
-						} else {
-							try {
-								positiveScore = mWoT.getBestScore(identity) > 0;
-								hasCapacity = mWoT.getBestCapacity(identity) > 0;
-							}
-							catch(NotInTrustTreeException e) { }
+						if(current == null) { // Not caused by a single identity
+							for(Integer i : remaining)
+								importIdentity(identityURIs.get(i), xmlData.get(i));
+							break;
 						}
 						
+						// Re-apply the batch without the identity which failed
+						remaining.remove(current);
+						failed.add(current);
+						failures.put(current, e);
 						
-						HashSet<String>	identitiesWithUpdatedEditionHint = null;
-
-						if(positiveScore) {
-							identitiesWithUpdatedEditionHint = new HashSet<String>(xmlData.identityTrustList.size() * 2);
-						}
+						if(remaining.isEmpty())
+							break;
+					}
+				}
+			}
+			
+			for(Integer i : failed)
+				markParsingFailed(identityURIs.get(i), failures.get(i));
+		}
+		}
+		}
+		
+		if(logMINOR) Logger.minor(this, "Imported batch of " + identityURIs.size() + " identities, failed: " + failed.size());
+	}
+	
+	/**
+	 * Must be called after the rollback of an import of the given edition: Discards the modifications which the import did in memory
+	 * to the identity, to the trust values it has given and to the trustees of its trust list. Otherwise they would survive the
+	 * rollback if they are still referenced. Then a retry of the import would consider the edition as imported already, see
+	 * {@link #isNewEdition(FreenetURI)}, and would not store the trust values and edition hints which seem to be unchanged.
+	 */
+	private void refreshAfterRollback(FreenetURI identityURI, ParsedIdentityXML xmlData) {
+		try {
+			final Identity identity = mWoT.getIdentityByURI(identityURI);
+			identity.refreshAfterRollback();
+			
+			final ObjectSet<Trust> givenTrusts = mWoT.getGivenTrusts(identity);
+			for(Trust trust : givenTrusts)
+				trust.refreshAfterRollback();
+		} catch(UnknownIdentityException e) {
+			return;
+		}
+		
+		if(xmlData.identityTrustList == null)
+			return;
+		
+		for(final ParsedIdentityXML.TrustListEntry trustListEntry : xmlData.identityTrustList) {
+			try {
+				mWoT.getIdentityByURI(trustListEntry.mTrusteeURI).refreshAfterRollback();
+			} catch(UnknownIdentityException e) {
+				// Was created by the import and is gone with the rollback.
+			}
+		}
+	}
+	
+	/**
+	 * @return False if the given edition is older than the current edition of the identity or if it is the current edition and was
+	 * 	imported already. Then it must not be imported.
+	 * @throws UnknownIdentityException If the identity does not exist.
+	 */
+	private boolean isNewEdition(FreenetURI identityURI) throws UnknownIdentityException {
+		final Identity identity = mWoT.getIdentityByURI(identityURI);
+		
+		long newEdition = identityURI.getEdition();
+		if(identity.getEdition() > newEdition) {
+			if(logDEBUG) Logger.debug(this, "Fetched an older edition: current == " + identity.getEdition() + "; fetched == " + identityURI.getEdition());
+			return false;
+		} else if(identity.getEdition() == newEdition) {
+			if(identity.getCurrentEditionFetchState() == FetchState.Fetched) {
+				if(logDEBUG) Logger.debug(this, "Fetched current edition which is marked as fetched already, not importing: " + identityURI);
+				return false;
+			} else if(identity.getCurrentEditionFetchState() == FetchState.ParsingFailed) {
+				Logger.normal(this, "Re-fetched current-edition which was marked as parsing failed: " + identityURI);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Imports the parsed XML of an identity into the database. Does nothing if {@link #isNewEdition(FreenetURI)} is false.
+	 * 
+	 * Must be called within a trust list import, see {@link WebOfTrust#beginTrustListImport()}: If the identity does not publish its
+	 * trust list anymore, we delete its old one - so a trust list import is needed even if the XML does not contain a trust list.
+	 * 
+	 * Synchronization:
+	 * This function does neither lock the database nor commit the transaction. You have to surround it with:
+	 * <code>
+	 * synchronized(mWoT) {
+	 * synchronized(mWoT.getIdentityFetcher()) {
+	 * synchronized(mSubscriptionManager) {
+	 * synchronized(Persistent.transactionLock(mDB)) {
+	 *     try { mWoT.beginTrustListImport(); importIdentityWithoutCommit(...); mWoT.finishTrustListImport(); Persistent.checkedCommit(mDB, this); }
+	 *     catch(RuntimeException e) { mWoT.abortTrustListImport(e); }
+	 * }}}}
+	 * </code>
+	 * 
+	 * @throws Exception If the XML could not be parsed or imported. The transaction must be rolled back then.
+	 */
+	private void importIdentityWithoutCommit(FreenetURI identityURI, ParsedIdentityXML xmlData) throws Exception {
+		if(!isNewEdition(identityURI))
+			return;
+		
+		if(xmlData.parseError != null)
+			throw xmlData.parseError;
+		
+		final Identity identity = mWoT.getIdentityByURI(identityURI);
+		final Identity oldIdentity = identity.clone(); // For the SubscriptionManager
+		final long newEdition = identityURI.getEdition();
+		
+		Logger.normal(this, "Importing parsed XML for " + identity);
+		
+		identity.setEdition(newEdition); // The identity constructor only takes the edition number as a hint, so we must store it explicitly.
+		boolean didPublishTrustListPreviously = identity.doesPublishTrustList();
+		identity.setPublishTrustList(xmlData.identityPublishesTrustList);
+		
+		try {
+			identity.setNickname(xmlData.identityName);
+		}
+		catch(Exception e) {
+			/* Nickname changes are not allowed, ignore them... */
+			Logger.warning(this, "setNickname() failed.", e);
+		}
 
-						for(final ParsedIdentityXML.TrustListEntry trustListEntry : xmlData.identityTrustList) {
-							final FreenetURI trusteeURI = trustListEntry.mTrusteeURI;
-							final byte trustValue = trustListEntry.mTrustValue;
-							final String trustComment = trustListEntry.mTrustComment;
-
-							Identity trustee = null;
-							try {
-								trustee = mWoT.getIdentityByURI(trusteeURI);
-								if(positiveScore) {
-									if(trustee.setNewEditionHint(trusteeURI.getEdition())) {
-										identitiesWithUpdatedEditionHint.add(trustee.getID());
-										trustee.storeWithoutCommit();
-										
-										// We don't notify clients about this: The edition hint is not very useful to them.
-										// mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(trustee, trustee);
-									}
-								}
-							}
-							catch(UnknownIdentityException e) {
-								if(hasCapacity) { /* We only create trustees if the truster has capacity to rate them. */
-									try {
-										trustee = new Identity(mWoT, trusteeURI, null, false);
-										trustee.storeWithoutCommit();
-										mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(null, trustee);
-										Logger.normal(this, "New identity received via trust list: " + identity);
-									} catch(MalformedURLException urlEx) {
-										// Logging the exception does NOT log the actual malformed URL so we do it manually.
-										Logger.warning(this, "Received malformed identity URL: " + trusteeURI, urlEx);
-										throw urlEx;
-									}
-								}
-							}
+		try { /* Failure of context importing should not make an identity disappear, therefore we catch exceptions. */
+			identity.setContexts(xmlData.identityContexts);
+		}
+		catch(Exception e) {
+			Logger.warning(this, "setContexts() failed.", e);
+		}
 
-							if(trustee != null)
-								mWoT.setTrustWithoutCommit(identity, trustee, trustValue, trustComment); // Also takes care of SubscriptionManager
-						}
+		try { /* Failure of property importing should not make an identity disappear, therefore we catch exceptions. */
+			identity.setProperties(xmlData.identityProperties);
+		}
+		catch(Exception e) {
+			Logger.warning(this, "setProperties() failed", e);
+		}
+	
+		
+		if(xmlData.identityPublishesTrustList) {
+			// We import the trust list of an identity if it's score is equal to 0, but we only create new identities or import edition hints
+			// if the score is greater than 0. Solving a captcha therefore only allows you to create one single identity.
+			boolean positiveScore = false;
+			boolean hasCapacity = false;
+			
+			// TODO: getBestScore/getBestCapacity should always yield a positive result because we store a positive score object for an OwnIdentity
+			// upon creation. The only case where it could not exist might be restoreOwnIdentity() ... check that. If it is created there as well,
+			// remove the additional check here.
+			if(identity instanceof OwnIdentity) {
+				// Importing of OwnIdentities is always allowed
+				positiveScore = true;
+				hasCapacity = true;
+			} else {
+				try {
+					positiveScore = mWoT.getBestScore(identity) > 0;
+					hasCapacity = mWoT.getBestCapacity(identity) > 0;
+				}
+				catch(NotInTrustTreeException e) { }
+			}
+			
+			
+			HashSet<String>	identitiesWithUpdatedEditionHint = null;
 
-						for(Trust trust : mWoT.getGivenTrustsOfDifferentEdition(identity, identityURI.getEdition())) {
-							mWoT.removeTrustWithoutCommit(trust); // Also takes care of SubscriptionManager
-						}
+			if(positiveScore) {
+				identitiesWithUpdatedEditionHint = new HashSet<String>(xmlData.identityTrustList.size() * 2);
+			}
 
-						IdentityFetcher identityFetcher = mWoT.getIdentityFetcher();
-						if(positiveScore) {
-							for(String id : identitiesWithUpdatedEditionHint)
-								identityFetcher.storeUpdateEditionHintCommandWithoutCommit(id);
+			for(final ParsedIdentityXML.TrustListEntry trustListEntry : xmlData.identityTrustList) {
+				final FreenetURI trusteeURI = trustListEntry.mTrusteeURI;
+				final byte trustValue = trustListEntry.mTrustValue;
+				final String trustComment = trustListEntry.mTrustComment;
 
-							// We do not have to store fetch commands for new identities here, setTrustWithoutCommit does it.
+				Identity trustee = null;
+				try {
+					trustee = mWoT.getIdentityByURI(trusteeURI);
+					if(positiveScore) {
+						if(trustee.setNewEditionHint(trusteeURI.getEdition())) {
+							identitiesWithUpdatedEditionHint.add(trustee.getID());
+							trustee.storeWithoutCommit();
+							
+							// We don't notify clients about this: The edition hint is not very useful to them.
+							// mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(trustee, trustee);
 						}
-					} else if(!xmlData.identityPublishesTrustList && didPublishTrustListPreviously && !(identity instanceof OwnIdentity)) {
-						// If it does not publish a trust list anymore, we delete all trust values it has given.
-						for(Trust trust : mWoT.getGivenTrusts(identity))
-							mWoT.removeTrustWithoutCommit(trust); // Also takes care of SubscriptionManager
 					}
-
-					mWoT.finishTrustListImport();
-					identity.onFetched(); // Marks the identity as parsed successfully
-					mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldIdentity, identity);
-					identity.storeAndCommit();
 				}
-				catch(Exception e) { 
-					mWoT.abortTrustListImport(e, Logger.LogLevel.WARNING); // Does the rollback
-					throw e;
-				} // try
-			} // synchronized(Persistent.transactionLock(db))
-				
-			Logger.normal(this, "Finished XML import for " + identity);
-		} // synchronized(mSubscriptionManager)
-		} // synchronized(mWoT.getIdentityFetcher())
-		} // synchronized(mWoT)
-		} // try
-		catch(Exception e) {
-			synchronized(mWoT) {
-			// synchronized(mSubscriptionManager) { // We don't use the SubscriptionManager, see below
-			synchronized(mWoT.getIdentityFetcher()) {
-				try {
-					final Identity identity = mWoT.getIdentityByURI(identityURI);
-					final long newEdition = identityURI.getEdition();
-					if(identity.getEdition() <= newEdition) {
-						Logger.normal(this, "Marking edition as parsing failed: " + identityURI);
+				catch(UnknownIdentityException e) {
+					if(hasCapacity) { /* We only create trustees if the truster has capacity to rate them. */
 						try {
-							identity.setEdition(newEdition);
-						} catch (InvalidParameterException e1) {
-							// Would only happen if newEdition < current edition.
-							// We have validated the opposite.
-							throw new RuntimeException(e1);
+							trustee = new Identity(mWoT, trusteeURI, null, false);
+							trustee.storeWithoutCommit();
+							mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(null, trustee);
+							Logger.normal(this, "New identity received via trust list: " + identity);
+						} catch(MalformedURLException urlEx) {
+							// Logging the exception does NOT log the actual malformed URL so we do it manually.
+							Logger.warning(this, "Received malformed identity URL: " + trusteeURI, urlEx);
+							throw urlEx;
 						}
-						identity.onParsingFailed();
-						// We don't notify the SubscriptionManager here since there is not really any new information about the identity because parsing failed.
-						identity.storeAndCommit();
-					} else {
-						Logger.normal(this, "Not marking edition as parsing failed, we have already fetched a new one (" + 
-								identity.getEdition() + "):" + identityURI);
 					}
-					Logger.normal(this, "Parsing identity XML failed gracefully for " + identityURI, e);
 				}
-				catch(UnknownIdentityException uie) {
-					Logger.error(this, "Fetched an unknown identity: " + identityURI);
-				}	
+
+				if(trustee != null)
+					mWoT.setTrustWithoutCommit(identity, trustee, trustValue, trustComment); // Also takes care of SubscriptionManager
 			}
+
+			for(Trust trust : mWoT.getGivenTrustsOfDifferentEdition(identity, identityURI.getEdition())) {
+				mWoT.removeTrustWithoutCommit(trust); // Also takes care of SubscriptionManager
+			}
+
+			IdentityFetcher identityFetcher = mWoT.getIdentityFetcher();
+			if(positiveScore) {
+				for(String id : identitiesWithUpdatedEditionHint)
+					identityFetcher.storeUpdateEditionHintCommandWithoutCommit(id);
+
+				// We do not have to store fetch commands for new identities here, setTrustWithoutCommit does it.
 			}
+		} else if(!xmlData.identityPublishesTrustList && didPublishTrustListPreviously && !(identity instanceof OwnIdentity)) {
+			// If it does not publish a trust list anymore, we delete all trust values it has given.
+			for(Trust trust : mWoT.getGivenTrusts(identity))
+				mWoT.removeTrustWithoutCommit(trust); // Also takes care of SubscriptionManager
+		}
+
+		identity.onFetched(); // Marks the identity as parsed successfully
+		mSubscriptionManager.storeIdentityChangedNotificationWithoutCommit(oldIdentity, identity);
+		identity.storeWithoutCommit();
+		
+		Logger.normal(this, "Finished XML import for " + identity);
+	}
+	
+	/**
+	 * Marks the given edition of the identity as {@link FetchState#ParsingFailed} so it is not fetched again - unless we have already
+	 * fetched a newer edition. Commits the transaction.
+	 * 
+	 * @param e The reason of the failure, for logging.
+	 */
+	private void markParsingFailed(FreenetURI identityURI, Exception e) {
+		synchronized(mWoT) {
+		// synchronized(mSubscriptionManager) { // We don't use the SubscriptionManager, see below
+		synchronized(mWoT.getIdentityFetcher()) {
+			try {
+				final Identity identity = mWoT.getIdentityByURI(identityURI);
+				final long newEdition = identityURI.getEdition();
+				if(identity.getEdition() <= newEdition) {
+					Logger.normal(this, "Marking edition as parsing failed: " + identityURI);
+					try {
+						identity.setEdition(newEdition);
+					} catch (InvalidParameterException e1) {
+						// Would only happen if newEdition < current edition.
+						// We have validated the opposite.
+						throw new RuntimeException(e1);
+					}
+					identity.onParsingFailed();
+					// We don't notify the SubscriptionManager here since there is not really any new information about the identity because parsing failed.
+					identity.storeAndCommit();
+				} else {
+					Logger.normal(this, "Not marking edition as parsing failed, we have already fetched a new one (" + 
+							identity.getEdition() + "):" + identityURI);
+				}
+				Logger.normal(this, "Parsing identity XML failed gracefully for " + identityURI, e);
+			}
+			catch(UnknownIdentityException uie) {
+				Logger.error(this, "Fetched an unknown identity: " + identityURI);
+			}	
+		}
 		}
 	}
 
@@ -0,0 +1,105 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import plugins.WebOfTrust.Identity;
+import plugins.WebOfTrust.OwnIdentity;
+import plugins.WebOfTrust.Persistent;
+import plugins.WebOfTrust.Score;
+import plugins.WebOfTrust.Trust;
+import plugins.WebOfTrust.WebOfTrust;
+
+import com.db4o.ObjectSet;
+import com.db4o.query.Query;
+
+/**
+ * For each {@link OwnIdentity}, caches the IDs of the identities whose puzzles it may solve, used by
+ * {@link IntroductionClient#getPuzzles(OwnIdentity, IntroductionPuzzle.PuzzleType, int)}.
+ *
+ * An inserter is eligible if the own identity has a {@link Score} of at least
+ * {@link IntroductionClient#MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD} for it and if the inserter does not trust the own identity yet:
+ * Solving a puzzle only gets the own identity onto the trust list of the inserter so there is no use in solving another one.
+ * getPuzzles() used to query the Score and the Trust for each unsolved puzzle. With this cache, it queries the unsolved puzzles
+ * of each eligible inserter using the index on {@link IntroductionPuzzle#getInserter()}.
+ *
+ * The set of an own identity is computed with two database queries when it is requested and discarded whenever a Score which
+ * the own identity gives or a Trust which it receives is stored or deleted, see {@link Score#storeWithoutCommit()} and
+ * {@link Trust#storeWithoutCommit()}. The score computation changes many scores in a row so computing the set only on demand
+ * is cheaper than updating it for each change.
+ *
+ * Synchronization: You must synchronize on the {@link WebOfTrust} when calling {@link #get(OwnIdentity)} and when processing
+ * the returned set. Scores and trusts are only modified while holding the WebOfTrust lock, so a set can never be computed
+ * from a transaction which is not committed yet: Discarding sets upon modifications is sufficient, a rollback does not need
+ * any handling. The functions are also synchronized on this object.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class EligiblePuzzleInserters {
+
+	private final WebOfTrust mWoT;
+
+	/** Key = {@link OwnIdentity#getID()}, value = The IDs of the eligible inserters. */
+	private final HashMap<String, Set<String>> mInserters = new HashMap<String, Set<String>>();
+
+	public EligiblePuzzleInserters(WebOfTrust myWoT) {
+		mWoT = myWoT;
+	}
+
+	/**
+	 * @return The IDs of the identities whose puzzles the given own identity may solve. Must not be modified.
+	 */
+	public synchronized Set<String> get(final OwnIdentity user) {
+		Set<String> result = mInserters.get(user.getID());
+
+		if(result == null) {
+			result = query(user);
+			mInserters.put(user.getID(), result);
+		}
+
+		return result;
+	}
+
+	private Set<String> query(final OwnIdentity user) {
+		final Query q = mWoT.getDatabase().query();
+		q.constrain(Score.class);
+		q.descend("mTruster").constrain(user).identity();
+		q.descend("mValue").constrain(IntroductionClient.MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD).greater().equal();
+		final ObjectSet<Score> scores = new Persistent.InitializingObjectSet<Score>(mWoT, q);
+
+		final HashSet<String> result = new HashSet<String>(scores.size() * 2);
+		for(final Score score : scores)
+			result.add(score.getTrustee().getID());
+
+		// We are already on the trust list of these identities
+		for(final Trust trust : mWoT.getReceivedTrusts(user))
+			result.remove(trust.getTruster().getID());
+
+		return result;
+	}
+
+	/**
+	 * Called by {@link Score#storeWithoutCommit()} and {@link Score#deleteWithoutCommit()}.
+	 */
+	public synchronized void onScoreChanged(final Score score) {
+		if(!mInserters.isEmpty())
+			mInserters.remove(score.getTruster().getID());
+	}
+
+	/**
+	 * Called by {@link Trust#storeWithoutCommit()} and {@link Trust#deleteWithoutCommit()}.
+	 */
+	public synchronized void onTrustChanged(final Trust trust) {
+		if(mInserters.isEmpty())
+			return;
+
+		final Identity trustee = trust.getTrustee();
+		if(trustee instanceof OwnIdentity)
+			mInserters.remove(trustee.getID());
+	}
+
+}
@@ -12,6 +12,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import javax.xml.transform.TransformerException;
 
@@ -20,8 +21,6 @@ import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.WebOfTrust;
 import plugins.WebOfTrust.XMLTransformer;
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
-import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
-import plugins.WebOfTrust.exceptions.NotTrustedException;
 import plugins.WebOfTrust.exceptions.UnknownIdentityException;
 import plugins.WebOfTrust.exceptions.UnknownPuzzleException;
 import plugins.WebOfTrust.introduction.IntroductionPuzzle.PuzzleType;
@@ -193,38 +192,32 @@ public final class IntroductionClient extends TransferThread  {
 	 */
 	public List<IntroductionPuzzle> getPuzzles(final OwnIdentity user, final PuzzleType puzzleType, final int count) {
 		final ArrayList<IntroductionPuzzle> result = new ArrayList<IntroductionPuzzle>(count + 1);
-		final HashSet<Identity> resultHasPuzzleFrom = new HashSet<Identity>(count * 2); /* Have some room so we do not hit the load factor */
 		
 		/* Deadlocks could occur without the lock on WoT because the loop calls functions which lock the WoT - if something else started to
 		 * execute (while we have already locked the puzzle store) which locks the WoT and waits for the puzzle store to become available
 		 * until it releases the WoT. */
 		synchronized(mWoT) {
 		synchronized(mPuzzleStore) {
-			final ObjectSet<IntroductionPuzzle> puzzles = mPuzzleStore.getUnsolvedPuzzles(puzzleType);
-			 
-			for(final IntroductionPuzzle puzzle : puzzles) {
+			/* We do not ask the users to solve puzzles from identities who he does not trust or whose trust list he is already on. */
+			final Set<String> eligibleInserters = mWoT.getEligiblePuzzleInserters().get(user);
+			
+			/* We only give the user one puzzle of each inserter. The index on the inserter lets us query it directly instead of
+			 * looking at all unsolved puzzles. */
+			for(final String inserterID : eligibleInserters) {
+				if(result.size() == count)
+					break;
+				
+				/* TODO: Maybe also check whether the user has already solved puzzles of the identity which inserted this one */ 
+				final Identity inserter;
 				try {
-					/* TODO: Maybe also check whether the user has already solved puzzles of the identity which inserted this one */ 
-					if(!resultHasPuzzleFrom.contains(puzzle.getInserter())) { 
-						final int score = mWoT.getScore(user, puzzle.getInserter()).getScore();
-						
-						if(score >= MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD) {
-							try {
-								mWoT.getTrust(puzzle.getInserter(), user);
-								/* We are already on this identity's trust list so there is no use in solving another puzzle from it */
-							}
-							catch(NotTrustedException e) {
-								result.add(puzzle);
-								resultHasPuzzleFrom.add(puzzle.getInserter());
-								if(result.size() == count)
-									break;
-							}
-						}
-					}
-				}
-				catch(NotInTrustTreeException e) {
-					// We do not ask the users to solve puzzles from identities who he does not trust.
+					inserter = mWoT.getIdentityByID(inserterID);
+				} catch(UnknownIdentityException e) {
+					continue;
 				}
+				
+				final ObjectSet<IntroductionPuzzle> puzzles = mPuzzleStore.getUnsolvedPuzzles(inserter, puzzleType);
+				if(puzzles.hasNext())
+					result.add(puzzles.next());
 			}
 		}
 		}
@@ -299,7 +292,8 @@ public final class IntroductionClient extends TransferThread  {
 		 * problem if we download a puzzle of an identity which has been deleted or so we do not do that. */
 		final ObjectSet<Identity> allIdentities;
 		synchronized(mWoT) {
-			allIdentities = mWoT.getAllNonOwnIdentitiesSortedByModification();
+			allIdentities = mWoT.getAllNonOwnIdentitiesWithContextSortedByModification(IntroductionPuzzle.INTRODUCTION_CONTEXT,
+					MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD);
 		}
 		final ArrayList<Identity> identitiesToDownloadFrom = new ArrayList<Identity>(PUZZLE_REQUEST_COUNT + 1);
 		
@@ -310,14 +304,8 @@ public final class IntroductionClient extends TransferThread  {
 		 * waits for the WoT until it unlocks them. BUT nothing else in this class locks mIdentities and then the WoT */
 		synchronized(mIdentities) {
 			for(final Identity i : allIdentities) {
-				/* TODO: Create a "boolean providesIntroduction" in Identity to use a database query instead of this */ 
-				if(i.hasContext(IntroductionPuzzle.INTRODUCTION_CONTEXT) && !mIdentities.contains(i.getID()))  {
-					try {
-						if(mWoT.getBestScore(i) >= MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD)
-							identitiesToDownloadFrom.add(i);
-					}
-					catch(NotInTrustTreeException e) { }
-				}
+				if(!mIdentities.contains(i.getID()))
+					identitiesToDownloadFrom.add(i);
 	
 				if(identitiesToDownloadFrom.size() >= newRequestCount)
 					break;
@@ -329,14 +317,7 @@ public final class IntroductionClient extends TransferThread  {
 			mIdentities.clear(); /* We probably have less updated identities today than the size of the LRUQueue, empty it */
 
 			for(final Identity i : allIdentities) {
-				/* TODO: Create a "boolean providesIntroduction" in Identity to use a database query instead of this */ 
-				if(i.hasContext(IntroductionPuzzle.INTRODUCTION_CONTEXT))  {
-					try {
-						if(mWoT.getBestScore(i) >= MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD)
-							identitiesToDownloadFrom.add(i);
-					}
-					catch(NotInTrustTreeException e) { }
-				}
+				identitiesToDownloadFrom.add(i);
 
 				if(identitiesToDownloadFrom.size() >= newRequestCount)
 					break;
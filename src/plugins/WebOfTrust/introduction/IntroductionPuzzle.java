@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.TimeZone;
 
+import plugins.WebOfTrust.DatabaseCounters;
 import plugins.WebOfTrust.Identity;
 import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.Persistent;
@@ -283,11 +284,23 @@ public class IntroductionPuzzle extends Persistent implements Cloneable {
 		if(mWasSolved)
 			throw new IllegalStateException("Puzzle is already solved!"); 
 		
+		onSolved();
+		
 		mWasSolved = true;
 		mSolver = solver;
 		mSolution = solution;
 	}
 	
+	/**
+	 * Must be called by the setSolved() functions before they mark the puzzle as solved.
+	 * The caller must store the puzzle afterwards.
+	 */
+	protected final void onSolved() {
+		final DatabaseCounters counters = getDatabaseCounters();
+		if(counters != null && mDB.isStored(this))
+			counters.onPuzzleSolved(this instanceof OwnIntroductionPuzzle);
+	}
+	
 	public synchronized boolean wasSolved() {
 		checkedActivate(1); // boolean is a db4o primitive type so 1 is enough
 		return mWasSolved;
@@ -357,7 +370,13 @@ public class IntroductionPuzzle extends Persistent implements Cloneable {
 			throwIfNotStored(mInserter);
 			if(wasSolved() && mSolver != null) // Solver is null if parsing of his introduction XML failed. 
 				throwIfNotStored(mSolver);
+			
+			final boolean isNew = !mDB.isStored(this);
 			checkedStore();
+			
+			final DatabaseCounters counters = getDatabaseCounters();
+			if(isNew && counters != null)
+				counters.onPuzzleCreated(this instanceof OwnIntroductionPuzzle, mWasSolved);
 		}
 		catch(final RuntimeException e) {
 			checkedRollbackAndThrow(e);
@@ -366,6 +385,10 @@ public class IntroductionPuzzle extends Persistent implements Cloneable {
 	
 	protected void deleteWithoutCommit() {
 		super.deleteWithoutCommit();
+		
+		final DatabaseCounters counters = getDatabaseCounters();
+		if(counters != null)
+			counters.onPuzzleDeleted(this instanceof OwnIntroductionPuzzle, mWasSolved);
 	}
 
 	@Override
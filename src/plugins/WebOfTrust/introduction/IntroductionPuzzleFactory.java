@@ -6,18 +6,56 @@
 package plugins.WebOfTrust.introduction;
 
 import java.io.IOException;
+import java.util.Date;
 
 import plugins.WebOfTrust.OwnIdentity;
+import plugins.WebOfTrust.introduction.IntroductionPuzzle.PuzzleType;
+import freenet.support.CurrentTimeUTC;
 
 /**
  * A base class for puzzle factories. Puzzle factories are frontends for different (3rd person) puzzle creation libraries which are included
  * in Freetalk. If you include a new captcha library for example you are supposed to write a PuzzleFactory for it and add it to the
  * factory list in class IntroductionServer.
  * 
+ * Generating a puzzle is split into two steps: {@link #renderPuzzle()} creates the data of the puzzle and can be slow, it does not
+ * access the database. {@link #storePuzzle(IntroductionPuzzleStore, OwnIdentity, RenderedPuzzle)} assigns an index to the puzzle and
+ * stores it. This allows the {@link IntroductionPuzzlePool} to render puzzles in the background ahead of demand.
+ * 
  * @author xor
  */
 public abstract class IntroductionPuzzleFactory {
 	
+	/**
+	 * The data of a puzzle which was rendered by {@link IntroductionPuzzleFactory#renderPuzzle()} but not stored yet.
+	 * It does not belong to an inserter yet: Any {@link OwnIdentity} can use it.
+	 */
+	public static final class RenderedPuzzle {
+
+		final PuzzleType mType;
+
+		final String mMimeType;
+
+		final byte[] mData;
+
+		final String mSolution;
+
+		public RenderedPuzzle(PuzzleType type, String mimeType, byte[] data, String solution) {
+			mType = type;
+			mMimeType = mimeType;
+			mData = data;
+			mSolution = solution;
+		}
+
+	}
+
+	/**
+	 * Creates the data of a new puzzle. Must be safe to be called by multiple threads concurrently and must not take any locks of the
+	 * WoT: It is called by the worker threads of the {@link IntroductionPuzzlePool}.
+	 *
+	 * @throws IOException
+	 */
+	public abstract RenderedPuzzle renderPuzzle() throws IOException;
+
 	/**
 	 * Create a new puzzle for CurrenTimeUTC.get() with an index set to a free index of the given inserter - the free index 
 	 * shall be queried from the given IntroductionPuzzleStore - store it in the puzzle store and return it.
@@ -27,6 +65,29 @@ public abstract class IntroductionPuzzleFactory {
 	 * @return The new puzzle.
 	 * @throws IOException
 	 */
-	public abstract OwnIntroductionPuzzle generatePuzzle(IntroductionPuzzleStore store, OwnIdentity inserter) throws IOException;
+	public final OwnIntroductionPuzzle generatePuzzle(IntroductionPuzzleStore store, OwnIdentity inserter) throws IOException {
+		return storePuzzle(store, inserter, renderPuzzle());
+	}
+
+	/**
+	 * Creates a puzzle of the given inserter for CurrentTimeUTC.get() from the rendered data, with an index set to a free index of the
+	 * inserter, and stores it in the puzzle store. Only locks the store for querying the index and storing the puzzle.
+	 *
+	 * @param store The IntroductionPuzzleStore where the puzzle shall be stored.
+	 * @param inserter The inserter of the puzzle.
+	 * @param rendered The data of the puzzle, see {@link #renderPuzzle()}.
+	 * @return The new puzzle.
+	 */
+	public static OwnIntroductionPuzzle storePuzzle(IntroductionPuzzleStore store, OwnIdentity inserter, RenderedPuzzle rendered) {
+		final Date dateOfInsertion = CurrentTimeUTC.get();
+
+		synchronized(store) {
+			final OwnIntroductionPuzzle puzzle = new OwnIntroductionPuzzle(store.getWebOfTrust(), inserter, rendered.mType, rendered.mMimeType,
+					rendered.mData, rendered.mSolution, dateOfInsertion, store.getFreeIndex(inserter, dateOfInsertion));
+
+			store.storeAndCommit(puzzle);
+			return puzzle;
+		}
+	}
 
 }
@@ -0,0 +1,243 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import plugins.WebOfTrust.introduction.IntroductionPuzzleFactory.RenderedPuzzle;
+import freenet.node.PrioRunnable;
+import freenet.support.Executor;
+import freenet.support.Logger;
+import freenet.support.io.NativeThread;
+
+/**
+ * Renders puzzles on background threads ahead of demand so that the {@link IntroductionServer} does not have to render them
+ * while holding the lock of the {@link IntroductionPuzzleStore}: It only needs to take a rendered puzzle from this pool and
+ * store it with {@link IntroductionPuzzleFactory#storePuzzle(IntroductionPuzzleStore, plugins.WebOfTrust.OwnIdentity, RenderedPuzzle)}.
+ *
+ * The rendered puzzles are kept in a bounded in-memory queue of {@link #CAPACITY} entries.
+ * They are not stored in the database: A rendered puzzle does not have an inserter yet, and losing them upon shutdown only costs
+ * the time to render them again.
+ *
+ * The workers are jobs on the {@link Executor} of the node. They are started by {@link #take()}, so a WoT which never
+ * generates puzzles does not render any in the background. A worker exits once the queue is full or rendering failed instead of
+ * waiting: It must not occupy a thread of the executor. The next take() starts it again.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class IntroductionPuzzlePool {
+
+	/**
+	 * The maximal amount of rendered puzzles to keep. Should be about the number of puzzles which the {@link IntroductionServer}
+	 * generates per iteration: With {@link IntroductionServer#DEFAULT_PUZZLE_COUNT}, the first few own identities can be served
+	 * from the pool.
+	 */
+	public static final int CAPACITY = 32;
+
+	/** The maximal amount of workers. Rendering is only needed about once per hour so we do not need many. */
+	public static final int MAX_THREADS = 2;
+
+	private final Executor mExecutor;
+
+	private final IntroductionPuzzleFactory[] mFactories;
+
+	/** Used for choosing the factory. java.util.Random is thread-safe. */
+	private final Random mRandom;
+
+	private final ArrayBlockingQueue<RenderedPuzzle> mPuzzles = new ArrayBlockingQueue<RenderedPuzzle>(CAPACITY);
+
+	/** The number of workers which were passed to the executor and did not exit yet. */
+	private int mRunningWorkers = 0;
+
+	/** True once {@link #terminate()} was called. The workers exit and {@link #start()} does not start them anymore. */
+	private volatile boolean mTerminated = false;
+
+	/**
+	 * The threads of the executor which are currently running a worker, so {@link #terminate()} can interrupt them.
+	 * A worker removes its thread before it returns it to the executor.
+	 */
+	private final HashSet<Thread> mWorkerThreads = new HashSet<Thread>(MAX_THREADS * 2);
+
+	/* Statistics */
+
+	/** The number of puzzles which were rendered, by the worker threads or by {@link #take()}. */
+	private int mGeneratedCount = 0;
+
+	/** The total time it took to render {@link #mGeneratedCount} puzzles. */
+	private long mGenerationNanoseconds = 0;
+
+	/* These booleans are used for preventing the construction of log-strings if logging is disabled (for saving some cpu cycles) */
+
+	private static transient volatile boolean logDEBUG = false;
+	private static transient volatile boolean logMINOR = false;
+
+	static {
+		Logger.registerClass(IntroductionPuzzlePool.class);
+	}
+
+
+	/**
+	 * @param executor Executes the workers. Typically the executor of the node.
+	 */
+	public IntroductionPuzzlePool(Executor executor, IntroductionPuzzleFactory[] factories, Random random) {
+		mExecutor = executor;
+		mFactories = factories;
+		mRandom = random;
+	}
+
+	/**
+	 * Starts workers for refilling the pool if it is not full and if less than the maximal amount of them is running. Called by
+	 * {@link #take()}. They run with minimal priority so rendering puzzles does not slow down the rest of WoT.
+	 * Does nothing after {@link #terminate()}.
+	 */
+	public synchronized void start() {
+		if(mTerminated || mPuzzles.remainingCapacity() == 0)
+			return;
+
+		final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+
+		for(; mRunningWorkers < threads; ++mRunningWorkers)
+			mExecutor.execute(new Worker(), "WoT introduction puzzle pool");
+	}
+
+	/**
+	 * Stops the workers. Rendered puzzles which were not taken yet are discarded.
+	 *
+	 * Does not wait for the workers to exit: Rendering a puzzle does not check for interruption, so a worker which is rendering
+	 * exits after the current puzzle is finished.
+	 */
+	public void terminate() {
+		mTerminated = true;
+
+		synchronized(mWorkerThreads) {
+			for(Thread thread : mWorkerThreads)
+				thread.interrupt();
+		}
+
+		mPuzzles.clear();
+	}
+
+	private final class Worker implements PrioRunnable {
+		public void run() {
+			final Thread thread = Thread.currentThread();
+			synchronized(mWorkerThreads) {
+				mWorkerThreads.add(thread);
+			}
+
+			try {
+				renderPuzzles();
+			} finally {
+				synchronized(mWorkerThreads) {
+					mWorkerThreads.remove(thread);
+				}
+				synchronized(IntroductionPuzzlePool.this) {
+					--mRunningWorkers;
+				}
+				// terminate() only interrupts threads which are in mWorkerThreads. Do not return the thread to the executor with the
+				// flag set.
+				Thread.interrupted();
+			}
+		}
+
+		public int getPriority() {
+			return NativeThread.PriorityLevel.MIN_PRIORITY.value;
+		}
+	}
+
+	/**
+	 * The main loop of the workers. Returns when the pool is full, when rendering failed or when {@link #terminate()} was called.
+	 */
+	private void renderPuzzles() {
+		if(logMINOR) Logger.minor(this, "Puzzle pool worker started.");
+
+		while(!mTerminated && !Thread.interrupted() && mPuzzles.remainingCapacity() > 0) {
+			final RenderedPuzzle puzzle;
+			try {
+				puzzle = render();
+			} catch(IOException e) {
+				Logger.error(this, "Puzzle generation failed.", e);
+				break;
+			} catch(RuntimeException e) {
+				Logger.error(this, "Puzzle generation failed.", e);
+				break;
+			}
+			
+			// terminate() might have cleared the queue while we were rendering. The other worker might have filled it.
+			if(mTerminated || !mPuzzles.offer(puzzle))
+				break;
+		}
+
+		if(logMINOR) Logger.minor(this, "Puzzle pool worker exited.");
+	}
+
+	/**
+	 * Renders a puzzle with a random factory.
+	 */
+	private RenderedPuzzle render() throws IOException {
+		final long startTime = System.nanoTime();
+		final RenderedPuzzle result = mFactories[mRandom.nextInt(mFactories.length)].renderPuzzle();
+		final long time = System.nanoTime() - startTime;
+
+		synchronized(this) {
+			++mGeneratedCount;
+			mGenerationNanoseconds += time;
+		}
+
+		if(logDEBUG) Logger.debug(this, "Rendered puzzle in " + (time / (1000*1000)) + "ms");
+		return result;
+	}
+
+	/**
+	 * Gets a rendered puzzle. If the pool is empty, a puzzle is rendered by the calling thread, so you should not hold any locks
+	 * which are needed by other threads in that case.
+	 * Starts the workers if they are not running so the pool is refilled for the next call.
+	 */
+	public RenderedPuzzle take() throws IOException {
+		final RenderedPuzzle result = mPuzzles.poll();
+		start();
+
+		if(result != null)
+			return result;
+
+		if(logMINOR) Logger.minor(this, "Puzzle pool is empty, rendering puzzle in the calling thread.");
+		return render();
+	}
+
+	/**
+	 * @return The number of rendered puzzles which are waiting to be taken.
+	 */
+	public int size() {
+		return mPuzzles.size();
+	}
+
+	/**
+	 * @return The number of workers which are currently running.
+	 */
+	synchronized int getRunningWorkerCount() {
+		return mRunningWorkers;
+	}
+
+	/**
+	 * @return The number of puzzles which were rendered since startup.
+	 */
+	public synchronized int getGeneratedCount() {
+		return mGeneratedCount;
+	}
+
+	/**
+	 * Notice that this function is synchronized because it processes multiple member variables.
+	 *
+	 * @return The average time it took for rendering a puzzle in seconds.
+	 */
+	public synchronized double getAverageGenerationTime() {
+		if(mGeneratedCount == 0) // prevent division by 0
+			return 0;
+
+		return ((double)mGenerationNanoseconds/(1000*1000*1000)) / (double)mGeneratedCount;
+	}
+
+}
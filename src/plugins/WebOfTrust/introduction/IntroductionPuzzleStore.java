@@ -3,6 +3,7 @@ package plugins.WebOfTrust.introduction;
 import java.text.ParseException;
 import java.util.Date;
 
+import plugins.WebOfTrust.DatabaseCounters;
 import plugins.WebOfTrust.Identity;
 import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.Persistent;
@@ -389,6 +390,23 @@ public final class IntroductionPuzzleStore {
 		return new Persistent.InitializingObjectSet<IntroductionPuzzle>(mWoT, q);
 	}
 	
+	/**
+	 * Get a list of the puzzles of the given inserter which were downloaded and not solved yet, of a given type. Newest first.
+	 * Uses the index on the inserter, so it does not have to look at the puzzles of other identities.
+	 * You have to put a synchronized(this IntroductionPuzzleStore) statement around the call to this function and the processing of the
+	 * List which was returned by it!
+	 */
+	protected ObjectSet<IntroductionPuzzle> getUnsolvedPuzzles(final Identity inserter, final PuzzleType puzzleType) {
+		final Query q = mDB.query();
+		q.constrain(IntroductionPuzzle.class);
+		q.constrain(OwnIntroductionPuzzle.class).not();
+		q.descend("mInserter").constrain(inserter).identity();
+		q.descend("mValidUntilDate").orderDescending();
+		q.descend("mWasSolved").constrain(false);
+		q.descend("mType").constrain(puzzleType);
+		return new Persistent.InitializingObjectSet<IntroductionPuzzle>(mWoT, q);
+	}
+	
 	/**
 	 * Get a List of all solved non-own puzzles.
 	 * You have to put a synchronized(this IntroductionPuzzleStore) statement around the call to this function and the processing of the
@@ -405,14 +423,46 @@ public final class IntroductionPuzzleStore {
 		return new Persistent.InitializingObjectSet<IntroductionPuzzle>(mWoT, q);
 	}
 	
+	/**
+	 * Equal to {@link #queryOwnCaptchaAmount(boolean)} but O(1) if it has been computed before, see {@link DatabaseCounters}.
+	 */
 	public synchronized int getOwnCatpchaAmount(final boolean solved) {
+		return getCaptchaAmount(true, solved);
+	}
+
+	/**
+	 * Equal to {@link #queryNonOwnCaptchaAmount(boolean)} but O(1) if it has been computed before, see {@link DatabaseCounters}.
+	 */
+	public synchronized int getNonOwnCaptchaAmount(final boolean solved) {
+		return getCaptchaAmount(false, solved);
+	}
+
+	private int getCaptchaAmount(final boolean own, final boolean solved) {
+		final DatabaseCounters counters = mWoT.getDatabaseCounters();
+		final DatabaseCounters.Counter counter = DatabaseCounters.Counter.getPuzzleCounter(own, solved);
+		
+		long amount = counters.get(counter);
+		if(amount == DatabaseCounters.UNKNOWN) {
+			amount = own ? queryOwnCaptchaAmount(solved) : queryNonOwnCaptchaAmount(solved);
+			counters.initialize(counter, amount);
+		}
+		return (int)amount;
+	}
+
+	/**
+	 * Counts the own puzzles with a database query. Used by {@link #getOwnCatpchaAmount(boolean)} and for verifying it.
+	 */
+	public synchronized int queryOwnCaptchaAmount(final boolean solved) {
 		final Query q = mDB.query();
 		q.constrain(OwnIntroductionPuzzle.class);
 		q.descend("mWasSolved").constrain(solved);
 		return q.execute().size();
 	}
 
-	public synchronized int getNonOwnCaptchaAmount(final boolean solved) {
+	/**
+	 * Counts the puzzles of others with a database query. Used by {@link #getNonOwnCaptchaAmount(boolean)} and for verifying it.
+	 */
+	public synchronized int queryNonOwnCaptchaAmount(final boolean solved) {
 		final Query q = mDB.query();
 		q.constrain(IntroductionPuzzle.class);
 		q.constrain(OwnIntroductionPuzzle.class).not();
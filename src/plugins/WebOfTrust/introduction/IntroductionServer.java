@@ -20,6 +20,7 @@ import plugins.WebOfTrust.WebOfTrust;
 import plugins.WebOfTrust.XMLTransformer;
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
 import plugins.WebOfTrust.introduction.captcha.CaptchaFactory1;
+import plugins.WebOfTrust.introduction.captcha.kaptcha.jhlabs.image.RowBands;
 
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
@@ -85,6 +86,12 @@ public final class IntroductionServer extends TransferThread {
 		// ATTENTION: When adding new ones please also add them to IntroductionPuzzleStoreTest
 	};
 	
+	/**
+	 * Renders puzzles with {@link #mPuzzleFactories} in the background so {@link #generateNewPuzzles(OwnIdentity)} does not have to
+	 * render them while holding the lock of {@link #mPuzzleStore}.
+	 */
+	private final IntroductionPuzzlePool mPuzzlePool;
+	
 	/* These booleans are used for preventing the construction of log-strings if logging is disabled (for saving some cpu cycles) */
 	
 	private static transient volatile boolean logDEBUG = false;
@@ -104,6 +111,28 @@ public final class IntroductionServer extends TransferThread {
 		mWoT = myWoT;
 		mPuzzleStore = mWoT.getIntroductionPuzzleStore();
 		mRandom = mWoT.getPluginRespirator().getNode().fastWeakRandom;
+		// The pool starts rendering upon the first take(), i.e. when the first puzzles are generated.
+		mPuzzlePool = new IntroductionPuzzlePool(mWoT.getPluginRespirator().getNode().executor, mPuzzleFactories, mRandom);
+		// Rendering by take() in the calling thread delays the generation of puzzles, so it should use all cores. On a single
+		// core machine this is 1, i.e. sequential.
+		RowBands.setExecutor(mWoT.getPluginRespirator().getNode().executor);
+		RowBands.setThreads(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Stops the workers of the {@link IntroductionPuzzlePool}. Must be called before {@link #terminate()}.
+	 */
+	public void terminatePuzzlePool() {
+		mPuzzlePool.terminate();
+		RowBands.setThreads(1);
+		RowBands.setExecutor(null);
+	}
+	
+	/**
+	 * @return The pool which renders the puzzles of this server, for statistics.
+	 */
+	public IntroductionPuzzlePool getPuzzlePool() {
+		return mPuzzlePool;
 	}
 	
 	public static int getIdentityPuzzleCount(final Identity i) {
@@ -208,21 +237,26 @@ public final class IntroductionServer extends TransferThread {
 		}
 	}
 	
+	/**
+	 * Takes rendered puzzles from the {@link IntroductionPuzzlePool} and stores them. The store is only locked for counting the
+	 * existing puzzles and for storing each new one.
+	 */
 	private void generateNewPuzzles(final OwnIdentity identity) throws IOException {
+		int puzzlesToGenerate;
 		synchronized(mPuzzleStore) {
-		int puzzlesToGenerate = getIdentityPuzzleCount(identity) - mPuzzleStore.getOfTodayByInserter(identity).size();
+			puzzlesToGenerate = getIdentityPuzzleCount(identity) - mPuzzleStore.getOfTodayByInserter(identity).size();
+		}
 		Logger.normal(this, "Trying to generate " + puzzlesToGenerate + " new puzzles from " + identity.getNickname());
 		
 		while(puzzlesToGenerate > 0) {
 			try {
-			final OwnIntroductionPuzzle p = mPuzzleFactories[mRandom.nextInt(mPuzzleFactories.length)].generatePuzzle(mPuzzleStore, identity);
+			final OwnIntroductionPuzzle p = IntroductionPuzzleFactory.storePuzzle(mPuzzleStore, identity, mPuzzlePool.take());
 			if(logDEBUG) Logger.debug(this, "Generated puzzle of " + p.getDateOfInsertion() + "; valid until " + p.getValidUntilDate());
 			} catch(Exception e) {
 				Logger.error(this, "Puzzle generation failed.", e);
 			}
 			--puzzlesToGenerate;
 		}
-		}
 		
 		Logger.normal(this, "Finished generating puzzles from " + identity.getNickname());
 	}
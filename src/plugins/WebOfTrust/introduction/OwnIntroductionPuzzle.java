@@ -74,6 +74,8 @@ public class OwnIntroductionPuzzle extends IntroductionPuzzle {
 		if(!mWasInserted)
 			Logger.error(this, "Non-inserted puzzle was solved, impossible: " + this);
 		
+		onSolved();
+		
 		mWasSolved = true;
 		mSolver = null;
 	}
@@ -93,6 +95,8 @@ public class OwnIntroductionPuzzle extends IntroductionPuzzle {
 		if(!mWasInserted)
 			Logger.error(this, "Non-inserted puzzle was solved, impossible: " + this);
 		
+		onSolved();
+		
 		mWasSolved = true;
 		mSolver = solver;
 	}
@@ -6,19 +6,14 @@ package plugins.WebOfTrust.introduction.captcha;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Date;
 import java.util.Properties;
 
 import javax.imageio.ImageIO;
 
-import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.introduction.IntroductionPuzzleFactory;
-import plugins.WebOfTrust.introduction.IntroductionPuzzleStore;
-import plugins.WebOfTrust.introduction.OwnIntroductionPuzzle;
 import plugins.WebOfTrust.introduction.IntroductionPuzzle.PuzzleType;
 import plugins.WebOfTrust.introduction.captcha.kaptcha.impl.DefaultKaptcha;
 import plugins.WebOfTrust.introduction.captcha.kaptcha.util.Config;
-import freenet.support.CurrentTimeUTC;
 import freenet.support.io.Closer;
 
 /**
@@ -33,7 +28,7 @@ import freenet.support.io.Closer;
 public class CaptchaFactory1 extends IntroductionPuzzleFactory {
 
 	@Override
-	public OwnIntroductionPuzzle generatePuzzle(IntroductionPuzzleStore store, OwnIdentity inserter) throws IOException {
+	public RenderedPuzzle renderPuzzle() throws IOException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024); /* TODO: find out the maximum size of the captchas and put it here */
 		try {
 			DefaultKaptcha captcha = new DefaultKaptcha();
@@ -42,14 +37,7 @@ public class CaptchaFactory1 extends IntroductionPuzzleFactory {
 			BufferedImage img = captcha.createImage(text);
 			ImageIO.write(img, "jpg", out);
 			
-			Date dateOfInsertion = CurrentTimeUTC.get();
-			synchronized(store) {
-				OwnIntroductionPuzzle puzzle = new OwnIntroductionPuzzle(store.getWebOfTrust(), inserter, PuzzleType.Captcha, "image/jpeg", out.toByteArray(), text, 
-						dateOfInsertion, store.getFreeIndex(inserter, dateOfInsertion));
-				
-				store.storeAndCommit(puzzle);
-				return puzzle;
-			}
+			return new RenderedPuzzle(PuzzleType.Captcha, "image/jpeg", out.toByteArray(), text);
 		}
 		finally {
 			Closer.close(out);
@@ -6,10 +6,7 @@ package plugins.WebOfTrust.introduction.captcha;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.introduction.IntroductionPuzzleFactory;
-import plugins.WebOfTrust.introduction.IntroductionPuzzleStore;
-import plugins.WebOfTrust.introduction.OwnIntroductionPuzzle;
 import freenet.support.io.Closer;
 
 /**
@@ -44,21 +41,14 @@ public class ReCaptchaFactory extends IntroductionPuzzleFactory {
 	// recaptcha.ReCaptchaFactory mFactory = new recaptcha.ReCaptchaFactory();
 	
 	@Override
-	public OwnIntroductionPuzzle generatePuzzle(IntroductionPuzzleStore store, OwnIdentity inserter) throws IOException {
+	public RenderedPuzzle renderPuzzle() throws IOException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024); /* TODO: find out the maximum size of the captchas and put it here */
 		try {
 			/*
 			BufferedImage img = captcha.createImage(text);
 			ImageIO.write(img, "jpg", out);
 			
-			Date dateOfInsertion = CurrentTimeUTC.get();
-			synchronized(store) {
-				OwnIntroductionPuzzle puzzle = new OwnIntroductionPuzzle(inserter, PuzzleType.Captcha, "image/jpeg", out.toByteArray(), text, 
-						dateOfInsertion, store.getFreeIndex(inserter, dateOfInsertion));
-				
-				store.storeAndCommit(puzzle);
-				return puzzle;
-			}
+			return new RenderedPuzzle(PuzzleType.Captcha, "image/jpeg", out.toByteArray(), text);
 			*/
 			return null;
 		}
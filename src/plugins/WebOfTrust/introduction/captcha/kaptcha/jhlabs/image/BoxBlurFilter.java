@@ -72,22 +72,27 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
         if ( dst == null )
             dst = createCompatibleDestImage( src, null );
 
-        int[] inPixels = new int[width*height];
-        int[] outPixels = new int[width*height];
-        getRGB( src, 0, 0, width, height, inPixels );
+        int[] inPixels = PixelBufferPool.take(width*height);
+        int[] outPixels = PixelBufferPool.take(width*height);
+        try {
+            getRGB( src, 0, 0, width, height, inPixels );
 
-        if ( premultiplyAlpha )
-			ImageMath.premultiply( inPixels, 0, inPixels.length );
-		for (int i = 0; i < iterations; i++ ) {
-            blur( inPixels, outPixels, width, height, hRadius );
-            blur( outPixels, inPixels, height, width, vRadius );
-        }
-        blurFractional( inPixels, outPixels, width, height, hRadius );
-        blurFractional( outPixels, inPixels, height, width, vRadius );
-        if ( premultiplyAlpha )
-			ImageMath.unpremultiply( inPixels, 0, inPixels.length );
+            if ( premultiplyAlpha )
+				ImageMath.premultiply( inPixels, 0, inPixels.length );
+			for (int i = 0; i < iterations; i++ ) {
+                blur( inPixels, outPixels, width, height, hRadius );
+                blur( outPixels, inPixels, height, width, vRadius );
+            }
+            blurFractional( inPixels, outPixels, width, height, hRadius );
+            blurFractional( outPixels, inPixels, height, width, vRadius );
+            if ( premultiplyAlpha )
+				ImageMath.unpremultiply( inPixels, 0, inPixels.length );
 
-        setRGB( dst, 0, 0, width, height, inPixels );
+            setRGB( dst, 0, 0, width, height, inPixels );
+        } finally {
+            PixelBufferPool.release(inPixels);
+            PixelBufferPool.release(outPixels);
+        }
         return dst;
     }
 
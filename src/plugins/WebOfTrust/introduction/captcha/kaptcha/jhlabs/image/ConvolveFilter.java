@@ -173,17 +173,22 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
         if ( dst == null )
             dst = createCompatibleDestImage( src, null );
 
-        int[] inPixels = new int[width*height];
-        int[] outPixels = new int[width*height];
-        getRGB( src, 0, 0, width, height, inPixels );
-
-        if ( premultiplyAlpha )
-			ImageMath.premultiply( inPixels, 0, inPixels.length );
-		convolve(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
-        if ( premultiplyAlpha )
-			ImageMath.unpremultiply( outPixels, 0, outPixels.length );
-
-        setRGB( dst, 0, 0, width, height, outPixels );
+        int[] inPixels = PixelBufferPool.take(width*height);
+        int[] outPixels = PixelBufferPool.take(width*height);
+        try {
+            getRGB( src, 0, 0, width, height, inPixels );
+
+            if ( premultiplyAlpha )
+				ImageMath.premultiply( inPixels, 0, inPixels.length );
+			convolve(kernel, inPixels, outPixels, width, height, alpha, edgeAction);
+            if ( premultiplyAlpha )
+				ImageMath.unpremultiply( outPixels, 0, outPixels.length );
+
+            setRGB( dst, 0, 0, width, height, outPixels );
+        } finally {
+            PixelBufferPool.release(inPixels);
+            PixelBufferPool.release(outPixels);
+        }
         return dst;
     }
 
@@ -79,16 +79,21 @@ public class GaussianFilter extends ConvolveFilter {
         if ( dst == null )
             dst = createCompatibleDestImage( src, null );
 
-        int[] inPixels = new int[width*height];
-        int[] outPixels = new int[width*height];
-        src.getRGB( 0, 0, width, height, inPixels, 0, width );
-
-		if ( radius > 0 ) {
-			convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES);
-			convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES);
-		}
-
-        dst.setRGB( 0, 0, width, height, inPixels, 0, width );
+        int[] inPixels = PixelBufferPool.take(width*height);
+        int[] outPixels = PixelBufferPool.take(width*height);
+        try {
+            src.getRGB( 0, 0, width, height, inPixels, 0, width );
+
+            if ( radius > 0 ) {
+                convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES);
+                convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES);
+            }
+
+            dst.setRGB( 0, 0, width, height, inPixels, 0, width );
+        } finally {
+            PixelBufferPool.release(inPixels);
+            PixelBufferPool.release(outPixels);
+        }
         return dst;
     }
 
@@ -102,12 +107,22 @@ public class GaussianFilter extends ConvolveFilter {
      * @param alpha whether to blur the alpha channel
      * @param edgeAction what to do at the edges
      */
-	public static void convolveAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction) {
-		float[] matrix = kernel.getKernelData( null );
-		int cols = kernel.getWidth();
+	public static void convolveAndTranspose(Kernel kernel, final int[] inPixels, final int[] outPixels, final int width, final int height, final boolean alpha, final boolean premultiply, final boolean unpremultiply, final int edgeAction) {
+		final float[] matrix = kernel.getKernelData( null );
+		final int cols = kernel.getWidth();
+
+		// Each row of the input is one column of the output so the rows can be processed in parallel.
+		RowBands.run( height, new RowBands.Band() {
+			public void run( int firstRow, int endRow ) {
+				convolveAndTranspose( matrix, cols, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, firstRow, endRow );
+			}
+		});
+	}
+
+	private static void convolveAndTranspose(float[] matrix, int cols, int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction, int firstRow, int endRow) {
 		int cols2 = cols/2;
 
-		for (int y = 0; y < height; y++) {
+		for (int y = firstRow; y < endRow; y++) {
 			int index = y;
 			int ioffset = y*width;
 			for (int x = 0; x < width; x++) {
@@ -0,0 +1,58 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction.captcha.kaptcha.jhlabs.image;
+
+import java.util.ArrayList;
+
+/**
+ * Recycles the int[] pixel buffers of the filters. The filters used to allocate two buffers of the size of the whole image in each
+ * filter() call. Captchas always have the same size, so after the first few captchas all buffers can be taken from the pool.
+ *
+ * The buffers are NOT cleared: The user of a buffer must overwrite all of its elements before reading them.
+ * A buffer must not be used anymore after {@link #release(int[])} was called for it, so never release a buffer which is referenced
+ * by an image.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class PixelBufferPool {
+
+	/**
+	 * The maximal amount of free buffers to keep. Each filter() needs at most two buffers at once; there are few threads which render
+	 * captchas, see IntroductionPuzzlePool.
+	 */
+	public static final int MAX_BUFFERS = 8;
+
+	private static final ArrayList<int[]> sBuffers = new ArrayList<int[]>(MAX_BUFFERS);
+
+	private PixelBufferPool() {
+	}
+
+	/**
+	 * @return A buffer of exactly the given length, with undefined content.
+	 */
+	public static int[] take(int length) {
+		synchronized(sBuffers) {
+			for(int i = sBuffers.size() - 1; i >= 0; --i) {
+				if(sBuffers.get(i).length == length)
+					return sBuffers.remove(i);
+			}
+		}
+
+		return new int[length];
+	}
+
+	/**
+	 * Returns a buffer which was obtained by {@link #take(int)} to the pool. If the pool is full, the oldest buffer is dropped, so
+	 * buffers of a size which is not used anymore do not stay in the pool forever.
+	 */
+	public static void release(int[] buffer) {
+		synchronized(sBuffers) {
+			if(sBuffers.size() == MAX_BUFFERS)
+				sBuffers.remove(0);
+
+			sBuffers.add(buffer);
+		}
+	}
+
+}
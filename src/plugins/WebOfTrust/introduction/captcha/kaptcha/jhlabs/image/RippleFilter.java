@@ -161,6 +161,11 @@ public class RippleFilter extends TransformFilter {
 		}
 	}
 
+	@Override
+	protected boolean canTransformInParallel() {
+		return true;
+	}
+
 	@Override
 	protected void transformInverse(int x, int y, float[] out) {
 		float nx = (float)y / xWavelength;
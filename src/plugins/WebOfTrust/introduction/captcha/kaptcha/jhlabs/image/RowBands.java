@@ -0,0 +1,139 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction.captcha.kaptcha.jhlabs.image;
+
+import java.util.concurrent.CountDownLatch;
+
+import freenet.node.PrioRunnable;
+import freenet.support.Executor;
+import freenet.support.io.NativeThread;
+
+/**
+ * Splits the rows of an image into bands and processes them on multiple threads. Used by the filters whose output pixels only
+ * depend on the input pixels, not on other output pixels: The result is the same as if all rows were processed by a single thread.
+ *
+ * The parallel mode is disabled by default. The IntroductionServer enables it with one thread per core, see {@link #setThreads(int)}:
+ * If the IntroductionPuzzlePool is empty, the server renders puzzles in its own thread and the latency of a single image matters.
+ * The bands are executed on the {@link Executor} of the node, see {@link #setExecutor(Executor)}. Without one, all rows are
+ * processed by the calling thread.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class RowBands {
+
+	/**
+	 * Processes a range of rows. Must only write to the output elements of these rows.
+	 */
+	public interface Band {
+		/**
+		 * @param firstRow The first row to process.
+		 * @param endRow The row after the last row to process.
+		 */
+		void run(int firstRow, int endRow);
+	}
+
+	/** Bands smaller than this are not worth the handover to another thread. */
+	public static final int MIN_ROWS_PER_BAND = 8;
+
+	/** The amount of threads which process the bands of an image, including the calling thread. 1 means the parallel mode is off. */
+	private static volatile int sThreads = 1;
+
+	/** Executes the bands other than the first one. Null if none was set. */
+	private static volatile Executor sExecutor = null;
+
+	private RowBands() {
+	}
+
+	/**
+	 * Sets the amount of threads which process the rows of an image, including the thread which called the filter. 1 disables the
+	 * parallel mode.
+	 */
+	public static void setThreads(int threads) {
+		if(threads < 1)
+			throw new IllegalArgumentException("Invalid thread count: " + threads);
+
+		sThreads = threads;
+	}
+
+	public static int getThreads() {
+		return sThreads;
+	}
+
+	/**
+	 * Sets the executor of the parallel mode, typically the one of the node. Null makes the calling thread process all rows.
+	 */
+	public static void setExecutor(Executor executor) {
+		sExecutor = executor;
+	}
+
+	/**
+	 * Processes the given amount of rows with the band. Returns after all rows have been processed.
+	 */
+	public static void run(final int rows, final Band band) {
+		final int bands = Math.min(sThreads, rows / MIN_ROWS_PER_BAND);
+		final Executor executor = bands > 1 ? sExecutor : null;
+
+		if(executor == null) {
+			band.run(0, rows);
+			return;
+		}
+
+		final CountDownLatch finished = new CountDownLatch(bands - 1);
+		final RuntimeException[] failure = new RuntimeException[1];
+		for(int i = 1; i < bands; ++i) {
+			final int firstRow = (int)((long)rows * i / bands);
+			final int endRow = (int)((long)rows * (i+1) / bands);
+
+			executor.execute(new PrioRunnable() {
+				public void run() {
+					try {
+						band.run(firstRow, endRow);
+					} catch(RuntimeException e) {
+						synchronized(failure) {
+							if(failure[0] == null)
+								failure[0] = e;
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+
+				public int getPriority() {
+					// Same as the workers of the IntroductionPuzzlePool, which are the callers of the filters
+					return NativeThread.PriorityLevel.MIN_PRIORITY.value;
+				}
+			}, "WoT captcha filter");
+		}
+
+		// The calling thread processes the first band.
+		try {
+			band.run(0, rows / bands);
+		} catch(RuntimeException e) {
+			synchronized(failure) {
+				if(failure[0] == null)
+					failure[0] = e;
+			}
+		}
+
+		// We must wait for all bands even if interrupted: The caller releases the buffers they write to once we return.
+		boolean interrupted = false;
+		while(true) {
+			try {
+				finished.await();
+				break;
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if(interrupted)
+			Thread.currentThread().interrupt();
+
+		synchronized(failure) {
+			if(failure[0] != null)
+				throw failure[0];
+		}
+	}
+
+}
@@ -234,7 +234,8 @@ public class ShadowFilter extends AbstractBufferedImageOp {
         };
         BufferedImage shadow = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         new BandCombineOp( extractAlpha, null ).filter( src.getRaster(), shadow.getRaster() );
-        shadow = new GaussianFilter( radius ).filter( shadow, null );
+        // GaussianFilter reads all pixels before writing so it can filter in place
+        new GaussianFilter( radius ).filter( shadow, shadow );
 
 		float xOffset = distance*(float)Math.cos(angle);
 		float yOffset = -distance*(float)Math.sin(angle);
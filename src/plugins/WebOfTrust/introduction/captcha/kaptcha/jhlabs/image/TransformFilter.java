@@ -137,53 +137,78 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 		}
 		WritableRaster dstRaster = dst.getRaster();
 
-		int[] inPixels = getRGB( src, 0, 0, width, height, null );
-
-		if ( interpolation == NEAREST_NEIGHBOUR )
-			return filterPixelsNN( dst, width, height, inPixels, transformedSpace );
-
-		int srcWidth = width;
-		int srcHeight = height;
-		int srcWidth1 = width-1;
-		int srcHeight1 = height-1;
-		int outWidth = transformedSpace.width;
-		int outHeight = transformedSpace.height;
-		int outX, outY;
-		int index = 0;
-		int[] outPixels = new int[outWidth];
-
-		outX = transformedSpace.x;
-		outY = transformedSpace.y;
-		float[] out = new float[2];
-
-		for (int y = 0; y < outHeight; y++) {
-			for (int x = 0; x < outWidth; x++) {
-				transformInverse(outX+x, outY+y, out);
-				int srcX = (int)Math.floor( out[0] );
-				int srcY = (int)Math.floor( out[1] );
-				float xWeight = out[0]-srcX;
-				float yWeight = out[1]-srcY;
-				int nw, ne, sw, se;
-
-				if ( srcX >= 0 && srcX < srcWidth1 && srcY >= 0 && srcY < srcHeight1) {
-					// Easy case, all corners are in the image
-					int i = srcWidth*srcY + srcX;
-					nw = inPixels[i];
-					ne = inPixels[i+1];
-					sw = inPixels[i+srcWidth];
-					se = inPixels[i+srcWidth+1];
-				} else {
-					// Some of the corners are off the image
-					nw = getPixel( inPixels, srcX, srcY, srcWidth, srcHeight );
-					ne = getPixel( inPixels, srcX+1, srcY, srcWidth, srcHeight );
-					sw = getPixel( inPixels, srcX, srcY+1, srcWidth, srcHeight );
-					se = getPixel( inPixels, srcX+1, srcY+1, srcWidth, srcHeight );
-				}
-				outPixels[x] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
+		final int[] inPixels = getRGB( src, 0, 0, width, height, PixelBufferPool.take( width*height ) );
+		try {
+			if ( interpolation == NEAREST_NEIGHBOUR )
+				return filterPixelsNN( dst, width, height, inPixels, transformedSpace );
+
+			final int srcWidth = width;
+			final int srcHeight = height;
+			final int srcWidth1 = width-1;
+			final int srcHeight1 = height-1;
+			final int outWidth = transformedSpace.width;
+			final int outHeight = transformedSpace.height;
+			final int outX = transformedSpace.x;
+			final int outY = transformedSpace.y;
+			final int[] outPixels = PixelBufferPool.take( outWidth*outHeight );
+			try {
+				runBands( outHeight, new RowBands.Band() {
+					public void run( int firstRow, int endRow ) {
+						float[] out = new float[2];
+
+						for (int y = firstRow; y < endRow; y++) {
+							int index = y*outWidth;
+							for (int x = 0; x < outWidth; x++) {
+								transformInverse(outX+x, outY+y, out);
+								int srcX = (int)Math.floor( out[0] );
+								int srcY = (int)Math.floor( out[1] );
+								float xWeight = out[0]-srcX;
+								float yWeight = out[1]-srcY;
+								int nw, ne, sw, se;
+
+								if ( srcX >= 0 && srcX < srcWidth1 && srcY >= 0 && srcY < srcHeight1) {
+									// Easy case, all corners are in the image
+									int i = srcWidth*srcY + srcX;
+									nw = inPixels[i];
+									ne = inPixels[i+1];
+									sw = inPixels[i+srcWidth];
+									se = inPixels[i+srcWidth+1];
+								} else {
+									// Some of the corners are off the image
+									nw = getPixel( inPixels, srcX, srcY, srcWidth, srcHeight );
+									ne = getPixel( inPixels, srcX+1, srcY, srcWidth, srcHeight );
+									sw = getPixel( inPixels, srcX, srcY+1, srcWidth, srcHeight );
+									se = getPixel( inPixels, srcX+1, srcY+1, srcWidth, srcHeight );
+								}
+								outPixels[index++] = ImageMath.bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
+							}
+						}
+					}
+				});
+				setRGB( dst, 0, 0, outWidth, outHeight, outPixels );
+			} finally {
+				PixelBufferPool.release( outPixels );
 			}
-			setRGB( dst, 0, y, transformedSpace.width, 1, outPixels );
+			return dst;
+		} finally {
+			PixelBufferPool.release( inPixels );
 		}
-		return dst;
+	}
+
+	/**
+	 * Whether {@link #transformInverse(int, int, float[])} may be called by multiple threads at once, i.e. does not modify the
+	 * filter. If true, the rows of the output image are computed in parallel if enabled by {@link RowBands#setThreads(int)}.
+	 * @return false unless overriden.
+	 */
+	protected boolean canTransformInParallel() {
+		return false;
+	}
+
+	private void runBands( int rows, RowBands.Band band ) {
+		if ( canTransformInParallel() )
+			RowBands.run( rows, band );
+		else
+			band.run( 0, rows );
 	}
 
 	final private int getPixel( int[] pixels, int x, int y, int width, int height ) {
@@ -201,47 +226,54 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 		return pixels[ y*width+x ];
 	}
 
-	protected BufferedImage filterPixelsNN( BufferedImage dst, int width, int height, int[] inPixels, Rectangle transformedSpace ) {
-		int srcWidth = width;
-		int srcHeight = height;
-		int outWidth = transformedSpace.width;
-		int outHeight = transformedSpace.height;
-		int outX, outY, srcX, srcY;
-		int[] outPixels = new int[outWidth];
-
-		outX = transformedSpace.x;
-		outY = transformedSpace.y;
-		int[] rgb = new int[4];
-		float[] out = new float[2];
-
-		for (int y = 0; y < outHeight; y++) {
-			for (int x = 0; x < outWidth; x++) {
-				transformInverse(outX+x, outY+y, out);
-				srcX = (int)out[0];
-				srcY = (int)out[1];
-				// int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
-				if (out[0] < 0 || srcX >= srcWidth || out[1] < 0 || srcY >= srcHeight) {
-					int p;
-					switch (edgeAction) {
-					case ZERO:
-					default:
-						p = 0;
-						break;
-					case WRAP:
-						p = inPixels[(ImageMath.mod(srcY, srcHeight) * srcWidth) + ImageMath.mod(srcX, srcWidth)];
-						break;
-					case CLAMP:
-						p = inPixels[(ImageMath.clamp(srcY, 0, srcHeight-1) * srcWidth) + ImageMath.clamp(srcX, 0, srcWidth-1)];
-						break;
+	protected BufferedImage filterPixelsNN( BufferedImage dst, int width, int height, final int[] inPixels, Rectangle transformedSpace ) {
+		final int srcWidth = width;
+		final int srcHeight = height;
+		final int outWidth = transformedSpace.width;
+		final int outHeight = transformedSpace.height;
+		final int outX = transformedSpace.x;
+		final int outY = transformedSpace.y;
+		final int[] outPixels = PixelBufferPool.take( outWidth*outHeight );
+
+		try {
+			runBands( outHeight, new RowBands.Band() {
+				public void run( int firstRow, int endRow ) {
+					int srcX, srcY;
+					float[] out = new float[2];
+
+					for (int y = firstRow; y < endRow; y++) {
+						int index = y*outWidth;
+						for (int x = 0; x < outWidth; x++) {
+							transformInverse(outX+x, outY+y, out);
+							srcX = (int)out[0];
+							srcY = (int)out[1];
+							// int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
+							if (out[0] < 0 || srcX >= srcWidth || out[1] < 0 || srcY >= srcHeight) {
+								int p;
+								switch (edgeAction) {
+								case ZERO:
+								default:
+									p = 0;
+									break;
+								case WRAP:
+									p = inPixels[(ImageMath.mod(srcY, srcHeight) * srcWidth) + ImageMath.mod(srcX, srcWidth)];
+									break;
+								case CLAMP:
+									p = inPixels[(ImageMath.clamp(srcY, 0, srcHeight-1) * srcWidth) + ImageMath.clamp(srcX, 0, srcWidth-1)];
+									break;
+								}
+								outPixels[index++] = p;
+							} else {
+								int i = srcWidth*srcY + srcX;
+								outPixels[index++] = inPixels[i];
+							}
+						}
 					}
-					outPixels[x] = p;
-				} else {
-					int i = srcWidth*srcY + srcX;
-					rgb[0] = inPixels[i];
-					outPixels[x] = inPixels[i];
 				}
-			}
-			setRGB( dst, 0, y, transformedSpace.width, 1, outPixels );
+			});
+			setRGB( dst, 0, 0, outWidth, outHeight, outPixels );
+		} finally {
+			PixelBufferPool.release( outPixels );
 		}
 		return dst;
 	}
@@ -181,6 +181,11 @@ public class WaterFilter extends TransformFilter {
 		return super.filter( src, dst );
 	}
 	
+	@Override
+	protected boolean canTransformInParallel() {
+		return true;
+	}
+
 	@Override
 	protected void transformInverse(int x, int y, float[] out) {
 		float dx = x-icentreX;
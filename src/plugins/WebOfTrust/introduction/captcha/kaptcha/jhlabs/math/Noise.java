@@ -75,7 +75,7 @@ public class Noise implements Function1D, Function2D, Function3D {
 	static float[][] g3 = new float[B + B + 2][3];
 	static float[][] g2 = new float[B + B + 2][2];
 	static float[] g1 = new float[B + B + 2];
-	static boolean start = true;
+	static volatile boolean start = true;
 
 	private static float sCurve(float t) {
 		return t * t * (3.0f - 2.0f * t);
@@ -90,10 +90,8 @@ public class Noise implements Function1D, Function2D, Function3D {
 		int bx0, bx1;
 		float rx0, rx1, sx, t, u, v;
 
-		if (start) {
-			start = false;
-			init();
-		}
+		if (start)
+			initOnce();
 
 		t = x + N;
 		bx0 = ((int)t) & BM;
@@ -119,10 +117,8 @@ public class Noise implements Function1D, Function2D, Function3D {
 		float rx0, rx1, ry0, ry1, q[], sx, sy, a, b, t, u, v;
 		int i, j;
 
-		if (start) {
-			start = false;
-			init();
-		}
+		if (start)
+			initOnce();
 
 		t = x + N;
 		bx0 = ((int)t) & BM;
@@ -170,10 +166,8 @@ public class Noise implements Function1D, Function2D, Function3D {
 		float rx0, rx1, ry0, ry1, rz0, rz1, q[], sy, sz, a, b, c, d, t, u, v;
 		int i, j;
 
-		if (start) {
-			start = false;
-			init();
-		}
+		if (start)
+			initOnce();
 
 		t = x + N;
 		bx0 = ((int)t) & BM;
@@ -249,6 +243,16 @@ public class Noise implements Function1D, Function2D, Function3D {
 		return randomGenerator.nextInt() & 0x7fffffff;
 	}
 	
+	/**
+	 * Captchas are rendered by multiple threads, so the tables must be complete before start is cleared.
+	 */
+	private static synchronized void initOnce() {
+		if (start) {
+			init();
+			start = false;
+		}
+	}
+	
 	private static void init() {
 		int i, j, k;
 
@@ -142,39 +142,53 @@ public final class DebugFCPClient implements FCPClientReferenceImplementation.Co
 	private final class SubscriptionSynchronizationHandlerImpl<T extends Persistent> implements SubscriptionSynchronizationHandler<T> {
 		private final HashMap<String, T> target;
 		
+		/**
+		 * If we received an additional synchronization, the data which we had before it. The received objects are removed from it
+		 * as the chunks arrive, so it is empty after the last chunk if it matched. Null if there was no existing data.
+		 */
+		private HashMap<String, T> existing = null;
+		
 		public SubscriptionSynchronizationHandlerImpl(final HashMap<String, T> myTarget) {
 			target = myTarget;
 		}
 		
 		/**
-		 * Fill our existing "database" (the {@link HashMap} target) with the synchronization of ALL data which we have received from WOT.
+		 * Fill our existing "database" (the {@link HashMap} target) with the synchronization of ALL data which we receive from WOT
+		 * in chunks.
 		 */
-		public void handleSubscriptionSynchronization(final Collection<T> source) {
+		public void handleSubscriptionSynchronization(final Collection<T> source, final boolean isFirstChunk, final boolean isLastChunk) {
 			if(logMINOR) Logger.minor(this, "handleSubscriptionSynchronization() to " + target);
 
-			if(target.size() > 0) {
-				Logger.normal(this, "Received additional synchronization, validating existing data against it...");
-				// ATTENTION: This can happen when the connection to WOT is lost temporarily. Therefore, in a real client, you should
-				// update your existing dataset WITHOUT complaining about mismatches.
-
-				if(source.size() != target.size())
-					Logger.error(this, "Size mismatch: received size " + source.size() + " != existing size " + target.size());
-				else {
-					for(final T expected : source) {
-						final T existing = target.get(expected);
-						if(existing == null)
-							Logger.error(this, "Not found: expected " + expected);
-						else if(!existing.equals(expected)) {
-							Logger.error(this, "Not equals: expected " + expected + " to existing " + existing);
-							existing.equals(expected); // For being able to step inside of it with the debugger if you set a breakpoint at the previous line.
-						}
-					}
-				}
+			if(isFirstChunk) {
+				if(target.size() > 0) {
+					Logger.normal(this, "Received additional synchronization, validating existing data against it...");
+					// ATTENTION: This can happen when the connection to WOT is lost temporarily. Therefore, in a real client, you should
+					// update your existing dataset WITHOUT complaining about mismatches.
+					existing = new HashMap<String, T>(target);
+				} else
+					existing = null;
+				
 				target.clear();
 			}
 
-			for(final T p : source) {
-				target.put(p.getID(), p);
+			for(final T expected : source) {
+				if(existing != null) {
+					final T existingObject = existing.remove(expected.getID());
+					if(existingObject == null)
+						Logger.error(this, "Not found: expected " + expected);
+					else if(!existingObject.equals(expected)) {
+						Logger.error(this, "Not equals: expected " + expected + " to existing " + existingObject);
+						existingObject.equals(expected); // For being able to step inside of it with the debugger if you set a breakpoint at the previous line.
+					}
+				}
+				
+				target.put(expected.getID(), expected);
+			}
+			
+			if(isLastChunk && existing != null) {
+				if(existing.size() > 0)
+					Logger.error(this, "Size mismatch: " + existing.size() + " existing objects were not received: " + existing);
+				existing = null;
 			}
 
 			if(logMINOR) Logger.minor(this, "handleSubscriptionSynchronization() finished.");
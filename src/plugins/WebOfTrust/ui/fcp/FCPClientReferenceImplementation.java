@@ -89,6 +89,18 @@ public final class FCPClientReferenceImplementation {
 	/** The amount of milliseconds for waiting for "Unsubscribed" messages to arrive in {@link #stop()} */
 	private static final int SHUTDOWN_UNSUBSCRIBE_TIMEOUT = 3*1000;
 	
+	/**
+	 * The maximal amount of event-{@link Notification}s which WOT shall send in a single "ChangeNotificationBatch" message.
+	 * @see FCPChangeNotificationBatchHandler
+	 */
+	private static final int NOTIFICATION_BATCH_SIZE = 64;
+	
+	/**
+	 * The maximal amount of objects which WOT shall send in a single message of the synchronization at the beginning of a subscription.
+	 * @see FCPSynchronizationHandler
+	 */
+	private static final int SYNCHRONIZATION_CHUNK_SIZE = 1024;
+	
 	/**
 	 * The implementing child class provides this Map. It is used for obtaining the {@link Identity} objects which are used for
 	 * constructing {@link Trust} and {@link Score} objects which are passed to its handlers.
@@ -267,7 +279,9 @@ public final class FCPClientReferenceImplementation {
 				new FCPScoresSynchronizationHandler(),
 				new FCPIdentityChangedNotificationHandler(),
 				new FCPTrustChangedNotificationHandler(),
-				new FCPScoreChangedNotificationHandler()
+				new FCPScoreChangedNotificationHandler(),
+				new FCPChangeNotificationBatchHandler(),
+				new FCPNotificationsAcknowledgedHandler()
 		};
 		
 		for(FCPMessageHandler handler : handlers)
@@ -578,6 +592,10 @@ public final class FCPClientReferenceImplementation {
 	 * - A synchronization message, which is handled by {@link FCPIdentitiesSynchronizationHandler} / {@link FCPTrustsSynchronizationHandler} / {@link FCPScoresSynchronizationHandler} - depending on the {@link SubscriptionType}.
 	 * - A "Subscribed" message, which is handled by {@link FCPSubscriptionSucceededHandler}.
 	 * 
+	 * Requests event-{@link Notification}s to be sent in batches of {@link #NOTIFICATION_BATCH_SIZE}, which are handled by
+	 * {@link FCPChangeNotificationBatchHandler}.
+	 * Requests the synchronization to be sent in chunks of {@link #SYNCHRONIZATION_CHUNK_SIZE}, see {@link FCPSynchronizationHandler}.
+	 * 
 	 * @param type The {@link SubscriptionType} to which you want to subscribe.
 	 */
 	private void fcp_Subscribe(final SubscriptionType type) {
@@ -586,6 +604,24 @@ public final class FCPClientReferenceImplementation {
 		final SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putOverwrite("Message", "Subscribe");
 		sfs.putOverwrite("To", type.toString());
+		sfs.put("NotificationBatchSize", NOTIFICATION_BATCH_SIZE);
+		sfs.put("SynchronizationChunkSize", SYNCHRONIZATION_CHUNK_SIZE);
+		send(sfs);
+	}
+	
+	/**
+	 * Sends a "AcknowledgeNotifications" FCP message to WOT. It will delete the event-{@link Notification}s up to the given index
+	 * from our queue so they are not re-sent. It will reply with a "NotificationsAcknowledged" message which is handled by
+	 * {@link FCPNotificationsAcknowledgedHandler}.
+	 * 
+	 * @param index The "Index" field of the last notification which we have processed.
+	 */
+	private void fcp_AcknowledgeNotifications(final long index) {
+		if(logMINOR) Logger.minor(this, "fcp_AcknowledgeNotifications(): " + index);
+		
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "AcknowledgeNotifications");
+		sfs.put("Index", index);
 		send(sfs);
 	}
 	
@@ -818,6 +854,52 @@ public final class FCPClientReferenceImplementation {
 		abstract void handle_MaybeFailing(final SimpleFieldSet sfs, final Bucket data) throws Throwable;
 	}
 	
+	/**
+	 * Base class for the handlers of the synchronization messages which we receive in reply to
+	 * {@link FCPClientReferenceImplementation#fcp_Subscribe(SubscriptionType)}.
+	 * 
+	 * WOT sends the synchronization in chunks of at most {@link FCPClientReferenceImplementation#SYNCHRONIZATION_CHUNK_SIZE}
+	 * objects. Each chunk has a "SequenceNumber" starting at 0, the last one has "Final" = "true". Each chunk is passed to the
+	 * {@link SubscriptionSynchronizationHandler} as it arrives, so neither we nor the handler have to hold the whole dataset in
+	 * memory. A failure of the handler makes WOT stop sending chunks and the subscription fails as it did without chunks.
+	 * Messages without a "SequenceNumber" are the whole dataset, as sent by WOT versions which do not support chunking.
+	 */
+	private abstract class FCPSynchronizationHandler<T extends Persistent> extends MaybeFailingFCPMessageHandler {
+		/** The "SequenceNumber" which the next chunk must have. -1 if we are not receiving chunks currently. */
+		private int mNextSequenceNumber = -1;
+		
+		abstract SubscriptionType getSubscriptionType();
+		
+		abstract FCPParser<T> getParser();
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public synchronized void handle_MaybeFailing(final SimpleFieldSet sfs, final Bucket data) throws MalformedURLException, FSParseException, InvalidParameterException, ProcessingFailedException {
+			final SubscriptionSynchronizationHandler<T> handler
+				= (SubscriptionSynchronizationHandler<T>)mSubscriptionSynchronizationHandlers.get(getSubscriptionType());
+			
+			if(sfs.get("SequenceNumber") == null) {
+				handler.handleSubscriptionSynchronization(getParser().parseSynchronization(sfs), true, true);
+				return;
+			}
+			
+			final int sequenceNumber = sfs.getInt("SequenceNumber");
+			// Sequence number 0 is a new synchronization. If a previous one was incomplete, it failed at WOT and the handler
+			// will discard it when it receives the first chunk.
+			if(sequenceNumber != 0 && sequenceNumber != mNextSequenceNumber) {
+				final int expected = mNextSequenceNumber;
+				mNextSequenceNumber = -1;
+				throw new InvalidParameterException("Unexpected SequenceNumber: " + sequenceNumber + "; expected: " + expected);
+			}
+			
+			final boolean isFinal = sfs.getBoolean("Final", false);
+			// If the handler fails, WOT does not send the following chunks: Any chunk but the first one is unexpected then.
+			mNextSequenceNumber = -1;
+			handler.handleSubscriptionSynchronization(getParser().parseSynchronization(sfs), sequenceNumber == 0, isFinal);
+			mNextSequenceNumber = isFinal ? -1 : sequenceNumber + 1;
+		}
+	}
+	
 	/**
 	 * Handles the "Identities" message which we receive in reply to {@link FCPClientReferenceImplementation#fcp_Subscribe(SubscriptionType)}
 	 * with {@link SubscriptionType#Identities}.
@@ -825,17 +907,20 @@ public final class FCPClientReferenceImplementation {
 	 * Parses the contained set of all WOT {@link Identity}s & passes it to the event handler 
 	 * {@link FCPClientReferenceImplementation#handleIdentitiesSynchronization(Collection)}.
 	 */
-	private final class FCPIdentitiesSynchronizationHandler extends MaybeFailingFCPMessageHandler {
+	private final class FCPIdentitiesSynchronizationHandler extends FCPSynchronizationHandler<Identity> {
 		@Override
 		public String getMessageName() {
 			return "Identities";
 		}
 		
-		@SuppressWarnings("unchecked")
 		@Override
-		public void handle_MaybeFailing(final SimpleFieldSet sfs, final Bucket data) throws MalformedURLException, FSParseException, InvalidParameterException, ProcessingFailedException {
-			((SubscriptionSynchronizationHandler<Identity>)mSubscriptionSynchronizationHandlers.get(SubscriptionType.Identities))
-				.handleSubscriptionSynchronization(mIdentityParser.parseSynchronization(sfs));
+		SubscriptionType getSubscriptionType() {
+			return SubscriptionType.Identities;
+		}
+		
+		@Override
+		FCPParser<Identity> getParser() {
+			return mIdentityParser;
 		}
 	}
 
@@ -846,17 +931,20 @@ public final class FCPClientReferenceImplementation {
 	 * Parses the contained set of all WOT {@link Trust}s & passes it to the event handler 
 	 * {@link FCPClientReferenceImplementation#handleTrustsSynchronization(Collection)}.
 	 */
-	private final class FCPTrustsSynchronizationHandler extends MaybeFailingFCPMessageHandler {
+	private final class FCPTrustsSynchronizationHandler extends FCPSynchronizationHandler<Trust> {
 		@Override
 		public String getMessageName() {
 			return "Trusts";
 		}
-
-		@SuppressWarnings("unchecked")
+		
 		@Override
-		public void handle_MaybeFailing(SimpleFieldSet sfs, Bucket data) throws MalformedURLException, FSParseException, InvalidParameterException, ProcessingFailedException {
-			((SubscriptionSynchronizationHandler<Trust>)mSubscriptionSynchronizationHandlers.get(SubscriptionType.Trusts))
-					.handleSubscriptionSynchronization(mTrustParser.parseSynchronization(sfs));
+		SubscriptionType getSubscriptionType() {
+			return SubscriptionType.Trusts;
+		}
+		
+		@Override
+		FCPParser<Trust> getParser() {
+			return mTrustParser;
 		}
 	}
 
@@ -867,17 +955,20 @@ public final class FCPClientReferenceImplementation {
 	 * Parses the contained set of all WOT {@link Score}s & passes it to the event handler 
 	 * {@link FCPClientReferenceImplementation#handleScoresSynchronization(Collection)}.
 	 */
-	private final class FCPScoresSynchronizationHandler extends MaybeFailingFCPMessageHandler {
+	private final class FCPScoresSynchronizationHandler extends FCPSynchronizationHandler<Score> {
 		@Override
 		public String getMessageName() {
 			return "Scores";
 		}
-
-		@SuppressWarnings("unchecked")
+		
 		@Override
-		public void handle_MaybeFailing(SimpleFieldSet sfs, Bucket data) throws MalformedURLException, FSParseException, InvalidParameterException, ProcessingFailedException {
-			((SubscriptionSynchronizationHandler<Score>)mSubscriptionSynchronizationHandlers.get(SubscriptionType.Scores))
-				.handleSubscriptionSynchronization(mScoreParser.parseSynchronization(sfs));
+		SubscriptionType getSubscriptionType() {
+			return SubscriptionType.Scores;
+		}
+		
+		@Override
+		FCPParser<Score> getParser() {
+			return mScoreParser;
 		}
 	}
 
@@ -944,6 +1035,71 @@ public final class FCPClientReferenceImplementation {
 		}
 	}
 
+	/**
+	 * Handles the "ChangeNotificationBatch" message which WOT sends instead of the separate "IdentityChangedNotification" /
+	 * "TrustChangedNotification" / "ScoreChangedNotification" messages because we requested batches in
+	 * {@link FCPClientReferenceImplementation#fcp_Subscribe(SubscriptionType)}.
+	 * 
+	 * Passes each contained notification to the handler of its message type, in order. If one of them fails, the notifications which
+	 * were processed before it are acknowledged using {@link FCPClientReferenceImplementation#fcp_AcknowledgeNotifications(long)}
+	 * before the failure is signaled to WOT, so WOT will only re-send the rest of the batch.
+	 */
+	private final class FCPChangeNotificationBatchHandler implements FCPMessageHandler {
+		@Override
+		public String getMessageName() {
+			return "ChangeNotificationBatch";
+		}
+		
+		@Override
+		public void handle(final SimpleFieldSet sfs, final Bucket data) throws ProcessingFailedException {
+			long lastProcessedIndex = -1;
+			
+			try {
+				final SimpleFieldSet notifications = sfs.subset("Notifications");
+				final int amount = notifications.getInt("Amount");
+				
+				for(int i = 0; i < amount; ++i) {
+					final SimpleFieldSet notification = notifications.subset(Integer.toString(i));
+					final long index = notification.getLong("Index");
+					final FCPMessageHandler handler = mFCPMessageHandlers.get(notification.get("Message"));
+					
+					if(handler == null)
+						throw new FSParseException("Unknown notification type: " + notification.get("Message"));
+					
+					handler.handle(notification, null);
+					lastProcessedIndex = index;
+				}
+			} catch(FSParseException e) {
+				acknowledgePartialBatch(lastProcessedIndex);
+				throw new ProcessingFailedException(e);
+			} catch(ProcessingFailedException e) {
+				acknowledgePartialBatch(lastProcessedIndex);
+				throw e;
+			}
+		}
+		
+		private void acknowledgePartialBatch(final long lastProcessedIndex) {
+			if(lastProcessedIndex >= 0)
+				fcp_AcknowledgeNotifications(lastProcessedIndex);
+		}
+	}
+	
+	/**
+	 * Handles the "NotificationsAcknowledged" message which we receive in reply to
+	 * {@link FCPClientReferenceImplementation#fcp_AcknowledgeNotifications(long)}.
+	 */
+	private final class FCPNotificationsAcknowledgedHandler implements FCPMessageHandler {
+		@Override
+		public String getMessageName() {
+			return "NotificationsAcknowledged";
+		}
+
+		@Override
+		public void handle(SimpleFieldSet sfs, Bucket data) {
+			if(logMINOR) Logger.minor(this, "Notifications acknowledged: Index=" + sfs.get("Index") + "; Amount=" + sfs.get("Amount"));
+		}
+	}
+
 	/**
 	 * Represents the data of a {@link SubscriptionManager.Notification}
 	 */
@@ -1170,7 +1326,8 @@ public final class FCPClientReferenceImplementation {
 		/**
 		 * Called very soon after you have subscribed via {@link FCPClientReferenceImplementation#subscribe(Class, SubscriptionSynchronizationHandler, SubscribedObjectChangedHandler)}
 		 * The type T matches the Class parameter of the above subscribe function.
-		 * The passed {@link Collection} contains ALL objects in the WOT database of whose type T you have subscribed to:
+		 * The passed {@link Collection}s of all calls from isFirstChunk = true to isLastChunk = true together contain ALL objects in
+		 * the WOT database of whose type T you have subscribed to:
 		 * - For {@link Identity}, all {@link Identity} and {@link OwnIdentity} objects in the WOT database.
 		 * - For {@link Trust}, all {@link Trust} objects in the WOT database.
 		 * - For {@link Score}, all {@link Score} objects in the WOT database.
@@ -1178,16 +1335,25 @@ public final class FCPClientReferenceImplementation {
 		 * 
 		 * WOT sends ALL objects to this handler because this will cut down future traffic very much: For example, if an {@link Identity}
 		 * changes, WOT will only have to send the new version of it for allowing you to make your database completely up-to-date again.
-		 * This means that this handler is only called once at the beginning of a {@link Subscription}, all changes after that will trigger
+		 * This means that this handler is only called at the beginning of a {@link Subscription}, all changes after that will trigger
 		 * a {@link SubscribedObjectChangedHandler} instead.
 		 * 
+		 * WOT sends the objects in chunks of at most {@link FCPClientReferenceImplementation#SYNCHRONIZATION_CHUNK_SIZE}, and each
+		 * chunk is passed to this handler as it arrives, so you do not have to hold all of them in memory at once. If isFirstChunk is
+		 * true, a new synchronization has started: Discard the chunks of a previous synchronization which did not reach its last
+		 * chunk, it has failed. Older WOT versions send all objects in a single call with both flags true.
+		 * 
+		 * @param isFirstChunk True if this is the first call of a synchronization.
+		 * @param isLastChunk True if this is the last call of a synchronization: You have received all objects then.
 		 * @throws ProcessingFailedException You are free to throw this. The failure of the handler will be signaled to WOT. It will cause the
 		 * subscription to fail. The client will automatically retry subscribing after a typical delay of roughly
 		 * {@link FCPClientReferenceImplementation#WOT_PING_DELAY}. You can use this mechanism for programming your client in a transactional
 		 * style: If anything in the transaction which processes this handler fails, roll it back and make the handler throw.
 		 * You can then expect to receive the same call again after the delay and hope that the transaction will succeed the next time.
+		 * The synchronization starts again with the first chunk then.
 		 */
-		void handleSubscriptionSynchronization(Collection<T> allObjects) throws ProcessingFailedException;
+		void handleSubscriptionSynchronization(Collection<T> objects, boolean isFirstChunk, boolean isLastChunk)
+				throws ProcessingFailedException;
 	}
 	
 	public interface SubscribedObjectChangedHandler<T extends Persistent> {
@@ -7,15 +7,21 @@ import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 
 import plugins.WebOfTrust.Identity;
 import plugins.WebOfTrust.OwnIdentity;
 import plugins.WebOfTrust.Score;
+import plugins.WebOfTrust.SubscriptionFilter;
 import plugins.WebOfTrust.SubscriptionManager;
 import plugins.WebOfTrust.SubscriptionManager.IdentitiesSubscription;
 import plugins.WebOfTrust.SubscriptionManager.IdentityChangedNotification;
@@ -26,9 +32,11 @@ import plugins.WebOfTrust.SubscriptionManager.Subscription;
 import plugins.WebOfTrust.SubscriptionManager.SubscriptionExistsAlreadyException;
 import plugins.WebOfTrust.SubscriptionManager.TrustChangedNotification;
 import plugins.WebOfTrust.SubscriptionManager.TrustsSubscription;
+import plugins.WebOfTrust.SubscriptionManager.UnknownClientException;
 import plugins.WebOfTrust.SubscriptionManager.UnknownSubscriptionException;
 import plugins.WebOfTrust.Trust;
 import plugins.WebOfTrust.WebOfTrust;
+import plugins.WebOfTrust.WebOfTrust.SortOrder;
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
 import plugins.WebOfTrust.exceptions.NoSuchContextException;
 import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
@@ -265,6 +273,8 @@ public final class FCPInterface implements FredPluginFCP {
             	replysender.send(handleSubscribe(replysender, params), data);
             } else if (message.equals("Unsubscribe")) {
             	replysender.send(handleUnsubscribe(params), data);
+            } else if (message.equals("AcknowledgeNotifications")) {
+            	replysender.send(handleAcknowledgeNotifications(replysender, params), data);
             } else if (message.equals("Ping")) {
             	replysender.send(handlePing(), data);
             } else if (message.equals("RandomName")) {
@@ -298,6 +308,188 @@ public final class FCPInterface implements FredPluginFCP {
     	
     	return result;
     }
+    
+    /**
+     * @return The {@link SortOrder} which is named by the given field, null if the field does not exist.
+     */
+    private SortOrder getSortOrderParameter(final SimpleFieldSet sfs, final String name) throws InvalidParameterException {
+    	final String value = sfs.get(name);
+    	if(value == null)
+    		return null;
+    	
+    	try {
+    		return SortOrder.valueOf(value.trim());
+    	} catch(IllegalArgumentException e) {
+    		throw new InvalidParameterException("Unknown " + name + ": " + value);
+    	}
+    }
+    
+    /**
+     * The fields of an {@link Identity} which clients can select with the optional "Fields" parameter of the messages which return
+     * identities, a comma-separated list of the names, for example "Fields=Nickname,Contexts". The type and the ID of identities are
+     * always included. Omitting fields saves reading them from the database and serializing them: Especially the
+     * {@link #Properties} can be large.
+     * 
+     * If "Fields" is specified, the duplicated fields for old clients are omitted as well.
+     * 
+     * @see #parseIdentityFields(String)
+     */
+    public static enum IdentityField {
+    	Nickname,
+    	RequestURI,
+    	/** Only exists for {@link OwnIdentity}s. */
+    	InsertURI,
+    	PublishesTrustList,
+    	CurrentEditionFetchState,
+    	Contexts,
+    	Properties
+    }
+    
+    /**
+     * Returned by {@link #parseIdentityFields(String)} if the client did not specify the fields. This exact object indicates that
+     * the fields for old clients shall be added, so it must be compared by reference.
+     */
+    private static final Set<IdentityField> ALL_IDENTITY_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(IdentityField.class));
+    
+    /**
+     * @param fields A comma-separated list of {@link IdentityField} names. Null if the client did not specify the fields.
+     * @return The selected fields. {@link #ALL_IDENTITY_FIELDS} if the given fields are null.
+     */
+    public static Set<IdentityField> parseIdentityFields(final String fields) throws InvalidParameterException {
+    	if(fields == null)
+    		return ALL_IDENTITY_FIELDS;
+    	
+    	final EnumSet<IdentityField> result = EnumSet.noneOf(IdentityField.class);
+    	for(String name : fields.split(",")) {
+    		name = name.trim();
+    		if(name.length() == 0)
+    			continue;
+    		
+    		try {
+    			result.add(IdentityField.valueOf(name));
+    		} catch(IllegalArgumentException e) {
+    			throw new InvalidParameterException("Unknown identity field: " + name);
+    		}
+    	}
+    	return result;
+    }
+    
+    /**
+     * @return The fields which are stored with the {@link IdentitiesSubscription}, see {@link IdentitiesSubscription#getIdentityFields()}.
+     */
+    private static Set<IdentityField> parseIdentityFields(final IdentitiesSubscription subscription) {
+    	try {
+    		return parseIdentityFields(subscription.getIdentityFields());
+    	} catch(InvalidParameterException e) {
+    		throw new IllegalStateException(e); // They were validated by handleSubscribe()
+    	}
+    }
+    
+    /**
+     * Selects a page of the result of a query which returns a list of objects. Parsed from the optional fields of the query message:
+     * "Offset" = The number of objects to skip at the beginning of the result. Defaults to 0.
+     * "Limit" = The maximal number of objects to return. Defaults to all.
+     * If any of them is not a non-negative integer, the query fails with an error reply.
+     * 
+     * If any of them is specified, the reply contains:
+     * "Offset" = Same as requested.
+     * "HasMore" = "true" if there are objects after the page, "false" otherwise. To fetch the next page, add the amount of returned
+     * objects to the offset.
+     * 
+     * The order of the result must be the same for each query for paging to work, so the queries should also specify a sort order.
+     * 
+     * Usage: Call {@link #accept()} for each object of the result in order, after any filtering.
+     */
+    private static final class ResultPage {
+    	private final boolean mIsPaged;
+    	
+    	private final int mOffset;
+    	
+    	private final int mLimit;
+    	
+    	/** The number of objects for which {@link #accept()} was called or which were {@link #skip(int)}ped. */
+    	private int mSeen = 0;
+    	
+    	private boolean mHasMore = false;
+    	
+    	ResultPage(final SimpleFieldSet params) throws InvalidParameterException {
+    		mIsPaged = params.get("Offset") != null || params.get("Limit") != null;
+    		mOffset = parseNonNegativeInt(params, "Offset", 0);
+    		mLimit = parseNonNegativeInt(params, "Limit", Integer.MAX_VALUE);
+    	}
+    	
+    	/**
+    	 * Not using {@link SimpleFieldSet#getInt(String, int)}: It returns the default value for malformed numbers.
+    	 */
+    	private static int parseNonNegativeInt(final SimpleFieldSet params, final String key, final int defaultValue)
+    			throws InvalidParameterException {
+    		
+    		final String value = params.get(key);
+    		if(value == null)
+    			return defaultValue;
+    		
+    		final int result;
+    		try {
+    			result = Integer.parseInt(value);
+    		} catch(NumberFormatException e) {
+    			throw new InvalidParameterException(key + " is not a number: " + value);
+    		}
+    		
+    		if(result < 0)
+    			throw new InvalidParameterException(key + " must not be negative: " + result);
+    		
+    		return result;
+    	}
+    	
+    	boolean isPaged() {
+    		return mIsPaged;
+    	}
+    	
+    	int getOffset() {
+    		return mOffset;
+    	}
+    	
+    	/**
+    	 * Marks the given number of objects as seen without {@link #accept()}ing them. For skipping the objects before the
+    	 * {@link #getOffset()} of a result which needs no filtering by index, without reading them from the database.
+    	 */
+    	void skip(final int count) {
+    		mSeen += count;
+    	}
+    	
+    	/**
+    	 * Must be called for each object of the result in order.
+    	 * @return True if the object belongs to the page. If false and {@link #isComplete()}, the iteration can be stopped.
+    	 */
+    	boolean accept() {
+    		final int index = mSeen++;
+    		
+    		if(index < mOffset)
+    			return false;
+    		
+    		if(index - mOffset >= mLimit) {
+    			mHasMore = true;
+    			return false;
+    		}
+    		
+    		return true;
+    	}
+    	
+    	/**
+    	 * @return True if the page is full and an object after it was seen.
+    	 */
+    	boolean isComplete() {
+    		return mHasMore;
+    	}
+    	
+    	void addReplyFields(final SimpleFieldSet sfs) {
+    		if(!mIsPaged)
+    			return;
+    		
+    		sfs.put("Offset", mOffset);
+    		sfs.put("HasMore", mHasMore);
+    	}
+    }
 
     private SimpleFieldSet handleCreateIdentity(final SimpleFieldSet params)
     	throws InvalidParameterException, FSParseException, MalformedURLException {
@@ -469,6 +661,7 @@ public final class FCPInterface implements FredPluginFCP {
     private SimpleFieldSet handleGetIdentity(final SimpleFieldSet params) throws InvalidParameterException, UnknownIdentityException {
     	final String trusterID = params.get("Truster"); 
     	final String identityID = getMandatoryParameter(params, "Identity");
+    	final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
 
     	final SimpleFieldSet sfs;
     	
@@ -476,7 +669,7 @@ public final class FCPInterface implements FredPluginFCP {
     		final Identity identity = mWoT.getIdentityByID(identityID);
     		final OwnIdentity truster = (trusterID != null ? mWoT.getOwnIdentityByID(trusterID) : null);
     		
-    		sfs = handleGetIdentity(identity, truster);
+    		sfs = handleGetIdentity(identity, truster, fields);
     		sfs.putOverwrite("Message", "Identity");
     	}
     	
@@ -487,14 +680,19 @@ public final class FCPInterface implements FredPluginFCP {
      * Used as backend for:
      * - {@link #handleGetIdentity(SimpleFieldSet)}
      * - {@link #sendIdentityChangedNotification(String, IdentityChangedNotification)} 
+     * 
+     * @param fields See {@link IdentityField}. The fields for old clients are only added if it is {@link #ALL_IDENTITY_FIELDS}.
      */
-    private SimpleFieldSet handleGetIdentity(final Identity identity, final OwnIdentity truster) {
+    private SimpleFieldSet handleGetIdentity(final Identity identity, final OwnIdentity truster, final Set<IdentityField> fields) {
     	final SimpleFieldSet sfs = new SimpleFieldSet(true);
+    		final boolean addLegacyFields = (fields == ALL_IDENTITY_FIELDS);
     		
+    		if(addLegacyFields) {
     		addIdentityFields(sfs, identity,"", "0"); // TODO: As of 2013-10-24, this is legacy code to support old FCP clients. Remove it after some time.
             addIdentityFields(sfs, identity,"", ""); // TODO: As of 2013-08-02, this is legacy code to support old FCP clients. Remove it after some time.
+    		}
 
-            addIdentityFields(sfs, identity, "Identities.0.", "");
+            addIdentityFields(sfs, identity, "Identities.0.", "", fields);
             
     		if(truster != null) {
     			Trust trust = null;
@@ -511,6 +709,9 @@ public final class FCPInterface implements FredPluginFCP {
     			handleGetTrust(sfs, trust, "0");
     			handleGetScore(sfs, score, "0");
     			
+    			if(!addLegacyFields)
+    				return sfs;
+    			
             	addTrustFields(sfs, trust, "0"); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
             	addScoreFields(sfs, score, "0"); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
             
@@ -566,28 +767,47 @@ public final class FCPInterface implements FredPluginFCP {
      * @param suffix Added as descriptor for possibly multiple identities. Empty string is special case as explained in the function description.
      */
     private void addIdentityFields(SimpleFieldSet sfs, Identity identity, final String prefix, String suffix) {
+    	addIdentityFields(sfs, identity, prefix, suffix, ALL_IDENTITY_FIELDS);
+    }
+    
+    /**
+     * Same as {@link #addIdentityFields(SimpleFieldSet, Identity, String, String)} but only adds the given fields. The legacy fields
+     * are only added if the fields are {@link #ALL_IDENTITY_FIELDS}. Contexts and properties are not read from the database if
+     * they are not selected.
+     */
+    private void addIdentityFields(SimpleFieldSet sfs, Identity identity, final String prefix, String suffix,
+    		final Set<IdentityField> fields) {
+    	
     	if(identity == null) {
     		sfs.putOverwrite(prefix + "Type" + suffix, "Inexistent");
     		return;
     	}
     	
+    	final boolean addLegacyFields = (fields == ALL_IDENTITY_FIELDS);
+    	
     	sfs.putOverwrite(prefix + "Type" + suffix, (identity instanceof OwnIdentity) ? "OwnIdentity" : "Identity");
-        sfs.putOverwrite(prefix + "Nickname" + suffix, identity.getNickname());
-        sfs.putOverwrite(prefix + "RequestURI" + suffix, identity.getRequestURI().toString());
-        sfs.putOverwrite(prefix + "Identity" + suffix, identity.getID()); // TODO: As of 2013-09-11, this is legacy code to support old FCP clients. Remove it after some time.
+    	if(fields.contains(IdentityField.Nickname))
+    		sfs.putOverwrite(prefix + "Nickname" + suffix, identity.getNickname());
+    	if(fields.contains(IdentityField.RequestURI))
+    		sfs.putOverwrite(prefix + "RequestURI" + suffix, identity.getRequestURI().toString());
+    	if(addLegacyFields)
+    		sfs.putOverwrite(prefix + "Identity" + suffix, identity.getID()); // TODO: As of 2013-09-11, this is legacy code to support old FCP clients. Remove it after some time.
  		sfs.putOverwrite(prefix + "ID" + suffix, identity.getID()); 
-        sfs.put(prefix + "PublishesTrustList" + suffix, identity.doesPublishTrustList());
+ 		if(fields.contains(IdentityField.PublishesTrustList))
+ 			sfs.put(prefix + "PublishesTrustList" + suffix, identity.doesPublishTrustList());
 
- 		if(identity instanceof OwnIdentity) {
+ 		if(identity instanceof OwnIdentity && fields.contains(IdentityField.InsertURI)) {
  			OwnIdentity ownId = (OwnIdentity)identity;
  			sfs.putOverwrite(prefix + "InsertURI" + suffix, ownId.getInsertURI().toString());
  		}
-        sfs.putOverwrite(prefix + "CurrentEditionFetchState" + suffix, identity.getCurrentEditionFetchState().toString());
+ 		if(fields.contains(IdentityField.CurrentEditionFetchState))
+ 			sfs.putOverwrite(prefix + "CurrentEditionFetchState" + suffix, identity.getCurrentEditionFetchState().toString());
         
- 		final ArrayList<String> contexts = identity.getContexts();
- 		final HashMap<String, String> properties = identity.getProperties();
+ 		// Not calling the getters avoids activating the contexts / properties from the database.
+ 		final List<String> contexts = fields.contains(IdentityField.Contexts) ? identity.getContexts() : null;
+ 		final Map<String, String> properties = fields.contains(IdentityField.Properties) ? identity.getProperties() : null;
  		
-        if (suffix.isEmpty()) {	 // Legacy
+        if (addLegacyFields && suffix.isEmpty()) {	 // Legacy
      		int contextCounter = 0;
      		int propertyCounter = 0;
      		
@@ -599,7 +819,7 @@ public final class FCPInterface implements FredPluginFCP {
                 sfs.putOverwrite(prefix + "Property" + propertyCounter + ".Name", property.getKey());
                 sfs.putOverwrite(prefix + "Property" + propertyCounter++ + ".Value", property.getValue());
             }
-        } else { // Legacy
+        } else if(addLegacyFields) { // Legacy
      		int contextCounter = 0;
      		int propertyCounter = 0;
      		
@@ -613,24 +833,55 @@ public final class FCPInterface implements FredPluginFCP {
             }
         }
         
- 		int contextCounter = 0;
- 		int propertyCounter = 0;
-        
-    	for(String context : contexts) { // Non-legacy
-            sfs.putOverwrite(prefix + "Contexts." + contextCounter++ + ".Name", context);
+        if(contexts != null) {
+        	int contextCounter = 0;
+        	for(String context : contexts) { // Non-legacy
+        		sfs.putOverwrite(prefix + "Contexts." + contextCounter++ + ".Name", context);
+        	}
+        	sfs.put(prefix + "Contexts" + suffix + ".Amount", contextCounter);
         }
         
-        for (Entry<String, String> property : properties.entrySet()) { // Non-legacy
-            sfs.putOverwrite(prefix + "Properties." + propertyCounter + ".Name", property.getKey());
-            sfs.putOverwrite(prefix + "Properties." + propertyCounter++ + ".Value", property.getValue());
+        if(properties != null) {
+        	int propertyCounter = 0;
+        	for (Entry<String, String> property : properties.entrySet()) { // Non-legacy
+        		sfs.putOverwrite(prefix + "Properties." + propertyCounter + ".Name", property.getKey());
+        		sfs.putOverwrite(prefix + "Properties." + propertyCounter++ + ".Value", property.getValue());
+        	}
+        	sfs.put(prefix + "Properties" + suffix + ".Amount", propertyCounter);
         }
         
-        sfs.put(prefix + "Contexts" + suffix + ".Amount", contextCounter);
-        sfs.put(prefix + "Properties" + suffix + ".Amount", propertyCounter);
-        
         sfs.putOverwrite("Identities.Amount", "1");
     }
     
+    /**
+     * Adds the contexts and properties of the given identity in the format of the messages which do not use
+     * {@link #addIdentityFields(SimpleFieldSet, Identity, String, String)}, such as "GetOwnIdentities", "GetTrusters" and
+     * "GetTrustees":
+     * ContextsSUFFIX.ContextX = name of context with index X
+     * PropertiesSUFFIX.PropertyX.Name = name of property X
+     * PropertiesSUFFIX.PropertyX.Value = value of property X
+     * 
+     * Contexts and properties are only added - and only read from the database - if they are contained in the given fields.
+     */
+    private void addLegacyContextAndPropertyFields(final SimpleFieldSet sfs, final Identity identity, final String suffix,
+    		final Set<IdentityField> fields) {
+    	
+    	if(fields.contains(IdentityField.Contexts)) {
+    		int contextCounter = 0;
+    		for (String context : identity.getContexts()) {
+    			sfs.putOverwrite("Contexts" + suffix + ".Context" + contextCounter++, context);
+    		}
+    	}
+    	
+    	if(fields.contains(IdentityField.Properties)) {
+    		int propertiesCounter = 0;
+    		for (Entry<String, String> property : identity.getProperties().entrySet()) {
+    			sfs.putOverwrite("Properties" + suffix + ".Property" + propertiesCounter + ".Name", property.getKey());
+    			sfs.putOverwrite("Properties" + suffix + ".Property" + propertiesCounter++ + ".Value", property.getValue());
+    		}
+    	}
+    }
+    
     /**
      * Adds fields (currently only one) describing the trust value from the given truster to the given trustee:
      * 
@@ -667,7 +918,9 @@ public final class FCPInterface implements FredPluginFCP {
     	}
     }
 
-    private SimpleFieldSet handleGetOwnIdentities(final SimpleFieldSet params) {
+    private SimpleFieldSet handleGetOwnIdentities(final SimpleFieldSet params) throws InvalidParameterException {
+    	final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
+    	
         final SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putOverwrite("Message", "OwnIdentities");
 
@@ -675,21 +928,14 @@ public final class FCPInterface implements FredPluginFCP {
 			int i = 0;
 			for(final OwnIdentity oid : mWoT.getAllOwnIdentities()) {
 				sfs.putOverwrite("Identity" + i, oid.getID());
-				sfs.putOverwrite("RequestURI" + i, oid.getRequestURI().toString());
-				sfs.putOverwrite("InsertURI" + i, oid.getInsertURI().toString());
-				sfs.putOverwrite("Nickname" + i, oid.getNickname());
-				// TODO: Allow the client to select what data he wants
-
-				int contextCounter = 0;
-				for (String context : oid.getContexts()) {
-					sfs.putOverwrite("Contexts" + i + ".Context" + contextCounter++, context);
-				}
-
-				int propertiesCounter = 0;
-				for (Entry<String, String> property : oid.getProperties().entrySet()) {
-					sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter + ".Name", property.getKey());
-					sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter++ + ".Value", property.getValue());
-				}
+				if(fields.contains(IdentityField.RequestURI))
+					sfs.putOverwrite("RequestURI" + i, oid.getRequestURI().toString());
+				if(fields.contains(IdentityField.InsertURI))
+					sfs.putOverwrite("InsertURI" + i, oid.getInsertURI().toString());
+				if(fields.contains(IdentityField.Nickname))
+					sfs.putOverwrite("Nickname" + i, oid.getNickname());
+
+				addLegacyContextAndPropertyFields(sfs, oid, Integer.toString(i), fields);
 				// This is here so you do not forget to do it IN the "if()" if you add an if() around the put() statements to allow selection
 				++i;
 			}
@@ -700,15 +946,99 @@ public final class FCPInterface implements FredPluginFCP {
 		return sfs;
     }
     
-    private SimpleFieldSet handleGetIdentities(final SimpleFieldSet params) {
-        final String context;
+    /**
+     * Handles the "GetIdentities" message.
+     * <b>Optional fields:</b>
+     * "Context" = Only return identities which have this context.
+     * "SortOrder" = The name of a {@link SortOrder}. Sorting by score or local trust requires a "Truster". Identities which have no
+     * score / trust of the truster are not returned then.
+     * "Truster" = The ID of the {@link OwnIdentity} whose scores / trust values are used for sorting.
+     * "NicknameFilter" = Only return identities whose nickname contains this string. Requires a "SortOrder".
+     * "Fields" = The fields of the identities to return, see {@link IdentityField}.
+     * "Offset" / "Limit" = Return only a page of the result, see {@link ResultPage}. If no "SortOrder" is given, the
+     * result is sorted by {@link SortOrder#ByNicknameAscending}.
+     * 
+     * <b>Reply:</b>
+     * "Message" = "Identities"
+     * "Identities.Amount" = The number of returned identities.
+     * "Identities.0.*" etc. = See {@link #addIdentityFields(SimpleFieldSet, Identity, String, String)}.
+     */
+    private SimpleFieldSet handleGetIdentities(final SimpleFieldSet params) throws InvalidParameterException, UnknownIdentityException {
+        final String context = params.get("Context");
+        final String trusterID = params.get("Truster");
+        final String nicknameFilter = params.get("NicknameFilter");
+        final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
+        final ResultPage page = new ResultPage(params);
+        SortOrder sortOrder = getSortOrderParameter(params, "SortOrder");
         
-        if(params!= null) {
-        	context = params.get("Context");
-        } else {
-        	context = null;
+        if(sortOrder == null) {
+        	if(!page.isPaged())
+        		return handleGetIdentitiesWithContext(context, fields);
+        	
+        	sortOrder = SortOrder.ByNicknameAscending;
         }
-
+        
+        final boolean needsTruster = sortOrder != SortOrder.ByNicknameAscending && sortOrder != SortOrder.ByNicknameDescending;
+        if(needsTruster && trusterID == null)
+        	throw new InvalidParameterException("SortOrder " + sortOrder + " requires a Truster");
+        
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "Identities");
+		
+		synchronized(mWoT) {
+			final OwnIdentity truster = trusterID != null ? mWoT.getOwnIdentityByID(trusterID) : null;
+			final List<Identity> identities = mWoT.getAllIdentitiesFilteredAndSorted(truster, nicknameFilter, sortOrder);
+			final boolean getAll = context == null || context.equals("");
+			final Set<String> identitiesWithContext = getAll ? null : getIdentityIDsWithContext(context);
+			
+			int index = 0;
+			if(getAll) {
+				// Skip the identities before the page without reading them from the database.
+				index = Math.min(page.getOffset(), identities.size());
+				page.skip(index);
+			}
+			
+			int i = 0;
+			for(final int size = identities.size(); index < size && !page.isComplete(); ++index) {
+				final Identity identity = identities.get(index);
+				
+				if(!getAll && !identitiesWithContext.contains(identity.getID()))
+					continue;
+				
+				if(!page.accept())
+					continue;
+				
+				addIdentityFields(sfs, identity, "Identities." + Integer.toString(i) + ".", "", fields);
+				++i;
+			}
+			sfs.putOverwrite("Identities.Amount", Integer.toString(i)); // Need to use Overwrite because addIdentityFields() sets it to 1
+			page.addReplyFields(sfs);
+		}
+		
+		return sfs;
+    }
+    
+    /**
+     * Used for filtering long lists of identities by context: Checking {@link Identity#hasContext(String)} for each of them
+     * would read the contexts of all identities from the database, {@link WebOfTrust#getAllIdentitiesWithContext(String)}
+     * only reads the identities which have the context.
+     * 
+     * You must synchronize on the {@link WebOfTrust} when calling this function.
+     * 
+     * @return The IDs of all identities which have the given context.
+     */
+    private Set<String> getIdentityIDsWithContext(final String context) {
+    	final HashSet<String> result = new HashSet<String>();
+    	for(final Identity identity : mWoT.getAllIdentitiesWithContext(context))
+    		result.add(identity.getID());
+    	return result;
+    }
+    
+    /**
+     * @param context If non-null and non-empty, only identities which have this context are returned.
+     * @param fields See {@link IdentityField}.
+     */
+    private SimpleFieldSet handleGetIdentitiesWithContext(final String context, final Set<IdentityField> fields) {
 		final SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putOverwrite("Message", "Identities");
 		
@@ -717,13 +1047,9 @@ public final class FCPInterface implements FredPluginFCP {
 			final boolean getAll = context == null || context.equals("");
 	
 			int i = 0;
-			for(final Identity identity : mWoT.getAllIdentities()) {
-				if(getAll || identity.hasContext(context)) {
-					// TODO: Allow the client to select what data he wants
-					addIdentityFields(sfs, identity, "Identities." + Integer.toString(i) + ".", "");
-					
-					++i;
-				}
+			for(final Identity identity : getAll ? mWoT.getAllIdentities() : mWoT.getAllIdentitiesWithContext(context)) {
+				addIdentityFields(sfs, identity, "Identities." + Integer.toString(i) + ".", "", fields);
+				++i;
 			}
 			sfs.putOverwrite("Identities.Amount", Integer.toString(i)); // Need to use Overwrite because addIdentityFields() sets it to 1
 		}
@@ -749,13 +1075,24 @@ public final class FCPInterface implements FredPluginFCP {
     }
     
     private SimpleFieldSet handleGetScores(final SimpleFieldSet params) {
+    	return handleGetScoresWithFilter(SubscriptionFilter.NONE);
+    }
+    
+    /**
+     * @param filter Only scores which {@link SubscriptionFilter#matches(Score)} are returned.
+     * @see #getScoreCandidates(SubscriptionFilter)
+     */
+    private SimpleFieldSet handleGetScoresWithFilter(final SubscriptionFilter filter) {
         final SimpleFieldSet sfs = new SimpleFieldSet(true);
         sfs.putOverwrite("Message", "Scores");
    
 		// TODO: Optimization: Remove this lock if it works without it.
         synchronized(mWoT) {
         	int i = 0;
-			for(final Score score: mWoT.getAllScores()) {
+			for(final Score score: getScoreCandidates(filter)) {
+				if(!filter.matches(score))
+					continue;
+				
 				handleGetScore(sfs, score, Integer.toString(i));
 				
 				++i;
@@ -766,11 +1103,36 @@ public final class FCPInterface implements FredPluginFCP {
         return sfs;
     }
 
+    /**
+     * @return The {@link Score}s which have to be checked with {@link SubscriptionFilter#matches(Score)}. If the filter has a
+     * 	{@link SubscriptionFilter#getTrusterID()}, only the scores of it, which is much cheaper than all scores if there are many
+     * 	{@link OwnIdentity}s. If the truster does not exist (anymore), none: The scores of an OwnIdentity are deleted along with it.
+     * 	You must synchronize on the {@link WebOfTrust} or the {@link SubscriptionManager} while using the result.
+     */
+    private Iterable<Score> getScoreCandidates(final SubscriptionFilter filter) {
+    	final String trusterID = filter.getTrusterID();
+    	// Does not use getOwnIdentityByID(): It synchronizes on the WebOfTrust, which must not be locked by the synchronization
+    	// of subscriptions while holding the SubscriptionManager lock.
+    	return trusterID == null ? mWoT.getAllScores() : mWoT.getGivenScores(trusterID);
+    }
+
     private SimpleFieldSet handleGetIdentitiesByScore(final SimpleFieldSet params) throws InvalidParameterException, UnknownIdentityException, FSParseException {
     	final String trusterID = params.get("Truster");
         final String selection = getMandatoryParameter(params, "Selection");
         final String context = getMandatoryParameter(params, "Context");
         final boolean includeTrustValue = params.getBoolean("WantTrustValues", false);
+        final ResultPage page = new ResultPage(params);
+        SortOrder sortOrder = getSortOrderParameter(params, "SortOrder");
+        
+        // The order of an unsorted query can change between the queries of the pages.
+        if(sortOrder == null && page.isPaged())
+        	sortOrder = SortOrder.ByNicknameAscending;
+        final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
+        // Paged and projected queries are a new variant of this message so they do not need the fields for old clients.
+        final boolean addLegacyFields = !page.isPaged() && fields == ALL_IDENTITY_FIELDS;
+        
+        if(sortOrder == SortOrder.ByLocalTrustAscending || sortOrder == SortOrder.ByLocalTrustDescending)
+        	throw new InvalidParameterException("Unsupported SortOrder: " + sortOrder);
 
 		final String selectString = selection.trim();
 		int select = 0; // TODO: decide about the default value
@@ -786,19 +1148,27 @@ public final class FCPInterface implements FredPluginFCP {
 		synchronized(mWoT) {
 			final OwnIdentity truster = trusterID != null ? mWoT.getOwnIdentityByID(trusterID) : null;
 			final boolean getAll = context.equals("");
+			final Set<String> identitiesWithContext = getAll ? null : getIdentityIDsWithContext(context);
 	
 			int i = 0;
-			for(final Score score : mWoT.getIdentitiesByScore(truster, select)) {
-				if(getAll || score.getTrustee().hasContext(context)) {
-					// TODO: Allow the client to select what data he wants
+			for(final Score score : mWoT.getIdentitiesByScore(truster, select, sortOrder)) {
+				if(page.isComplete())
+					break;
+				
+				if(getAll || identitiesWithContext.contains(score.getTrustee().getID())) {
+					if(!page.accept())
+						continue;
+					
 					final OwnIdentity scoreOwner = score.getTruster();
 					final Identity identity = score.getTrustee();
 					final String suffix = Integer.toString(i);
 					
-					addIdentityFields(sfs, identity, "", suffix); // TODO: As of 2013-10-24, this is legacy code to support old FCP clients. Remove it after some time. 
-					addIdentityFields(sfs, identity, "Identities." + suffix + ".", "");		
+					if(addLegacyFields)
+						addIdentityFields(sfs, identity, "", suffix); // TODO: As of 2013-10-24, this is legacy code to support old FCP clients. Remove it after some time. 
+					addIdentityFields(sfs, identity, "Identities." + suffix + ".", "", fields);
 					
-					addScoreFields(sfs, score, suffix); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
+					if(addLegacyFields)
+						addScoreFields(sfs, score, suffix); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
 					handleGetScore(sfs, score, suffix);
 					
 					if(includeTrustValue) {
@@ -807,19 +1177,22 @@ public final class FCPInterface implements FredPluginFCP {
 							trust = mWoT.getTrust(scoreOwner, identity);
 						} catch(NotTrustedException e) {}
 						
-						addTrustFields(sfs, trust, suffix); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
+						if(addLegacyFields)
+							addTrustFields(sfs, trust, suffix); // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
 						handleGetTrust(sfs, trust, suffix);
 					}
 					
-					if(truster == null) // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
+					if(addLegacyFields && truster == null) // TODO: As of 2013-10-25, this is legacy code to support old FCP clients. Remove it after some time.
 		    			sfs.putOverwrite("ScoreOwner" + i, scoreOwner.getID());
 					
 					++i;
 				}
 			}
 			
-			sfs.put("Amount", i);
+			if(addLegacyFields)
+				sfs.put("Amount", i);
 			sfs.put("Identities.Amount", i);
+			page.addReplyFields(sfs);
 		}
 		
 		return sfs;
@@ -833,32 +1206,34 @@ public final class FCPInterface implements FredPluginFCP {
         sfs.putOverwrite("Message", "Identities");
         
         final boolean getAll = context.equals("");
+        final ResultPage page = new ResultPage(params);
+        final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
         
         synchronized(mWoT) {
         	int i = 0; 
-			for(final Trust trust : mWoT.getReceivedTrusts(mWoT.getIdentityByID(identityID))) {
+			for(final Trust trust : mWoT.getReceivedTrustsSortedByTrusterID(mWoT.getIdentityByID(identityID))) {
+				if(page.isComplete())
+					break;
+				
 				if(getAll || trust.getTruster().hasContext(params.get("Context"))) {
-					sfs.putOverwrite("Identity" + i, trust.getTruster().getID());
-					sfs.putOverwrite("Nickname" + i, trust.getTruster().getNickname());
-					sfs.putOverwrite("RequestURI" + i, trust.getTruster().getRequestURI().toString());
+					if(!page.accept())
+						continue;
+					
+					final Identity truster = trust.getTruster();
+					sfs.putOverwrite("Identity" + i, truster.getID());
+					if(fields.contains(IdentityField.Nickname))
+						sfs.putOverwrite("Nickname" + i, truster.getNickname());
+					if(fields.contains(IdentityField.RequestURI))
+						sfs.putOverwrite("RequestURI" + i, truster.getRequestURI().toString());
 					sfs.putOverwrite("Value" + i, Byte.toString(trust.getValue()));
 					sfs.putOverwrite("Comment" + i, trust.getComment());
 
-					int contextCounter = 0;
-					for (String identityContext: trust.getTruster().getContexts()) {
-						sfs.putOverwrite("Contexts" + i + ".Context" + contextCounter++, identityContext);
-					}
-
-					int propertiesCounter = 0;
-					for (Entry<String, String> property : trust.getTruster().getProperties().entrySet()) {
-						sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter + ".Name", property.getKey());
-						sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter++ + ".Value", property.getValue());
-					}
-					// TODO: Allow the client to select what data he wants
+					addLegacyContextAndPropertyFields(sfs, truster, Integer.toString(i), fields);
 					++i;
 				}
 			}
 			sfs.put("Amount", i);
+			page.addReplyFields(sfs);
         }
         
         return sfs;
@@ -881,11 +1256,11 @@ public final class FCPInterface implements FredPluginFCP {
     		else throw new InvalidParameterException("Unhandled selection value (" + selection + ")");
         	
     		synchronized(mWoT) {
-        		result = mWoT.getReceivedTrusts(mWoT.getIdentityByID(identityID), select).size();
+        		result = mWoT.getReceivedTrustCount(mWoT.getIdentityByID(identityID), select);
         	}
         } else {
         	synchronized(mWoT) {
-        		result = mWoT.getReceivedTrusts(mWoT.getIdentityByID(identityID)).size();
+        		result = mWoT.getReceivedTrustCount(mWoT.getIdentityByID(identityID));
         	}
         }
     	
@@ -903,34 +1278,36 @@ public final class FCPInterface implements FredPluginFCP {
         sfs.putOverwrite("Message", "Identities");
         
         final boolean getAll = context.equals("");
+        final ResultPage page = new ResultPage(params);
+        final Set<IdentityField> fields = parseIdentityFields(params.get("Fields"));
 
         synchronized(mWoT) {
         	int i = 0;
-        	for(final Trust trust : mWoT.getGivenTrusts(mWoT.getIdentityByID(identityID))) {
+        	for(final Trust trust : mWoT.getGivenTrustsSortedByTrusteeID(mWoT.getIdentityByID(identityID))) {
+        		if(page.isComplete())
+        			break;
+        		
         		final Identity trustee = trust.getTrustee();
 
 				if(getAll || trustee.hasContext(params.get("Context"))) {
+					if(!page.accept())
+						continue;
+					
 					sfs.putOverwrite("Identity" + i, trustee.getID());
-					sfs.putOverwrite("Nickname" + i, trustee.getNickname());
-					sfs.putOverwrite("RequestURI" + i, trustee.getRequestURI().toString());
+					if(fields.contains(IdentityField.Nickname))
+						sfs.putOverwrite("Nickname" + i, trustee.getNickname());
+					if(fields.contains(IdentityField.RequestURI))
+						sfs.putOverwrite("RequestURI" + i, trustee.getRequestURI().toString());
 					sfs.putOverwrite("Value" + i, Byte.toString(trust.getValue()));
 					sfs.putOverwrite("Comment" + i, trust.getComment());
 
-					int contextCounter = 0;
-					for (String identityContext: trust.getTruster().getContexts()) {
-						sfs.putOverwrite("Contexts" + i + ".Context" + contextCounter++, identityContext);
-					}
-
-					int propertiesCounter = 0;
-					for (Entry<String, String> property : trust.getTruster().getProperties().entrySet()) {
-						sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter + ".Name", property.getKey());
-						sfs.putOverwrite("Properties" + i + ".Property" + propertiesCounter++ + ".Value", property.getValue());
-					}
-					// TODO: Allow the client to select what data he wants
+					// TODO: Bug: This adds the contexts and properties of the truster, not the trustee.
+					addLegacyContextAndPropertyFields(sfs, trust.getTruster(), Integer.toString(i), fields);
 					++i;
 				}
         	}
         	sfs.put("Amount", i);
+        	page.addReplyFields(sfs);
         }
         
         return sfs;
@@ -953,11 +1330,11 @@ public final class FCPInterface implements FredPluginFCP {
     		else throw new InvalidParameterException("Unhandled selection value (" + selection + ")");
         	
     		synchronized(mWoT) {
-        		result = mWoT.getGivenTrusts(mWoT.getIdentityByID(identityID), select).size();
+        		result = mWoT.getGivenTrustCount(mWoT.getIdentityByID(identityID), select);
         	}
         } else {
         	synchronized(mWoT) {
-        		result = mWoT.getGivenTrusts(mWoT.getIdentityByID(identityID)).size();
+        		result = mWoT.getGivenTrustCount(mWoT.getIdentityByID(identityID));
         	}
         }
     	
@@ -1094,11 +1471,36 @@ public final class FCPInterface implements FredPluginFCP {
      * "To" = "Identities" or "Trusts" or "Scores" - chooses among {@link IdentitiesSubscription} / {@link TrustsSubscription} / 
      * {@link ScoresSubscription}.
      * 
+     * <b>Optional fields:</b>
+     * "NotificationBatchSize" = The maximal number of {@link Notification}s which WOT shall send in a single "ChangeNotificationBatch"
+     * message, see {@link #sendChangeNotificationBatch(String, List)}. Defaults to 1, which means that each notification is sent as
+     * a separate message. Values above {@link SubscriptionManager#MAX_NOTIFICATION_BATCH_SIZE} are reduced to the maximum.
+     * The value is shared by all subscriptions of your client, only the one of your first "Subscribe" message is used.
+     * "SynchronizationChunkSize" = If above 0, the synchronization message is streamed as multiple messages of at most this many
+     * objects, see {@link ChunkedSynchronizationSender}. Defaults to 0, which means that it is sent as a single message. Values
+     * above {@link SubscriptionManager#MAX_SYNCHRONIZATION_CHUNK_SIZE} are reduced to the maximum. Like "NotificationBatchSize",
+     * only the value of your first "Subscribe" message is used.
+     * 
+     * The following fields restrict the objects about which you are notified, see {@link SubscriptionFilter}. Objects which do
+     * not match are neither contained in the initial synchronization nor in the notifications. If an object stops matching, you
+     * receive a notification which deletes it, if it starts matching, you receive one which creates it.
+     * "Filter.Context" = Only identities which have this context. Only allowed for "To" = "Identities".
+     * "Filter.Truster" = Only scores which this {@link OwnIdentity} has computed. Only allowed for "To" = "Scores".
+     * "Filter.MinimumScore" = Only scores with at least this value. Only allowed for "To" = "Scores".
+     * "Filter.MaximumRank" = Only scores with at most this rank, excludes infinite rank. Only allowed for "To" = "Scores".
+     * "Filter.Selection" = "+" or "0" or "-": Only scores which are >= 0, == 0 or < 0. Only allowed for "To" = "Scores".
+     * Filters are not supported for "To" = "Trusts".
+     * 
+     * "Fields" = Only allowed for "To" = "Identities": The fields of the identities which the synchronization and the notifications
+     * contain, see {@link IdentityField}. Please notice that a filtered subscription does not guarantee that the
+     * identities which the trusts and scores of your other subscriptions reference are known to your client.
+     * 
      * <b>Reply:</b>
      * The reply consists of two separate FCP messages:
      * The first message is "Message" = "Identities" or "Trusts" or "Scores".
      * It contains the full dataset of the type you have subscribed to. For the format of the message contents, see
-     * {@link #sendAllIdentities(String)} / {@link #sendAllTrustValues(String)} / {@link #sendAllScoreValues(String)}.
+     * {@link #sendAllIdentities(String, IdentitiesSubscription, int)} / {@link #sendAllTrustValues(String, int)} /
+     * {@link #sendAllScoreValues(String, SubscriptionFilter, int)}.
      * By storing this dataset, your client is completely synchronized with WOT. Upon changes of anything, WOT will only have to send
      * the single {@link Identity}/{@link Trust}/{@link Score} object which has changed for your client to be fully synchronized again.
      * 
@@ -1136,18 +1538,50 @@ public final class FCPInterface implements FredPluginFCP {
      * If the transaction which processes an event-notification fails, you can indicate failure to the synchronous FCP sender and
      * WOT will then re-send the notification, causing the transaction to be retried.
      * 
+     * If you requested a "NotificationBatchSize" above 1, the notifications are sent in "ChangeNotificationBatch" messages instead,
+     * see {@link #sendChangeNotificationBatch(String, List)}. Replying with success acknowledges the whole batch. If processing
+     * fails in the middle of a batch, you can send an "AcknowledgeNotifications" message for the part which you did process before
+     * replying with failure, see {@link #handleAcknowledgeNotifications(PluginReplySender, SimpleFieldSet)}. Only the remaining
+     * notifications will be re-sent then.
+     * 
      * If your client is shutting down or not interested in the subscription anymore, you should send an "Unsubscribe" message.
      * See {@link #handleUnsubscribe(SimpleFieldSet)}. This will make sure that WOT stops gathering data for your subscription,
      * which would be expensive to do if its not even needed. But if you cannot send the message anymore due to a dropped connection,
      * the subscription will be terminated automatically after some time due to notification-deployment failing. Nevertheless,
      * please always unsubscribe when possible.
      * 
-     * @see SubscriptionManager#subscribeToIdentities(String) The underlying implementation for "To" = "Identities"
-     * @see SubscriptionManager#subscribeToScores(String) The underyling implementation for "To" = "Trusts"
-     * @see SubscriptionManager#subscribeToTrusts(String) The underlying implementation for "To" = "Scores"
+     * @see SubscriptionManager#subscribeToIdentities(String, int, int, SubscriptionFilter, String) The underlying implementation for "To" = "Identities"
+     * @see SubscriptionManager#subscribeToScores(String, int, int, SubscriptionFilter) The underyling implementation for "To" = "Trusts"
+     * @see SubscriptionManager#subscribeToTrusts(String, int, int) The underlying implementation for "To" = "Scores"
      */
-    private SimpleFieldSet handleSubscribe(final PluginReplySender replySender, final SimpleFieldSet params) throws InvalidParameterException {
+    private SimpleFieldSet handleSubscribe(final PluginReplySender replySender, final SimpleFieldSet params)
+    		throws InvalidParameterException, UnknownIdentityException {
+    	
     	final String to = getMandatoryParameter(params, "To");
+    	final int notificationBatchSize = params.getInt("NotificationBatchSize", 1);
+    	final int synchronizationChunkSize = params.getInt("SynchronizationChunkSize", 0);
+    	final SubscriptionFilter filter = parseSubscriptionFilter(params);
+    	final String identityFields = params.get("Fields");
+    	parseIdentityFields(identityFields); // Validate them
+    	
+    	final Class<? extends Subscription<? extends Notification>> clazz;
+    	if(to.equals("Identities"))
+    		clazz = IdentitiesSubscription.class;
+    	else if(to.equals("Trusts"))
+    		clazz = TrustsSubscription.class;
+    	else if(to.equals("Scores"))
+    		clazz = ScoresSubscription.class;
+    	else
+    		throw new InvalidParameterException("Invalid subscription type specified: " + to);
+    	
+    	if(!filter.isSupportedBy(clazz))
+    		throw new InvalidParameterException("Filter is not supported for subscriptions to " + to + ": " + filter);
+    	
+    	if(identityFields != null && clazz != IdentitiesSubscription.class)
+    		throw new InvalidParameterException("Fields are only supported for subscriptions to Identities");
+    	
+    	if(filter.getTrusterID() != null)
+    		mWoT.getOwnIdentityByID(filter.getTrusterID()); // Throws UnknownIdentityException
 
     	final ClientID clientID = mClientTrackerDaemon.put(replySender);
     	
@@ -1155,14 +1589,16 @@ public final class FCPInterface implements FredPluginFCP {
     	SimpleFieldSet sfs;
     	
     	try {
-	    	if(to.equals("Identities")) {
-	    		subscription = mSubscriptionManager.subscribeToIdentities(clientID.toString());
-	    	} else if(to.equals("Trusts")) {
-	    		subscription = mSubscriptionManager.subscribeToTrusts(clientID.toString());
-	    	} else if(to.equals("Scores")) {
-	    		subscription = mSubscriptionManager.subscribeToScores(clientID.toString());
-	    	} else
-	    		throw new InvalidParameterException("Invalid subscription type specified: " + to);
+	    	if(clazz == IdentitiesSubscription.class) {
+	    		subscription = mSubscriptionManager.subscribeToIdentities(clientID.toString(), notificationBatchSize,
+	    				synchronizationChunkSize, filter, identityFields);
+	    	} else if(clazz == TrustsSubscription.class) {
+	    		subscription = mSubscriptionManager.subscribeToTrusts(clientID.toString(), notificationBatchSize,
+	    				synchronizationChunkSize);
+	    	} else {
+	    		subscription = mSubscriptionManager.subscribeToScores(clientID.toString(), notificationBatchSize,
+	    				synchronizationChunkSize, filter);
+	    	}
 	    	
 	    	sfs = new SimpleFieldSet(true);
 	    	sfs.putOverwrite("Message", "Subscribed");
@@ -1177,6 +1613,39 @@ public final class FCPInterface implements FredPluginFCP {
     	return sfs;
     }
     
+    /**
+     * Parses the "Filter.*" fields of the "Subscribe" message, see {@link #handleSubscribe(PluginReplySender, SimpleFieldSet)}.
+     * @return {@link SubscriptionFilter#NONE} if there are none.
+     */
+    private SubscriptionFilter parseSubscriptionFilter(final SimpleFieldSet params) throws InvalidParameterException {
+    	final String context = params.get("Filter.Context");
+    	final String trusterID = params.get("Filter.Truster");
+    	final String selectionString = params.get("Filter.Selection");
+    	final int minimumScore;
+    	final int maximumRank;
+    	final int selection;
+    	
+    	try {
+    		minimumScore = params.get("Filter.MinimumScore") != null ? Integer.parseInt(params.get("Filter.MinimumScore"))
+    		                                                         : SubscriptionFilter.ANY_SCORE;
+    		maximumRank = params.get("Filter.MaximumRank") != null ? Integer.parseInt(params.get("Filter.MaximumRank"))
+    		                                                       : SubscriptionFilter.ANY_RANK;
+    	} catch(NumberFormatException e) {
+    		throw new InvalidParameterException("Invalid number in filter: " + e.getMessage());
+    	}
+    	
+    	if(maximumRank < 0)
+    		throw new InvalidParameterException("Filter.MaximumRank must not be negative: " + maximumRank);
+    	
+    	if(selectionString == null) selection = SubscriptionFilter.ANY_SELECTION;
+    	else if(selectionString.trim().equals("+")) selection = 1;
+    	else if(selectionString.trim().equals("-")) selection = -1;
+    	else if(selectionString.trim().equals("0")) selection = 0;
+    	else throw new InvalidParameterException("Unhandled selection value (" + selectionString + ")");
+    	
+    	return new SubscriptionFilter(context, trusterID, minimumScore, maximumRank, selection);
+    }
+    
     /**
      * Handles the "Unsubscribe" message, the inverse operation to the "Subscribe". See {@link #handleSubscribe(PluginReplySender, SimpleFieldSet)}.
      * <b>Required fields:</b>
@@ -1193,6 +1662,36 @@ public final class FCPInterface implements FredPluginFCP {
     	return handleUnsubscribe(clazz, subscriptionID);
     }
     
+    /**
+     * Handles the "AcknowledgeNotifications" message. It is used by clients which receive their {@link Notification}s in batches,
+     * see {@link #handleSubscribe(PluginReplySender, SimpleFieldSet)} and {@link #sendChangeNotificationBatch(String, List)}.
+     * It deletes the notifications up to the given index from the queue of the client so they are not re-sent if the client
+     * replies to the current batch with failure.
+     * 
+     * <b>Required fields:</b>
+     * "Index" = The "Index" field of the last notification which the client has processed successfully.
+     * 
+     * <b>Reply:</b>
+     * "Message" = "NotificationsAcknowledged"
+     * "Index" = Same as requested
+     * "Amount" = The number of notifications which were deleted.
+     * 
+     * @see SubscriptionManager#acknowledgeNotifications(String, long) The underlying implementation
+     */
+    private SimpleFieldSet handleAcknowledgeNotifications(final PluginReplySender replySender, final SimpleFieldSet params)
+    		throws InvalidParameterException, FSParseException, UnknownClientException {
+    	
+    	getMandatoryParameter(params, "Index");
+    	final long index = params.getLong("Index");
+    	final int amount = mSubscriptionManager.acknowledgeNotifications(new ClientID(replySender).toString(), index);
+    	
+    	final SimpleFieldSet sfs = new SimpleFieldSet(true);
+    	sfs.putOverwrite("Message", "NotificationsAcknowledged");
+    	sfs.putOverwrite("Index", Long.toString(index));
+    	sfs.putOverwrite("Amount", Integer.toString(amount));
+    	return sfs;
+    }
+    
     public void sendUnsubscribedMessage(final String fcpID,
     		final Class<Subscription<? extends Notification>> clazz, final String subscriptionID) throws PluginNotFoundException {
     	mClientTrackerDaemon.get(fcpID).send(handleUnsubscribe(clazz, subscriptionID));
@@ -1224,55 +1723,245 @@ public final class FCPInterface implements FredPluginFCP {
     	return sfs;
     }
     
-    public void sendAllIdentities(String fcpID) throws FCPCallFailedException, PluginNotFoundException {
-    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleGetIdentities(null), null);
+    /**
+     * Sends the synchronization message of a {@link Subscription} in chunks of a bounded number of objects, each as a separate
+     * synchronous FCP message. The messages have the same format as the single synchronization message, for example
+     * "Message" = "Identities" with "Identities.Amount" and "Identities.0.*" etc., with the following additional fields:
+     * "SequenceNumber" = The number of the chunk, starting at 0.
+     * "Final" = "true" for the last chunk, "false" otherwise. The last chunk may contain no objects.
+     * 
+     * The number of the objects in the fields restarts at 0 in each chunk.
+     * If the client replies with failure to any chunk, the following chunks are not sent and the {@link FCPCallFailedException}
+     * is thrown to the caller, which makes the subscription fail. The client must then discard the chunks which it has received.
+     * 
+     * This avoids holding the whole dataset in memory in a single {@link SimpleFieldSet}, which can be hundreds of megabytes for
+     * the {@link Score}s of a large database. It does not lock the {@link WebOfTrust}, so it is not blocked while the client
+     * processes the chunks.
+     * The caller must synchronize on the {@link SubscriptionManager} for the whole synchronization: Identities, trusts and
+     * scores are only modified while holding its lock because the {@link Notification}s of the changes must be stored in the same
+     * transaction. Thus none of them can change between the chunks, and the synchronization is consistent with the notifications
+     * which the client receives after it.
+     * 
+     * If the chunk size is 0, all objects are sent in a single message without "SequenceNumber" and "Final", for clients which do
+     * not support chunking.
+     * 
+     * Usage: Call {@link #sendAll()}.
+     */
+    private abstract class ChunkedSynchronizationSender<T> {
+    	
+    	private final PluginReplySender mReplySender;
+    	
+    	/** "Identities" / "Trusts" / "Scores" */
+    	private final String mMessageName;
+    	
+    	/** 0 if the objects shall be sent in a single message. */
+    	private final int mChunkSize;
+    	
+    	ChunkedSynchronizationSender(final String fcpID, final String messageName, final int chunkSize) throws PluginNotFoundException {
+    		mReplySender = mClientTrackerDaemon.get(fcpID);
+    		mMessageName = messageName;
+    		mChunkSize = Math.max(chunkSize, 0);
+    	}
+    	
+    	/**
+    	 * Must query the objects of the synchronization. Must not synchronize on the {@link WebOfTrust}.
+    	 */
+    	abstract Iterable<T> getObjects();
+    	
+    	/**
+    	 * Must add the fields of the given object to the chunk if it matches the filter of the subscription.
+    	 * @param index The number of the object within the chunk.
+    	 * @return True if the object was added, false if it does not match the filter.
+    	 */
+    	abstract boolean addFields(SimpleFieldSet chunk, T object, int index);
+    	
+    	void sendAll() throws FCPCallFailedException, PluginNotFoundException {
+    		final Iterator<T> objects = getObjects().iterator();
+    		
+    		int sequenceNumber = 0;
+    		boolean isFinal;
+    		do {
+    			final SimpleFieldSet chunk = new SimpleFieldSet(true);
+    			int amount = 0;
+    			
+    			while((mChunkSize == 0 || amount < mChunkSize) && objects.hasNext()) {
+    				if(addFields(chunk, objects.next(), amount))
+    					++amount;
+    			}
+    			isFinal = !objects.hasNext();
+    			
+    			chunk.putOverwrite("Message", mMessageName);
+    			if(mChunkSize != 0) {
+    				chunk.put("SequenceNumber", sequenceNumber);
+    				chunk.put("Final", isFinal);
+    			}
+    			// Need to use Overwrite because addFields() might set it to 1
+    			chunk.putOverwrite(mMessageName + ".Amount", Integer.toString(amount));
+    			
+    			mReplySender.sendSynchronous(chunk, null);
+    			++sequenceNumber;
+    		} while(!isFinal);
+    	}
     }
     
-    public void sendAllTrustValues(String fcpID) throws FCPCallFailedException, PluginNotFoundException {
-    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleGetTrusts(null), null);
+    /**
+     * You must synchronize on the {@link SubscriptionManager} when calling this, see {@link ChunkedSynchronizationSender}.
+     * 
+     * @param subscription Only identities which match its {@link Subscription#getFilter()} are sent, and only the fields of its
+     * 	{@link IdentitiesSubscription#getIdentityFields()}.
+     * @param chunkSize If above 0, the identities are sent in chunks, see {@link ChunkedSynchronizationSender}. If 0, they are sent
+     * 	in a single message.
+     */
+    public void sendAllIdentities(String fcpID, IdentitiesSubscription subscription, int chunkSize) throws FCPCallFailedException, PluginNotFoundException {
+    	final SubscriptionFilter filter = subscription.getFilter();
+    	final Set<IdentityField> fields = parseIdentityFields(subscription);
+    	
+    	new ChunkedSynchronizationSender<Identity>(fcpID, "Identities", chunkSize) {
+    		@Override Iterable<Identity> getObjects() {
+    			return mWoT.getAllIdentities();
+    		}
+    		
+    		@Override boolean addFields(SimpleFieldSet chunk, Identity identity, int index) {
+    			if(!filter.matches(identity))
+    				return false;
+    			
+    			addIdentityFields(chunk, identity, "Identities." + Integer.toString(index) + ".", "", fields);
+    			return true;
+    		}
+    	}.sendAll();
     }
     
-    public void sendAllScoreValues(String fcpID) throws FCPCallFailedException, PluginNotFoundException{
-    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleGetScores(null), null);
+    /**
+     * You must synchronize on the {@link SubscriptionManager} when calling this, see {@link ChunkedSynchronizationSender}.
+     * 
+     * @param chunkSize If above 0, the trusts are sent in chunks, see {@link ChunkedSynchronizationSender}. If 0, they are sent
+     * 	in a single message.
+     */
+    public void sendAllTrustValues(String fcpID, int chunkSize) throws FCPCallFailedException, PluginNotFoundException {
+    	new ChunkedSynchronizationSender<Trust>(fcpID, "Trusts", chunkSize) {
+    		@Override Iterable<Trust> getObjects() {
+    			return mWoT.getAllTrusts();
+    		}
+    		
+    		@Override boolean addFields(SimpleFieldSet chunk, Trust trust, int index) {
+    			handleGetTrust(chunk, trust, Integer.toString(index));
+    			return true;
+    		}
+    	}.sendAll();
+    }
+    
+    /**
+     * You must synchronize on the {@link SubscriptionManager} when calling this, see {@link ChunkedSynchronizationSender}.
+     * 
+     * @param filter Only scores which {@link SubscriptionFilter#matches(Score)} are sent.
+     * @param chunkSize If above 0, the scores are sent in chunks, see {@link ChunkedSynchronizationSender}. If 0, they are sent
+     * 	in a single message.
+     */
+    public void sendAllScoreValues(String fcpID, final SubscriptionFilter filter, int chunkSize) throws FCPCallFailedException, PluginNotFoundException{
+    	new ChunkedSynchronizationSender<Score>(fcpID, "Scores", chunkSize) {
+    		@Override Iterable<Score> getObjects() {
+    			return getScoreCandidates(filter);
+    		}
+    		
+    		@Override boolean addFields(SimpleFieldSet chunk, Score score, int index) {
+    			if(!filter.matches(score))
+    				return false;
+    			
+    			handleGetScore(chunk, score, Integer.toString(index));
+    			return true;
+    		}
+    	}.sendAll();
     }
     
     /**
      * @see SubscriptionManager.IdentityChangedNotification
      */
     public void sendIdentityChangedNotification(final String fcpID, final IdentityChangedNotification notification) throws FCPCallFailedException, PluginNotFoundException {
-    	final SimpleFieldSet oldIdentity = handleGetIdentity((Identity)notification.getOldObject(), null);
-    	final SimpleFieldSet newIdentity = handleGetIdentity((Identity)notification.getNewObject(), null);
-    	
-    	sendChangeNotification(fcpID, "IdentityChangedNotification", oldIdentity, newIdentity);
+    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleChangeNotification(notification), null);
     }
     
     /**
      * @see SubscriptionManager.TrustChangedNotification
      */
     public void sendTrustChangedNotification(String fcpID, final TrustChangedNotification notification) throws FCPCallFailedException, PluginNotFoundException {
-    	final SimpleFieldSet oldTrust = handleGetTrust(new SimpleFieldSet(true), (Trust)notification.getOldObject(), "0");
-    	final SimpleFieldSet newTrust = handleGetTrust(new SimpleFieldSet(true), (Trust)notification.getNewObject(), "0");
-
-    	sendChangeNotification(fcpID, "TrustChangedNotification", oldTrust, newTrust);
+    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleChangeNotification(notification), null);
     }
     
     /** 
      * @see SubscriptionManager.ScoreChangedNotification
      */
     public void sendScoreChangedNotification(String fcpID, final ScoreChangedNotification notification) throws FCPCallFailedException, PluginNotFoundException {
-    	final SimpleFieldSet oldScore = handleGetScore(new SimpleFieldSet(true), (Score)notification.getOldObject(), "0");
-    	final SimpleFieldSet newScore = handleGetScore(new SimpleFieldSet(true), (Score)notification.getNewObject(), "0");
-
-    	sendChangeNotification(fcpID, "ScoreChangedNotification", oldScore, newScore);
+    	mClientTrackerDaemon.get(fcpID).sendSynchronous(handleChangeNotification(notification), null);
+    }
+    
+    /**
+     * Sends multiple {@link Notification}s to the client in a single message. Used for clients which specified a
+     * "NotificationBatchSize" in their "Subscribe" message, see {@link #handleSubscribe(PluginReplySender, SimpleFieldSet)}.
+     * 
+     * The message is formatted as:
+     * "Message" = "ChangeNotificationBatch"
+     * "Notifications.Amount" = The number of notifications in the batch.
+     * "Notifications.0.Message" = "IdentityChangedNotification" or "TrustChangedNotification" or "ScoreChangedNotification"
+     * "Notifications.0.Index" = The index of the notification in the queue of the client. Increases with each notification.
+     * "Notifications.0.BeforeChange" / "Notifications.0.AfterChange" = Same as in the separate notification messages, see
+     * {@link #sendIdentityChangedNotification(String, IdentityChangedNotification)} etc.
+     * "Notifications.1.Message" = ...
+     * 
+     * The notifications must be processed in the order of their number. The message is sent with the <b>synchronous</b> FCP API:
+     * Replying with success acknowledges all notifications of the batch. Replying with failure causes the batch to be re-sent, apart
+     * from the notifications which you have acknowledged with an "AcknowledgeNotifications" message meanwhile, see
+     * {@link #handleAcknowledgeNotifications(PluginReplySender, SimpleFieldSet)}.
+     * 
+     * @param notifications Must be in the order of the queue of the client.
+     */
+    public void sendChangeNotificationBatch(final String fcpID, final List<? extends Notification> notifications) throws FCPCallFailedException, PluginNotFoundException {
+    	final SimpleFieldSet batch = new SimpleFieldSet(true);
+    	
+    	int i = 0;
+    	for(final Notification notification : notifications) {
+    		final SimpleFieldSet entry = handleChangeNotification(notification);
+    		entry.putOverwrite("Index", Long.toString(notification.getIndex()));
+    		batch.put(Integer.toString(i), entry);
+    		++i;
+    	}
+    	batch.putOverwrite("Amount", Integer.toString(i));
+    	
+    	final SimpleFieldSet sfs = new SimpleFieldSet(true);
+    	sfs.putOverwrite("Message", "ChangeNotificationBatch");
+    	sfs.put("Notifications", batch);
+    	
+    	mClientTrackerDaemon.get(fcpID).sendSynchronous(sfs, null);
     }
     
-    private void sendChangeNotification(final String fcpID, final String message, final SimpleFieldSet beforeChange, final SimpleFieldSet afterChange) throws FCPCallFailedException, PluginNotFoundException {
+    /**
+     * @return The message which describes a single {@link Notification}: "Message", "BeforeChange" and "AfterChange".
+     */
+    private SimpleFieldSet handleChangeNotification(final Notification notification) {
+    	final String message;
+    	final SimpleFieldSet beforeChange;
+    	final SimpleFieldSet afterChange;
+    	
+    	if(notification instanceof IdentityChangedNotification) {
+    		message = "IdentityChangedNotification";
+    		final Set<IdentityField> fields = parseIdentityFields((IdentitiesSubscription)notification.getSubscription());
+    		beforeChange = handleGetIdentity((Identity)notification.getOldObject(), null, fields);
+    		afterChange = handleGetIdentity((Identity)notification.getNewObject(), null, fields);
+    	} else if(notification instanceof TrustChangedNotification) {
+    		message = "TrustChangedNotification";
+    		beforeChange = handleGetTrust(new SimpleFieldSet(true), (Trust)notification.getOldObject(), "0");
+    		afterChange = handleGetTrust(new SimpleFieldSet(true), (Trust)notification.getNewObject(), "0");
+    	} else if(notification instanceof ScoreChangedNotification) {
+    		message = "ScoreChangedNotification";
+    		beforeChange = handleGetScore(new SimpleFieldSet(true), (Score)notification.getOldObject(), "0");
+    		afterChange = handleGetScore(new SimpleFieldSet(true), (Score)notification.getNewObject(), "0");
+    	} else
+    		throw new UnsupportedOperationException("Unknown notification type: " + notification);
+    	
     	final SimpleFieldSet sfs = new SimpleFieldSet(true);
-    	sfs.putOverwrite("Message", message);;
+    	sfs.putOverwrite("Message", message);
     	sfs.put("BeforeChange", beforeChange);
     	sfs.put("AfterChange", afterChange);
-    	
-    	mClientTrackerDaemon.get(fcpID).sendSynchronous(sfs, null);
+    	return sfs;
     }
     
     private SimpleFieldSet handlePing() {
@@ -331,12 +331,12 @@ public class KnownIdentitiesPage extends WebPageImpl {
 			// Nb Trusters
 			HTMLNode trustersCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
 			trustersCell.addChild(new HTMLNode("a", "href", identitiesPageURI + "?id="+id.getID(),
-					Long.toString(wot.getReceivedTrusts(id).size())));
+					Long.toString(wot.getReceivedTrustCount(id))));
 			
 			// Nb Trustees
 			HTMLNode trusteesCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
 			trusteesCell.addChild(new HTMLNode("a", "href", identitiesPageURI + "?id="+id.getID(),
-					Long.toString(wot.getGivenTrusts(id).size())));
+					Long.toString(wot.getGivenTrustCount(id))));
 			
 			// TODO: Show in advanced mode only once someone finally fixes the "Switch to advanced mode" link on FProxy to work on ALL pages.
 			
@@ -153,7 +153,7 @@ public class OwnIdentitiesPage extends WebPageImpl {
 				
 				// TODO: Do a direct link to the received-trusts part of the linked page
 				HTMLNode trustersCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
-				String trustersString = Long.toString(wot.getReceivedTrusts(id).size());
+				String trustersString = Long.toString(wot.getReceivedTrustCount(id));
 				if(restoreInProgress)
 					trustersCell.addChild("#", trustersString);
 				else
@@ -161,7 +161,7 @@ public class OwnIdentitiesPage extends WebPageImpl {
 				
 				// TODO: Do a direct link to the given-trusts part of the linked page
 				HTMLNode trusteesCell = row.addChild("td", new String[] { "align" }, new String[] { "center" });
-				String trusteesString = Long.toString(wot.getGivenTrusts(id).size());
+				String trusteesString = Long.toString(wot.getGivenTrustCount(id));
 				if(restoreInProgress)
 					trusteesCell.addChild("#", trusteesString);
 				else
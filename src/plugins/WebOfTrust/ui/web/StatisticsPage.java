@@ -4,7 +4,10 @@
 package plugins.WebOfTrust.ui.web;
 
 import plugins.WebOfTrust.IdentityFetcher;
+import plugins.WebOfTrust.SubscriptionManager;
+import plugins.WebOfTrust.introduction.IntroductionPuzzlePool;
 import plugins.WebOfTrust.introduction.IntroductionPuzzleStore;
+import plugins.WebOfTrust.introduction.IntroductionServer;
 import freenet.clients.http.RedirectException;
 import freenet.clients.http.SessionManager.Session;
 import freenet.clients.http.ToadletContext;
@@ -42,10 +45,10 @@ public class StatisticsPage extends WebPageImpl {
 		HTMLNode list = new HTMLNode("ul");
 		
 		synchronized(wot) {
-		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.OwnIdentities") + ": " + wot.getAllOwnIdentities().size()));
-		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.KnownIdentities") + ": " + wot.getAllNonOwnIdentities().size()));
-		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.TrustRelationships") + ": " + wot.getAllTrusts().size()));
-		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.ScoreRelationships") + ": " + wot.getAllScores().size()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.OwnIdentities") + ": " + wot.getOwnIdentityCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.KnownIdentities") + ": " + wot.getNonOwnIdentityCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.TrustRelationships") + ": " + wot.getTrustCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.ScoreRelationships") + ": " + wot.getScoreCount()));
 		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.FullRecomputations") + ": " + wot.getNumberOfFullScoreRecomputations()));
 		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.FullRecomputationTime") + ": " + wot.getAverageFullScoreRecomputationTime()));
 		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.IncrementalRecomputations") + ": " + wot.getNumberOfIncrementalScoreRecomputations()));
@@ -60,6 +63,15 @@ public class StatisticsPage extends WebPageImpl {
 		}
 		}
 		
+		// The pool does not use the lock of the puzzle store: Its workers render the puzzles without holding it.
+		IntroductionServer introductionServer = wot.getIntroductionServer();
+		if(introductionServer != null) {
+			IntroductionPuzzlePool puzzlePool = introductionServer.getPuzzlePool();
+			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.RenderedCaptchas") + ": " + puzzlePool.getGeneratedCount()));
+			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.PooledCaptchas") + ": " + puzzlePool.size()));
+			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.AverageCaptchaGenerationTime") + ": " + puzzlePool.getAverageGenerationTime()));
+		}
+		
 		IdentityFetcher fetcher = wot.getIdentityFetcher();
 		synchronized(fetcher) {
 			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.FetchedIdentities") + ": " + fetcher.getFetchedCount()));
@@ -67,6 +79,20 @@ public class StatisticsPage extends WebPageImpl {
 			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.AverageIdentityImportTime") + ": " + fetcher.getAverageXMLImportTime()));
 		}
 		
+		// The statistics of the SubscriptionManager do not need its lock. Taking it would block while it is deploying notifications.
+		// getClientStatistics() only takes it for copying the values.
+		SubscriptionManager subscriptionManager = wot.getSubscriptionManager();
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.StoredNotifications") + ": " + subscriptionManager.getStoredNotificationCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.CoalescedNotifications") + ": " + subscriptionManager.getCoalescedNotificationCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.SentNotifications") + ": " + subscriptionManager.getSentNotificationCount()));
+		list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.AverageNotificationDeliveryTime") + ": " + subscriptionManager.getAverageNotificationDeliveryTime()));
+		for(SubscriptionManager.ClientStatistics client : subscriptionManager.getClientStatistics()) {
+			list.addChild(new HTMLNode("li", l10n().getString("StatisticsPage.SummaryBox.NotificationClient",
+					new String[] { "client", "queued", "delivered", "averageTime", "maxTime" },
+					new String[] { client.fcpID, Long.toString(client.queueDepth), Long.toString(client.deliveredCount),
+							Long.toString(client.averageDeliveryTime), Long.toString(client.maxDeliveryTime) })));
+		}
+		
 		box.addChild(list);
 	}
 }
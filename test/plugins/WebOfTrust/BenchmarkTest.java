@@ -15,6 +15,8 @@ import plugins.WebOfTrust.exceptions.NotTrustedException;
  * Also, this is NOT run in the default test suite which is run by Ant when building.
  * To run it, put "benchmark=true" into the "override.properties" build confiugration file. If it does not exist, create it in the root of the project.
  * 
+ * For reproducible measurements use the JMH benchmarks in the "benchmark" directory instead. They are run by "ant jmh".
+ * 
  * @author xor (xor@freenetproject.org)
  */
 public class BenchmarkTest extends DatabaseBasedTest {
@@ -28,7 +28,6 @@ import com.db4o.ObjectSet;
 import freenet.crypt.DummyRandomSource;
 import freenet.crypt.RandomSource;
 import freenet.keys.FreenetURI;
-import freenet.keys.InsertableClientSSK;
 
 /**
  * A JUnit <code>TestCase</code> which opens a db4o database in setUp() and closes it in tearDown().
@@ -49,6 +48,9 @@ public class DatabaseBasedTest extends TestCase {
 	protected WebOfTrust mWoT;
 	
 	protected RandomSource mRandom;
+	
+	/** Uses {@link #mRandom}. */
+	protected RandomWebOfTrustGenerator mGenerator;
 
 	/**
 	 * @return Returns the filename of the database. This is the name of the current test function plus ".db4o".
@@ -75,6 +77,7 @@ public class DatabaseBasedTest extends TestCase {
 		long seed = random.nextLong();
 		mRandom = new DummyRandomSource(seed);
 		System.out.println(this + " Random seed: " + seed);
+		mGenerator = new RandomWebOfTrustGenerator(mWoT, mRandom);
 	}
 
 	/**
@@ -137,116 +140,45 @@ public class DatabaseBasedTest extends TestCase {
 	}
 	
 	/**
-	 * Generates a String containing random characters of the lowercase Latin alphabet.
-	 * @param The length of the returned string.
+	 * @see RandomWebOfTrustGenerator#getRandomLatinString(int)
 	 */
 	protected String getRandomLatinString(int length) {
-		char[] s = new char[length];
-		for(int i=0; i<length; ++i)
-			s[i] = (char)('a' + mRandom.nextInt(26));
-		return new String(s);
+		return mGenerator.getRandomLatinString(length);
 	}
 	
 	/**
-	 * Returns a normally distributed value with a bias towards positive trust values.
-	 * TODO: Remove this bias once trust computation is equally fast for negative values;
-	 */
-	private byte getRandomTrustValue() {
-		final double trustRange = Trust.MAX_TRUST_VALUE - Trust.MIN_TRUST_VALUE + 1;
-		long result;
-		do {
-			result = Math.round(mRandom.nextGaussian()*(trustRange/2) + (trustRange/3));
-		} while(result < Trust.MIN_TRUST_VALUE || result > Trust.MAX_TRUST_VALUE);
-		
-		return (byte)result;
-	}
-	
-	/**
-	 * Generates a random SSK request-/insert-keypair, suitable for being used when creating identities.
-	 * @return An array where slot 0 is the insert URI and slot 1 is the request URI
+	 * @see RandomWebOfTrustGenerator#getRandomSSKPair()
 	 */
 	protected FreenetURI[] getRandomSSKPair() {
-		InsertableClientSSK ssk = InsertableClientSSK.createRandom(mRandom, "");
-		return new FreenetURI[]{ ssk.getInsertURI(), ssk.getURI() };
+		return mGenerator.getRandomSSKPair();
 	}
 	
 	/**
-	 * Generates a random SSK request URI, suitable for being used when creating identities.
+	 * @see RandomWebOfTrustGenerator#getRandomRequestURI()
 	 */
 	protected FreenetURI getRandomRequestURI() {
-		return InsertableClientSSK.createRandom(mRandom, "").getURI();
+		return mGenerator.getRandomRequestURI();
 	}
 	
 	/**
-	 * Adds identities with random request URIs to the database.
-	 * Their state will be as if they have never been fetched: They won't have a nickname, edition will be 0, etc.
-	 * 
-	 * TODO: Make sure that this function also adds random contexts & publish trust list flags.
-	 * 
-	 * @param count Amount of identities to add
-	 * @return An {@link ArrayList} which contains all added identities.
+	 * @see RandomWebOfTrustGenerator#addRandomIdentities(int)
 	 */
 	protected ArrayList<Identity> addRandomIdentities(int count) {
-		ArrayList<Identity> result = new ArrayList<Identity>(count+1);
-		
-		while(count-- > 0) {
-			try {
-				result.add(mWoT.addIdentity(getRandomRequestURI().toString()));
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		}
-		
-		return result;
+		return mGenerator.addRandomIdentities(count);
 	}
 	
+	/**
+	 * @see RandomWebOfTrustGenerator#addRandomOwnIdentities(int)
+	 */
 	protected ArrayList<OwnIdentity> addRandomOwnIdentities(int count) throws MalformedURLException, InvalidParameterException {
-		ArrayList<OwnIdentity> result = new ArrayList<OwnIdentity>(count+1);
-		
-		while(count-- > 0) {
-			final OwnIdentity ownIdentity = mWoT.createOwnIdentity(getRandomSSKPair()[0], getRandomLatinString(Identity.MAX_NICKNAME_LENGTH), mRandom.nextBoolean(), getRandomLatinString(Identity.MAX_CONTEXT_NAME_LENGTH));
-			result.add(ownIdentity); 
-		}
-		
-		return result;
-		
+		return mGenerator.addRandomOwnIdentities(count);
 	}
 	
 	/**
-	 * ATTENTION: Its impossible to store more trust values than the amount of identities squared: There can only be a single trust value
-	 * between each pair of identities. The amount of such pairs is identities². If you specify a trustCount which is higher than this 
-	 * value then this function will run into an infinite loop.
-	 * 
-	 * TODO: Adapt this to respect {@link Identity#doesPublishTrustList()}. First you need to adapt the callers of this function to actually
-	 * use identities which have set this to true - most callers generate identities with the default value which is false.
+	 * @see RandomWebOfTrustGenerator#addRandomTrustValues(ArrayList, int)
 	 */
 	protected void addRandomTrustValues(final ArrayList<Identity> identities, final int trustCount) throws InvalidParameterException {
-		final int identityCount = identities.size();
-		
-		mWoT.beginTrustListImport();
-		for(int i=0; i < trustCount; ++i) {
-			Identity truster = identities.get(mRandom.nextInt(identityCount));
-			Identity trustee = identities.get(mRandom.nextInt(identityCount));
-			
-			if(truster == trustee) { // You cannot assign trust to yourself
-				--i;
-				continue;
-			}
-			
-			try {
-				// Only one trust value can exist between a given pair of identities:
-				// We are bound to generate an amount of trustCount values,
-				// so we have to check whether this pair of identities already has a trust.
-				mWoT.getTrust(truster, trustee);
-				--i;
-				continue;
-			} catch(NotTrustedException e) {}
-			
-			
-			mWoT.setTrustWithoutCommit(truster, trustee, getRandomTrustValue(), getRandomLatinString(mRandom.nextInt(Trust.MAX_TRUST_COMMENT_LENGTH+1)));
-		}
-		mWoT.finishTrustListImport();
-		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		mGenerator.addRandomTrustValues(identities, trustCount);
 	}
 	
 	protected void doRandomChangesToWOT(int eventCount) throws DuplicateTrustException, NotTrustedException, InvalidParameterException, UnknownIdentityException, MalformedURLException {
@@ -358,7 +290,7 @@ public class DatabaseBasedTest extends TestCase {
 						} while(truster == trustee);
 						
 						mWoT.beginTrustListImport();
-						mWoT.setTrustWithoutCommit(truster, trustee, getRandomTrustValue(), getRandomLatinString(Trust.MAX_TRUST_COMMENT_LENGTH));
+						mWoT.setTrustWithoutCommit(truster, trustee, mGenerator.getRandomTrustValue(), getRandomLatinString(Trust.MAX_TRUST_COMMENT_LENGTH));
 						mWoT.finishTrustListImport();
 						Persistent.checkedCommit(mWoT.getDatabase(), this);
 						
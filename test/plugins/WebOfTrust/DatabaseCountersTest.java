@@ -0,0 +1,159 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.ArrayList;
+
+/**
+ * Tests whether the {@link DatabaseCounters} which are used by the count functions of {@link WebOfTrust} stay consistent with
+ * the database across commits and rollbacks.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public class DatabaseCountersTest extends DatabaseBasedTest {
+
+	private OwnIdentity mTruster;
+	private Identity mTrustee;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final ArrayList<OwnIdentity> ownIdentities = addRandomOwnIdentities(1);
+		mTruster = ownIdentities.get(0);
+		mTrustee = addRandomIdentities(1).get(0);
+	}
+
+	private void assertCountersMatchDatabase() {
+		assertEquals(mWoT.getAllOwnIdentities().size(), mWoT.getOwnIdentityCount());
+		assertEquals(mWoT.getAllNonOwnIdentities().size(), mWoT.getNonOwnIdentityCount());
+		assertEquals(mWoT.getAllTrusts().size(), mWoT.getTrustCount());
+		assertEquals(mWoT.getAllScores().size(), mWoT.getScoreCount());
+
+		for(Identity identity : new Identity[] { mTruster, mTrustee }) {
+			assertEquals(mWoT.getGivenTrusts(identity).size(), mWoT.getGivenTrustCount(identity));
+			assertEquals(mWoT.getReceivedTrusts(identity).size(), mWoT.getReceivedTrustCount(identity));
+
+			for(int select = -1; select <= 1; ++select) {
+				assertEquals(mWoT.getGivenTrusts(identity, select).size(), mWoT.getGivenTrustCount(identity, select));
+				assertEquals(mWoT.getReceivedTrusts(identity, select).size(), mWoT.getReceivedTrustCount(identity, select));
+			}
+		}
+		
+		assertTrue(mWoT.verifyDatabaseCounters());
+	}
+
+	public void testCommit() throws Exception {
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getTrustCount());
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		assertEquals(1, mWoT.getTrustCount());
+		assertEquals(1, mWoT.getReceivedTrustCount(mTrustee, 1));
+
+		// Change the sign of the value
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)-50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getReceivedTrustCount(mTrustee, 1));
+		assertEquals(1, mWoT.getReceivedTrustCount(mTrustee, -1));
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)0, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		assertEquals(1, mWoT.getGivenTrustCount(mTruster, 0));
+
+		mWoT.removeTrustWithoutCommit(mWoT.getTrust(mTruster, mTrustee));
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getTrustCount());
+
+		addRandomIdentities(3);
+		assertCountersMatchDatabase();
+	}
+
+	public void testRollback() throws Exception {
+		assertCountersMatchDatabase();
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		assertEquals(1, mWoT.getTrustCount());
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getTrustCount());
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)-50, "");
+		assertEquals(1, mWoT.getGivenTrustCount(mTruster, -1));
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		mTruster = mWoT.getOwnIdentityByID(mTruster.getID());
+		mTrustee = mWoT.getIdentityByID(mTrustee.getID());
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getGivenTrustCount(mTruster, -1));
+	}
+
+	public void testRollbackAfterValueChange() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		
+		// The counters must not change before the changed trust is stored.
+		final Trust trust = mWoT.getTrust(mTruster, mTrustee);
+		trust.setValue((byte)-50);
+		assertEquals(1, mWoT.getGivenTrustCount(mTruster, 1));
+		assertEquals(0, mWoT.getGivenTrustCount(mTruster, -1));
+		
+		trust.storeWithoutCommit();
+		assertEquals(0, mWoT.getGivenTrustCount(mTruster, 1));
+		assertEquals(1, mWoT.getReceivedTrustCount(mTrustee, -1));
+		
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		mTruster = mWoT.getOwnIdentityByID(mTruster.getID());
+		mTrustee = mWoT.getIdentityByID(mTrustee.getID());
+		assertCountersMatchDatabase();
+		assertEquals(1, mWoT.getTrustCount());
+		assertEquals(1, mWoT.getGivenTrustCount(mTruster, 1));
+		assertEquals(0, mWoT.getReceivedTrustCount(mTrustee, -1));
+	}
+	
+	public void testDeleteAfterValueChange() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		
+		// The counters must decrement the stored value, not the changed one.
+		final Trust trust = mWoT.getTrust(mTruster, mTrustee);
+		trust.setValue((byte)-50);
+		mWoT.removeTrustWithoutCommit(trust);
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getGivenTrustCount(mTruster));
+	}
+	
+	public void testInitializeBeforeRollback() throws Exception {
+		// Counters which were committed before being cleared must not be restored by the first rollback after initializing them.
+		assertCountersMatchDatabase();
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		mWoT.getDatabaseCounters().clear();
+		assertEquals(0, mWoT.getTrustCount());
+		
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertCountersMatchDatabase();
+		assertEquals(0, mWoT.getTrustCount());
+	}
+	
+	public void testCountedWithinTransaction() throws Exception {
+		// The counters are computed while an uncommitted trust exists, they must be discarded by the rollback.
+		mWoT.getDatabaseCounters().clear();
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		assertEquals(1, mWoT.getTrustCount());
+		assertEquals(1, mWoT.getReceivedTrustCount(mTrustee));
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertCountersMatchDatabase();
+	}
+}
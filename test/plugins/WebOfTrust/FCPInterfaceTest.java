@@ -0,0 +1,337 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+import plugins.WebOfTrust.SubscriptionManagerFCPTest.ReplyReceiver;
+import plugins.WebOfTrust.exceptions.InvalidParameterException;
+import plugins.WebOfTrust.exceptions.UnknownIdentityException;
+import plugins.WebOfTrust.ui.fcp.FCPInterface;
+import freenet.support.SimpleFieldSet;
+
+/**
+ * Tests the replies of the query messages of the {@link FCPInterface}. The subscriptions are tested by
+ * {@link SubscriptionManagerFCPTest}.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class FCPInterfaceTest extends DatabaseBasedTest {
+
+	private FCPInterface mFCPInterface;
+
+	private ReplyReceiver mReplyReceiver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFCPInterface = mWoT.getFCPInterface();
+		mReplyReceiver = new ReplyReceiver();
+	}
+
+	/**
+	 * Sends the given message to the FCP interface and returns the single reply.
+	 */
+	private SimpleFieldSet fcpCall(final SimpleFieldSet params) {
+		mFCPInterface.handle(mReplyReceiver, params, null, 0);
+		final SimpleFieldSet result = mReplyReceiver.getNextResult();
+		assertFalse(mReplyReceiver.hasNextResult());
+		return result;
+	}
+
+	/**
+	 * Sends the given "Subscribe" message and returns the last reply, which is "Subscribed" or "Error". The messages of the
+	 * synchronization before it are skipped.
+	 */
+	private SimpleFieldSet subscribe(final ReplyReceiver replyReceiver, final String to, final String contextFilter) {
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "Subscribe");
+		sfs.putOverwrite("To", to);
+		if(contextFilter != null)
+			sfs.putOverwrite("Filter.Context", contextFilter);
+
+		mFCPInterface.handle(replyReceiver, sfs, null, 0);
+		SimpleFieldSet result;
+		do {
+			result = replyReceiver.getNextResult();
+		} while(replyReceiver.hasNextResult());
+		return result;
+	}
+
+	/**
+	 * Creates an {@link OwnIdentity} with exactly one context and one property: It does not publish its trust list, so it does not
+	 * get the introduction context and the puzzle count property.
+	 */
+	private OwnIdentity addOwnIdentityWithProperty() throws MalformedURLException, InvalidParameterException, UnknownIdentityException {
+		final OwnIdentity identity = mWoT.createOwnIdentity(getRandomSSKPair()[0], "Nickname", false, "Context");
+		mWoT.setProperty(identity.getID(), "Key", "Value");
+		return mWoT.getOwnIdentityByID(identity.getID());
+	}
+
+	/**
+	 * Tests whether "GetIdentity" without "Fields" still returns all fields including the ones for old clients.
+	 */
+	public void testGetIdentityAllFields() throws Exception {
+		final OwnIdentity identity = addOwnIdentityWithProperty();
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetIdentity");
+		sfs.putOverwrite("Identity", identity.getID());
+		final SimpleFieldSet reply = fcpCall(sfs);
+
+		assertEquals("Identity", reply.get("Message"));
+		assertEquals(identity.getNickname(), reply.get("Identities.0.Nickname"));
+		assertEquals(identity.getRequestURI().toString(), reply.get("Identities.0.RequestURI"));
+		assertEquals(identity.getInsertURI().toString(), reply.get("Identities.0.InsertURI"));
+		assertEquals("1", reply.get("Identities.0.Contexts.Amount"));
+		assertEquals("1", reply.get("Identities.0.Properties.Amount"));
+		assertEquals("Value", reply.get("Identities.0.Properties.0.Value"));
+
+		// Legacy fields
+		assertEquals(identity.getNickname(), reply.get("Nickname"));
+		assertEquals(identity.getNickname(), reply.get("Nickname0"));
+		assertEquals(identity.getID(), reply.get("Identities.0.Identity"));
+	}
+
+	/**
+	 * Tests whether "GetIdentity" with "Fields" returns only the selected fields plus the type and the ID, and no legacy fields.
+	 */
+	public void testGetIdentitySelectedFields() throws Exception {
+		final OwnIdentity identity = addOwnIdentityWithProperty();
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetIdentity");
+		sfs.putOverwrite("Identity", identity.getID());
+		sfs.putOverwrite("Fields", "Nickname, Contexts");
+		final SimpleFieldSet reply = fcpCall(sfs);
+
+		assertEquals("Identity", reply.get("Message"));
+		assertEquals("OwnIdentity", reply.get("Identities.0.Type"));
+		assertEquals(identity.getID(), reply.get("Identities.0.ID"));
+		assertEquals(identity.getNickname(), reply.get("Identities.0.Nickname"));
+		assertEquals("1", reply.get("Identities.0.Contexts.Amount"));
+		assertEquals("Context", reply.get("Identities.0.Contexts.0.Name"));
+
+		assertNull(reply.get("Identities.0.RequestURI"));
+		assertNull(reply.get("Identities.0.InsertURI"));
+		assertNull(reply.get("Identities.0.PublishesTrustList"));
+		assertNull(reply.get("Identities.0.CurrentEditionFetchState"));
+		assertNull(reply.get("Identities.0.Properties.Amount"));
+		assertNull(reply.get("Identities.0.Properties.0.Value"));
+
+		assertNull(reply.get("Nickname"));
+		assertNull(reply.get("Nickname0"));
+		assertNull(reply.get("Identities.0.Identity"));
+	}
+
+	public void testGetOwnIdentitiesSelectedFields() throws Exception {
+		final OwnIdentity identity = addOwnIdentityWithProperty();
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetOwnIdentities");
+		sfs.putOverwrite("Fields", "InsertURI,Properties");
+		final SimpleFieldSet reply = fcpCall(sfs);
+
+		assertEquals("OwnIdentities", reply.get("Message"));
+		assertEquals("1", reply.get("Amount"));
+		assertEquals(identity.getID(), reply.get("Identity0"));
+		assertEquals(identity.getInsertURI().toString(), reply.get("InsertURI0"));
+		assertEquals("Value", reply.get("Properties0.Property0.Value"));
+		assertNull(reply.get("RequestURI0"));
+		assertNull(reply.get("Nickname0"));
+		assertNull(reply.get("Contexts0.Context0"));
+	}
+
+	public void testUnknownField() throws Exception {
+		final OwnIdentity identity = addRandomOwnIdentities(1).get(0);
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetIdentity");
+		sfs.putOverwrite("Identity", identity.getID());
+		sfs.putOverwrite("Fields", "Nickname,Foo");
+		final SimpleFieldSet reply = fcpCall(sfs);
+
+		assertEquals("Error", reply.get("Message"));
+		assertEquals("GetIdentity", reply.get("OriginalMessage"));
+	}
+
+	/**
+	 * Tests whether fetching the result of "GetIdentitiesByScore" in pages without a "SortOrder" returns each identity exactly once,
+	 * in the order of {@link WebOfTrust.SortOrder#ByNicknameAscending}.
+	 */
+	public void testGetIdentitiesByScorePaging() throws Exception {
+		final OwnIdentity truster = mWoT.createOwnIdentity(getRandomSSKPair()[0], "Truster", false, "Context");
+		for(Identity identity : addRandomIdentities(10)) {
+			identity.setNickname(getRandomLatinString(Identity.MAX_NICKNAME_LENGTH));
+			identity.storeAndCommit();
+			mWoT.setTrust(truster.getID(), identity.getID(), (byte)100, "");
+		}
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetIdentitiesByScore");
+		sfs.putOverwrite("Truster", truster.getID());
+		sfs.putOverwrite("Selection", "+");
+		sfs.putOverwrite("Context", "");
+		sfs.putOverwrite("SortOrder", "ByNicknameAscending");
+		final SimpleFieldSet sorted = fcpCall(sfs);
+		assertEquals("10", sorted.get("Identities.Amount"));
+
+		sfs.removeValue("SortOrder");
+		sfs.put("Limit", 3);
+		final ArrayList<String> pagedIDs = new ArrayList<String>();
+		for(int offset = 0; offset < 10; offset += 3) {
+			sfs.put("Offset", offset);
+			final SimpleFieldSet page = fcpCall(sfs);
+
+			final int amount = page.getInt("Identities.Amount");
+			assertEquals(Math.min(3, 10 - offset), amount);
+			assertEquals(Integer.toString(offset), page.get("Offset"));
+			assertEquals(offset + 3 < 10, page.getBoolean("HasMore"));
+
+			for(int i = 0; i < amount; ++i)
+				pagedIDs.add(page.get("Identities." + i + ".ID"));
+		}
+
+		assertEquals(10, pagedIDs.size());
+		for(int i = 0; i < 10; ++i)
+			assertEquals(sorted.get("Identities." + i + ".ID"), pagedIDs.get(i));
+	}
+
+	/**
+	 * Tests whether fetching the result of "GetTrustees" in pages returns each trustee exactly once, sorted by ID.
+	 */
+	public void testGetTrusteesPaging() throws Exception {
+		final OwnIdentity truster = mWoT.createOwnIdentity(getRandomSSKPair()[0], "Truster", false, "Context");
+		final ArrayList<String> expectedIDs = new ArrayList<String>();
+		for(Identity identity : addRandomIdentities(10)) {
+			mWoT.setTrust(truster.getID(), identity.getID(), (byte)100, "");
+			expectedIDs.add(identity.getID());
+		}
+		Collections.sort(expectedIDs);
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetTrustees");
+		sfs.putOverwrite("Identity", truster.getID());
+		sfs.putOverwrite("Context", "");
+		sfs.put("Limit", 3);
+		final ArrayList<String> pagedIDs = new ArrayList<String>();
+		for(int offset = 0; offset < 10; offset += 3) {
+			sfs.put("Offset", offset);
+			final SimpleFieldSet page = fcpCall(sfs);
+
+			final int amount = page.getInt("Amount");
+			assertEquals(Math.min(3, 10 - offset), amount);
+			assertEquals(offset + 3 < 10, page.getBoolean("HasMore"));
+
+			for(int i = 0; i < amount; ++i)
+				pagedIDs.add(page.get("Identity" + i));
+		}
+
+		assertEquals(expectedIDs, pagedIDs);
+	}
+
+	/**
+	 * Tests whether a malformed or negative "Offset" / "Limit" is rejected instead of being treated as the default.
+	 */
+	public void testMalformedPaging() throws Exception {
+		final OwnIdentity truster = mWoT.createOwnIdentity(getRandomSSKPair()[0], "Truster", false, "Context");
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "GetTrusters");
+		sfs.putOverwrite("Identity", truster.getID());
+		sfs.putOverwrite("Context", "");
+
+		for(String[] field : new String[][] { { "Offset", "abc" }, { "Offset", "-1" }, { "Limit", "1.5" }, { "Limit", "-3" } }) {
+			final SimpleFieldSet params = new SimpleFieldSet(sfs);
+			params.putOverwrite(field[0], field[1]);
+			final SimpleFieldSet reply = fcpCall(params);
+			assertEquals("Error", reply.get("Message"));
+			assertEquals("GetTrusters", reply.get("OriginalMessage"));
+		}
+	}
+
+	/**
+	 * Tests whether a client cannot combine an identities subscription with a context filter with a subscription to trusts or
+	 * scores, in both orders: The trust values and scores would reference identities which the client did not receive.
+	 */
+	public void testContextFilterWithTrustsOrScores() throws Exception {
+		addOwnIdentityWithProperty();
+
+		assertEquals("Subscribed", subscribe(mReplyReceiver, "Identities", "Context").get("Message"));
+		assertEquals("Error", subscribe(mReplyReceiver, "Trusts", null).get("Message"));
+		assertEquals("Error", subscribe(mReplyReceiver, "Scores", null).get("Message"));
+
+		final ReplyReceiver otherClient = new ReplyReceiver();
+		assertEquals("Subscribed", subscribe(otherClient, "Scores", null).get("Message"));
+		assertEquals("Error", subscribe(otherClient, "Identities", "Context").get("Message"));
+		assertEquals("Subscribed", subscribe(otherClient, "Identities", null).get("Message"));
+		assertEquals("Subscribed", subscribe(otherClient, "Trusts", null).get("Message"));
+	}
+
+	/**
+	 * Tests whether the synchronization of a subscription with a "SynchronizationChunkSize" contains each identity exactly once,
+	 * in chunks of at most that size with consecutive "SequenceNumber"s, of which only the last one is "Final".
+	 */
+	public void testChunkedSynchronization() throws Exception {
+		final ArrayList<Identity> identities = addRandomIdentities(5);
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "Subscribe");
+		sfs.putOverwrite("To", "Identities");
+		sfs.put("SynchronizationChunkSize", 2);
+		mFCPInterface.handle(mReplyReceiver, sfs, null, 0);
+
+		final HashSet<String> receivedIDs = new HashSet<String>();
+		for(int sequenceNumber = 0; sequenceNumber < 3; ++sequenceNumber) {
+			final SimpleFieldSet chunk = mReplyReceiver.getNextResult();
+			assertEquals("Identities", chunk.get("Message"));
+			assertEquals(sequenceNumber, chunk.getInt("SequenceNumber"));
+			assertEquals(sequenceNumber == 2, chunk.getBoolean("Final"));
+
+			final int amount = chunk.getInt("Identities.Amount");
+			assertEquals(sequenceNumber == 2 ? 1 : 2, amount);
+			for(int i = 0; i < amount; ++i)
+				assertTrue(receivedIDs.add(chunk.get("Identities." + i + ".ID")));
+		}
+
+		assertEquals(identities.size(), receivedIDs.size());
+		for(Identity identity : identities)
+			assertTrue(receivedIDs.contains(identity.getID()));
+
+		assertEquals("Subscribed", mReplyReceiver.getNextResult().get("Message"));
+		assertFalse(mReplyReceiver.hasNextResult());
+	}
+
+	/**
+	 * Tests whether the "Fields" of an identities subscription apply to the synchronization, and whether they are refused for the
+	 * other types of subscriptions.
+	 */
+	public void testSubscriptionFields() throws Exception {
+		final OwnIdentity identity = addOwnIdentityWithProperty();
+
+		final SimpleFieldSet sfs = new SimpleFieldSet(true);
+		sfs.putOverwrite("Message", "Subscribe");
+		sfs.putOverwrite("To", "Trusts");
+		sfs.putOverwrite("Fields", "Nickname");
+		assertEquals("Error", fcpCall(sfs).get("Message"));
+
+		sfs.putOverwrite("To", "Identities");
+		mFCPInterface.handle(mReplyReceiver, sfs, null, 0);
+
+		final SimpleFieldSet synchronization = mReplyReceiver.getNextResult();
+		assertEquals("Identities", synchronization.get("Message"));
+		assertEquals("1", synchronization.get("Identities.Amount"));
+		assertEquals(identity.getID(), synchronization.get("Identities.0.ID"));
+		assertEquals(identity.getNickname(), synchronization.get("Identities.0.Nickname"));
+		assertNull(synchronization.get("Identities.0.RequestURI"));
+		assertNull(synchronization.get("Identities.0.Properties.Amount"));
+
+		assertEquals("Subscribed", mReplyReceiver.getNextResult().get("Message"));
+		assertFalse(mReplyReceiver.hasNextResult());
+	}
+
+}
@@ -0,0 +1,84 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Tests whether the {@link IdentityContext} objects stay consistent with the contexts of the identities, and whether
+ * {@link WebOfTrust#getAllIdentitiesWithContext(String)} returns the same identities as checking
+ * {@link Identity#hasContext(String)} of all identities.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public class IdentityContextTest extends DatabaseBasedTest {
+
+	private static final String[] CONTEXTS = new String[] { "Introduction", "Freetalk", "Sone" };
+
+	private void assertQueriesMatchContexts() {
+		for(String context : CONTEXTS) {
+			final HashSet<String> expected = new HashSet<String>();
+			for(Identity identity : mWoT.getAllIdentities()) {
+				if(identity.hasContext(context))
+					expected.add(identity.getID());
+			}
+
+			final HashSet<String> actual = new HashSet<String>();
+			for(Identity identity : mWoT.getAllIdentitiesWithContext(context))
+				assertTrue(actual.add(identity.getID()));
+
+			assertEquals(expected, actual);
+
+			for(Identity identity : mWoT.getAllNonOwnIdentitiesWithContextSortedByModification(context, Identity.NO_SCORE)) {
+				assertFalse(identity instanceof OwnIdentity);
+				assertTrue(expected.contains(identity.getID()));
+			}
+		}
+
+		for(Identity identity : mWoT.getAllIdentities())
+			identity.startupDatabaseIntegrityTest();
+	}
+
+	public void testAddAndRemove() throws Exception {
+		final OwnIdentity ownIdentity = addRandomOwnIdentities(1).get(0);
+		final Identity identity = addRandomIdentities(1).get(0);
+		assertQueriesMatchContexts();
+
+		mWoT.addContext(ownIdentity.getID(), CONTEXTS[0]);
+		mWoT.addContext(ownIdentity.getID(), CONTEXTS[1]);
+		assertQueriesMatchContexts();
+		assertEquals(1, mWoT.getAllIdentitiesWithContext(CONTEXTS[1]).size());
+
+		identity.setContexts(Arrays.asList(CONTEXTS[1], CONTEXTS[2]));
+		identity.storeAndCommit();
+		assertQueriesMatchContexts();
+		assertEquals(2, mWoT.getAllIdentitiesWithContext(CONTEXTS[1]).size());
+		assertEquals(1, mWoT.getAllNonOwnIdentitiesWithContextSortedByModification(CONTEXTS[1], Identity.NO_SCORE).size());
+
+		mWoT.removeContext(ownIdentity.getID(), CONTEXTS[1]);
+		identity.setContexts(Arrays.asList(CONTEXTS[0]));
+		identity.storeAndCommit();
+		assertQueriesMatchContexts();
+		assertEquals(0, mWoT.getAllIdentitiesWithContext(CONTEXTS[1]).size());
+		assertEquals(2, mWoT.getAllIdentitiesWithContext(CONTEXTS[0]).size());
+
+		flushCaches();
+		assertQueriesMatchContexts();
+	}
+
+	public void testDeleteOwnIdentity() throws Exception {
+		final OwnIdentity ownIdentity = addRandomOwnIdentities(1).get(0);
+		mWoT.addContext(ownIdentity.getID(), CONTEXTS[0]);
+
+		mWoT.deleteOwnIdentity(ownIdentity.getID());
+		assertQueriesMatchContexts();
+
+		// The IdentityContext objects of the deleted OwnIdentity object must be deleted as well.
+		int contextCount = 0;
+		for(Identity identity : mWoT.getAllIdentities())
+			contextCount += identity.getContexts().size();
+		assertEquals(contextCount, mWoT.getDatabase().query(IdentityContext.class).size());
+	}
+}
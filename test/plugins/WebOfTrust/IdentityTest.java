@@ -4,7 +4,10 @@
 package plugins.WebOfTrust;
 
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.junit.Ignore;
 
@@ -208,6 +211,43 @@ public final class IdentityTest extends DatabaseBasedTest {
 		assertEquals(identity.getLastChangeDate(), stored.getLastChangeDate());
 	}
 	
+	/**
+	 * Tests whether {@link Identity#getNumber()} is assigned upon storage, unique and persistent.
+	 */
+	public void testGetNumber() throws MalformedURLException, InvalidParameterException, UnknownIdentityException {
+		final Identity unstored = new Identity(mWoT, getRandomSSKPair()[1], "unstored", true);
+		assertEquals(0, unstored.getNumber());
+		
+		final ArrayList<Identity> identities = addRandomIdentities(10);
+		identities.addAll(addRandomOwnIdentities(3));
+		
+		final HashSet<Integer> numbers = new HashSet<Integer>();
+		numbers.add(mWoT.getIdentityByURI(requestUriString).getNumber());
+		for(Identity i : identities) {
+			assertTrue(i.getNumber() > 0);
+			assertTrue(numbers.add(i.getNumber()));
+		}
+		
+		// A rolled back identity must not keep a number which might be re-used
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			unstored.storeWithoutCommit();
+			Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		}
+		unstored.storeAndCommit();
+		assertTrue(numbers.add(unstored.getNumber()));
+		
+		final HashMap<String, Integer> numbersByID = new HashMap<String, Integer>();
+		for(Identity i : identities)
+			numbersByID.put(i.getID(), i.getNumber());
+		
+		flushCaches();
+		
+		for(Identity i : mWoT.getAllIdentities()) {
+			if(numbersByID.containsKey(i.getID()))
+				assertEquals((int)numbersByID.get(i.getID()), i.getNumber());
+		}
+	}
+	
 	public void testIsNicknameValid() {
 		assertFalse(Identity.isNicknameValid("a@b"));
 		// TODO: Implement a full test.
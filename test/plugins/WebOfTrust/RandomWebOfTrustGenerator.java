@@ -0,0 +1,161 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+
+import plugins.WebOfTrust.exceptions.InvalidParameterException;
+import plugins.WebOfTrust.exceptions.NotTrustedException;
+import freenet.crypt.RandomSource;
+import freenet.keys.FreenetURI;
+import freenet.keys.InsertableClientSSK;
+
+/**
+ * Fills a {@link WebOfTrust} with random identities and trust values. Used by {@link DatabaseBasedTest} and by the JMH benchmarks
+ * in the benchmark/ directory, which is why it must not depend on JUnit: The benchmark build compiles it from the test/ directory.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class RandomWebOfTrustGenerator {
+
+	private final WebOfTrust mWoT;
+
+	private final RandomSource mRandom;
+
+	public RandomWebOfTrustGenerator(WebOfTrust myWoT, RandomSource myRandom) {
+		mWoT = myWoT;
+		mRandom = myRandom;
+	}
+
+	/**
+	 * Generates a String containing random characters of the lowercase Latin alphabet.
+	 * @param The length of the returned string.
+	 */
+	public String getRandomLatinString(int length) {
+		char[] s = new char[length];
+		for(int i=0; i<length; ++i)
+			s[i] = (char)('a' + mRandom.nextInt(26));
+		return new String(s);
+	}
+
+	/**
+	 * Returns a normally distributed value with a bias towards positive trust values.
+	 * TODO: Remove this bias once trust computation is equally fast for negative values;
+	 */
+	public byte getRandomTrustValue() {
+		final double trustRange = Trust.MAX_TRUST_VALUE - Trust.MIN_TRUST_VALUE + 1;
+		long result;
+		do {
+			result = Math.round(mRandom.nextGaussian()*(trustRange/2) + (trustRange/3));
+		} while(result < Trust.MIN_TRUST_VALUE || result > Trust.MAX_TRUST_VALUE);
+
+		return (byte)result;
+	}
+
+	/**
+	 * Generates a random SSK request-/insert-keypair, suitable for being used when creating identities.
+	 * @return An array where slot 0 is the insert URI and slot 1 is the request URI
+	 */
+	public FreenetURI[] getRandomSSKPair() {
+		InsertableClientSSK ssk = InsertableClientSSK.createRandom(mRandom, "");
+		return new FreenetURI[]{ ssk.getInsertURI(), ssk.getURI() };
+	}
+
+	/**
+	 * Generates a random SSK request URI, suitable for being used when creating identities.
+	 */
+	public FreenetURI getRandomRequestURI() {
+		return InsertableClientSSK.createRandom(mRandom, "").getURI();
+	}
+
+	/**
+	 * Adds identities with random request URIs to the database.
+	 * Their state will be as if they have never been fetched: They won't have a nickname, edition will be 0, etc.
+	 *
+	 * @param count Amount of identities to add
+	 * @return An {@link ArrayList} which contains all added identities.
+	 */
+	public ArrayList<Identity> addRandomIdentities(int count) {
+		ArrayList<Identity> result = new ArrayList<Identity>(count+1);
+
+		while(count-- > 0) {
+			try {
+				result.add(mWoT.addIdentity(getRandomRequestURI().toString()));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Creates own identities with random nickname, publish trust list flag and context.
+	 */
+	public ArrayList<OwnIdentity> addRandomOwnIdentities(int count) throws MalformedURLException, InvalidParameterException {
+		ArrayList<OwnIdentity> result = new ArrayList<OwnIdentity>(count+1);
+
+		while(count-- > 0) {
+			final OwnIdentity ownIdentity = mWoT.createOwnIdentity(getRandomSSKPair()[0], getRandomLatinString(Identity.MAX_NICKNAME_LENGTH),
+					mRandom.nextBoolean(), getRandomLatinString(Identity.MAX_CONTEXT_NAME_LENGTH));
+			result.add(ownIdentity);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return A random pair of distinct identities between which no trust value exists yet: Slot 0 is the truster, slot 1 the trustee.
+	 * Loops forever if there is no such pair.
+	 */
+	public Identity[] getRandomUntrustedPair(final ArrayList<? extends Identity> identities) {
+		final int identityCount = identities.size();
+
+		while(true) {
+			final Identity truster = identities.get(mRandom.nextInt(identityCount));
+			final Identity trustee = identities.get(mRandom.nextInt(identityCount));
+
+			if(truster == trustee) // You cannot assign trust to yourself
+				continue;
+
+			try {
+				// Only one trust value can exist between a given pair of identities.
+				mWoT.getTrust(truster, trustee);
+			} catch(NotTrustedException e) {
+				return new Identity[] { truster, trustee };
+			}
+		}
+	}
+
+	/**
+	 * Adds random trust values between the given identities in a single trust list import and commits them.
+	 *
+	 * ATTENTION: Its impossible to store more trust values than the amount of identities squared: There can only be a single trust value
+	 * between each pair of identities. The amount of such pairs is identities². If you specify a trustCount which is higher than this
+	 * value then this function will run into an infinite loop.
+	 *
+	 * TODO: Adapt this to respect {@link Identity#doesPublishTrustList()}. First you need to adapt the callers of this function to actually
+	 * use identities which have set this to true - most callers generate identities with the default value which is false.
+	 */
+	public void addRandomTrustValues(final ArrayList<? extends Identity> identities, final int trustCount) throws InvalidParameterException {
+		synchronized(mWoT) {
+		synchronized(mWoT.getIdentityFetcher()) {
+		synchronized(mWoT.getSubscriptionManager()) {
+		synchronized(Persistent.transactionLock(mWoT.getDatabase())) {
+			mWoT.beginTrustListImport();
+			for(int i=0; i < trustCount; ++i) {
+				final Identity[] pair = getRandomUntrustedPair(identities);
+				mWoT.setTrustWithoutCommit(pair[0], pair[1], getRandomTrustValue(),
+						getRandomLatinString(mRandom.nextInt(Trust.MAX_TRUST_COMMENT_LENGTH+1)));
+			}
+			mWoT.finishTrustListImport();
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+		}
+		}
+		}
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.ArrayList;
+
+import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
+
+/**
+ * Tests whether the {@link ScoreCache} which is used by {@link WebOfTrust#getScore(OwnIdentity, Identity)} stays consistent with
+ * the database across commits and rollbacks.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public class ScoreCacheTest extends DatabaseBasedTest {
+
+	private OwnIdentity mTruster;
+	private Identity mTrustee;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final ArrayList<OwnIdentity> ownIdentities = addRandomOwnIdentities(1);
+		mTruster = ownIdentities.get(0);
+		mTrustee = addRandomIdentities(1).get(0);
+	}
+
+	private boolean hasScore() {
+		try {
+			mWoT.getScore(mTruster, mTrustee);
+			return true;
+		} catch(NotInTrustTreeException e) {
+			return false;
+		}
+	}
+
+	public void testNegativeLookup() {
+		final ScoreCache cache = mWoT.getScoreCache();
+
+		assertFalse(hasScore());
+		final long misses = cache.getMissCount();
+		assertFalse(hasScore());
+		assertEquals(misses, cache.getMissCount());
+	}
+
+	public void testCommit() throws Exception {
+		assertFalse(hasScore());
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertTrue(hasScore());
+		assertEquals(50, mWoT.getScore(mTruster, mTrustee).getScore());
+
+		mWoT.removeTrustWithoutCommit(mWoT.getTrust(mTruster, mTrustee));
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertFalse(hasScore());
+	}
+
+	public void testRollback() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		assertTrue(hasScore());
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertFalse(hasScore());
+
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+
+		mWoT.removeTrustWithoutCommit(mWoT.getTrust(mTruster, mTrustee));
+		assertFalse(hasScore());
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertTrue(hasScore());
+	}
+
+	/**
+	 * The cache must not keep any Score objects alive across a rollback, not even the unmodified ones: They reference the
+	 * {@link Identity} objects, which the transaction might have modified in memory.
+	 */
+	public void testRollbackClearsCache() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertTrue(hasScore());
+		assertTrue(mWoT.getScoreCache().size() > 0);
+
+		Persistent.checkedRollback(mWoT.getDatabase(), this, null);
+		assertEquals(0, mWoT.getScoreCache().size());
+		assertTrue(hasScore());
+	}
+
+	/**
+	 * Score objects which are not stored in the database, such as clones, must not replace the cached state of the stored one.
+	 */
+	public void testNotStoredScore() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		final Score stored = mWoT.getScore(mTruster, mTrustee);
+		final Score notStored = stored.clone();
+		assertFalse(mWoT.getDatabase().isStored(notStored));
+
+		mWoT.getScoreCache().onStored(notStored);
+		assertSame(stored, mWoT.getScore(mTruster, mTrustee));
+	}
+
+	public void testFlushCaches() throws Exception {
+		mWoT.setTrustWithoutCommit(mTruster, mTrustee, (byte)50, "");
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		final String trusterID = mTruster.getID();
+		final String trusteeID = mTrustee.getID();
+
+		flushCaches();
+
+		// The cached Score object was purged from the database, so getScore() must not return it.
+		mTruster = mWoT.getOwnIdentityByID(trusterID);
+		mTrustee = mWoT.getIdentityByID(trusteeID);
+		final Score score = mWoT.getScore(mTruster, mTrustee);
+		assertTrue(mWoT.getDatabase().isStored(score));
+		assertEquals(50, score.getScore());
+	}
+}
@@ -131,4 +131,66 @@ public class ScoreTest extends DatabaseBasedTest {
 			assertFalse(score.equals(other));
 		}
 	}
+	
+	/**
+	 * Tests whether the best score and capacity which are stored in the {@link Identity} follow the stores and deletions of
+	 * its {@link Score}s.
+	 */
+	public void testBestScore() throws NotInTrustTreeException, UnknownIdentityException {
+		b = mWoT.getOwnIdentityByID(b.getID());
+		assertEquals(100, mWoT.getBestScore(b));
+		assertEquals(40, mWoT.getBestCapacity(b));
+		
+		final Score selfScore = new Score(mWoT, b, b, 50, 0, 100);
+		selfScore.storeWithoutCommit();
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertEquals(100, mWoT.getBestScore(b));
+		assertEquals(100, mWoT.getBestCapacity(b));
+		b.startupDatabaseIntegrityTest();
+		
+		// Decreasing the score which has the best capacity must not keep its old capacity.
+		selfScore.setCapacity(0);
+		selfScore.storeWithoutCommit();
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertEquals(100, mWoT.getBestScore(b));
+		assertEquals(40, mWoT.getBestCapacity(b));
+		b.startupDatabaseIntegrityTest();
+		
+		mWoT.getScore(a, b).deleteWithoutCommit();
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		assertEquals(50, mWoT.getBestScore(b));
+		assertEquals(0, mWoT.getBestCapacity(b));
+		b.startupDatabaseIntegrityTest();
+		
+		selfScore.deleteWithoutCommit();
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		try {
+			mWoT.getBestScore(b);
+			fail("The identity has no scores anymore");
+		} catch(NotInTrustTreeException e) { }
+		b.startupDatabaseIntegrityTest();
+		
+		flushCaches();
+		b = mWoT.getOwnIdentityByID(b.getID());
+		try {
+			mWoT.getBestCapacity(b);
+			fail("The identity has no scores anymore");
+		} catch(NotInTrustTreeException e) { }
+	}
+	
+	/**
+	 * Tests whether the clones and the encoded copies of an identity, which are used by the IdentityFetcher and the
+	 * notifications of the SubscriptionManager, have the best score and capacity of the original.
+	 */
+	public void testBestScoreOfCopies() throws NotInTrustTreeException, UnknownIdentityException {
+		b = mWoT.getOwnIdentityByID(b.getID());
+		
+		final OwnIdentity clone = b.clone();
+		assertEquals(100, clone.getBestScore());
+		assertEquals(40, clone.getBestCapacity());
+		
+		final Identity decoded = (Identity)Persistent.deserialize(mWoT, b.serialize());
+		assertEquals(100, decoded.getBestScore());
+		assertEquals(40, decoded.getBestCapacity());
+	}
 }
\ No newline at end of file
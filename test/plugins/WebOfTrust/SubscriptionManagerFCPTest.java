@@ -79,6 +79,57 @@ public class SubscriptionManagerFCPTest extends DatabaseBasedTest {
 
 	}
 	
+	/**
+	 * A {@link ReplyReceiver} whose processing of notifications fails while {@link #fail} is true, like a client whose database is
+	 * broken.
+	 */
+	@Ignore
+	static final class FailingReplyReceiver extends ReplyReceiver {
+		
+		boolean fail = false;
+		
+		int failureCount = 0;
+		
+		@Override
+		public void sendSynchronous(SimpleFieldSet params, Bucket bucket) {
+			if(fail) {
+				++failureCount;
+				throw new RuntimeException("Processing failed in FailingReplyReceiver");
+			}
+			super.sendSynchronous(params, bucket);
+		}
+	}
+	
+	/**
+	 * A {@link ReplyReceiver} which processes only the first notifications of the next "ChangeNotificationBatch", acknowledges
+	 * them with an "AcknowledgeNotifications" message and fails, like the {@link FCPClientReferenceImplementation} does if
+	 * processing a notification fails.
+	 */
+	@Ignore
+	final class AcknowledgingReplyReceiver extends ReplyReceiver {
+		
+		/** If above 0, the next batch fails after this many of its notifications were acknowledged. */
+		int failAfter = 0;
+		
+		@Override
+		public void sendSynchronous(SimpleFieldSet params, Bucket bucket) {
+			if(failAfter <= 0 || !"ChangeNotificationBatch".equals(params.get("Message"))) {
+				super.sendSynchronous(params, bucket);
+				return;
+			}
+			
+			final int processed = failAfter;
+			failAfter = 0;
+			
+			final SimpleFieldSet acknowledge = new SimpleFieldSet(true);
+			acknowledge.putOverwrite("Message", "AcknowledgeNotifications");
+			acknowledge.putOverwrite("Index", params.get("Notifications." + (processed - 1) + ".Index"));
+			fcpCall(this, acknowledge);
+			
+			throw new RuntimeException("Processing failed in AcknowledgingReplyReceiver");
+		}
+	}
+	
 	FCPInterface mFCPInterface;
 	ReplyReceiver mReplyReceiver;
 	
@@ -87,7 +138,14 @@ public class SubscriptionManagerFCPTest extends DatabaseBasedTest {
 	 * You can obtain the result(s) by <code>mReplySender.getNextResult();</code>
 	 */
 	void fcpCall(final SimpleFieldSet params) {
-		mFCPInterface.handle(mReplyReceiver, params, null, 0);
+		fcpCall(mReplyReceiver, params);
+	}
+	
+	/**
+	 * Same as {@link #fcpCall(SimpleFieldSet)} but from the client of the given receiver. Allows testing with multiple clients.
+	 */
+	void fcpCall(final ReplyReceiver receiver, final SimpleFieldSet params) {
+		mFCPInterface.handle(receiver, params, null, 0);
 	}
 
 	/**
@@ -217,10 +275,178 @@ public class SubscriptionManagerFCPTest extends DatabaseBasedTest {
 		
 	}
 	
+	/**
+	 * Tests whether repeated modifications of an object are coalesced into a single notification and whether creations and deletions
+	 * are not coalesced.
+	 */
+	public void testNotificationCoalescing() throws MalformedURLException, InvalidParameterException, FSParseException, UnknownIdentityException, NotTrustedException {
+		final SubscriptionManager manager = mWoT.getSubscriptionManager();
+		final String trusterID = addRandomOwnIdentities(1).get(0).getID();
+		final String trusteeID = addRandomIdentities(1).get(0).getID();
+		
+		subscribeAndSynchronize("Trusts");
+		
+		// Creation and two modifications => one notification
+		mWoT.setTrust(trusterID, trusteeID, (byte)10, "");
+		mWoT.setTrust(trusterID, trusteeID, (byte)20, "");
+		mWoT.setTrust(trusterID, trusteeID, (byte)30, "");
+		assertEquals(1, manager.getStoredNotificationCount());
+		assertEquals(2, manager.getCoalescedNotificationCount());
+		manager.run(); // It has no Ticker so we need to run() it manually
+		assertEquals(1, mReplyReceiver.results.size());
+		importNotifications();
+		assertEquals(new HashSet<Trust>(mWoT.getAllTrusts()), new HashSet<Trust>(mReceivedTrusts.values()));
+		
+		// Modification which is reverted => no notification
+		mWoT.setTrust(trusterID, trusteeID, (byte)40, "");
+		mWoT.setTrust(trusterID, trusteeID, (byte)30, "");
+		assertEquals(1, manager.getCancelledNotificationCount());
+		manager.run();
+		assertFalse(mReplyReceiver.hasNextResult());
+		
+		// Modification and deletion => two notifications
+		mWoT.setTrust(trusterID, trusteeID, (byte)50, "");
+		mWoT.removeTrust(trusterID, trusteeID);
+		manager.run();
+		assertEquals(2, mReplyReceiver.results.size());
+		importNotifications();
+		assertEquals(0, mReceivedTrusts.size());
+		
+		assertEquals(4, manager.getStoredNotificationCount());
+		assertEquals(3, manager.getSentNotificationCount());
+	}
+	
+	/**
+	 * Tests whether the {@link Notification} queue of each {@link Client} is deployed separately: A client whose processing fails
+	 * must not prevent the others from receiving their notifications, and only its own deployment is delayed by the backoff.
+	 */
+	public void testPerClientDeployment() throws MalformedURLException, InvalidParameterException, FSParseException, UnknownIdentityException, NotTrustedException {
+		final SubscriptionManager manager = mWoT.getSubscriptionManager();
+		final String trusterID = addRandomOwnIdentities(1).get(0).getID();
+		final String trusteeID = addRandomIdentities(1).get(0).getID();
+		
+		final FailingReplyReceiver failingReceiver = new FailingReplyReceiver();
+		final SimpleFieldSet subscribe = new SimpleFieldSet(true);
+		subscribe.putOverwrite("Message", "Subscribe");
+		subscribe.putOverwrite("To", "Trusts");
+		fcpCall(failingReceiver, subscribe);
+		assertEquals("Trusts", failingReceiver.getNextResult().get("Message"));
+		assertEquals("Subscribed", failingReceiver.getNextResult().get("Message"));
+		failingReceiver.fail = true;
+		
+		subscribeAndSynchronize("Trusts");
+		
+		mWoT.setTrust(trusterID, trusteeID, (byte)10, "");
+		manager.run(); // It has no Ticker so we need to run() it manually
+		assertEquals(1, failingReceiver.failureCount);
+		assertEquals(1, mReplyReceiver.results.size());
+		importNotifications();
+		
+		// The failing client is in backoff now. The other one must still receive its notifications immediately.
+		mWoT.setTrust(trusterID, trusteeID, (byte)20, "");
+		manager.run();
+		assertEquals(1, failingReceiver.failureCount);
+		assertEquals(1, mReplyReceiver.results.size());
+		importNotifications();
+		assertEquals(new HashSet<Trust>(mWoT.getAllTrusts()), new HashSet<Trust>(mReceivedTrusts.values()));
+		assertFalse(failingReceiver.hasNextResult());
+		
+		final String workingID = new FCPInterface.ClientID(mReplyReceiver).toString();
+		final String failingID = new FCPInterface.ClientID(failingReceiver).toString();
+		final HashMap<String, SubscriptionManager.ClientStatistics> statistics = new HashMap<String, SubscriptionManager.ClientStatistics>();
+		for(SubscriptionManager.ClientStatistics clientStatistics : manager.getClientStatistics())
+			statistics.put(clientStatistics.fcpID, clientStatistics);
+		
+		assertEquals(2, statistics.size());
+		assertEquals(2, statistics.get(workingID).deliveredCount);
+		assertEquals(0, statistics.get(workingID).queueDepth);
+		assertEquals(0, statistics.get(failingID).deliveredCount);
+		// The second change was coalesced into the notification which was not delivered, so it is still a single one.
+		assertEquals(1, statistics.get(failingID).queueDepth);
+		assertEquals(2, manager.getSentNotificationCount());
+	}
+	
+	/**
+	 * Tests whether the notifications are sent in "ChangeNotificationBatch" messages of at most the "NotificationBatchSize" of the
+	 * client, in order.
+	 */
+	public void testNotificationBatches() throws MalformedURLException, InvalidParameterException, FSParseException, UnknownIdentityException, NotTrustedException {
+		final SubscriptionManager manager = mWoT.getSubscriptionManager();
+		final String trusterID = addRandomOwnIdentities(1).get(0).getID();
+		final ArrayList<Identity> trustees = addRandomIdentities(5);
+		
+		subscribeAndSynchronize("Trusts", 3);
+		
+		for(Identity trustee : trustees)
+			mWoT.setTrust(trusterID, trustee.getID(), (byte)10, "");
+		manager.run(); // It has no Ticker so we need to run() it manually
+		
+		assertEquals(2, mReplyReceiver.results.size());
+		assertEquals("3", mReplyReceiver.results.get(0).get("Notifications.Amount"));
+		assertEquals("2", mReplyReceiver.results.get(1).get("Notifications.Amount"));
+		importNotifications();
+		assertEquals(new HashSet<Trust>(mWoT.getAllTrusts()), new HashSet<Trust>(mReceivedTrusts.values()));
+		assertEquals(5, manager.getSentNotificationCount());
+	}
+	
+	/**
+	 * Tests whether only the notifications of a batch which the client did not acknowledge are re-sent if it fails to process the
+	 * batch.
+	 */
+	public void testAcknowledgeNotifications() throws MalformedURLException, InvalidParameterException, FSParseException, UnknownIdentityException, NotTrustedException {
+		final SubscriptionManager manager = mWoT.getSubscriptionManager();
+		final String trusterID = addRandomOwnIdentities(1).get(0).getID();
+		final ArrayList<Identity> trustees = addRandomIdentities(3);
+		
+		final AcknowledgingReplyReceiver receiver = new AcknowledgingReplyReceiver();
+		mReplyReceiver = receiver;
+		subscribeAndSynchronize("Trusts", 3);
+		
+		for(Identity trustee : trustees)
+			mWoT.setTrust(trusterID, trustee.getID(), (byte)10, "");
+		receiver.failAfter = 1;
+		manager.run(); // It has no Ticker so we need to run() it manually
+		
+		// The batch failed, we only received the reply to the acknowledgement
+		final SimpleFieldSet acknowledged = receiver.getNextResult();
+		assertEquals("NotificationsAcknowledged", acknowledged.get("Message"));
+		assertEquals("1", acknowledged.get("Amount"));
+		assertFalse(receiver.hasNextResult());
+		final long acknowledgedIndex = acknowledged.getLong("Index");
+		
+		// The client is in backoff now. Subscribing again sends the pending notifications before the synchronization.
+		final SimpleFieldSet subscribe = new SimpleFieldSet(true);
+		subscribe.putOverwrite("Message", "Subscribe");
+		subscribe.putOverwrite("To", "Identities");
+		fcpCall(subscribe);
+		
+		final SimpleFieldSet batch = receiver.getNextResult();
+		assertEquals("ChangeNotificationBatch", batch.get("Message"));
+		assertEquals("2", batch.get("Notifications.Amount"));
+		assertEquals(acknowledgedIndex + 1, batch.getLong("Notifications.0.Index"));
+		assertEquals(acknowledgedIndex + 2, batch.getLong("Notifications.1.Index"));
+		assertEquals("Identities", receiver.getNextResult().get("Message"));
+		assertEquals("Subscribed", receiver.getNextResult().get("Message"));
+		assertFalse(receiver.hasNextResult());
+		
+		final ArrayList<SubscriptionManager.ClientStatistics> statistics = manager.getClientStatistics();
+		assertEquals(1, statistics.size());
+		assertEquals(0, statistics.get(0).queueDepth);
+		assertEquals(2, manager.getSentNotificationCount());
+	}
+	
 	void subscribeAndSynchronize(final String type) throws FSParseException, MalformedURLException, InvalidParameterException {
+		subscribeAndSynchronize(type, 1);
+	}
+	
+	/**
+	 * @param notificationBatchSize The "NotificationBatchSize" of the "Subscribe" message.
+	 */
+	void subscribeAndSynchronize(final String type, final int notificationBatchSize) throws FSParseException, MalformedURLException, InvalidParameterException {
 		final SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putOverwrite("Message", "Subscribe");
 		sfs.putOverwrite("To", type);
+		sfs.put("NotificationBatchSize", notificationBatchSize);
 		fcpCall(sfs);
 		
 		// First reply message is the full set of all objects of the type we are interested in so the client can synchronize its database
@@ -255,16 +481,35 @@ public class SubscriptionManagerFCPTest extends DatabaseBasedTest {
 	
 		while(mReplyReceiver.hasNextResult()) {
 			final SimpleFieldSet notification = mReplyReceiver.getNextResult();
-			final String message = notification.get("Message");
-			if(message.equals("IdentityChangedNotification")) {
-				putNotification(new IdentityParser(mWoT).parseNotification(notification), mReceivedIdentities);
-			} else if(message.equals("TrustChangedNotification")) {
-				putNotification(new TrustParser(mWoT, mReceivedIdentities).parseNotification(notification), mReceivedTrusts);
-			} else if(message.equals("ScoreChangedNotification")) {
-				putNotification(new ScoreParser(mWoT, mReceivedIdentities).parseNotification(notification), mReceivedScores);
-			} else {
-				fail("Unknown message type: " + message);
+			
+			if(!"ChangeNotificationBatch".equals(notification.get("Message"))) {
+				importNotification(notification);
+				continue;
 			}
+			
+			final SimpleFieldSet batch = notification.subset("Notifications");
+			final int amount = batch.getInt("Amount");
+			long lastIndex = -1;
+			for(int i = 0; i < amount; ++i) {
+				final SimpleFieldSet entry = batch.subset(Integer.toString(i));
+				final long index = entry.getLong("Index");
+				assertTrue(index > lastIndex);
+				lastIndex = index;
+				importNotification(entry);
+			}
+		}
+	}
+	
+	void importNotification(final SimpleFieldSet notification) throws MalformedURLException, FSParseException, InvalidParameterException {
+		final String message = notification.get("Message");
+		if(message.equals("IdentityChangedNotification")) {
+			putNotification(new IdentityParser(mWoT).parseNotification(notification), mReceivedIdentities);
+		} else if(message.equals("TrustChangedNotification")) {
+			putNotification(new TrustParser(mWoT, mReceivedIdentities).parseNotification(notification), mReceivedTrusts);
+		} else if(message.equals("ScoreChangedNotification")) {
+			putNotification(new ScoreParser(mWoT, mReceivedIdentities).parseNotification(notification), mReceivedScores);
+		} else {
+			fail("Unknown message type: " + message);
 		}
 	}
 	
@@ -0,0 +1,116 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
+import freenet.support.Executor;
+import freenet.support.PooledExecutor;
+
+/**
+ * Tests the in-memory trust graph which is used by {@link WebOfTrust#computeAllScoresWithoutCommit()}.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public class TrustGraphTest extends DatabaseBasedTest {
+
+	private ArrayList<Identity> mIdentities;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mIdentities = addRandomIdentities(30);
+		mIdentities.addAll(addRandomOwnIdentities(3));
+		addRandomTrustValues(mIdentities, 200);
+	}
+
+	public void testAdjacency() {
+		final TrustGraph graph = new TrustGraph(mWoT);
+
+		assertEquals(mWoT.getAllIdentities().size(), graph.size());
+		assertEquals(mWoT.getAllTrusts().size(), graph.getTrustCount());
+
+		for(int i=0; i < graph.size(); ++i) {
+			final Identity identity = graph.getIdentity(i);
+			assertEquals(i, graph.getIndex(identity));
+			assertEquals(mWoT.getGivenTrusts(identity).size(), graph.getGivenTrustCount(i));
+			assertEquals(mWoT.getReceivedTrusts(identity).size(), graph.getReceivedTrustCount(i));
+		}
+	}
+
+	/**
+	 * Checks whether {@link TrustGraph#computeScores(int, int)} yields the same values as the incremental score computation which
+	 * {@link WebOfTrust#setTrustWithoutCommit(Identity, Identity, byte, String)} does if no trust list import is in progress.
+	 */
+	public void testComputeScores() throws Exception {
+		// Modify some trust values outside of a trust list import so the incremental computation is used.
+		for(int i=0; i < 20; ++i) {
+			final Identity truster = mIdentities.get(mRandom.nextInt(mIdentities.size()));
+			final Identity trustee = mIdentities.get(mRandom.nextInt(mIdentities.size()));
+			if(truster == trustee)
+				continue;
+
+			mWoT.setTrustWithoutCommit(truster, trustee, (byte)(mRandom.nextInt(201) - 100), "");
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+		}
+
+		flushCaches();
+
+		final TrustGraph graph = new TrustGraph(mWoT);
+
+		for(OwnIdentity treeOwner : mWoT.getAllOwnIdentities()) {
+			final int treeOwnerIndex = graph.getIndex(treeOwner);
+			final TrustGraph.ComputedScores scores = graph.computeScores(treeOwnerIndex, mWoT.getScore(treeOwner, treeOwner).getRank());
+
+			for(int i=0; i < graph.size(); ++i) {
+				final Identity target = graph.getIdentity(i);
+				try {
+					final Score stored = mWoT.getScore(treeOwner, target);
+					assertTrue(scores.hasScore(i));
+					assertEquals(stored.getRank(), scores.mRanks[i]);
+					assertEquals(stored.getCapacity(), scores.mCapacities[i]);
+					assertEquals(stored.getScore(), scores.mValues[i]);
+				} catch(NotInTrustTreeException e) {
+					assertFalse(scores.hasScore(i));
+				}
+			}
+		}
+
+		assertTrue(mWoT.computeAllScoresWithoutCommit());
+	}
+
+	/**
+	 * Checks whether {@link TrustGraph#computeScores(int[], int[], Executor, int)} yields the same results as computing the tree
+	 * owners one after another.
+	 */
+	public void testComputeScoresParallel() throws Exception {
+		final TrustGraph graph = new TrustGraph(mWoT);
+
+		final ArrayList<OwnIdentity> treeOwners = new ArrayList<OwnIdentity>();
+		for(OwnIdentity treeOwner : mWoT.getAllOwnIdentities()) // ArrayList(Collection) would call the unsupported ObjectSet.toArray()
+			treeOwners.add(treeOwner);
+		final int[] treeOwnerIndexes = new int[treeOwners.size()];
+		final int[] treeOwnerRanks = new int[treeOwners.size()];
+		for(int i=0; i < treeOwners.size(); ++i) {
+			treeOwnerIndexes[i] = graph.getIndex(treeOwners.get(i));
+			treeOwnerRanks[i] = mWoT.getScore(treeOwners.get(i), treeOwners.get(i)).getRank();
+		}
+
+		final PooledExecutor executor = new PooledExecutor();
+		executor.start();
+		final TrustGraph.ComputedScores[] parallel = graph.computeScores(treeOwnerIndexes, treeOwnerRanks, executor, 3);
+
+		assertEquals(treeOwners.size(), parallel.length);
+		for(int i=0; i < treeOwners.size(); ++i) {
+			final TrustGraph.ComputedScores serial = graph.computeScores(treeOwnerIndexes[i], treeOwnerRanks[i]);
+			assertEquals(serial.mTreeOwner, parallel[i].mTreeOwner);
+			assertTrue(Arrays.equals(serial.mRanks, parallel[i].mRanks));
+			assertTrue(Arrays.equals(serial.mValues, parallel[i].mValues));
+			assertTrue(Arrays.equals(serial.mCapacities, parallel[i].mCapacities));
+		}
+	}
+}
@@ -3,6 +3,9 @@
  * any later version). See http://www.gnu.org/ for details of the GPL. */
 package plugins.WebOfTrust;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.net.MalformedURLException;
 
 import freenet.support.CurrentTimeUTC;
@@ -98,6 +101,30 @@ public class TrustTest extends DatabaseBasedTest {
 		assertNotSame(original.getTrustee(), deserialized.getTrustee());
 		assertEquals(original.getTrustee(), deserialized.getTrustee());	// Trust.equals() only checks the ID
 	}
+	
+	/**
+	 * Old versions of WoT used Java serialization in {@link Persistent#serialize()}, {@link Persistent#deserialize(WebOfTrustInterface, byte[])}
+	 * must still be able to decode it.
+	 */
+	public void testDeserializeJavaSerialization() throws DuplicateTrustException, NotTrustedException, IOException {
+		final Trust original = mWoT.getTrust(a, b);
+		
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final ObjectOutputStream ous = new ObjectOutputStream(bos);
+		ous.writeObject(original);
+		ous.flush();
+		final byte[] javaSerialized = bos.toByteArray();
+		
+		assertTrue(PersistentCodec.isJavaSerialization(javaSerialized));
+		assertFalse(PersistentCodec.isJavaSerialization(original.serialize()));
+		assertTrue(original.serialize().length < javaSerialized.length);
+		
+		final Trust deserialized = (Trust)Persistent.deserialize(mWoT, javaSerialized);
+		assertNotSame(original, deserialized);
+		assertEquals(original, deserialized);
+		assertEquals(original.getTruster(), deserialized.getTruster());
+		assertEquals(original.getTrustee(), deserialized.getTrustee());
+	}
 
 	public void testTrust() throws DuplicateTrustException, NotTrustedException {
 
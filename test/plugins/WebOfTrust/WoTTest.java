@@ -464,6 +464,70 @@ public class WoTTest extends DatabaseBasedTest {
 		catch (NotInTrustTreeException e) {}
 	}
 
+	/**
+	 * Test whether the partial score computation which is done after removing trusts / changing them to distrust yields the same
+	 * results as a full computation.
+	 */
+	public void testRemoveTrust3() throws Exception {
+		final ArrayList<Identity> identities = addRandomIdentities(40);
+		identities.addAll(addRandomOwnIdentities(3));
+		addRandomTrustValues(identities, 300);
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		
+		final ArrayList<Trust> trusts = new ArrayList<Trust>();
+		for(Trust trust : mWoT.getAllTrusts())
+			trusts.add(trust);
+		
+		for(int i=0; i < 30 && !trusts.isEmpty(); ++i) {
+			final Trust trust = trusts.remove(mRandom.nextInt(trusts.size()));
+			
+			if(mRandom.nextBoolean())
+				mWoT.removeTrustWithoutCommit(trust);
+			else
+				mWoT.setTrustWithoutCommit(trust.getTruster(), trust.getTrustee(), (byte)-mRandom.nextInt(101), "Distrust");
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+			
+			assertTrue(mWoT.computeAllScoresWithoutCommit());
+		}
+	}
+
+	/**
+	 * Test whether the score update which {@link WebOfTrust#finishTrustListImport()} does once for all trusts changed by the import
+	 * yields the same results as a full computation.
+	 */
+	public void testTrustListImportChanges() throws Exception {
+		final ArrayList<Identity> identities = addRandomIdentities(40);
+		identities.addAll(addRandomOwnIdentities(3));
+		addRandomTrustValues(identities, 300);
+		Persistent.checkedCommit(mWoT.getDatabase(), this);
+		
+		for(int i=0; i < 10; ++i) {
+			final ArrayList<Trust> trusts = new ArrayList<Trust>();
+			for(Trust trust : mWoT.getAllTrusts())
+				trusts.add(trust);
+			
+			mWoT.beginTrustListImport();
+			for(int j=0; j < 10 && !trusts.isEmpty(); ++j) {
+				final Trust trust = trusts.remove(mRandom.nextInt(trusts.size()));
+				
+				switch(mRandom.nextInt(3)) {
+					case 0:
+						mWoT.removeTrustWithoutCommit(trust);
+						break;
+					case 1:
+						mWoT.setTrustWithoutCommit(trust.getTruster(), trust.getTrustee(), (byte)-mRandom.nextInt(101), "Distrust");
+						break;
+					default:
+						mWoT.setTrustWithoutCommit(trust.getTruster(), trust.getTrustee(), (byte)(1 + mRandom.nextInt(100)), "Trust");
+				}
+			}
+			mWoT.finishTrustListImport();
+			Persistent.checkedCommit(mWoT.getDatabase(), this);
+			
+			assertTrue(mWoT.computeAllScoresWithoutCommit());
+		}
+	}
+
 	/**
 	 * Test whether spammer resistance works properly.
 	 */
@@ -7,11 +7,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import javax.xml.transform.TransformerException;
 
 import org.xml.sax.SAXException;
 
+import plugins.WebOfTrust.Identity.FetchState;
 import plugins.WebOfTrust.exceptions.InvalidParameterException;
 import plugins.WebOfTrust.exceptions.UnknownIdentityException;
 import plugins.WebOfTrust.introduction.IntroductionPuzzle;
@@ -102,9 +105,144 @@ public class XMLTransformerTest extends DatabaseBasedTest {
 		/* End of "remove-this" part */
 	}
 
+	/**
+	 * Tests whether {@link XMLTransformer#parseIdentityXMLWithStAX(java.io.InputStream)} yields the same results as
+	 * {@link XMLTransformer#parseIdentityXMLWithDOM(java.io.InputStream)}, for valid and for invalid XML.
+	 */
+	public void testParseIdentityXMLWithStAX() throws Exception {
+		mOwnIdentity.addContext(getRandomLatinString(Identity.MAX_CONTEXT_NAME_LENGTH));
+		mOwnIdentity.setProperty("Property1", "Value1");
+		mOwnIdentity.setProperty("Property2", "Value2");
+		mOwnIdentity.storeAndCommit();
+		
+		for(Identity trustee : addRandomIdentities(10))
+			mWoT.setTrust(mOwnIdentity.getID(), trustee.getID(), (byte)(mRandom.nextInt(201) - 100), getRandomLatinString(10));
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		mTransformer.exportOwnIdentity(mOwnIdentity, os);
+		final String xml = os.toString("UTF-8");
+		
+		final XMLTransformer.ParsedIdentityXML parsed = assertParsersEqual(xml);
+		assertNull(parsed.parseError);
+		assertEquals(10, parsed.identityTrustList.size());
+		
+		mOwnIdentity.setPublishTrustList(false);
+		mOwnIdentity.storeAndCommit();
+		os = new ByteArrayOutputStream();
+		mTransformer.exportOwnIdentity(mOwnIdentity, os);
+		assertNull(assertParsersEqual(os.toString("UTF-8")).identityTrustList);
+		
+		final String prefix = "<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?><WebOfTrust>";
+		final String suffix = "</WebOfTrust>";
+		
+		// Nested elements and missing attributes
+		assertParsersEqual(prefix + "<Identity Version=\"1\" PublishesTrustList=\"true\"><X><Context Name=\"a\"/><Property Name=\"p\"/></X>"
+				+ "<TrustList><X><Trust Identity=\"" + mOwnIdentity.getRequestURI() + "\" Value=\"5\"/></X></TrustList>"
+				+ "<Trust Identity=\"invalid\" Value=\"5\"/><TrustList><Trust Identity=\"invalid\" Value=\"5\"/></TrustList>"
+				+ "</Identity><Identity Version=\"1\" Name=\"second\"/>" + suffix);
+		
+		// Invalid XML
+		assertParseError(xml.substring(0, xml.length() / 2)); // Truncated
+		assertParseError(xml + "<Garbage>"); // Malformed after the Identity element
+		assertParseError(prefix + suffix); // No Identity
+		assertParseError(prefix + "<Identity Version=\"2\"/>" + suffix); // Newer version
+		assertParseError(prefix + "<Identity Version=\"1\" PublishesTrustList=\"true\"/>" + suffix); // No TrustList
+		assertParseError(prefix + "<Identity Version=\"1\" PublishesTrustList=\"true\"><TrustList><Trust Identity=\"" 
+				+ mOwnIdentity.getRequestURI() + "\" Value=\"1000\"/></TrustList></Identity>" + suffix); // Invalid trust value
+		assertParseError("<?xml version=\"1.0\"?><!DOCTYPE WebOfTrust [<!ENTITY e \"e\">]><WebOfTrust><Identity Version=\"1\" Name=\"&e;\"/>"
+				+ suffix); // DTDs are not allowed
+	}
+	
+	private XMLTransformer.ParsedIdentityXML assertParsersEqual(String xml) throws Exception {
+		final XMLTransformer.ParsedIdentityXML dom = mTransformer.parseIdentityXMLWithDOM(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		final XMLTransformer.ParsedIdentityXML stax = mTransformer.parseIdentityXMLWithStAX(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		
+		assertEquals(dom.parseError == null, stax.parseError == null);
+		if(dom.parseError != null)
+			return dom;
+		
+		assertEquals(dom.identityName, stax.identityName);
+		assertEquals(dom.identityPublishesTrustList, stax.identityPublishesTrustList);
+		assertEquals(dom.identityContexts, stax.identityContexts);
+		assertEquals(dom.identityProperties, stax.identityProperties);
+		
+		if(dom.identityTrustList == null)
+			assertNull(stax.identityTrustList);
+		else {
+			assertEquals(dom.identityTrustList.size(), stax.identityTrustList.size());
+			for(int i=0; i < dom.identityTrustList.size(); ++i) {
+				assertEquals(dom.identityTrustList.get(i).mTrusteeURI, stax.identityTrustList.get(i).mTrusteeURI);
+				assertEquals(dom.identityTrustList.get(i).mTrustValue, stax.identityTrustList.get(i).mTrustValue);
+				assertEquals(dom.identityTrustList.get(i).mTrustComment, stax.identityTrustList.get(i).mTrustComment);
+			}
+		}
+		
+		return dom;
+	}
+	
+	private void assertParseError(String xml) throws Exception {
+		assertNotNull(mTransformer.parseIdentityXMLWithDOM(new ByteArrayInputStream(xml.getBytes("UTF-8"))).parseError);
+		assertNotNull(mTransformer.parseIdentityXMLWithStAX(new ByteArrayInputStream(xml.getBytes("UTF-8"))).parseError);
+	}
+
 	public void testImportIdentity() throws Exception {
 		//fail("Not yet implemented"); // TODO
 	}
+	
+	/**
+	 * Tests whether {@link XMLTransformer#importIdentities(java.util.List, java.util.List)} imports valid identities and only marks
+	 * the editions which failed as {@link FetchState#ParsingFailed}.
+	 * 
+	 * The test keeps references to the {@link Identity} objects, so the ones which were imported before the failure within the batch
+	 * are not reverted by garbage collection upon the rollback. The retry must import them nevertheless.
+	 */
+	public void testImportIdentities() throws Exception {
+		final ArrayList<Identity> identities = addRandomIdentities(4);
+		for(Identity identity : identities)
+			mWoT.setTrust(mOwnIdentity.getID(), identity.getID(), (byte)100, "");
+		
+		final ArrayList<FreenetURI> uris = new ArrayList<FreenetURI>();
+		final ArrayList<XMLTransformer.ParsedIdentityXML> xmlData = new ArrayList<XMLTransformer.ParsedIdentityXML>();
+		for(int i=0; i < identities.size(); ++i) {
+			final XMLTransformer.ParsedIdentityXML parsed = new XMLTransformer.ParsedIdentityXML();
+			parsed.identityName = "name" + i;
+			parsed.identityPublishesTrustList = true;
+			parsed.identityContexts = new ArrayList<String>();
+			parsed.identityProperties = new HashMap<String, String>();
+			parsed.identityTrustList = new ArrayList<XMLTransformer.ParsedIdentityXML.TrustListEntry>();
+			// Each identity trusts the next one
+			parsed.identityTrustList.add(new XMLTransformer.ParsedIdentityXML.TrustListEntry(
+					identities.get((i+1) % identities.size()).getRequestURI(), (byte)50, ""));
+			
+			uris.add(identities.get(i).getRequestURI().setSuggestedEdition(1));
+			xmlData.add(parsed);
+		}
+		
+		xmlData.get(1).parseError = new Exception("Parsing failed"); // Handled before the batch
+		xmlData.get(2).identityTrustList.add(new XMLTransformer.ParsedIdentityXML.TrustListEntry( // Fails within the batch
+				identities.get(2).getRequestURI(), (byte)50, ""));
+		
+		mTransformer.importIdentities(uris, xmlData);
+		
+		flushCaches();
+		
+		for(int i=0; i < identities.size(); ++i) {
+			final Identity identity = mWoT.getIdentityByID(identities.get(i).getID());
+			final Identity trustee = mWoT.getIdentityByID(identities.get((i+1) % identities.size()).getID());
+			assertEquals(1, identity.getEdition());
+			
+			if(i == 1 || i == 2) {
+				assertEquals(FetchState.ParsingFailed, identity.getCurrentEditionFetchState());
+				assertEquals(0, mWoT.getGivenTrusts(identity).size());
+			} else {
+				assertEquals(FetchState.Fetched, identity.getCurrentEditionFetchState());
+				assertEquals("name" + i, identity.getNickname());
+				assertEquals(50, mWoT.getTrust(identity, trustee).getValue());
+			}
+		}
+		
+		assertTrue(mWoT.computeAllScoresWithoutCommit());
+	}
 
 	public void testExportIntroduction() throws MalformedURLException, InvalidParameterException, TransformerException {
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -0,0 +1,79 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import plugins.WebOfTrust.DatabaseBasedTest;
+import plugins.WebOfTrust.Identity;
+import plugins.WebOfTrust.OwnIdentity;
+import plugins.WebOfTrust.exceptions.NotInTrustTreeException;
+import plugins.WebOfTrust.exceptions.NotTrustedException;
+
+/**
+ * Tests whether {@link EligiblePuzzleInserters} matches the per-puzzle checks of the Score and Trust which
+ * {@link IntroductionClient#getPuzzles(OwnIdentity, IntroductionPuzzle.PuzzleType, int)} used to do, also after trust changes.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class EligiblePuzzleInsertersTest extends DatabaseBasedTest {
+
+	private ArrayList<OwnIdentity> mOwnIdentities;
+	private ArrayList<Identity> mIdentities;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		mOwnIdentities = addRandomOwnIdentities(3);
+		mIdentities = addRandomIdentities(10);
+	}
+
+	private void assertEligibleInsertersCorrect() throws Exception {
+		for(OwnIdentity user : mOwnIdentities) {
+			user = mWoT.getOwnIdentityByID(user.getID());
+			final HashSet<String> expected = new HashSet<String>();
+
+			for(Identity inserter : mWoT.getAllIdentities()) {
+				try {
+					if(mWoT.getScore(user, inserter).getScore() < IntroductionClient.MINIMUM_SCORE_FOR_PUZZLE_DOWNLOAD)
+						continue;
+				} catch(NotInTrustTreeException e) {
+					continue;
+				}
+
+				try {
+					mWoT.getTrust(inserter, user);
+				} catch(NotTrustedException e) {
+					expected.add(inserter.getID());
+				}
+			}
+
+			synchronized(mWoT) {
+				assertEquals(expected, mWoT.getEligiblePuzzleInserters().get(user));
+			}
+		}
+	}
+
+	public void testTrustChanges() throws Exception {
+		assertEligibleInsertersCorrect();
+
+		for(int i = 0; i < 50; ++i) {
+			final OwnIdentity truster = mOwnIdentities.get(mRandom.nextInt(mOwnIdentities.size()));
+			final Identity trustee = mRandom.nextBoolean() ? mIdentities.get(mRandom.nextInt(mIdentities.size()))
+					: mOwnIdentities.get(mRandom.nextInt(mOwnIdentities.size()));
+
+			if(truster.getID().equals(trustee.getID()))
+				continue;
+
+			if(mRandom.nextInt(4) == 0)
+				mWoT.removeTrust(truster.getID(), trustee.getID());
+			else
+				mWoT.setTrust(truster.getID(), trustee.getID(), (byte)(mRandom.nextInt(201) - 100), "");
+
+			assertEligibleInsertersCorrect();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import plugins.WebOfTrust.DatabaseBasedTest;
+import plugins.WebOfTrust.OwnIdentity;
+import plugins.WebOfTrust.introduction.IntroductionPuzzle.PuzzleType;
+import plugins.WebOfTrust.introduction.IntroductionPuzzleFactory.RenderedPuzzle;
+import plugins.WebOfTrust.introduction.captcha.CaptchaFactory1;
+import freenet.support.PooledExecutor;
+
+/**
+ * Tests whether puzzles which were rendered by the workers of the {@link IntroductionPuzzlePool} can be stored
+ * with consecutive indexes.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class IntroductionPuzzlePoolTest extends DatabaseBasedTest {
+
+	private IntroductionPuzzlePool mPool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final PooledExecutor executor = new PooledExecutor();
+		executor.start();
+		mPool = new IntroductionPuzzlePool(executor, new IntroductionPuzzleFactory[] { new CaptchaFactory1() },
+			new Random(mRandom.nextLong()));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mPool.terminate();
+		super.tearDown();
+	}
+
+	public void testTakeWithoutWorkers() throws Exception {
+		mPool.terminate(); // Prevents take() from starting the workers
+
+		final RenderedPuzzle puzzle = mPool.take();
+		assertEquals(PuzzleType.Captcha, puzzle.mType);
+		assertEquals("image/jpeg", puzzle.mMimeType);
+		assertTrue(puzzle.mData.length > 0);
+		assertNotNull(puzzle.mSolution);
+		assertEquals(1, mPool.getGeneratedCount());
+		assertEquals(0, mPool.size());
+	}
+
+	public void testLazyStart() throws Exception {
+		Thread.sleep(100);
+		assertEquals(0, mPool.getGeneratedCount());
+
+		mPool.take();
+		while(mPool.size() == 0)
+			Thread.sleep(10);
+	}
+
+	public void testTerminateDoesNotWait() throws Exception {
+		mPool.start();
+		while(mPool.getGeneratedCount() == 0)
+			Thread.sleep(10);
+
+		final long startTime = System.currentTimeMillis();
+		mPool.terminate();
+		assertTrue(System.currentTimeMillis() - startTime < 1000);
+		assertEquals(0, mPool.size());
+	}
+
+	/**
+	 * The workers must not occupy the threads of the executor while the pool is full.
+	 */
+	public void testWorkersExitWhenFull() throws Exception {
+		mPool.start();
+		while(mPool.size() < IntroductionPuzzlePool.CAPACITY || mPool.getRunningWorkerCount() > 0)
+			Thread.sleep(10);
+
+		mPool.take(); // Must start the workers again
+		while(mPool.size() < IntroductionPuzzlePool.CAPACITY || mPool.getRunningWorkerCount() > 0)
+			Thread.sleep(10);
+	}
+
+	public void testStore() throws Exception {
+		final OwnIdentity identity = addRandomOwnIdentities(1).get(0);
+		final IntroductionPuzzleStore store = mWoT.getIntroductionPuzzleStore();
+
+		mPool.start();
+		while(mPool.size() < IntroductionPuzzlePool.CAPACITY)
+			Thread.sleep(10);
+
+		final HashSet<Integer> indexes = new HashSet<Integer>();
+		for(int i = 0; i < IntroductionPuzzlePool.CAPACITY; ++i)
+			assertTrue(indexes.add(IntroductionPuzzleFactory.storePuzzle(store, identity, mPool.take()).getIndex()));
+
+		assertEquals(IntroductionPuzzlePool.CAPACITY, store.getOfTodayByInserter(identity).size());
+		assertTrue(mPool.getGeneratedCount() >= IntroductionPuzzlePool.CAPACITY);
+		assertTrue(mPool.getAverageGenerationTime() > 0);
+	}
+
+}
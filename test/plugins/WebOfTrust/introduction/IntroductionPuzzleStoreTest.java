@@ -505,7 +505,7 @@ public final class IntroductionPuzzleStoreTest extends DatabaseBasedTest {
 		}
 	}
 
-	public void testGetUnsolvedPuzzles() throws IOException {
+	public void testGetUnsolvedPuzzles() throws IOException, UnknownIdentityException {
 		final List<IntroductionPuzzle> unsolvedPuzzles = new ArrayList<IntroductionPuzzle>();
 		
 		for(OwnIdentity ownId : mOwnIdentities.subList(1, mOwnIdentities.size())) {
@@ -529,6 +529,14 @@ public final class IntroductionPuzzleStoreTest extends DatabaseBasedTest {
 
 		// TODO: As soon as we have more puzzle types, test them here
 		assertEquals(new HashSet<IntroductionPuzzle>(unsolvedPuzzles), new HashSet<IntroductionPuzzle>(mPuzzleStore.getUnsolvedPuzzles(PuzzleType.Captcha)));
+		
+		for(IntroductionPuzzle p : unsolvedPuzzles) {
+			final Identity inserter = mWoT.getIdentityByID(p.getInserter().getID());
+			final List<IntroductionPuzzle> puzzlesOfInserter = new ArrayList<IntroductionPuzzle>();
+			for(IntroductionPuzzle puzzle : mPuzzleStore.getUnsolvedPuzzles(inserter, PuzzleType.Captcha))
+				puzzlesOfInserter.add(puzzle);
+			assertEquals(Collections.singletonList(p), puzzlesOfInserter);
+		}
 	}
 
 	public void testGetUninsertedSolvedPuzzles() throws IOException {
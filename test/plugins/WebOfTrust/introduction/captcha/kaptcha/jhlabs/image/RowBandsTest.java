@@ -0,0 +1,138 @@
+/* This code is part of WoT, a plugin for Freenet. It is distributed
+ * under the GNU General Public License, version 2 (or at your option
+ * any later version). See http://www.gnu.org/ for details of the GPL. */
+package plugins.WebOfTrust.introduction.captcha.kaptcha.jhlabs.image;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import freenet.support.PooledExecutor;
+
+/**
+ * Tests whether the filters of the captchas produce the same pixels with the parallel mode of {@link RowBands} as without it,
+ * and when their buffers are recycled by the {@link PixelBufferPool}.
+ *
+ * @author xor (xor@freenetproject.org)
+ */
+public final class RowBandsTest extends TestCase {
+
+	/** The size of the captchas of DefaultKaptcha */
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 50;
+
+	private static final long SEED = 1234;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final PooledExecutor executor = new PooledExecutor();
+		executor.start();
+		RowBands.setExecutor(executor);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		RowBands.setThreads(1);
+		RowBands.setExecutor(null);
+		super.tearDown();
+	}
+
+	private static BufferedImage getRandomImage(Random random) {
+		final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		for(int y = 0; y < HEIGHT; ++y) {
+			for(int x = 0; x < WIDTH; ++x) {
+				// Mostly transparent like the text image of a captcha
+				image.setRGB(x, y, random.nextInt(4) == 0 ? random.nextInt() : 0);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Applies the filters of WaterRipple and ShadowGimpy and other filters with the given random generator.
+	 * @return The pixels of all resulting images.
+	 */
+	private static int[][] filter(Random random) {
+		final BufferedImage image = getRandomImage(random);
+
+		final WaterFilter waterFilter = new WaterFilter();
+		waterFilter.setAmplitude(1.5f);
+		waterFilter.setPhase(10);
+		waterFilter.setWavelength(2);
+
+		final RippleFilter rippleFilter = new RippleFilter();
+		rippleFilter.setWaveType(RippleFilter.SINE);
+		rippleFilter.setXAmplitude(7.6f);
+		rippleFilter.setYAmplitude(random.nextFloat() + 1.0f);
+		rippleFilter.setXWavelength(random.nextInt(7) + 8);
+		rippleFilter.setYWavelength(random.nextInt(3) + 2);
+
+		final RippleFilter nearestNeighbourFilter = new RippleFilter();
+		nearestNeighbourFilter.setWaveType(RippleFilter.TRIANGLE);
+		nearestNeighbourFilter.setInterpolation(TransformFilter.NEAREST_NEIGHBOUR);
+		nearestNeighbourFilter.setEdgeAction(TransformFilter.WRAP);
+
+		final ShadowFilter shadowFilter = new ShadowFilter();
+		shadowFilter.setRadius(10);
+		shadowFilter.setDistance(5);
+		shadowFilter.setOpacity(1);
+
+		final BufferedImage[] results = new BufferedImage[] {
+			rippleFilter.filter(waterFilter.filter(image, null), null),
+			shadowFilter.filter(rippleFilter.filter(image, null), null),
+			nearestNeighbourFilter.filter(image, null),
+			new GaussianFilter(3).filter(image, null),
+			new BoxBlurFilter(2.5f, 1.5f, 2).filter(image, null)
+		};
+
+		final int[][] pixels = new int[results.length][];
+		for(int i = 0; i < results.length; ++i) {
+			final BufferedImage result = results[i];
+			pixels[i] = result.getRGB(0, 0, result.getWidth(), result.getHeight(), null, 0, result.getWidth());
+		}
+		return pixels;
+	}
+
+	private static void assertPixelsEqual(int[][] expected, int[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for(int i = 0; i < expected.length; ++i) {
+			assertEquals(expected[i].length, actual[i].length);
+			for(int j = 0; j < expected[i].length; ++j)
+				assertEquals("Filter " + i + ", pixel " + j, expected[i][j], actual[i][j]);
+		}
+	}
+
+	public void testParallelOutputIdentical() {
+		RowBands.setThreads(1);
+		final int[][] sequential = filter(new Random(SEED));
+
+		// The second run uses the buffers of the first one from the PixelBufferPool
+		assertPixelsEqual(sequential, filter(new Random(SEED)));
+
+		for(int threads = 2; threads <= 5; ++threads) {
+			RowBands.setThreads(threads);
+			assertPixelsEqual(sequential, filter(new Random(SEED)));
+		}
+	}
+
+	public void testRowsCovered() {
+		for(int threads = 1; threads <= 5; ++threads) {
+			RowBands.setThreads(threads);
+
+			for(int rows = 0; rows <= 3 * RowBands.MIN_ROWS_PER_BAND * threads; ++rows) {
+				final int[] processed = new int[rows];
+				RowBands.run(rows, new RowBands.Band() {
+					public void run(int firstRow, int endRow) {
+						for(int row = firstRow; row < endRow; ++row)
+							++processed[row];
+					}
+				});
+
+				for(int row = 0; row < rows; ++row)
+					assertEquals(1, processed[row]);
+			}
+		}
+	}
+
+}